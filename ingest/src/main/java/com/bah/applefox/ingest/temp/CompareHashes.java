@@ -16,8 +16,14 @@
  */
 package com.bah.applefox.ingest.temp;
 
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
 public class CompareHashes {
 
+	public static int hashDifference(ImageHash h1, ImageHash h2) {
+		return h1.distance(h2);
+	}
+
 	public static int stringDifference(String s1, String s2) {
 		int difference = 0;
 		int len = (s1.length() > s2.length()) ? s2.length() : s1.length();
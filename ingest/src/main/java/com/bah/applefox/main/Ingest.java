@@ -30,11 +30,16 @@ import org.apache.accumulo.core.util.CachedConfiguration;
 import org.apache.hadoop.util.ToolRunner;
 
 import com.bah.applefox.main.plugins.fulltextindex.FTAccumuloSampler;
+import com.bah.applefox.main.plugins.fulltextindex.FTLoader;
+import com.bah.applefox.main.plugins.fulltextindex.FTMRSampler;
+import com.bah.applefox.main.plugins.fulltextindex.FTMigrator;
 import com.bah.applefox.main.plugins.imageindex.ImageAccumuloSampler;
 import com.bah.applefox.main.plugins.imageindex.ImageLoader;
+import com.bah.applefox.main.plugins.imageindex.ImageMigrator;
 import com.bah.applefox.main.plugins.pageranking.PageRank;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.utilities.IngesterModule;
+import com.bah.bahdit.main.plugins.imageindex.utils.HashBands;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.sun.org.apache.commons.logging.Log;
@@ -56,8 +61,13 @@ public class Ingest {
 			SEED, FT_CHECKED_TABLE, SPLIT_SIZE, WORK_DIR, PR_TABLE_PREFIX,
 			PR_URL_MAP_TABLE_PREFIX, PR_OUT_LINKS_COUNT_TABLE, PR_FILE,
 			IMG_HASH_TABLE, IMG_CHECKED_TABLE, IMG_TAG_TABLE,
-			IMG_HASH_SAMPLE_TABLE, IMG_TAG_SAMPLE_TABLE, FT_DIVS_FILE,
-			FT_SPLIT_SIZE, IMG_SPLIT_SIZE, URL_SPLIT_SIZE, PR_SPLIT_SIZE;
+			IMG_HASH_SAMPLE_TABLE, IMG_TAG_SAMPLE_TABLE, IMG_BAND_TABLE,
+			IMG_HASH_BANDS, IMG_THREADS, IMG_TIMEOUT, IMG_MAX_BYTES,
+			IMG_MEMO_TABLE, IMG_MEMO_SIZE, FT_DIVS_FILE, FT_SPLIT_SIZE,
+			IMG_SPLIT_SIZE, URL_SPLIT_SIZE, PR_SPLIT_SIZE, FT_LAYOUT,
+			FT_STATS_TABLE, PR_MODE, PR_THRESHOLD, PR_THREADS, PR_WARM_START,
+			CRAWL_THREADS, CRAWL_MAX_CONNECTIONS, CRAWL_CONNECT_TIMEOUT,
+			CRAWL_READ_TIMEOUT, CRAWL_DELAY, ROBOTS_TABLE;
 
 	// Integers to take in from the configuration file
 	private static int MAX_NGRAMS, NUM_ITERATIONS, NUM_NODES, PR_ITERATIONS;
@@ -81,8 +91,16 @@ public class Ingest {
 			System.out.println("\tingest: Ingests URLs from given seed");
 			System.out
 					.println("\tftsample: Creates a Full Text Index Sample HashMap");
+			System.out
+					.println("\tftsampleupdate: Rewrites the Full Text Index Sample from the stats table");
 			System.out
 					.println("\timagesample: Creates an Image Hash and Image Tag Sample HashMap");
+			System.out
+					.println("\tftmigrate: Rewrites the Full Text Data Table in the binary value format");
+			System.out
+					.println("\timagebands: Indexes the bands of the images already loaded");
+			System.out
+					.println("\timagemigrate: Rewrites the Image Hash and Tag Tables with 8 byte hashes");
 		}
 		if (args.length > 2) {
 			System.out.println("2 Arguments expected, " + args.length
@@ -100,8 +118,16 @@ public class Ingest {
 			System.out.println("\tingest: Ingests URLs from given seed");
 			System.out
 					.println("\tftsample: Creates a Full Text Index Sample HashMap");
+			System.out
+					.println("\tftsampleupdate: Rewrites the Full Text Index Sample from the stats table");
 			System.out
 					.println("\timagesample: Creates an Image Hash and Image Tag Sample HashMap");
+			System.out
+					.println("\tftmigrate: Rewrites the Full Text Data Table in the binary value format");
+			System.out
+					.println("\timagebands: Indexes the bands of the images already loaded");
+			System.out
+					.println("\timagemigrate: Rewrites the Image Hash and Tag Tables with 8 byte hashes");
 		}
 		injector = Guice.createInjector(new IngesterModule());
 
@@ -140,12 +166,24 @@ public class Ingest {
 		FT_CHECKED_TABLE = properties.getProperty("FT_CHECKED_TABLE");
 		FT_DIVS_FILE = properties.getProperty("FT_DIVS_FILE");
 		FT_SPLIT_SIZE = properties.getProperty("FT_SPLIT_SIZE");
+		FT_LAYOUT = properties.getProperty("FT_LAYOUT",
+				FTLoader.LAYOUT_PAIRS);
+		FT_STATS_TABLE = properties.getProperty("FT_STATS_TABLE", "").trim();
 
 		// Web Crawler Variables
 		URL_TABLE = properties.getProperty("URL_TABLE");
 		SEED = properties.getProperty("SEED");
 		USER_AGENT = properties.getProperty("USER_AGENT");
 		URL_SPLIT_SIZE = properties.getProperty("URL_SPLIT_SIZE");
+		CRAWL_THREADS = properties.getProperty("CRAWL_THREADS", "20").trim();
+		CRAWL_MAX_CONNECTIONS = properties.getProperty(
+				"CRAWL_MAX_CONNECTIONS", "10").trim();
+		CRAWL_CONNECT_TIMEOUT = properties.getProperty(
+				"CRAWL_CONNECT_TIMEOUT", "5000").trim();
+		CRAWL_READ_TIMEOUT = properties.getProperty("CRAWL_READ_TIMEOUT",
+				"10000").trim();
+		CRAWL_DELAY = properties.getProperty("CRAWL_DELAY", "1000").trim();
+		ROBOTS_TABLE = properties.getProperty("ROBOTS_TABLE", "").trim();
 
 		// Page Rank Variables
 		PR_TABLE_PREFIX = properties.getProperty("PR_TABLE_PREFIX");
@@ -159,6 +197,12 @@ public class Ingest {
 		PR_ITERATIONS = Integer.parseInt(properties
 				.getProperty("PR_ITERATIONS"));
 		PR_SPLIT_SIZE = properties.getProperty("PR_SPLIT_SIZE");
+		PR_MODE = properties.getProperty("PR_MODE", PageRank.MODE_MAPREDUCE)
+				.trim();
+		PR_THRESHOLD = properties.getProperty("PR_THRESHOLD", "0").trim();
+		PR_THREADS = properties.getProperty("PR_THREADS", "4").trim();
+		PR_WARM_START = properties.getProperty("PR_WARM_START", "false")
+				.trim();
 
 		// Image Variables
 		IMG_HASH_TABLE = properties.getProperty("IMG_HASH_TABLE");
@@ -167,6 +211,16 @@ public class Ingest {
 		IMG_HASH_SAMPLE_TABLE = properties.getProperty("IMG_HASH_SAMPLE_TABLE");
 		IMG_TAG_SAMPLE_TABLE = properties.getProperty("IMG_TAG_SAMPLE_TABLE");
 		IMG_SPLIT_SIZE = properties.getProperty("IMG_SPLIT_SIZE");
+		IMG_BAND_TABLE = properties.getProperty("IMG_BAND_TABLE", "").trim();
+		IMG_HASH_BANDS = properties.getProperty("IMG_HASH_BANDS",
+				String.valueOf(HashBands.DEFAULT_BANDS)).trim();
+		IMG_THREADS = properties.getProperty("IMG_THREADS", "10").trim();
+		IMG_TIMEOUT = properties.getProperty("IMG_TIMEOUT", "30000").trim();
+		IMG_MAX_BYTES = properties.getProperty("IMG_MAX_BYTES", "5242880")
+				.trim();
+		IMG_MEMO_TABLE = properties.getProperty("IMG_MEMO_TABLE", "").trim();
+		IMG_MEMO_SIZE = properties.getProperty("IMG_MEMO_SIZE", "10000")
+				.trim();
 
 		// Future Use:
 		// Work Directory in HDFS
@@ -182,7 +236,7 @@ public class Ingest {
 		AccumuloUtils.setZooserver(ZK_SERVERS);
 		AccumuloUtils.setSplitSize(SPLIT_SIZE);
 
-		String[] temp = new String[25];
+		String[] temp = new String[43];
 
 		// Accumulo Variables
 		temp[0] = INSTANCE_NAME;
@@ -228,9 +282,45 @@ public class Ingest {
 		temp[23] = URL_SPLIT_SIZE;
 		temp[24] = PR_SPLIT_SIZE;
 
+		// Full Text Data Table layout
+		temp[25] = FT_LAYOUT;
+
+		// Stats table for document frequencies and page ranks
+		temp[26] = FT_STATS_TABLE;
+
+		// Web Crawler fetching
+		temp[27] = CRAWL_THREADS;
+		temp[28] = CRAWL_MAX_CONNECTIONS;
+		temp[29] = CRAWL_CONNECT_TIMEOUT;
+		temp[30] = CRAWL_READ_TIMEOUT;
+		temp[31] = CRAWL_DELAY;
+
+		// Table the robots.txt files are cached in
+		temp[32] = ROBOTS_TABLE;
+
+		// Page rank convergence, local threads and warm start
+		temp[33] = PR_THRESHOLD;
+		temp[34] = PR_THREADS;
+		temp[35] = PR_WARM_START;
+
+		// Band index of the image hashes, for similar image search
+		temp[36] = IMG_BAND_TABLE;
+		temp[37] = IMG_HASH_BANDS;
+
+		// Image fetching
+		temp[38] = IMG_THREADS;
+		temp[39] = IMG_TIMEOUT;
+		temp[40] = IMG_MAX_BYTES;
+
+		// Memo of the image hashes fetched
+		temp[41] = IMG_MEMO_TABLE;
+		temp[42] = IMG_MEMO_SIZE;
+
 		if (RUN.equals("pr")) {
-			// Run PR_ITERATIONS number of iterations for page ranking
-			PageRank.createPageRank(temp, PR_ITERATIONS, URL_SPLIT_SIZE);
+			// Run PR_ITERATIONS number of iterations for page ranking (at most,
+			// in the graph and local modes)
+			PageRank.createPageRank(temp, PR_ITERATIONS, URL_SPLIT_SIZE,
+					PR_MODE);
 		} else if (RUN.equals("imageload")) {
 			// Load image index
 			AccumuloUtils.setSplitSize(URL_SPLIT_SIZE);
@@ -263,23 +353,58 @@ public class Ingest {
 			AccumuloUtils.setSplitSize(FT_SPLIT_SIZE);
 			w = AccumuloUtils.connectBatchWrite(FT_DATA_TABLE);
 			w.close();
+			if (FT_LAYOUT.equals(FTLoader.LAYOUT_POSTINGS)) {
+				w = AccumuloUtils.connectBatchWrite(FT_DATA_TABLE
+						+ FTLoader.VECTOR_TABLE_SUFFIX);
+				w.close();
+			}
 			ToolRunner.run(CachedConfiguration.getInstance(),
 					injector.getInstance(Loader.class), temp);
 		} else if (RUN.equals("ftsample")) {
 			// Create a sample table for full text index
-			FTAccumuloSampler ftSampler = new FTAccumuloSampler(FT_SAMPLE,
-					FT_DATA_TABLE, FT_CHECKED_TABLE);
-			ftSampler.createSample();
-
+			if (FT_STATS_TABLE.equals("")) {
+				FTAccumuloSampler ftSampler = new FTAccumuloSampler(FT_SAMPLE,
+						FT_DATA_TABLE, FT_CHECKED_TABLE);
+				ftSampler.createSample();
+			} else {
+				// Count the document frequencies in parallel
+				ToolRunner.run(CachedConfiguration.getInstance(),
+						new FTMRSampler(FT_SAMPLE), temp);
+			}
+		} else if (RUN.equals("ftsampleupdate")) {
+			// Rewrite the sample file from the counts kept by load
+			if (FT_STATS_TABLE.equals("")) {
+				System.out.println("ftsampleupdate needs an FT_STATS_TABLE");
+			} else {
+				FTMRSampler.writeSampleFile(FT_STATS_TABLE, FT_SAMPLE);
+			}
 		} else if (RUN.equals("imagesample")) {
 			// Create a sample table for images
 			ImageAccumuloSampler imgHashSampler = new ImageAccumuloSampler(
-					IMG_HASH_SAMPLE_TABLE, IMG_HASH_TABLE, IMG_CHECKED_TABLE);
+					IMG_HASH_SAMPLE_TABLE, IMG_HASH_TABLE, IMG_CHECKED_TABLE,
+					true);
 			imgHashSampler.createSample();
 
 			ImageAccumuloSampler imgTagSampler = new ImageAccumuloSampler(
 					IMG_TAG_SAMPLE_TABLE, IMG_TAG_TABLE, IMG_CHECKED_TABLE);
 			imgTagSampler.createSample();
+		} else if (RUN.equals("imagebands")) {
+			// Index the bands of the image hashes loaded before the band
+			// table was configured
+			if (IMG_BAND_TABLE.equals("")) {
+				System.out.println("imagebands needs an IMG_BAND_TABLE");
+			} else {
+				ImageLoader.writeBands(IMG_HASH_TABLE, IMG_BAND_TABLE,
+						Integer.parseInt(IMG_HASH_BANDS));
+			}
+		} else if (RUN.equals("imagemigrate")) {
+			// Rewrite the hashes of the image tables
+			ToolRunner.run(CachedConfiguration.getInstance(),
+					new ImageMigrator(), temp);
+		} else if (RUN.equals("ftmigrate")) {
+			// Rewrite the values of the full text data table
+			ToolRunner.run(CachedConfiguration.getInstance(),
+					new FTMigrator(), temp);
 		} else {
 			System.out.println("Invalid argument " + RUN + ".");
 			System.out.println("Valid Arguments:");
@@ -289,8 +414,16 @@ public class Ingest {
 			System.out.println("\tingest: Ingests URLs from given seed");
 			System.out
 					.println("\tftsample: Creates a Full Text Index Sample HashMap");
+			System.out
+					.println("\tftsampleupdate: Rewrites the Full Text Index Sample from the stats table");
 			System.out
 					.println("\timagesample: Creates an Image Hash and Image Tag Sample HashMap");
+			System.out
+					.println("\tftmigrate: Rewrites the Full Text Data Table in the binary value format");
+			System.out
+					.println("\timagebands: Indexes the bands of the images already loaded");
+			System.out
+					.println("\timagemigrate: Rewrites the Image Hash and Tag Tables with 8 byte hashes");
 		}
 
 	}
@@ -20,8 +20,6 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,6 +29,7 @@ import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
@@ -39,13 +38,15 @@ import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.utilities.IngestUtils;
 import com.bah.applefox.main.plugins.utilities.SamplerCreator;
 import com.bah.applefox.main.plugins.utilities.TotalDocFinder;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
 import com.sun.org.apache.commons.logging.Log;
 import com.sun.org.apache.commons.logging.LogFactory;
 
 /**
  * This is the class used to create the sample table for the full text index.
  * The sample table contains all of the words found in the index, and the number
- * of times they occur as an integer value.
+ * of times they occur as an integer value, and is written to a file as a
+ * TermDictionary so the search engine can memory map it.
  * 
  */
 public class FTAccumuloSampler {
@@ -138,9 +139,8 @@ public class FTAccumuloSampler {
 
 			// use buffering
 			OutputStream file = new FileOutputStream(f);
-			OutputStream buffer = new BufferedOutputStream(file);
-			ObjectOutput out = new ObjectOutputStream(buffer);
-			out.writeObject(output);
+			OutputStream out = new BufferedOutputStream(file);
+			TermDictionary.write(output, TermDictionary.INT_VALUES, out);
 			out.flush();
 			out.close();
 		} catch (AccumuloException e) {
@@ -155,6 +155,12 @@ public class FTAccumuloSampler {
 			} else {
 				log.error(e.getStackTrace());
 			}
+		} catch (TableExistsException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
 		} catch (TableNotFoundException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
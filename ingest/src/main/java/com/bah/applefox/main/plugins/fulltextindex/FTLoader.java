@@ -18,18 +18,20 @@ package com.bah.applefox.main.plugins.fulltextindex;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.Collections;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +41,7 @@ import java.util.regex.Pattern;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
@@ -57,6 +60,7 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
@@ -70,25 +74,72 @@ import com.bah.applefox.main.Loader;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.utilities.DivsFilter;
 import com.bah.applefox.main.plugins.utilities.IngestUtils;
-import com.bah.applefox.main.plugins.webcrawler.utilities.PageCrawlException;
-import com.bah.applefox.main.plugins.webcrawler.utilities.WebPageCrawl;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermStatistics;
 
 /**
  * A MapReduce job that loads the NGrams from the pages indicated by the URLs in
  * the URLs table into the Data Table. The data contained follows the format:
  * Row ID: word + timestamp | Column Family: parent URL | Column Qualifier:
  * another word on the page | timestamp | Value: number of times the word occurs
- * on the page
+ * on the page and number of words on the page (see CellCodec)
+ * 
+ * When FT_LAYOUT is set to "postings", each word row only holds the posting
+ * for its own word (Column Qualifier: the word | Value: number of times the
+ * word occurs and document length) and the whole term vector of the page is
+ * written once to the row of its URL in the Data Table + "Vectors". This
+ * layout is experimental: search ranks its pages without a DocumentRanker, so
+ * every page containing the rarest query term is sent back to the client.
+ * 
+ * When FT_STATS_TABLE is set, each page loaded also adds one to the document
+ * frequency of each of its words and to the total number of documents in the
+ * stats table, whose SummingCombiner adds them up, so search sees the new
+ * pages without running ftsample. These counts are put in the column of the
+ * period the entries of the page are put in, so a full ftsample, which counts
+ * the entries put before the start of a period, replaces exactly the counts
+ * of the periods before it (see TermStatistics.FrequencyCounter).
+ * 
+ * Adding one is not idempotent, so the job runs without speculative
+ * execution, which would load a page in two attempts at once. A task that
+ * fails after flushing the counts of a page, but before marking it as
+ * checked, still loads the page again when it is retried, and the page is
+ * counted twice until the next ftsample.
  * 
  */
 public class FTLoader extends Loader {
-	private static String dTable, urlCheckedTable, articleFile, divsFile;
+	// The storage layouts for the Data Table
+	public static final String LAYOUT_PAIRS = "pairs";
+	public static final String LAYOUT_POSTINGS = "postings";
+
+	// Suffix of the table holding one term vector per page (postings layout)
+	public static final String VECTOR_TABLE_SUFFIX = "Vectors";
+
+	private static String dTable, urlCheckedTable, articleFile, divsFile,
+			layout, statsTable;
 	private static int maxNGrams;
 	private static long longSuffix;
 	private static HashSet<String> stopWords;
 	private static Log log = LogFactory.getLog(FTLoader.class);
 	private static HashSet<String> exDivs;
 
+	// Number of loaded URLs to mark as checked at once
+	private static final int CHECKED_BATCH_SIZE = 100;
+
+	// Buffer holding the page being loaded, reused for every page of a task
+	private static final PageBuffer pageBuffer = new PageBuffer(64 * 1024);
+
+	// Matches the character set in the content type of a page
+	private static final Pattern CHARSET = Pattern
+			.compile("charset=\"?([^\\s;\"]+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Counters of the pages loaded, and of the time (in milliseconds) spent in
+	 * each stage of loading them
+	 */
+	public static enum LOAD_COUNTER {
+		PAGES_LOADED, PAGES_FAILED, BYTES_FETCHED, FETCH_MILLIS, FILTER_MILLIS, PARSE_MILLIS, WRITE_MILLIS
+	};
+
 	/**
 	 * MapperClass extends the Mapper class. It performs the map functionality
 	 * of MapReduce.
@@ -168,6 +219,9 @@ public class FTLoader extends Loader {
 	 * 
 	 */
 	public static class ReducerClass extends Reducer<Key, Value, Key, Value> {
+		// URLs whose data has been written but not yet marked as checked
+		private ArrayList<String> loaded = new ArrayList<String>();
+
 		public void reduce(Key key, Iterable<Value> values, Context context)
 				throws IOException, InterruptedException {
 
@@ -177,15 +231,14 @@ public class FTLoader extends Loader {
 				longSuffix = new Date().getTime();
 
 				// Add the data to the table with this method
-				if (addToDataBaseTable(key.getRow().toString())) {
-
-					// Write off the url as having been checked
-					BatchWriter w = AccumuloUtils
-							.connectBatchWrite(urlCheckedTable);
-					Mutation m = new Mutation(key.getRow().toString());
-					m.put("0", "0", new Value("0".getBytes()));
-					w.addMutation(m);
-					w.close();
+				if (addToDataBaseTable(key.getRow().toString(), context)) {
+
+					// Write off the url as having been checked once its data
+					// has been flushed
+					loaded.add(key.getRow().toString());
+					if (loaded.size() >= CHECKED_BATCH_SIZE) {
+						markChecked();
+					}
 				}
 			} catch (AccumuloException e) {
 				if (e.getMessage() != null) {
@@ -220,6 +273,64 @@ public class FTLoader extends Loader {
 			}
 		}
 
+		/**
+		 * Marks the remaining URLs as checked and flushes the shared writers
+		 */
+		@Override
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			try {
+				markChecked();
+				AccumuloUtils.flushBatchWriters();
+			} catch (AccumuloException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (AccumuloSecurityException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (TableNotFoundException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (TableExistsException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			}
+			log.info(AccumuloUtils.getStatistics());
+		}
+
+		/**
+		 * Flushes the data written so far, then marks the loaded URLs as
+		 * checked, so that a URL is never marked before its data is stored
+		 */
+		private void markChecked() throws AccumuloException,
+				AccumuloSecurityException, TableNotFoundException,
+				TableExistsException {
+			if (loaded.isEmpty()) {
+				return;
+			}
+			AccumuloUtils.flushBatchWriters();
+
+			BatchWriter w = AccumuloUtils.getBatchWriter(urlCheckedTable);
+			for (String url : loaded) {
+				Mutation m = new Mutation(url);
+				m.put("0", "0", new Value("0".getBytes()));
+				w.addMutation(m);
+			}
+			loaded.clear();
+		}
+
 	}
 
 	/**
@@ -243,6 +354,14 @@ public class FTLoader extends Loader {
 			FTLoader.urlCheckedTable = args[11];
 			FTLoader.divsFile = args[20];
 			FTLoader.exDivs = getExDivs();
+			FTLoader.layout = args[25];
+			FTLoader.statsTable = args.length > 26 && args[26] != null ? args[26]
+					: "";
+
+			// Sum the document frequencies written as pages are loaded
+			if (!statsTable.equals("")) {
+				FTMRSampler.prepareStatsTable(statsTable);
+			}
 
 			// Give the job a name
 			String jobName = this.getClass().getSimpleName() + "_"
@@ -252,6 +371,12 @@ public class FTLoader extends Loader {
 			Job job = new Job(getConf(), jobName);
 			job.setJarByClass(this.getClass());
 
+			// Two attempts of a task would both add to the document counts
+			job.getConfiguration().setBoolean(
+					"mapred.map.tasks.speculative.execution", false);
+			job.getConfiguration().setBoolean(
+					"mapred.reduce.tasks.speculative.execution", false);
+
 			String urlTable = args[5];
 
 			job.setInputFormatClass(AccumuloInputFormat.class);
@@ -303,59 +428,64 @@ public class FTLoader extends Loader {
 
 	/**
 	 * This method is used to add all information parsed by tika into the
-	 * Accumulo table
+	 * Accumulo table. The page is fetched once into the page buffer, which
+	 * feeds the divs filter and a single tika parse that gives the text, the
+	 * title and the keywords of the page.
 	 * 
 	 * @param url
 	 *            - the URL of the page that has been parsed
-	 * @param tikaParsed
-	 *            - all of the engrams from the page
-	 * @throws TikaException
-	 * @throws SAXException
+	 * @param context
+	 *            - the context of the task, used for the load counters
+	 * @return true if the page was written to the data table
 	 */
-	private static boolean addToDataBaseTable(String url) {
+	private static boolean addToDataBaseTable(String url,
+			TaskInputOutputContext<?, ?, ?, ?> context) {
 		try {
-			// Connect to the data table
-			BatchWriter writer = AccumuloUtils.connectBatchWrite(dTable);
+			// Get the shared writer of the data table
+			BatchWriter writer = AccumuloUtils.getBatchWriter(dTable);
 
 			// Let the user know the url is being added
 			System.out.println("Adding " + url + " with prefix " + longSuffix);
 
-			// Get the input stream (in case it is not an html document
-			InputStream urlInput = new URL(url).openStream();
+			// Fetch the page once
+			long start = System.currentTimeMillis();
+			Metadata metadata = new Metadata();
+			String charset = fetchPage(new URL(url), metadata);
+			long fetched = System.currentTimeMillis();
+			context.getCounter(LOAD_COUNTER.FETCH_MILLIS).increment(
+					fetched - start);
+			context.getCounter(LOAD_COUNTER.BYTES_FETCHED).increment(
+					pageBuffer.size());
 
-			// Set the page contents (used for filtering if it is an html
-			// document)
-			String pageContents = getPageContents(new URL(url));
+			InputStream urlInput = pageBuffer.getInputStream();
 
 			// If the document is HTML
-			if (exDivs.size() != 0
-					&& pageContents.toLowerCase().contains("<html>")) {
-				// Filter out some divs (especially generic headers/footers,
-				// etc.)
-				pageContents = DivsFilter.filterDivs(pageContents, exDivs);
-				urlInput = new ByteArrayInputStream(pageContents.getBytes());
+			if (exDivs.size() != 0 && isFilterable(url)) {
+				String pageContents = pageBuffer.toString(charset);
+				if (pageContents.toLowerCase().contains("<html>")) {
+					// Filter out some divs (especially generic headers/footers,
+					// etc.)
+					pageContents = DivsFilter.filterDivs(pageContents, exDivs);
+					urlInput = new ByteArrayInputStream(
+							pageContents.getBytes(charset));
+				}
 			}
+			long filtered = System.currentTimeMillis();
+			context.getCounter(LOAD_COUNTER.FILTER_MILLIS).increment(
+					filtered - fetched);
 
 			// Parse with tika
 			Parser parser = new AutoDetectParser();
-			Metadata metadata = new Metadata();
-			ParseContext context = new ParseContext();
+			ParseContext parseContext = new ParseContext();
 			ContentHandler handler = new BodyContentHandler();
 
-			parser.parse(urlInput, handler, metadata, context);
+			parser.parse(urlInput, handler, metadata, parseContext);
 
-			// Get the keywords of the page and its title
+			// Get the keywords of the page and its title from the same parse
 			String keywords = metadata.get("keywords");
 			String title = metadata.get("title");
 			if (title == null) {
-				WebPageCrawl p;
-				try {
-					p = new WebPageCrawl(url, "", Collections.<String>emptySet());
-				} catch (PageCrawlException e) {
-					log.info(e);
-					return false;
-				}
-				title = p.getTitle();
+				title = "";
 			}
 
 			// If there are keywords, delimit the commas, otherwise make it a
@@ -391,6 +521,9 @@ public class FTLoader extends Loader {
 					finalParsed.put(i, tikaParsed.get(i));
 				}
 			}
+			long parsed = System.currentTimeMillis();
+			context.getCounter(LOAD_COUNTER.PARSE_MILLIS).increment(
+					parsed - filtered);
 
 			System.out.println("Tika Parsed: " + finalParsed.keySet().size());
 			System.out.println("Starting");
@@ -398,56 +531,62 @@ public class FTLoader extends Loader {
 
 			String namedURL = url + "[ ]" + title + "[ ]" + keywords;
 
-			for (String row : finalParsed.keySet()) {
-				row = row + " " + longSuffix;
-				for (String CQ : finalParsed.keySet()) {
-					String groupedVal = new String();
-					Integer wc = finalParsed.get(CQ);
-					double freq = wc.doubleValue() / totalWords.doubleValue();
-					groupedVal = wc + "," + freq;
-					Value val = new Value(IngestUtils.serialize(groupedVal));
-
-					Mutation m = new Mutation(row);
-					m.put(namedURL, CQ, new Date().getTime(), val);
-					writer.addMutation(m);
-					counter++;
+			// Every entry of the page is put at the same time
+			long timestamp = new Date().getTime();
+
+			if (LAYOUT_POSTINGS.equals(layout)) {
+				counter = addPostings(writer, url, namedURL, finalParsed,
+						totalWords, timestamp);
+			} else {
+				for (String row : finalParsed.keySet()) {
+					row = row + " " + longSuffix;
+					for (String CQ : finalParsed.keySet()) {
+						Integer wc = finalParsed.get(CQ);
+						Value val = new Value(CellCodec.encode(wc, totalWords));
+
+						Mutation m = new Mutation(row);
+						m.put(namedURL, CQ, timestamp, val);
+						writer.addMutation(m);
+						counter++;
+					}
+
 				}
+			}
 
+			if (!statsTable.equals("")) {
+				addDocFrequencies(finalParsed.keySet(), timestamp);
 			}
+			context.getCounter(LOAD_COUNTER.WRITE_MILLIS).increment(
+					System.currentTimeMillis() - parsed);
+			context.getCounter(LOAD_COUNTER.PAGES_LOADED).increment(1);
 
 			System.out.println("Wrote " + counter
 					+ " Key-Value pairs to Accumulo.");
-
-			writer.close();
-			System.out.println("Stopped writing");
+			return true;
 		} catch (AccumuloException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (AccumuloSecurityException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (TableNotFoundException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (TableExistsException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (MalformedURLException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
@@ -460,23 +599,98 @@ public class FTLoader extends Loader {
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (SAXException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		} catch (TikaException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
 			} else {
 				log.error(e.getStackTrace());
 			}
-			return false;
 		}
-		return true;
+		context.getCounter(LOAD_COUNTER.PAGES_FAILED).increment(1);
+		return false;
+	}
+
+	/**
+	 * Writes a page in the postings layout: one posting per word row and a
+	 * single term vector for the page, instead of one entry for every pair of
+	 * words on the page
+	 * 
+	 * @param writer
+	 *            - the writer for the data table
+	 * @param url
+	 *            - the URL of the page
+	 * @param namedURL
+	 *            - the URL, title and keywords of the page
+	 * @param finalParsed
+	 *            - the NGrams of the page and their counts
+	 * @param totalWords
+	 *            - the total number of words on the page
+	 * @param timestamp
+	 *            - the time the entries of the page are put at
+	 * @return the number of Key-Value pairs written
+	 */
+	private static int addPostings(BatchWriter writer, String url,
+			String namedURL, HashMap<String, Integer> finalParsed,
+			Integer totalWords, long timestamp)
+			throws MutationsRejectedException, AccumuloException,
+			AccumuloSecurityException, TableNotFoundException,
+			TableExistsException, IOException {
+		int counter = 0;
+
+		for (String term : finalParsed.keySet()) {
+			Integer wc = finalParsed.get(term);
+
+			Mutation m = new Mutation(term + " " + longSuffix);
+			m.put(namedURL, term, timestamp,
+					new Value(CellCodec.encode(wc, totalWords)));
+			writer.addMutation(m);
+			counter++;
+		}
+
+		// The term vector is fetched once per candidate page at search time,
+		// and read in place (see CellCodec)
+		BatchWriter vectorWriter = AccumuloUtils.getBatchWriter(dTable
+				+ VECTOR_TABLE_SUFFIX);
+		Mutation m = new Mutation(url);
+		m.put(namedURL, "", timestamp,
+				new Value(CellCodec.encodeTermVector(finalParsed, totalWords)));
+		vectorWriter.addMutation(m);
+		counter++;
+
+		return counter;
+	}
+
+	/**
+	 * Adds one to the document frequency of each word of a page and to the
+	 * total number of documents in the stats table. The shared writers are
+	 * flushed before the page is marked as checked, like its data.
+	 * 
+	 * @param terms
+	 *            - the NGrams of the page
+	 * @param timestamp
+	 *            - the time the entries of the page were put at
+	 */
+	private static void addDocFrequencies(Collection<String> terms,
+			long timestamp) throws MutationsRejectedException,
+			AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		BatchWriter statsWriter = AccumuloUtils.getBatchWriter(statsTable);
+		Value one = new Value("1".getBytes());
+		String period = TermStatistics.getPeriod(timestamp);
+		for (String term : terms) {
+			Mutation m = new Mutation(term);
+			m.put(FTMRSampler.DOC_FREQUENCY, period, timestamp, one);
+			statsWriter.addMutation(m);
+		}
+		Mutation m = new Mutation(FTMRSampler.TOTAL_DOCS);
+		m.put(FTMRSampler.DOC_FREQUENCY, period, timestamp, one);
+		statsWriter.addMutation(m);
 	}
 
 	/**
@@ -561,95 +775,98 @@ public class FTLoader extends Loader {
 		return divs;
 	}
 
-	/** This method is used to get the page source from the given URL
-	 * @param url - the url from which to get the contents
-	 * @return - the page contents
+	/**
+	 * Reads the page at the given URL into the page buffer, replacing its
+	 * previous contents
+	 * 
+	 * @param url
+	 *            - the url from which to get the contents
+	 * @param metadata
+	 *            - tika metadata, given the content type of the page as a hint
+	 * @return - the character set of the page
 	 */
-	private static String getPageContents(URL url) {
-
-		String pageContents = "";
-		try {
+	private static String fetchPage(URL url, Metadata metadata)
+			throws IOException {
+		pageBuffer.reset();
 
-			// Open the URL Connection
-			URLConnection con = url.openConnection();
+		// Open the URL Connection
+		URLConnection con = url.openConnection();
 
-			// Get the file path, and eliminate unreadable documents
-			String filePath = url.toString();
+		// Sets the connection timeout (in milliseconds)
+		con.setConnectTimeout(1000);
 
-			// Reads content only if it is a valid format
-
-			if (!(filePath.endsWith(".pdf") || filePath.endsWith(".doc")
-					|| filePath.endsWith(".jsp") || filePath.endsWith("rss") || filePath
-						.endsWith(".css"))) {
-				// Sets the connection timeout (in milliseconds)
-				con.setConnectTimeout(1000);
+		InputStream in = con.getInputStream();
+		try {
+			pageBuffer.readFrom(in);
+		} finally {
+			in.close();
+		}
 
-				// Tries to match the character set of the Web Page
-				String charset = "utf-8";
+		// Tries to match the character set of the Web Page
+		String contentType = con.getContentType();
+		String charset = "utf-8";
+		if (contentType != null) {
+			metadata.set(Metadata.CONTENT_TYPE, contentType);
+			Matcher m = CHARSET.matcher(contentType);
+			if (m.find()) {
 				try {
-					Matcher m = Pattern.compile("\\s+charset=([^\\s]+)\\s*")
-							.matcher(con.getContentType());
-					charset = m.matches() ? m.group(1) : "utf-8";
-				} catch (Exception e) {
-					log.error("Page had no specified charset");
+					if (Charset.isSupported(m.group(1))) {
+						charset = m.group(1);
+					}
+				} catch (IllegalCharsetNameException e) {
+					log.error("Page had an illegal charset " + m.group(1));
 				}
+			}
+		}
+		return charset;
+	}
 
-				// Reader derived from the URL Connection's input stream, with
-				// the
-				// given character set
-				Reader r = new InputStreamReader(con.getInputStream(), charset);
+	/**
+	 * Checks if the divs of a page can be filtered, eliminating documents that
+	 * are not readable as text
+	 * 
+	 * @param filePath
+	 *            - the url of the page
+	 * @return true if the page can be filtered
+	 */
+	private static boolean isFilterable(String filePath) {
+		return !(filePath.endsWith(".pdf") || filePath.endsWith(".doc")
+				|| filePath.endsWith(".jsp") || filePath.endsWith("rss") || filePath
+					.endsWith(".css"));
+	}
 
-				// String Buffer used to append each chunk of Web Page data
-				StringBuffer buf = new StringBuffer();
+	/**
+	 * A byte buffer that is reused for every page loaded by the task, and that
+	 * can be read from without copying its contents
+	 */
+	private static class PageBuffer extends ByteArrayOutputStream {
 
-				// Tries to get an estimate of bytes available
-				int BUFFER_SIZE = con.getInputStream().available();
+		PageBuffer(int size) {
+			super(size);
+		}
 
-				// If BUFFER_SIZE is too small, increases the size
-				if (BUFFER_SIZE <= 1000) {
-					BUFFER_SIZE = 1000;
+		/**
+		 * Reads the stream to its end into the buffer
+		 */
+		void readFrom(InputStream in) throws IOException {
+			int len;
+			while (true) {
+				if (count == buf.length) {
+					buf = Arrays.copyOf(buf, buf.length << 1);
 				}
-
-				// Character array to hold each chunk of Web Page data
-				char[] ch = new char[BUFFER_SIZE];
-
-				// Read the first chunk of Web Page data
-				int len = r.read(ch);
-
-				// Loops until end of the Web Page is reached
-				while (len != -1) {
-
-					// Appends the data chunk to the string buffer and gets the
-					// next chunk
-					buf.append(ch, 0, len);
-					len = r.read(ch, 0, BUFFER_SIZE);
+				len = in.read(buf, count, buf.length - count);
+				if (len == -1) {
+					break;
 				}
-
-				// Sets the pageContents to the newly created string
-				pageContents = buf.toString();
+				count += len;
 			}
-		} catch (UnsupportedEncodingException e) {
-			if (e.getMessage() != null) {
-				log.error(e.getMessage());
-			} else {
-				log.error(e.getStackTrace());
-			}
-
-			// Assume the body contents are blank if the character encoding is
-			// not supported
-			pageContents = "";
-		} catch (IOException e) {
-			if (e.getMessage() != null) {
-				log.error(e.getMessage());
-			} else {
-				log.error(e.getStackTrace());
-			}
-
-			// Assume the body contents are blank if the Web Page could not be
-			// accessed
-			pageContents = "";
 		}
 
-		return pageContents;
+		/**
+		 * @return a stream over the current contents of the buffer
+		 */
+		InputStream getInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
 	}
 }
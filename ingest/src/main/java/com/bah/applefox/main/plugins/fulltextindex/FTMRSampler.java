@@ -0,0 +1,449 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.fulltextindex;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
+import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
+import org.apache.accumulo.core.client.mapreduce.InputFormatBase;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Combiner;
+import org.apache.accumulo.core.iterators.LongCombiner;
+import org.apache.accumulo.core.iterators.user.SummingCombiner;
+import org.apache.accumulo.core.iterators.user.TimestampFilter;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.Tool;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.applefox.main.plugins.utilities.IngestUtils;
+import com.bah.applefox.main.plugins.utilities.SamplerCreator;
+import com.bah.applefox.main.plugins.utilities.TotalDocFinder;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermStatistics;
+
+/**
+ * A MapReduce job that counts the document frequency of each term of the Data
+ * Table in parallel, in place of the single client scan of FTAccumuloSampler.
+ * The SamplerCreator iterator counts the documents of each row on the tablet
+ * servers, the mappers and a combiner sum them by term, and the reducers write
+ * them to the stats table (Row: word | Column Family: dfbase | Timestamp: the
+ * start of the sample | Value: number of documents as a String). The total
+ * number of documents is counted from the checked table the same way, and the
+ * sample file is then written from the stats table, if one is configured.
+ * 
+ * FTLoader adds the pages it loads to the counts as it goes, in the df column
+ * of the period each page is put in, which is summed by a SummingCombiner.
+ * The sample only counts the entries put before the start of the current
+ * period, so the count of a term is the count of the sample plus the counts
+ * of the periods since (see TermStatistics.FrequencyCounter). A period never
+ * spans the start of a sample, so no page is counted twice, however the
+ * combiner merges the counts of a period. The counts of the periods before
+ * the sample are then deleted. The sample file only holds the counts as of
+ * when it was written (see writeSampleFile).
+ * 
+ * Once the counts are written, the stats epoch is bumped (see bumpEpoch).
+ * 
+ */
+public class FTMRSampler extends Configured implements Tool {
+
+	// The column family of the document frequencies in the stats table
+	public static final String DOC_FREQUENCY = "df";
+
+	// The row of the total number of documents
+	public static final String TOTAL_DOCS = "[[TOTAL NUM DOCS]]";
+
+	// The row and column family of the stats epoch, which search clears its
+	// caches on
+	public static final String EPOCH = "[[EPOCH]]";
+	public static final String EPOCH_FAMILY = "epoch";
+
+	// The name of the combiner summing the document frequencies
+	public static final String COMBINER_NAME = "dfsum";
+	private static final int COMBINER_PRIORITY = 10;
+
+	private static final String START = FTMRSampler.class.getName()
+			+ ".start";
+
+	private static Log log = LogFactory.getLog(FTMRSampler.class);
+
+	private String sampleFile;
+
+	/**
+	 * Counters of the rows read and terms written
+	 */
+	public static enum SAMPLE_COUNTER {
+		ROWS_READ, ROWS_SKIPPED, TERMS_WRITTEN
+	};
+
+	/**
+	 * MapperClass extends the Mapper class. It reads the number of documents
+	 * of each row of the Data Table, as counted by SamplerCreator, and writes
+	 * it under the term of the row.
+	 * 
+	 */
+	public static class MapperClass extends
+			Mapper<Key, Value, Text, LongWritable> {
+
+		private final Text term = new Text();
+		private final LongWritable count = new LongWritable();
+
+		@Override
+		public void map(Key key, Value value, Context context)
+				throws IOException, InterruptedException {
+			context.getCounter(SAMPLE_COUNTER.ROWS_READ).increment(1);
+
+			String row = key.getRow().toString();
+			int space = row.lastIndexOf(" ");
+			Integer docs;
+			try {
+				docs = (Integer) IngestUtils.deserialize(value.get());
+			} catch (ClassNotFoundException e) {
+				docs = null;
+			}
+			if (space == -1 || docs == null) {
+				context.getCounter(SAMPLE_COUNTER.ROWS_SKIPPED).increment(1);
+				return;
+			}
+
+			// get rid of the timestamp at the end
+			term.set(row.substring(0, space));
+			count.set(docs);
+			context.write(term, count);
+		}
+	}
+
+	/**
+	 * CombinerClass extends the Reducer class. It sums the counts of a term
+	 * before they are sent to the reducers.
+	 * 
+	 */
+	public static class CombinerClass extends
+			Reducer<Text, LongWritable, Text, LongWritable> {
+
+		private final LongWritable sum = new LongWritable();
+
+		@Override
+		public void reduce(Text key, Iterable<LongWritable> values,
+				Context context) throws IOException, InterruptedException {
+			long total = 0;
+			for (LongWritable value : values) {
+				total += value.get();
+			}
+			sum.set(total);
+			context.write(key, sum);
+		}
+	}
+
+	/**
+	 * ReducerClass extends the Reducer class. It writes the document
+	 * frequency of each term to the stats table.
+	 * 
+	 */
+	public static class ReducerClass extends
+			Reducer<Text, LongWritable, Text, Mutation> {
+
+		private long start;
+
+		@Override
+		public void setup(Context context) {
+			start = context.getConfiguration().getLong(START, 0);
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<LongWritable> values,
+				Context context) throws IOException, InterruptedException {
+			long total = 0;
+			for (LongWritable value : values) {
+				total += value.get();
+			}
+			context.write(null, createMutation(key.toString(), total, start));
+			context.getCounter(SAMPLE_COUNTER.TERMS_WRITTEN).increment(1);
+		}
+	}
+
+	/**
+	 * Constructor method
+	 * 
+	 * @param sampleFile
+	 *            - the location to write the sample table, or empty for none
+	 */
+	public FTMRSampler(String sampleFile) {
+		this.sampleFile = sampleFile;
+	}
+
+	/**
+	 * Creates the mutation of the document frequency of a term, which
+	 * replaces the count of the last sample
+	 * 
+	 * @param term
+	 *            - the row of the stats table
+	 * @param count
+	 *            - the number of documents
+	 * @param start
+	 *            - the time the sample started
+	 */
+	public static Mutation createMutation(String term, long count, long start) {
+		Mutation m = new Mutation(term);
+		m.put(TermStatistics.BASE_FREQUENCY, "", start, new Value(Long
+				.toString(count).getBytes()));
+		return m;
+	}
+
+	/**
+	 * Deletes the counts FTLoader added in the periods before the sample
+	 * started, which the sample replaced. All their entries were put before
+	 * the start, so a delete at the start removes them, even once the combiner
+	 * has merged them.
+	 * 
+	 * @param statsTable
+	 *            - the name of the stats table
+	 * @param start
+	 *            - the time the sample started
+	 */
+	private static void removeOldCounts(String statsTable, long start)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		Scanner scan = AccumuloUtils.connectRead(statsTable);
+		scan.fetchColumnFamily(new Text(DOC_FREQUENCY));
+		BatchWriter w = AccumuloUtils.connectBatchWrite(statsTable);
+		for (Entry<Key, Value> entry : scan) {
+			String period = entry.getKey().getColumnQualifier().toString();
+			if (period.equals("") || Long.parseLong(period) < start) {
+				Mutation m = new Mutation(entry.getKey().getRow());
+				m.putDelete(DOC_FREQUENCY, period, start);
+				w.addMutation(m);
+			}
+		}
+		w.close();
+	}
+
+	/**
+	 * Bumps the stats epoch, telling search that a new sample or Pagerank was
+	 * written. The counts FTLoader adds as it loads pages do not bump it, so
+	 * search keeps its caches until the next ftsample or pr, and reads the
+	 * counts again as its cached values expire.
+	 * 
+	 * @param statsTable
+	 *            - the name of the stats table
+	 */
+	public static void bumpEpoch(String statsTable) throws AccumuloException,
+			AccumuloSecurityException, TableNotFoundException,
+			TableExistsException {
+		BatchWriter w = AccumuloUtils.connectBatchWrite(statsTable);
+		Mutation m = new Mutation(EPOCH);
+		m.put(EPOCH_FAMILY, "", new Value(Long.toString(
+				System.currentTimeMillis()).getBytes()));
+		w.addMutation(m);
+		w.close();
+	}
+
+	/**
+	 * Creates the stats table if it does not exist, and makes sure the
+	 * SummingCombiner is set on its df column
+	 * 
+	 * @param statsTable
+	 *            - the name of the stats table
+	 */
+	public static void prepareStatsTable(String statsTable)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		AccumuloUtils.connectBatchWrite(statsTable).close();
+
+		Connector conn = AccumuloUtils.getConnector();
+		if (conn.tableOperations().listIterators(statsTable)
+				.containsKey(COMBINER_NAME)) {
+			return;
+		}
+
+		// sum the versions of a count, before the VersioningIterator
+		IteratorSetting setting = new IteratorSetting(COMBINER_PRIORITY,
+				COMBINER_NAME, SummingCombiner.class);
+		Combiner.setColumns(setting, Collections
+				.singletonList(new IteratorSetting.Column(DOC_FREQUENCY)));
+		LongCombiner.setEncodingType(setting, LongCombiner.Type.STRING);
+		conn.tableOperations().attachIterator(statsTable, setting);
+	}
+
+	/**
+	 * @return an iterator setting keeping the entries put in [from, to)
+	 */
+	private static IteratorSetting timeFilter(long from, long to) {
+		IteratorSetting setting = new IteratorSetting(10, TimestampFilter.class);
+		TimestampFilter.setRange(setting, from, true, to, false);
+		return setting;
+	}
+
+	/**
+	 * Counts the documents of the checked table put in [from, to). The
+	 * TotalDocFinder returns a count for each tablet, so they are summed.
+	 */
+	private static long countDocs(String checkedTable, long from, long to)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, IOException {
+		Scanner scan = AccumuloUtils.connectRead(checkedTable);
+		scan.addScanIterator(timeFilter(from, to));
+		scan.addScanIterator(new IteratorSetting(11, TotalDocFinder.class,
+				new HashMap<String, String>()));
+
+		long total = 0;
+		for (Entry<Key, Value> entry : scan) {
+			try {
+				total += (Integer) IngestUtils.deserialize(entry.getValue()
+						.get());
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the document frequencies in the stats table to the sample file.
+	 * Since FTLoader keeps the stats table current, this refreshes the sample
+	 * file without counting the data table again.
+	 * 
+	 * @param statsTable
+	 *            - the name of the stats table
+	 * @param sampleFile
+	 *            - the location to write the sample table
+	 */
+	public static void writeSampleFile(String statsTable, String sampleFile)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, IOException {
+		HashMap<String, Integer> output = new HashMap<String, Integer>();
+		Scanner scan = AccumuloUtils.connectRead(statsTable);
+		scan.fetchColumnFamily(new Text(DOC_FREQUENCY));
+		scan.fetchColumnFamily(new Text(TermStatistics.BASE_FREQUENCY));
+
+		// the entries of a row are together, and add up to its count
+		String row = null;
+		TermStatistics.FrequencyCounter counter = null;
+		for (Entry<Key, Value> entry : scan) {
+			String next = entry.getKey().getRow().toString();
+			if (!next.equals(row)) {
+				if (row != null) {
+					output.put(row, (int) counter.get());
+				}
+				row = next;
+				counter = new TermStatistics.FrequencyCounter();
+			}
+			counter.add(entry.getKey(), entry.getValue());
+		}
+		if (row != null) {
+			output.put(row, (int) counter.get());
+		}
+
+		File f = new File(sampleFile);
+		f.createNewFile();
+
+		// use buffering
+		OutputStream file = new FileOutputStream(f);
+		OutputStream out = new BufferedOutputStream(file);
+		TermDictionary.write(output, TermDictionary.INT_VALUES, out);
+		out.flush();
+		out.close();
+	}
+
+	public int run(String[] args) throws Exception {
+		String dataTable = args[10];
+		String checkedTable = args[11];
+		String statsTable = args[26];
+
+		prepareStatsTable(statsTable);
+
+		// only the entries put before the start are counted by this sample,
+		// which is the start of the current period of the counts of FTLoader
+		long start = TermStatistics.getSampleStart(System.currentTimeMillis());
+
+		String jobName = this.getClass().getSimpleName() + "_" + start;
+
+		Job job = new Job(getConf(), jobName);
+		job.setJarByClass(this.getClass());
+		job.getConfiguration().setLong(START, start);
+
+		job.setInputFormatClass(AccumuloInputFormat.class);
+		InputFormatBase.setZooKeeperInstance(job.getConfiguration(), args[0],
+				args[1]);
+		InputFormatBase.setInputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), dataTable, new Authorizations());
+		InputFormatBase.addIterator(job.getConfiguration(),
+				timeFilter(0, start));
+		InputFormatBase.addIterator(job.getConfiguration(),
+				new IteratorSetting(11, SamplerCreator.class,
+						new HashMap<String, String>()));
+
+		job.setMapperClass(MapperClass.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(LongWritable.class);
+		job.setCombinerClass(CombinerClass.class);
+
+		job.setReducerClass(ReducerClass.class);
+		job.setNumReduceTasks(Integer.parseInt(args[4]));
+		job.setOutputFormatClass(AccumuloOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Mutation.class);
+		AccumuloOutputFormat.setZooKeeperInstance(job.getConfiguration(),
+				args[0], args[1]);
+		AccumuloOutputFormat.setOutputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), false, statsTable);
+
+		job.waitForCompletion(true);
+
+		if (!job.isSuccessful()) {
+			return 1;
+		}
+
+		// Write the total number of documents
+		BatchWriter w = AccumuloUtils.connectBatchWrite(statsTable);
+		w.addMutation(createMutation(TOTAL_DOCS,
+				countDocs(checkedTable, 0, start), start));
+		w.close();
+		removeOldCounts(statsTable, start);
+		bumpEpoch(statsTable);
+
+		if (sampleFile != null && !sampleFile.equals("")) {
+			writeSampleFile(statsTable, sampleFile);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.fulltextindex;
+
+import java.io.IOException;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
+import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
+import org.apache.accumulo.core.client.mapreduce.InputFormatBase;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.util.Tool;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
+
+/**
+ * A map only MapReduce job that rewrites the values of the Data Table that
+ * were loaded as serialized Strings ("count,frequency") in the binary format
+ * of CellCodec. Values already in the binary format are left alone, so the job
+ * can be run again on a table that is partly migrated.
+ *
+ * Each rewritten value is put one millisecond after the old value, and the
+ * old value is deleted, so readers see either the old or the new value. The
+ * table is compacted once the job succeeds to reclaim the space.
+ *
+ */
+public class FTMigrator extends Configured implements Tool {
+
+	private static Log log = LogFactory.getLog(FTMigrator.class);
+
+	/**
+	 * Counters of the values read and rewritten
+	 */
+	public static enum MIGRATE_COUNTER {
+		CELLS_READ, CELLS_REWRITTEN, CELLS_CURRENT, CELLS_SKIPPED
+	};
+
+	/**
+	 * MapperClass extends the Mapper class. It rewrites each legacy value of
+	 * the Data Table.
+	 *
+	 */
+	public static class MapperClass extends Mapper<Key, Value, Text, Mutation> {
+
+		private Text table;
+
+		@Override
+		public void setup(Context context) {
+			table = new Text(context.getConfiguration().get(
+					FTMigrator.class.getName() + ".table"));
+		}
+
+		@Override
+		public void map(Key key, Value value, Context context)
+				throws IOException, InterruptedException {
+			context.getCounter(MIGRATE_COUNTER.CELLS_READ).increment(1);
+
+			byte[] b = value.get();
+			if (CellCodec.isBinary(b)) {
+				context.getCounter(MIGRATE_COUNTER.CELLS_CURRENT).increment(1);
+				return;
+			}
+
+			byte[] upgraded = CellCodec.upgrade(b);
+			if (upgraded == null) {
+				log.error("Unable to migrate value of " + key);
+				context.getCounter(MIGRATE_COUNTER.CELLS_SKIPPED).increment(1);
+				return;
+			}
+
+			Mutation m = new Mutation(key.getRow());
+			m.putDelete(key.getColumnFamily(), key.getColumnQualifier(),
+					key.getTimestamp());
+			m.put(key.getColumnFamily(), key.getColumnQualifier(),
+					key.getTimestamp() + 1, new Value(upgraded));
+			context.write(table, m);
+			context.getCounter(MIGRATE_COUNTER.CELLS_REWRITTEN).increment(1);
+		}
+	}
+
+	public int run(String[] args) throws Exception {
+		String dataTable = args[10];
+
+		String jobName = this.getClass().getSimpleName() + "_"
+				+ System.currentTimeMillis();
+
+		Job job = new Job(getConf(), jobName);
+		job.setJarByClass(this.getClass());
+		job.getConfiguration().set(FTMigrator.class.getName() + ".table",
+				dataTable);
+
+		job.setInputFormatClass(AccumuloInputFormat.class);
+		InputFormatBase.setZooKeeperInstance(job.getConfiguration(), args[0],
+				args[1]);
+		InputFormatBase.setInputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), dataTable, new Authorizations());
+
+		job.setMapperClass(MapperClass.class);
+		job.setNumReduceTasks(0);
+
+		job.setOutputFormatClass(AccumuloOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Mutation.class);
+		AccumuloOutputFormat.setZooKeeperInstance(job.getConfiguration(),
+				args[0], args[1]);
+		AccumuloOutputFormat.setOutputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), false, dataTable);
+
+		job.waitForCompletion(true);
+
+		if (!job.isSuccessful()) {
+			return 1;
+		}
+
+		// Drop the old values from the files of the table
+		try {
+			AccumuloUtils.getConnector().tableOperations()
+					.compact(dataTable, null, null, true, false);
+		} catch (AccumuloException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		} catch (AccumuloSecurityException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		} catch (TableNotFoundException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		}
+		return 0;
+	}
+}
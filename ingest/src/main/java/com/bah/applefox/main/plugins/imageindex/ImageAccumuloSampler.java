@@ -20,8 +20,6 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,13 +37,17 @@ import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.utilities.IngestUtils;
 import com.bah.applefox.main.plugins.utilities.SamplerCreator;
 import com.bah.applefox.main.plugins.utilities.TotalDocFinder;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
 import com.sun.org.apache.commons.logging.Log;
 import com.sun.org.apache.commons.logging.LogFactory;
 
 /**
  * This is the class used to create the sample table. The table consists of a
  * unique word as the Key of a HashMap and the number of occurrences as the
- * Value.  The HashMap<String, Integer> is then written to a file.
+ * Value.  The HashMap<String, Integer> is then written to a file as a
+ * TermDictionary.  The rows of the Image Hash Table are written as the 64
+ * "0"s and "1"s of their ImageHash.
  * 
  */
 public class ImageAccumuloSampler {
@@ -54,6 +56,7 @@ public class ImageAccumuloSampler {
 	private String sampleFile;
 	private String dataTable;
 	private String urlTable;
+	private boolean hashRows;
 
 	// The error log
 	private static Log log = LogFactory.getLog(ImageAccumuloSampler.class);
@@ -70,10 +73,28 @@ public class ImageAccumuloSampler {
 	 */
 	public ImageAccumuloSampler(String sampleFile, String dataTable,
 			String urlTable) {
+		this(sampleFile, dataTable, urlTable, false);
+	}
+
+	/**
+	 * Constructor method
+	 * 
+	 * @param sampleFile
+	 *            - the location to write the sample table
+	 * @param dataTable
+	 *            - the name of the data table
+	 * @param urlTable
+	 *            - the name of the url table
+	 * @param hashRows
+	 *            - whether the rows of the data table are image hashes
+	 */
+	public ImageAccumuloSampler(String sampleFile, String dataTable,
+			String urlTable, boolean hashRows) {
 		// Initialize variables
 		this.sampleFile = sampleFile;
 		this.dataTable = dataTable;
 		this.urlTable = urlTable;
+		this.hashRows = hashRows;
 	}
 
 	/**
@@ -96,6 +117,11 @@ public class ImageAccumuloSampler {
 				try {
 					// Write the data from the table to the sample table
 					String row = entry.getKey().getRow().toString();
+					if (hashRows) {
+						row = ImageHash.fromBytes(
+								entry.getKey().getRowData().toArray())
+								.toString();
+					}
 					int value = output.containsKey(row) ? output.get(row) : 0;
 					value += 1;
 					output.put(row, value);
@@ -137,9 +163,8 @@ public class ImageAccumuloSampler {
 
 			// use buffering
 			OutputStream file = new FileOutputStream(f);
-			OutputStream buffer = new BufferedOutputStream(file);
-			ObjectOutput out = new ObjectOutputStream(buffer);
-			out.writeObject(output);
+			OutputStream out = new BufferedOutputStream(file);
+			TermDictionary.write(output, TermDictionary.INT_VALUES, out);
 			out.flush();
 			out.close();
 		} catch (AccumuloException e) {
@@ -17,9 +17,10 @@
 package com.bah.applefox.main.plugins.imageindex;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map.Entry;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -38,24 +39,46 @@ import org.apache.accumulo.core.security.Authorizations;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.util.Tool;
 
-import com.bah.applefox.main.plugins.imageindex.utilites.ImageHasher;
+import com.bah.applefox.main.plugins.imageindex.utilites.ImageFetcher;
+import com.bah.applefox.main.plugins.imageindex.utilites.ImageMemo;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.webcrawler.utilities.PageCrawlException;
 import com.bah.applefox.main.plugins.webcrawler.utilities.WebPageCrawl;
+import com.bah.bahdit.main.plugins.imageindex.utils.HashBands;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
 
 /**
  * This class is used to load image hashes and tags into their respective
- * tables. The image hash is generated by the ImageHasher class in utilities.
- * The format for the hash tag table is RowID: hashtag | Column Family: Image
- * location | Column Qualifier: Parent URL | Value: hashtag. The format for the
- * tag table is RowID: tag | Column Family: Image Location | Column Qualifier:
- * Parent URL | Value: hashtag.
+ * tables. The image hash is generated by the ImageHasher class in utilities,
+ * and stored as the 8 bytes of its ImageHash. The format for the hash tag
+ * table is RowID: hashtag | Column Family: Image location | Column Qualifier:
+ * Parent URL | Value: hashtag. The format for the tag table is RowID: tag |
+ * Column Family: Image Location | Column Qualifier: Parent URL | Value:
+ * hashtag.
  * 
+ * If IMG_BAND_TABLE is set, each hash is also indexed under the rows of its
+ * bands (see HashBands), for finding similar images: RowID: band number and
+ * band bits | Column Family: Image location | Column Qualifier: Parent URL |
+ * Value: hashtag.
+ * 
+ * Each reducer fetches the images of its pages with an ImageFetcher, so many
+ * images are downloaded, decoded and hashed at once while the reducer writes
+ * the hashes of the images already fetched. A page is marked as checked once
+ * all of its images have been fetched and written.
+ * 
+ * The hash of each image URL is remembered by an ImageMemo, kept in memory by
+ * each reducer and in IMG_MEMO_TABLE (if set), so an image shown on many
+ * pages is only fetched and hashed once per crawl.
+ * 
+ * Large images are decoded subsampled, which changes their hashes slightly,
+ * so images loaded before subsampling must be loaded again to be found by
+ * queries hashed the same way.
  * 
  */
 public class ImageLoader extends Configured implements Tool {
@@ -67,6 +90,25 @@ public class ImageLoader extends Configured implements Tool {
 	private static String tagTable;
 	private static String UserAgent;
 	private static String divsFile;
+	private static String bandTable;
+	private static HashBands hashBands;
+	private static int imageThreads = 10, connectTimeout = 5000,
+			readTimeout = 10000, maxBytes = 5 * 1024 * 1024;
+	private static long imageTimeout = 30000;
+	private static String memoTable;
+	private static int memoSize = 10000;
+	private static long crawlStart;
+
+	// Number of pages to mark as checked at once
+	private static final int CHECKED_BATCH_SIZE = 100;
+
+	// Number of images per fetching thread that may wait to be fetched
+	private static final int PENDING_PER_THREAD = 4;
+
+	public static enum IMAGE_COUNTER {
+		IMAGES_DECODED, IMAGES_CACHED, IMAGES_UNCHANGED, IMAGES_SKIPPED,
+		IMAGES_FAILED
+	};
 
 	/**
 	 * MapperClass extends the Mapper class. It performs the map functionality
@@ -117,25 +159,73 @@ public class ImageLoader extends Configured implements Tool {
 
 	/**
 	 * ReducerClass extends Reducer and would perform the Reduce functionality
-	 * of MapReduce, but in this case it is only a place holder.
+	 * of MapReduce, but in this case it is only a place holder. Each page is
+	 * checked for images, which are handed to the fetcher.
 	 * 
 	 */
 	public static class ReducerClass extends Reducer<Key, Value, Key, Value> {
+		// Pages whose images have been written but not yet marked as checked
+		private ArrayList<String> checked = new ArrayList<String>();
+
+		// Number of images of each page still being fetched
+		private HashMap<String, Integer> inFlight = new HashMap<String, Integer>();
+
+		private ImageFetcher fetcher;
+
+		@Override
+		protected void setup(Context context) throws IOException,
+				InterruptedException {
+			fetcher = new ImageFetcher(UserAgent, imageThreads,
+					connectTimeout, readTimeout, imageTimeout, maxBytes,
+					new ImageMemo(memoTable, memoSize), crawlStart);
+		}
+
 		public void reduce(Key key, Iterable<Value> values, Context context)
 				throws IOException, InterruptedException {
 			//TODO use actual accumulo input and output formats.
+			String url = key.getRow().toString();
 			try {
 
-				BatchWriter w = AccumuloUtils.connectBatchWrite(checkedImages);
-				// Check the page for images and add them to the tables with
-				// this method
-				addImageHashes(key.getRow().toString(), UserAgent);
+				// Use web page parser to find images
+				System.out.println("Checking URL: " + url + " for images");
+				WebPageCrawl iExtract = new WebPageCrawl(url, UserAgent,
+						Collections.<String> emptySet());
 
-				// Write to the table that the page has been checked
-				Mutation m = new Mutation(key.getRow().toString());
-				m.put("0", "0", new Value("0".getBytes()));
-				w.addMutation(m);
-				w.close();
+				// Up to the first space is the location of each image
+				ArrayList<String> images = new ArrayList<String>();
+				for (String image : iExtract.getChildImages()) {
+					if (image.indexOf(" ") >= 0) {
+						images.add(image);
+					}
+				}
+
+				// The page is checked once all of its images are written
+				if (images.isEmpty()) {
+					checked.add(url);
+				} else {
+					inFlight.put(url, images.size());
+				}
+
+				for (String image : images) {
+					// Keep the number of images waiting to be fetched bounded
+					while (fetcher.getPending() >= imageThreads
+							* PENDING_PER_THREAD) {
+						addImage(fetcher.take(), context);
+					}
+
+					int firstSpace = image.indexOf(" ");
+					fetcher.submit(url, image.substring(0, firstSpace), image
+							.toLowerCase().substring(firstSpace));
+				}
+
+				ImageFetcher.Result result;
+				while ((result = fetcher.poll()) != null) {
+					addImage(result, context);
+				}
+
+				if (checked.size() >= CHECKED_BATCH_SIZE) {
+					markChecked();
+				}
 
 			} catch (AccumuloException e) {
 				if (e.getMessage() != null) {
@@ -165,66 +255,209 @@ public class ImageLoader extends Configured implements Tool {
 				log.info("Error crawling page" , e);
 			}
 		}
-	}
 
-	public static void addImageHashes(String url, String UserAgent)
-			throws MalformedURLException, IOException, AccumuloException,
-			AccumuloSecurityException, TableNotFoundException,
-			TableExistsException, PageCrawlException {
+		/**
+		 * Writes the hash of a fetched image, counts it and notes when the
+		 * last image of its page is done
+		 */
+		private void addImage(ImageFetcher.Result result, Context context) {
+			switch (result.getStatus()) {
+			case DECODED:
+			case CACHED:
+			case UNCHANGED:
+				if (result.getStatus() == ImageFetcher.Status.DECODED) {
+					context.getCounter(IMAGE_COUNTER.IMAGES_DECODED)
+							.increment(1);
+				} else if (result.getStatus() == ImageFetcher.Status.CACHED) {
+					context.getCounter(IMAGE_COUNTER.IMAGES_CACHED)
+							.increment(1);
+				} else {
+					context.getCounter(IMAGE_COUNTER.IMAGES_UNCHANGED)
+							.increment(1);
+				}
+				try {
+					writeImage(result.getPage(), result.getImage(),
+							result.getAltText(), result.getHash());
+				} catch (Exception e) {
+					log.error("Error adding " + result.getImage(), e);
+				}
+				break;
+			case SKIPPED:
+				context.getCounter(IMAGE_COUNTER.IMAGES_SKIPPED).increment(1);
+				break;
+			default:
+				context.getCounter(IMAGE_COUNTER.IMAGES_FAILED).increment(1);
+			}
 
-		// Use web page parser to find images
-		System.out.println("Checking URL: " + url + " for images");
-		WebPageCrawl iExtract = new WebPageCrawl(url, UserAgent, Collections.<String>emptySet());
+			Integer remaining = inFlight.remove(result.getPage());
+			if (remaining == null || remaining <= 1) {
+				checked.add(result.getPage());
+			} else {
+				inFlight.put(result.getPage(), remaining - 1);
+			}
+		}
 
-		// Connect to the hash table
-		BatchWriter hashTableWriter = AccumuloUtils
-				.connectBatchWrite(hashTable);
+		/**
+		 * Waits for the remaining images, marks the remaining pages as
+		 * checked and flushes the shared writers
+		 */
+		@Override
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			while (fetcher.getPending() > 0) {
+				addImage(fetcher.take(), context);
+			}
+			fetcher.shutdown();
+			try {
+				markChecked();
+				AccumuloUtils.flushBatchWriters();
+			} catch (AccumuloException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (AccumuloSecurityException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (TableNotFoundException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			} catch (TableExistsException e) {
+				if (e.getMessage() != null) {
+					log.error(e.getMessage());
+				} else {
+					log.error(e.getStackTrace());
+				}
+			}
+			log.info(AccumuloUtils.getStatistics());
+		}
 
-		// Connect to the tag table
-		BatchWriter tagTableWriter = AccumuloUtils.connectBatchWrite(tagTable);
-		Value v = new Value("0".getBytes());
+		/**
+		 * Flushes the images written so far, then marks their pages as
+		 * checked
+		 */
+		private void markChecked() throws AccumuloException,
+				AccumuloSecurityException, TableNotFoundException,
+				TableExistsException {
+			if (checked.isEmpty()) {
+				return;
+			}
+			AccumuloUtils.flushBatchWriters();
 
-		// Loop through all of the images found
-		for (String image : iExtract.getChildImages()) {
-			try {
-				// Up to the first space is the location of the image
-				int firstSpace = image.indexOf(" ");
-				System.out.println(image);
+			BatchWriter w = AccumuloUtils.getBatchWriter(checkedImages);
+			for (String url : checked) {
+				Mutation m = new Mutation(url);
+				m.put("0", "0", new Value("0".getBytes()));
+				w.addMutation(m);
+			}
+			checked.clear();
+		}
+	}
+
+	/**
+	 * Writes the hash of an image to the hash table, its bands to the band
+	 * table and its alternative text to the tag table
+	 * 
+	 * @param url
+	 *            - the URL of the page the image is on
+	 * @param imURL
+	 *            - the URL of the image
+	 * @param altText
+	 *            - the alternative text of the image
+	 * @param hash
+	 *            - the hash of the image
+	 */
+	private static void writeImage(String url, String imURL, String altText,
+			ImageHash hash) throws AccumuloException,
+			AccumuloSecurityException, TableNotFoundException,
+			TableExistsException {
 
-				String imURL = image.substring(0, firstSpace);
+		// Get the shared writer of the hash table
+		BatchWriter hashTableWriter = AccumuloUtils.getBatchWriter(hashTable);
 
-				// Set the alternative text
-				String altText = image.toLowerCase().substring(firstSpace);
-				// Set the hash
-				String hash = ImageHasher.hash(imURL);
+		// Get the shared writer of the tag table
+		BatchWriter tagTableWriter = AccumuloUtils.getBatchWriter(tagTable);
 
-				v = new Value(hash.getBytes());
+		Value v = new Value(hash.toBytes());
 
-				Mutation m = new Mutation(hash);
-				m.put(imURL, url, v);
+		Mutation m = new Mutation(new Text(hash.toBytes()));
+		m.put(imURL, url, v);
 
-				// Write to the hash table
-				hashTableWriter.addMutation(m);
+		// Write to the hash table
+		hashTableWriter.addMutation(m);
 
-				// Split on the spaces in altText and write them to the table
-				for (String oneTag : altText.split(" ")) {
-					if (oneTag.length() > 2) {
-						m = new Mutation(oneTag);
-						m.put(imURL, url, v);
-						tagTableWriter.addMutation(m);
-					}
-				}
+		// Index the bands of the hash
+		if (bandTable != null) {
+			addBands(AccumuloUtils.getBatchWriter(bandTable), hashBands, hash,
+					imURL, url);
+		}
 
-			} catch (Exception e) {
-				log.equals("Error adding " + image);
+		// Split on the spaces in altText and write them to the table
+		for (String oneTag : altText.split(" ")) {
+			if (oneTag.length() > 2) {
+				m = new Mutation(oneTag);
+				m.put(imURL, url, v);
+				tagTableWriter.addMutation(m);
 			}
 		}
+	}
 
-		// Flush and close all of the batch writers
-		hashTableWriter.flush();
-		tagTableWriter.flush();
-		hashTableWriter.close();
-		tagTableWriter.close();
+	/**
+	 * Writes the rows of the bands of a hash to the band table
+	 */
+	private static void addBands(BatchWriter w, HashBands bands,
+			ImageHash hash, String imURL, String url) throws AccumuloException {
+		Value v = new Value(hash.toBytes());
+		for (byte[] row : bands.getRows(hash)) {
+			Mutation m = new Mutation(new Text(row));
+			m.put(imURL, url, v);
+			w.addMutation(m);
+		}
+	}
+
+	/**
+	 * Indexes the bands of every hash in the hash table, for the images
+	 * loaded before the band table was configured
+	 * 
+	 * @param hashTable
+	 *            - the table of the image hashes
+	 * @param bandTable
+	 *            - the table to write the bands to
+	 * @param bands
+	 *            - the number of bands to split each hash into
+	 */
+	public static void writeBands(String hashTable, String bandTable, int bands)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		HashBands hashBands = new HashBands(bands);
+		Scanner scan = AccumuloUtils.connectRead(hashTable);
+		BatchWriter w = AccumuloUtils.connectBatchWrite(bandTable);
+		long count = 0;
+		for (Entry<Key, Value> e : scan) {
+			ImageHash hash = ImageHash.fromBytes(e.getKey().getRowData()
+					.toArray());
+			if (hash == null) {
+				log.error("Not an image hash: " + e.getKey().getRow());
+				continue;
+			}
+			addBands(w, hashBands, hash, e.getKey().getColumnFamily()
+					.toString(), e.getKey().getColumnQualifier().toString());
+			count++;
+		}
+		w.close();
+		log.info("Indexed the bands of " + count + " images");
+		if (HashBands.getBands(count) != bands) {
+			log.warn(count + " images are best split into "
+					+ HashBands.getBands(count) + " bands, not " + bands
+					+ ": set IMG_HASH_BANDS and index the bands again");
+		}
 	}
 
 	/**
@@ -245,6 +478,28 @@ public class ImageLoader extends Configured implements Tool {
 		tagTable = args[19];
 		divsFile = args[20];
 		UserAgent = args[6];
+		if (args.length > 37 && args[36] != null && !args[36].equals("")) {
+			bandTable = args[36];
+			hashBands = new HashBands(Integer.parseInt(args[37]));
+			AccumuloUtils.connectBatchWrite(bandTable).close();
+		}
+		if (args.length > 40) {
+			connectTimeout = Integer.parseInt(args[29]);
+			readTimeout = Integer.parseInt(args[30]);
+			imageThreads = Integer.parseInt(args[38]);
+			imageTimeout = Long.parseLong(args[39]);
+			maxBytes = Integer.parseInt(args[40]);
+		}
+		if (args.length > 42) {
+			memoTable = args[41];
+			memoSize = Integer.parseInt(args[42]);
+			if (memoTable != null && !memoTable.equals("")) {
+				AccumuloUtils.connectBatchWrite(memoTable).close();
+			}
+		}
+
+		// Images checked from now on are not fetched again by this crawl
+		crawlStart = System.currentTimeMillis();
 
 		// Create the table
 		AccumuloUtils.setSplitSize(args[23]);
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.imageindex;
+
+import java.io.IOException;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
+import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
+import org.apache.accumulo.core.client.mapreduce.InputFormatBase;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.util.Tool;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+/**
+ * Map only MapReduce jobs that rewrite the image hashes loaded as strings of
+ * 64 "0"s and "1"s as the 8 bytes of their ImageHash: the rows and values of
+ * the Image Hash Table, then the values of the Image Tag Table. Hashes already
+ * in the 8 byte form are left alone, so the jobs can be run again on tables
+ * that are partly migrated.
+ * 
+ * A rewritten value is put one millisecond after the old value, which is
+ * deleted, and a rewritten row of the hash table is put under the new row
+ * with the old row deleted. The tables are compacted once the jobs succeed to
+ * reclaim the space, and the band table, if there is one, is indexed again
+ * from the migrated hash table.
+ * 
+ */
+public class ImageMigrator extends Configured implements Tool {
+
+	private static final String TABLE = ImageMigrator.class.getName()
+			+ ".table";
+	private static final String HASH_ROWS = ImageMigrator.class.getName()
+			+ ".hashRows";
+
+	private static Log log = LogFactory.getLog(ImageMigrator.class);
+
+	/**
+	 * Counters of the hashes read and rewritten
+	 */
+	public static enum MIGRATE_COUNTER {
+		CELLS_READ, CELLS_REWRITTEN, CELLS_CURRENT, CELLS_SKIPPED
+	};
+
+	/**
+	 * MapperClass extends the Mapper class. It rewrites each legacy hash of a
+	 * table, in its row (hash table) and value.
+	 * 
+	 */
+	public static class MapperClass extends Mapper<Key, Value, Text, Mutation> {
+
+		private Text table;
+		private boolean hashRows;
+
+		@Override
+		public void setup(Context context) {
+			table = new Text(context.getConfiguration().get(TABLE));
+			hashRows = context.getConfiguration().getBoolean(HASH_ROWS, false);
+		}
+
+		@Override
+		public void map(Key key, Value value, Context context)
+				throws IOException, InterruptedException {
+			context.getCounter(MIGRATE_COUNTER.CELLS_READ).increment(1);
+
+			byte[] row = key.getRowData().toArray();
+			byte[] b = value.get();
+			if (ImageHash.isBinary(b) && (!hashRows || ImageHash.isBinary(row))) {
+				context.getCounter(MIGRATE_COUNTER.CELLS_CURRENT).increment(1);
+				return;
+			}
+
+			ImageHash hash = ImageHash.fromBytes(hashRows ? row : b);
+			if (hash == null) {
+				log.error("Unable to migrate hash of " + key);
+				context.getCounter(MIGRATE_COUNTER.CELLS_SKIPPED).increment(1);
+				return;
+			}
+			Value upgraded = new Value(hash.toBytes());
+
+			Mutation m = new Mutation(key.getRow());
+			m.putDelete(key.getColumnFamily(), key.getColumnQualifier(),
+					key.getTimestamp());
+			if (hashRows) {
+				context.write(table, m);
+				m = new Mutation(new Text(hash.toBytes()));
+			}
+			m.put(key.getColumnFamily(), key.getColumnQualifier(),
+					key.getTimestamp() + 1, upgraded);
+			context.write(table, m);
+			context.getCounter(MIGRATE_COUNTER.CELLS_REWRITTEN).increment(1);
+		}
+	}
+
+	public int run(String[] args) throws Exception {
+		String hashTable = args[17];
+		String tagTable = args[19];
+
+		if (!migrate(args, hashTable, true) || !migrate(args, tagTable, false)) {
+			return 1;
+		}
+
+		// Drop the old hashes from the files of the tables
+		Connector conn = AccumuloUtils.getConnector();
+		compact(conn, hashTable);
+		compact(conn, tagTable);
+
+		// Index the bands of the migrated hashes again
+		if (args.length > 37 && args[36] != null && !args[36].equals("")) {
+			if (conn.tableOperations().exists(args[36])) {
+				conn.tableOperations().delete(args[36]);
+			}
+			ImageLoader.writeBands(hashTable, args[36],
+					Integer.parseInt(args[37]));
+		}
+		return 0;
+	}
+
+	/**
+	 * Runs the job rewriting the hashes of a table
+	 * 
+	 * @param hashRows
+	 *            - whether the rows of the table are hashes
+	 * @return whether or not the job succeeded
+	 */
+	private boolean migrate(String[] args, String table, boolean hashRows)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		String jobName = this.getClass().getSimpleName() + "_"
+				+ System.currentTimeMillis();
+
+		Job job = new Job(getConf(), jobName);
+		job.setJarByClass(this.getClass());
+		job.getConfiguration().set(TABLE, table);
+		job.getConfiguration().setBoolean(HASH_ROWS, hashRows);
+
+		job.setInputFormatClass(AccumuloInputFormat.class);
+		InputFormatBase.setZooKeeperInstance(job.getConfiguration(), args[0],
+				args[1]);
+		InputFormatBase.setInputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), table, new Authorizations());
+
+		job.setMapperClass(MapperClass.class);
+		job.setNumReduceTasks(0);
+
+		job.setOutputFormatClass(AccumuloOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Mutation.class);
+		AccumuloOutputFormat.setZooKeeperInstance(job.getConfiguration(),
+				args[0], args[1]);
+		AccumuloOutputFormat.setOutputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), false, table);
+
+		job.waitForCompletion(true);
+
+		return job.isSuccessful();
+	}
+
+	private static void compact(Connector conn, String table) {
+		try {
+			conn.tableOperations().compact(table, null, null, true, false);
+		} catch (AccumuloException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		} catch (AccumuloSecurityException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		} catch (TableNotFoundException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+		}
+	}
+}
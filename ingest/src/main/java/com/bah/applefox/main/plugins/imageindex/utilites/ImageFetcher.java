@@ -0,0 +1,429 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.imageindex.utilites;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+/**
+ * The ImageFetcher downloads, decodes and hashes many images at once, so that
+ * one slow image host does not hold up the images of every other page.
+ * 
+ * Each image is given a timeout for its whole download, besides the connect
+ * and read timeouts of its connection, so a host sending a few bytes at a
+ * time is given up on as well. Images larger than the max bytes are skipped
+ * without being read to the end, and large images are decoded with
+ * subsampling by the ImageHasher.
+ * 
+ * If an ImageMemo is given, the hash of an image already fetched in this crawl
+ * is taken from the memo without any request, and an image fetched by an
+ * earlier crawl is only downloaded again if its ETag or Last-Modified show it
+ * has changed. An image submitted again while it is still being fetched waits
+ * for the same download.
+ * 
+ * Images are given with submit, and the hashes are handed back through take
+ * and poll, so that they can be written by the calling thread only. The
+ * caller bounds the images in flight by taking results once getPending is
+ * too high.
+ * 
+ */
+public class ImageFetcher {
+
+	private static final Log LOG = LogFactory.getLog(ImageFetcher.class);
+
+	/**
+	 * What became of an image: decoded and hashed, found in the memo, found
+	 * unchanged since the memo, skipped as too large or not an image, or
+	 * failed to download or decode
+	 */
+	public static enum Status {
+		DECODED, CACHED, UNCHANGED, SKIPPED, FAILED
+	}
+
+	/**
+	 * The outcome of fetching an image. The hash is null unless the image was
+	 * decoded.
+	 */
+	public static class Result {
+		private final String page;
+		private final String image;
+		private final String altText;
+		private final ImageHash hash;
+		private final Status status;
+		private final Exception error;
+
+		Result(String page, String image, String altText, ImageHash hash,
+				Status status, Exception error) {
+			this.page = page;
+			this.image = image;
+			this.altText = altText;
+			this.hash = hash;
+			this.status = status;
+			this.error = error;
+		}
+
+		public String getPage() {
+			return page;
+		}
+
+		public String getImage() {
+			return image;
+		}
+
+		public String getAltText() {
+			return altText;
+		}
+
+		public ImageHash getHash() {
+			return hash;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Thrown when an image is larger than the max bytes
+	 */
+	private static class TooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TooLargeException(String message) {
+			super(message);
+		}
+	}
+
+	private final String userAgent;
+	private final int connectTimeout, readTimeout, maxBytes;
+	private final long timeout;
+	private final ImageMemo memo;
+	private final long since;
+
+	// The pages waiting for each image being fetched, as {page, altText}
+	private final HashMap<String, List<String[]>> waiting = new HashMap<String, List<String[]>>();
+	private final BlockingQueue<Result> completed = new LinkedBlockingQueue<Result>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final ExecutorService workers;
+
+	/**
+	 * Constructor for the ImageFetcher. Starts the fetching threads.
+	 * 
+	 * @param userAgent
+	 *            - the UserAgent of the server request property
+	 * @param threads
+	 *            - the number of images fetched and hashed at once
+	 * @param connectTimeout
+	 *            - the connect timeout (in milliseconds)
+	 * @param readTimeout
+	 *            - the read timeout (in milliseconds)
+	 * @param timeout
+	 *            - the most time to download a single image (in milliseconds)
+	 * @param maxBytes
+	 *            - the largest image that is read (in bytes)
+	 */
+	public ImageFetcher(String userAgent, int threads, int connectTimeout,
+			int readTimeout, long timeout, int maxBytes) {
+		this(userAgent, threads, connectTimeout, readTimeout, timeout,
+				maxBytes, null, 0);
+	}
+
+	/**
+	 * Constructor for the ImageFetcher with a memo of the images fetched.
+	 * Starts the fetching threads.
+	 * 
+	 * @param userAgent
+	 *            - the UserAgent of the server request property
+	 * @param threads
+	 *            - the number of images fetched and hashed at once
+	 * @param connectTimeout
+	 *            - the connect timeout (in milliseconds)
+	 * @param readTimeout
+	 *            - the read timeout (in milliseconds)
+	 * @param timeout
+	 *            - the most time to download a single image (in milliseconds)
+	 * @param maxBytes
+	 *            - the largest image that is read (in bytes)
+	 * @param memo
+	 *            - the memo of the images fetched, or null for none
+	 * @param since
+	 *            - the time the crawl started at (in milliseconds); images
+	 *            checked since are not fetched again
+	 */
+	public ImageFetcher(String userAgent, int threads, int connectTimeout,
+			int readTimeout, long timeout, int maxBytes, ImageMemo memo,
+			long since) {
+		this.memo = memo;
+		this.since = since;
+		this.userAgent = userAgent;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.timeout = timeout;
+		this.maxBytes = maxBytes;
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ImageFetcher-"
+						+ count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queues an image to be fetched and hashed
+	 * 
+	 * @param page
+	 *            - the URL of the page the image is on
+	 * @param image
+	 *            - the URL of the image
+	 * @param altText
+	 *            - the alternative text of the image
+	 */
+	public void submit(String page, final String image, String altText) {
+		pending.incrementAndGet();
+		synchronized (waiting) {
+			List<String[]> pages = waiting.get(image);
+			if (pages != null) {
+				pages.add(new String[] { page, altText });
+				return;
+			}
+			pages = new ArrayList<String[]>();
+			pages.add(new String[] { page, altText });
+			waiting.put(image, pages);
+		}
+
+		workers.execute(new Runnable() {
+			public void run() {
+				Result result;
+				try {
+					result = fetch(image);
+				} catch (RuntimeException e) {
+					result = new Result(null, image, null, null,
+							Status.FAILED, e);
+				}
+
+				// Hand the result to every page waiting for the image
+				List<String[]> pages;
+				synchronized (waiting) {
+					pages = waiting.remove(image);
+				}
+				for (String[] p : pages) {
+					completed.add(new Result(p[0], image, p[1], result.hash,
+							result.status, result.error));
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of images submitted whose results have not been
+	 *         taken
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Waits for the next fetched image
+	 * 
+	 * @return the result of fetching an image
+	 */
+	public Result take() throws InterruptedException {
+		Result r = completed.take();
+		pending.decrementAndGet();
+		return r;
+	}
+
+	/**
+	 * @return the result of fetching an image, or null if none is ready
+	 */
+	public Result poll() {
+		Result r = completed.poll();
+		if (r != null) {
+			pending.decrementAndGet();
+		}
+		return r;
+	}
+
+	/**
+	 * Stops the fetching threads. Images that have not been fetched yet are
+	 * dropped.
+	 */
+	public void shutdown() throws InterruptedException {
+		workers.shutdownNow();
+		workers.awaitTermination(connectTimeout + timeout,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Downloads, decodes and hashes an image, unless it is known by the memo.
+	 * The result is not yet given its page.
+	 */
+	private Result fetch(String image) {
+		ImageMemo.Memo known = memo == null ? null : memo.get(image);
+		if (known != null && known.getChecked() >= since) {
+			return result(image, known, Status.CACHED);
+		}
+
+		long now = System.currentTimeMillis();
+		byte[] content;
+		String etag;
+		long lastModified;
+		try {
+			URLConnection con = new URL(image).openConnection();
+			con.setConnectTimeout(connectTimeout);
+			con.setReadTimeout(readTimeout);
+			con.setRequestProperty("User-Agent", userAgent);
+
+			// Only ask for the image if it changed since it was memoized
+			if (known != null && known.isValidatable()) {
+				if (known.getETag() != null) {
+					con.setRequestProperty("If-None-Match", known.getETag());
+				}
+				if (known.getLastModified() > 0) {
+					con.setIfModifiedSince(known.getLastModified());
+				}
+			}
+			if (known != null && con instanceof HttpURLConnection
+					&& ((HttpURLConnection) con).getResponseCode()
+						== HttpURLConnection.HTTP_NOT_MODIFIED) {
+				((HttpURLConnection) con).disconnect();
+				known = new ImageMemo.Memo(known.getHash(), known.getETag(),
+						known.getLastModified(), now);
+				memo.put(image, known);
+				return result(image, known, Status.UNCHANGED);
+			}
+
+			content = read(con, maxBytes, now + timeout);
+			etag = con.getHeaderField("ETag");
+			lastModified = con.getLastModified();
+		} catch (TooLargeException e) {
+			remember(image, null, null, 0, now);
+			return new Result(null, image, null, null, Status.SKIPPED, e);
+		} catch (IOException e) {
+			LOG.info("Unable to fetch " + image + ": " + e.getMessage());
+			return new Result(null, image, null, null, Status.FAILED, e);
+		}
+
+		try {
+			BufferedImage img = ImageHasher.read(new ByteArrayInputStream(
+					content));
+			if (img == null) {
+				remember(image, null, etag, lastModified, now);
+				return new Result(null, image, null, null, Status.SKIPPED,
+						null);
+			}
+			ImageHash hash = ImageHasher.hash(img);
+			remember(image, hash, etag, lastModified, now);
+			return new Result(null, image, null, hash, Status.DECODED, null);
+		} catch (IOException e) {
+			return new Result(null, image, null, null, Status.FAILED, e);
+		}
+	}
+
+	/**
+	 * The result of an image known by the memo, skipped if it is not an image
+	 */
+	private static Result result(String image, ImageMemo.Memo known,
+			Status status) {
+		if (known.getHash() == null) {
+			return new Result(null, image, null, null, Status.SKIPPED, null);
+		}
+		return new Result(null, image, null, known.getHash(), status, null);
+	}
+
+	/**
+	 * Adds an image fetched to the memo, if there is one
+	 */
+	private void remember(String image, ImageHash hash, String etag,
+			long lastModified, long checked) {
+		if (memo != null) {
+			memo.put(image, new ImageMemo.Memo(hash, etag, lastModified,
+					checked));
+		}
+	}
+
+	/**
+	 * Reads the response of a connection, giving up once it is larger than
+	 * the max bytes or still being read at the deadline
+	 * 
+	 * @param con
+	 *            - the connection to read
+	 * @param maxBytes
+	 *            - the largest response that is read (in bytes)
+	 * @param deadline
+	 *            - the time to give up at (in milliseconds)
+	 * @return - the response
+	 * @throws IOException
+	 */
+	public static byte[] read(URLConnection con, int maxBytes, long deadline)
+			throws IOException {
+		InputStream in = con.getInputStream();
+		try {
+			if (con.getContentLength() > maxBytes) {
+				throw new TooLargeException("Image larger than " + maxBytes
+						+ " bytes: " + con.getURL());
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				if (out.size() + len > maxBytes) {
+					throw new TooLargeException("Image larger than "
+							+ maxBytes + " bytes: " + con.getURL());
+				}
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Timed out reading " + con.getURL());
+				}
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
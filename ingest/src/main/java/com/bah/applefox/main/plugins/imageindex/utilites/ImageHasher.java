@@ -16,143 +16,61 @@
  */
 package com.bah.applefox.main.plugins.imageindex.utilites;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 
-import javax.imageio.ImageIO;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
 
 /**
  * This class is used to generate a hashtag from either an image, file or
- * string. The hash is generated by resizing the image to the given dimensions
- * (best results are dimensions that are a multiple of 4). Then each individual
- * pixel's brightness is compared to the average, generating a BigInteger which
- * is converted into a hexadecimal string.
+ * string. It hashes images the same way as the ImageHasher of search, which
+ * it delegates to, so that the hashes loaded match the hashes of the queries.
  * 
  * 
  */
 public class ImageHasher {
 
-	// Width and height of resized image (multiplied they result in number of
-	// bits for the hash)
-	private static final int RESIZE_WIDTH = 8;
-	private static final int RESIZE_HEIGHT = 8;
-
 	/**
 	 * This method takes in a generic object and tries to hash it
 	 * 
 	 * @param obj
 	 *            - the object to hash
-	 * @return - The hash string
+	 * @return - The hash
 	 * @throws MalformedURLException
 	 * @throws IOException
 	 */
-	public static String hash(Object obj) throws MalformedURLException,
+	public static ImageHash hash(Object obj) throws MalformedURLException,
 			IOException {
-
-		BufferedImage img = null;
-
-		if (obj instanceof String)
-			img = ImageIO.read(new URL((String) obj));
-
-		else if (obj instanceof File)
-			img = ImageIO.read((File) obj);
-
-		return hash(img);
+		return com.bah.bahdit.main.plugins.imageindex.utils.ImageHasher
+				.hash(obj);
 	}
 
 	/**
-	 * This method hashes the buffered image
+	 * This method decodes the first image of an input, subsampling large
+	 * images
 	 * 
-	 * @param img
-	 *            - the image to hash
-	 * @return - the binary hash string
+	 * @param input
+	 *            - a File, InputStream or anything else ImageIO can make an
+	 *            ImageInputStream from
+	 * @return - the image, or null if no reader can decode the input
 	 * @throws IOException
 	 */
-	private static String hash(BufferedImage img) throws IOException {
-
-		// Resize the image
-		BufferedImage resized = normalizeSize(img);
-
-		// Arrays to store pixel data
-		int[] brightnessValues = new int[RESIZE_WIDTH * RESIZE_HEIGHT];
-		int[] rgbVals = new int[RESIZE_WIDTH * RESIZE_HEIGHT];
-
-		// Store pixel data into rgbVals
-		resized.getRGB(0, 0, RESIZE_WIDTH, RESIZE_HEIGHT, rgbVals, 0,
-				RESIZE_WIDTH);
-
-		int index = 0;
-		for (int colorVal : rgbVals) {
-			// Seperate by colors
-			int maxByte = 0xff;
-			int red = (colorVal >> 16) & maxByte;
-			int green = (colorVal >> 8) & maxByte;
-			int blue = (colorVal) & maxByte;
-
-			// Calculate the brightness of each pixel
-			int brightnessValue = (int) Math.floor(0.2126 * red + 0.7152
-					* green + 0.0722 * blue);
-
-			brightnessValues[index] = brightnessValue;
-			index++;
-		}
-
-		// Calculate the average
-		double average = 0;
-		for (int b : brightnessValues) {
-			average += b;
-		}
-		average = (long) Math.ceil(average / (RESIZE_WIDTH * RESIZE_HEIGHT));
-
-		String binaryString = "";
-
-		for (int i = 0; i < brightnessValues.length; i++) {
-			if (brightnessValues[i] > average) {
-				// Add 2^i if the pixel is above average brightness
-				binaryString = "1" + binaryString;
-			} else {
-				binaryString = "0" + binaryString;
-			}
-		}
-
-		return binaryString;
+	public static BufferedImage read(Object input) throws IOException {
+		return com.bah.bahdit.main.plugins.imageindex.utils.ImageHasher
+				.read(input);
 	}
 
 	/**
-	 * This helper method normalizes the size of the image as per the static
-	 * variables RESIZE_WIDTH and RESIZE_HEIGHT
+	 * This method hashes the buffered image
 	 * 
 	 * @param img
-	 *            - the image to resize
-	 * @return - the resized image
+	 *            - the image to hash
+	 * @return - the hash
+	 * @throws IOException
 	 */
-	private static BufferedImage normalizeSize(BufferedImage img) {
-		BufferedImage resizedImage;
-
-		try {
-			// Create a buffered image with img's type if possible
-			resizedImage = new BufferedImage(RESIZE_WIDTH, RESIZE_HEIGHT,
-					img.getType());
-		} catch (Exception e) {
-			// Default to ABGR if there is an error
-			resizedImage = new BufferedImage(RESIZE_WIDTH, RESIZE_HEIGHT,
-					BufferedImage.TYPE_4BYTE_ABGR);
-		}
-
-		// Resize with Graphics2D using Bicubic algorithm
-		Graphics2D g = resizedImage.createGraphics();
-		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-				RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-
-		// Draw img to the resized image
-		g.drawImage(img, 0, 0, RESIZE_WIDTH, RESIZE_HEIGHT, null);
-		g.dispose();
-
-		return resizedImage;
+	public static ImageHash hash(BufferedImage img) throws IOException {
+		return com.bah.bahdit.main.plugins.imageindex.utils.ImageHasher
+				.hash(img);
 	}
 }
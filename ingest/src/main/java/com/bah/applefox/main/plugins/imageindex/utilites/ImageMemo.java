@@ -0,0 +1,281 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.imageindex.utilites;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.Text;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+/**
+ * The ImageMemo remembers the hash of each image URL fetched, so that an image
+ * shown on many pages (logos, sprites) is only downloaded and hashed once.
+ * 
+ * The most recently used images are kept in memory, and every image is also
+ * stored in the memo table (if set) so that other tasks and later crawls find
+ * it there. Besides the hash, the ETag and Last-Modified of the image are
+ * kept, so that an image checked by an earlier crawl is only fetched again if
+ * it has changed since. Images that are too large or not images at all are
+ * remembered without a hash, so they are not downloaded again either.
+ * 
+ */
+public class ImageMemo {
+
+	private static final Log LOG = LogFactory.getLog(ImageMemo.class);
+
+	// Column family and qualifiers of the memo table
+	private static final String IMAGE = "image", HASH = "hash",
+			ETAG = "etag", MODIFIED = "modified", CHECKED = "checked";
+
+	/**
+	 * What is known of an image URL. The hash is null if the URL is not an
+	 * image that can be hashed.
+	 */
+	public static class Memo {
+		private final ImageHash hash;
+		private final String etag;
+		private final long lastModified;
+		private final long checked;
+
+		/**
+		 * @param hash
+		 *            - the hash of the image, or null if it is not one
+		 * @param etag
+		 *            - the ETag of the image, or null if none was sent
+		 * @param lastModified
+		 *            - the Last-Modified of the image (in milliseconds), or
+		 *            0 if none was sent
+		 * @param checked
+		 *            - the time the image was fetched or found unchanged at
+		 *            (in milliseconds)
+		 */
+		public Memo(ImageHash hash, String etag, long lastModified,
+				long checked) {
+			this.hash = hash;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.checked = checked;
+		}
+
+		public ImageHash getHash() {
+			return hash;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public long getChecked() {
+			return checked;
+		}
+
+		/**
+		 * @return true if the image can be asked for only if it has changed
+		 */
+		public boolean isValidatable() {
+			return etag != null || lastModified > 0;
+		}
+	}
+
+	private final String table;
+	private final Map<String, Memo> memos;
+
+	private final AtomicLong hits = new AtomicLong(),
+			misses = new AtomicLong(), tableHits = new AtomicLong();
+
+	/**
+	 * @param table
+	 *            - the memo table, or null or empty to only keep the images
+	 *            in memory
+	 * @param maxEntries
+	 *            - the number of images kept in memory
+	 */
+	public ImageMemo(String table, final int maxEntries) {
+		this.table = table == null || table.trim().length() == 0 ? null
+				: table.trim();
+		this.memos = new LinkedHashMap<String, Memo>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Memo> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Gets what is known of an image URL, from memory or else from the memo
+	 * table
+	 * 
+	 * @param url
+	 *            - the URL of the image
+	 * @return the memo of the image, or null if it has not been fetched
+	 */
+	public Memo get(String url) {
+		Memo memo;
+		synchronized (memos) {
+			memo = memos.get(url);
+		}
+		if (memo != null) {
+			hits.incrementAndGet();
+			return memo;
+		}
+		misses.incrementAndGet();
+
+		memo = readTable(url);
+		if (memo != null) {
+			tableHits.incrementAndGet();
+			synchronized (memos) {
+				memos.put(url, memo);
+			}
+		}
+		return memo;
+	}
+
+	/**
+	 * Remembers an image URL, in memory and in the memo table
+	 * 
+	 * @param url
+	 *            - the URL of the image
+	 * @param memo
+	 *            - what is known of the image
+	 */
+	public void put(String url, Memo memo) {
+		synchronized (memos) {
+			memos.put(url, memo);
+		}
+		writeTable(url, memo);
+	}
+
+	/**
+	 * Reads the memo of an image URL from the memo table
+	 * 
+	 * @return the stored memo, or null if there is none
+	 */
+	private Memo readTable(String url) {
+		if (table == null) {
+			return null;
+		}
+		try {
+			Scanner scan = AccumuloUtils.connectRead(table);
+			scan.setRange(new Range(url));
+			scan.fetchColumnFamily(new Text(IMAGE));
+			ImageHash hash = null;
+			String etag = null;
+			long lastModified = 0, checked = -1;
+			for (Entry<Key, Value> e : scan) {
+				String cq = e.getKey().getColumnQualifier().toString();
+				if (cq.equals(HASH)) {
+					hash = ImageHash.fromBytes(e.getValue().get());
+				} else if (cq.equals(ETAG)) {
+					etag = e.getValue().toString();
+				} else if (cq.equals(MODIFIED)) {
+					lastModified = Long.parseLong(e.getValue().toString());
+				} else if (cq.equals(CHECKED)) {
+					checked = Long.parseLong(e.getValue().toString());
+				}
+			}
+			if (checked < 0) {
+				return null;
+			}
+			return new Memo(hash, etag, lastModified, checked);
+		} catch (Exception e) {
+			LOG.info("Unable to read memo table " + table + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the memo of an image URL in the memo table. Cells that are not
+	 * known are deleted, so they do not outlive a changed image.
+	 */
+	private void writeTable(String url, Memo memo) {
+		if (table == null) {
+			return;
+		}
+		try {
+			BatchWriter w = AccumuloUtils.getBatchWriter(table);
+			Mutation m = new Mutation(url);
+			if (memo.hash != null) {
+				m.put(IMAGE, HASH, new Value(memo.hash.toBytes()));
+			} else {
+				m.putDelete(IMAGE, HASH);
+			}
+			if (memo.etag != null) {
+				m.put(IMAGE, ETAG, new Value(memo.etag.getBytes()));
+			} else {
+				m.putDelete(IMAGE, ETAG);
+			}
+			m.put(IMAGE, MODIFIED,
+					new Value(Long.toString(memo.lastModified).getBytes()));
+			m.put(IMAGE, CHECKED,
+					new Value(Long.toString(memo.checked).getBytes()));
+			w.addMutation(m);
+		} catch (Exception e) {
+			LOG.info("Unable to write memo table " + table + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of images found in memory
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of images not found in memory
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of misses that were found in the memo table
+	 */
+	public long getTableHits() {
+		return tableHits.get();
+	}
+
+	/**
+	 * @return the number of images kept in memory
+	 */
+	public int size() {
+		synchronized (memos) {
+			return memos.size();
+		}
+	}
+}
@@ -25,7 +25,9 @@ import org.apache.hadoop.util.ToolRunner;
 
 import com.bah.applefox.main.plugins.pageranking.utilities.CountURLs;
 import com.bah.applefox.main.plugins.pageranking.utilities.DampenTable;
+import com.bah.applefox.main.plugins.pageranking.utilities.GraphPageRanking;
 import com.bah.applefox.main.plugins.pageranking.utilities.InitializePRTables;
+import com.bah.applefox.main.plugins.pageranking.utilities.LocalPageRanking;
 import com.bah.applefox.main.plugins.pageranking.utilities.PRtoFile;
 import com.bah.applefox.main.plugins.pageranking.utilities.MRPageRanking;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
@@ -35,10 +37,24 @@ import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
  * necessary for computing page rank, then iterates the given number of times to
  * calculate the ranks to varying degrees of precision.
  * 
+ * In the "graph" mode (PR_MODE), the links are loaded once into a LinkGraph
+ * and all of the iterations run in a single job (see GraphPageRanking),
+ * instead of running the MapReduce jobs of each iteration over the tables.
+ * In the "local" mode, the links are loaded into a LinkGraph on this machine,
+ * and the iterations run on PR_THREADS threads (see LocalPageRanking),
+ * without any job. In both of these modes the iterations stop once the ranks
+ * change by less than PR_THRESHOLD on average, and with PR_WARM_START the
+ * pages start from their ranks of the last run instead of 1.0. The
+ * "mapreduce" mode always runs every iteration from 1.0.
  * 
  */
 public class PageRank {
 
+	// The ways of computing page rank
+	public static final String MODE_MAPREDUCE = "mapreduce";
+	public static final String MODE_GRAPH = "graph";
+	public static final String MODE_LOCAL = "local";
+
 	private static Log log = LogFactory.getLog(PageRank.class);
 
 	/**
@@ -55,10 +71,47 @@ public class PageRank {
 	 */
 	public static boolean createPageRank(String[] args, int iterations,
 			String urlSplit) {
+		return createPageRank(args, iterations, urlSplit, MODE_MAPREDUCE);
+	}
+
+	/**
+	 * This method controls everything necessary to calculate page rank and
+	 * store it to a file
+	 * 
+	 * @param args
+	 *            - the string values to pass in
+	 * @param iterations
+	 *            - the number of iterations to run
+	 * @param urlSplit
+	 *            - the size of the split for all page rank tables
+	 * @param mode
+	 *            - MODE_MAPREDUCE, MODE_GRAPH or MODE_LOCAL (in the last
+	 *            two, iterations is the most iterations run)
+	 * @return - whether or not the page rank was successfully calculated
+	 */
+	public static boolean createPageRank(String[] args, int iterations,
+			String urlSplit, String mode) {
 		try {
 
 			AccumuloUtils.setSplitSize(urlSplit);
 
+			if (MODE_LOCAL.equals(mode)) {
+				return new LocalPageRanking(iterations,
+						Double.parseDouble(args[33]),
+						Integer.parseInt(args[34]),
+						Boolean.parseBoolean(args[35])).run(args);
+			}
+
+			if (MODE_GRAPH.equals(mode)) {
+				GraphPageRanking ranking = new GraphPageRanking(iterations,
+						Double.parseDouble(args[33]),
+						Boolean.parseBoolean(args[35]));
+				if (ToolRunner.run(ranking, args) != 0) {
+					return false;
+				}
+				return PRtoFile.writeToFile(args);
+			}
+
 			ToolRunner.run(new CountURLs(), args);
 
 			ToolRunner.run(new InitializePRTables(), args);
@@ -0,0 +1,309 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.pageranking.utilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
+import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
+import org.apache.accumulo.core.client.mapreduce.InputFormatBase;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.Tool;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.applefox.main.plugins.utilities.IngestUtils;
+
+/**
+ * Computes page rank in a single MapReduce job, in place of the CountURLs,
+ * InitializePRTables, MRPageRanking and DampenTable jobs run for every
+ * iteration. The mappers read the links out of the PR_URL_MAP_TABLE_PREFIX +
+ * "To" table in parallel, and a single reducer builds them into a LinkGraph,
+ * runs the iterations over it in memory with a PageRankEngine, and writes
+ * only the final ranks to the PR_TABLE_PREFIX + "New" table, which then
+ * replaces the "Old" table that PRtoFile reads as before.
+ * 
+ * The iterations stop once the ranks change by less than the threshold on
+ * average, and the change of each iteration is logged. With a warm start,
+ * the pages start from their ranks in the "Old" table, so that after a
+ * recrawl the ranks converge in a few iterations.
+ * 
+ * The reducer holds the whole graph (an int for each link, a few for each
+ * page, and each URL once), so its task needs a heap to match the crawl.
+ * 
+ */
+public class GraphPageRanking extends Configured implements Tool {
+
+	private static final String ITERATIONS = GraphPageRanking.class.getName()
+			+ ".iterations";
+	private static final String DAMPENING = GraphPageRanking.class.getName()
+			+ ".dampening";
+	private static final String THRESHOLD = GraphPageRanking.class.getName()
+			+ ".threshold";
+	// The table of the earlier ranks, if the ranks are warm started
+	private static final String PREVIOUS_RANKS = GraphPageRanking.class
+			.getName() + ".previous";
+	private static final String INSTANCE = GraphPageRanking.class.getName()
+			+ ".instance";
+	private static final String ZOOKEEPERS = GraphPageRanking.class.getName()
+			+ ".zookeepers";
+	private static final String USER = GraphPageRanking.class.getName()
+			+ ".user";
+	private static final String PASSWORD = GraphPageRanking.class.getName()
+			+ ".password";
+
+	private static Log log = LogFactory.getLog(GraphPageRanking.class);
+
+	private int iterations;
+	private double threshold;
+	private boolean warmStart;
+
+	/**
+	 * Counters of the size of the graph
+	 */
+	public static enum GRAPH_COUNTER {
+		PAGES, LINKS, PAGES_RANKED, ITERATIONS
+	};
+
+	/**
+	 * MapperClass extends the Mapper class. It writes each link as the page
+	 * linked to and the page linking to it.
+	 * 
+	 */
+	public static class MapperClass extends Mapper<Key, Value, Text, Text> {
+
+		@Override
+		public void map(Key key, Value value, Context context)
+				throws IOException, InterruptedException {
+			context.write(key.getRow(), key.getColumnFamily());
+		}
+	}
+
+	/**
+	 * ReducerClass extends the Reducer class. The single reducer gathers all
+	 * of the links, and ranks the pages once it has seen all of them.
+	 * 
+	 */
+	public static class ReducerClass extends Reducer<Text, Text, Text, Mutation> {
+
+		private LinkGraph.Builder builder = new LinkGraph.Builder();
+
+		@Override
+		public void reduce(Text key, Iterable<Text> values, Context context) {
+			String to = key.toString();
+			for (Text from : values) {
+				builder.addLink(from.toString(), to);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			Configuration conf = context.getConfiguration();
+			int iterations = conf.getInt(ITERATIONS, 1);
+			double dampeningFactor = Double.parseDouble(conf.get(DAMPENING));
+			double threshold = Double.parseDouble(conf.get(THRESHOLD, "0"));
+
+			double[] previous = null;
+			if (conf.get(PREVIOUS_RANKS) != null) {
+				try {
+					Connector conn = new ZooKeeperInstance(conf.get(INSTANCE),
+							conf.get(ZOOKEEPERS)).getConnector(conf.get(USER),
+							conf.get(PASSWORD).getBytes());
+					previous = readPreviousRanks(conn,
+							conf.get(PREVIOUS_RANKS), builder);
+				} catch (AccumuloException e) {
+					throw new IOException(e);
+				} catch (AccumuloSecurityException e) {
+					throw new IOException(e);
+				}
+			}
+
+			LinkGraph graph = builder.build();
+			builder = null;
+			context.getCounter(GRAPH_COUNTER.PAGES).increment(graph.size());
+			context.getCounter(GRAPH_COUNTER.LINKS).increment(
+					graph.getNumLinks());
+
+			PageRankEngine engine = new PageRankEngine(graph, dampeningFactor);
+			if (previous != null) {
+				engine.warmStart(previous);
+			}
+			for (int i = 0; i < iterations; i++) {
+				double delta = engine.iterate();
+				double change = engine.getAverageChange(delta);
+				log.info("Page rank iteration " + (i + 1) + ": change "
+						+ delta + ", average change " + change);
+				context.progress();
+				if (change < threshold) {
+					break;
+				}
+			}
+			context.getCounter(GRAPH_COUNTER.ITERATIONS).increment(
+					engine.getIterations());
+
+			for (int i = 0; i < graph.size(); i++) {
+				if (!graph.hasInLinks(i)) {
+					continue;
+				}
+				Mutation m = new Mutation(graph.getUrl(i));
+				m.put("0", "0", new Value(IngestUtils.serialize(new Double(
+						engine.getRank(i)))));
+				context.write(null, m);
+				context.getCounter(GRAPH_COUNTER.PAGES_RANKED).increment(1);
+			}
+		}
+	}
+
+	/**
+	 * Reads the ranks of an earlier run (Row: URL | Column Family: 0 | Column
+	 * Qualifier: 0 | Value: rank), for the pages added to the builder
+	 * 
+	 * @return the earlier rank of each page, by id, NaN for the pages without
+	 *         one
+	 */
+	public static double[] readPreviousRanks(Connector conn, String rankTable,
+			LinkGraph.Builder builder) throws IOException {
+		double[] previous = new double[builder.getNumPages()];
+		Arrays.fill(previous, Double.NaN);
+		if (!conn.tableOperations().exists(rankTable)) {
+			return previous;
+		}
+
+		int found = 0;
+		try {
+			Scanner scan = conn.createScanner(rankTable, new Authorizations());
+			for (Entry<Key, Value> e : scan) {
+				int id = builder.getId(e.getKey().getRow().toString());
+				if (id >= 0) {
+					previous[id] = (Double) IngestUtils.deserialize(e
+							.getValue().get());
+					found++;
+				}
+			}
+		} catch (TableNotFoundException e) {
+			throw new IOException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		log.info("Warm starting " + found + " pages from " + rankTable);
+		return previous;
+	}
+
+	/**
+	 * @param iterations
+	 *            - the number of iterations to run
+	 */
+	public GraphPageRanking(int iterations) {
+		this(iterations, 0.0, false);
+	}
+
+	/**
+	 * @param iterations
+	 *            - the most iterations to run
+	 * @param threshold
+	 *            - the average change of the ranks of an iteration under
+	 *            which the ranks are final (0 to always run all iterations)
+	 * @param warmStart
+	 *            - whether the pages start from their ranks of the last run
+	 */
+	public GraphPageRanking(int iterations, double threshold, boolean warmStart) {
+		this.iterations = iterations;
+		this.threshold = threshold;
+		this.warmStart = warmStart;
+	}
+
+	public int run(String[] args) throws Exception {
+
+		String jobName = this.getClass().getSimpleName() + "_"
+				+ System.currentTimeMillis();
+
+		String rankTable = args[13] + "New";
+		String oldTable = args[13] + "Old";
+
+		// The ranks are written to an empty table, which replaces the ranks
+		// of the last run once the job succeeds
+		Connector conn = AccumuloUtils.getConnector();
+		if (conn.tableOperations().exists(rankTable)) {
+			conn.tableOperations().delete(rankTable);
+		}
+		AccumuloUtils.connectBatchWrite(rankTable).close();
+
+		Job job = new Job(getConf(), jobName);
+		job.setJarByClass(this.getClass());
+		job.getConfiguration().setInt(ITERATIONS, iterations);
+		job.getConfiguration().set(DAMPENING, args[14]);
+		job.getConfiguration().set(THRESHOLD, Double.toString(threshold));
+		if (warmStart) {
+			job.getConfiguration().set(PREVIOUS_RANKS, oldTable);
+			job.getConfiguration().set(INSTANCE, args[0]);
+			job.getConfiguration().set(ZOOKEEPERS, args[1]);
+			job.getConfiguration().set(USER, args[2]);
+			job.getConfiguration().set(PASSWORD, args[3]);
+		}
+
+		job.setInputFormatClass(AccumuloInputFormat.class);
+		InputFormatBase.setZooKeeperInstance(job.getConfiguration(), args[0],
+				args[1]);
+		InputFormatBase.setInputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), args[12] + "To", new Authorizations());
+
+		job.setMapperClass(MapperClass.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(Text.class);
+
+		// all of the links have to reach the same reducer
+		job.setReducerClass(ReducerClass.class);
+		job.setNumReduceTasks(1);
+		job.setOutputFormatClass(AccumuloOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Mutation.class);
+		AccumuloOutputFormat.setZooKeeperInstance(job.getConfiguration(),
+				args[0], args[1]);
+		AccumuloOutputFormat.setOutputInfo(job.getConfiguration(), args[2],
+				args[3].getBytes(), true, rankTable);
+
+		job.waitForCompletion(true);
+		if (!job.isSuccessful()) {
+			return 1;
+		}
+
+		if (conn.tableOperations().exists(oldTable)) {
+			conn.tableOperations().delete(oldTable);
+		}
+		conn.tableOperations().rename(rankTable, oldTable);
+		return 0;
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.pageranking.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A compact, read only link graph for computing page rank. Each URL is
+ * interned once and given an int id, and the links are held as int arrays in
+ * compressed sparse row form: the in-links of page i are the ids
+ * inLinks[inOffsets[i]] to inLinks[inOffsets[i + 1] - 1]. A page rank
+ * iteration is then a pass over these arrays, and costs time proportional to
+ * the number of links.
+ * 
+ * The graph is built with a Builder, from the links read out of the
+ * PR_URL_MAP_TABLE_PREFIX + "To" table (Row: the page linked to | Column
+ * Family: the page linking to it).
+ * 
+ */
+public class LinkGraph {
+
+	private final String[] urls;
+	private final int[] inOffsets;
+	private final int[] inLinks;
+	private final int[] outDegree;
+
+	private LinkGraph(String[] urls, int[] inOffsets, int[] inLinks,
+			int[] outDegree) {
+		this.urls = urls;
+		this.inOffsets = inOffsets;
+		this.inLinks = inLinks;
+		this.outDegree = outDegree;
+	}
+
+	/**
+	 * @return the number of pages in the graph
+	 */
+	public int size() {
+		return urls.length;
+	}
+
+	/**
+	 * @return the number of links in the graph
+	 */
+	public int getNumLinks() {
+		return inLinks.length;
+	}
+
+	/**
+	 * @return the URL of the page with the given id
+	 */
+	public String getUrl(int id) {
+		return urls[id];
+	}
+
+	/**
+	 * @return the number of links out of the page
+	 */
+	public int getOutDegree(int id) {
+		return outDegree[id];
+	}
+
+	/**
+	 * @return true if any page links to the page. Only these pages are
+	 *         ranked, the same as in the page rank tables.
+	 */
+	public boolean hasInLinks(int id) {
+		return inOffsets[id + 1] > inOffsets[id];
+	}
+
+	/**
+	 * @return the offset in getInLinks of the first in-link of the page, the
+	 *         in-links of page id ending at getInOffset(id + 1)
+	 */
+	public int getInOffset(int id) {
+		return inOffsets[id];
+	}
+
+	/**
+	 * @return the ids of the pages linking to each page, see getInOffset.
+	 *         The array is shared and must not be changed.
+	 */
+	public int[] getInLinks() {
+		return inLinks;
+	}
+
+	/**
+	 * Builds a LinkGraph one link at a time
+	 */
+	public static class Builder {
+
+		private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		private final ArrayList<String> urls = new ArrayList<String>();
+		private int[] targets = new int[1024];
+		private int[] sources = new int[1024];
+		private int numLinks = 0;
+
+		/**
+		 * Interns a URL
+		 * 
+		 * @return the id of the URL
+		 */
+		public int addPage(String url) {
+			Integer id = ids.get(url);
+			if (id == null) {
+				id = urls.size();
+				ids.put(url, id);
+				urls.add(url);
+			}
+			return id;
+		}
+
+		/**
+		 * Adds a link from one page to another
+		 * 
+		 * @param from
+		 *            - the page linking
+		 * @param to
+		 *            - the page linked to
+		 */
+		public void addLink(String from, String to) {
+			int target = addPage(to);
+			int source = addPage(from);
+			if (numLinks == targets.length) {
+				targets = grow(targets);
+				sources = grow(sources);
+			}
+			targets[numLinks] = target;
+			sources[numLinks] = source;
+			numLinks++;
+		}
+
+		/**
+		 * @return the id of the URL, or -1 if it has not been added
+		 */
+		public int getId(String url) {
+			Integer id = ids.get(url);
+			return id == null ? -1 : id;
+		}
+
+		/**
+		 * @return the number of pages added so far, the ids of which are 0
+		 *         to getNumPages() - 1 in the graph built
+		 */
+		public int getNumPages() {
+			return urls.size();
+		}
+
+		/**
+		 * @return the number of links added so far
+		 */
+		public int getNumLinks() {
+			return numLinks;
+		}
+
+		/**
+		 * Builds the graph. The builder must not be used afterwards.
+		 */
+		public LinkGraph build() {
+			int n = urls.size();
+			int[] inOffsets = new int[n + 1];
+			int[] outDegree = new int[n];
+			for (int i = 0; i < numLinks; i++) {
+				inOffsets[targets[i] + 1]++;
+				outDegree[sources[i]]++;
+			}
+			for (int i = 0; i < n; i++) {
+				inOffsets[i + 1] += inOffsets[i];
+			}
+
+			// place the source of each link among the in-links of its target
+			int[] inLinks = new int[numLinks];
+			int[] next = new int[n];
+			System.arraycopy(inOffsets, 0, next, 0, n);
+			for (int i = 0; i < numLinks; i++) {
+				inLinks[next[targets[i]]++] = sources[i];
+			}
+
+			String[] u = urls.toArray(new String[n]);
+			ids.clear();
+			urls.clear();
+			targets = null;
+			sources = null;
+			return new LinkGraph(u, inOffsets, inLinks, outDegree);
+		}
+
+		private static int[] grow(int[] a) {
+			int[] b = new int[a.length * 2];
+			System.arraycopy(a, 0, b, 0, a.length);
+			return b;
+		}
+	}
+}
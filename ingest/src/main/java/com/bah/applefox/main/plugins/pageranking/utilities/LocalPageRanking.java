@@ -0,0 +1,185 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.pageranking.utilities;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+import com.bah.applefox.main.plugins.utilities.IngestUtils;
+
+/**
+ * Computes page rank on the machine running Ingest, without any MapReduce
+ * job, for crawls whose links fit in its memory. The links are read once out
+ * of the PR_URL_MAP_TABLE_PREFIX + "To" table into a LinkGraph (the "From"
+ * table holds the same links the other way around, so the number of links
+ * out of each page is counted from the "To" table as well), and a
+ * multi-threaded PageRankEngine iterates until the ranks change by less than
+ * the threshold on average, or the most iterations have run, logging the
+ * change of each iteration. With a warm start, the pages start from their
+ * ranks in the PR_TABLE_PREFIX + "Old" table. The ranks are then written to
+ * the "New" table, which replaces the "Old" table once all of them are
+ * written, and straight to the page rank file, without reading them back out
+ * of the table.
+ * 
+ */
+public class LocalPageRanking {
+
+	private static Log log = LogFactory.getLog(LocalPageRanking.class);
+
+	private final int maxIterations;
+	private final double threshold;
+	private final int threads;
+	private final boolean warmStart;
+
+	/**
+	 * @param maxIterations
+	 *            - the most iterations to run
+	 * @param threshold
+	 *            - the average change of the ranks of an iteration under
+	 *            which the ranks are final (0 to always run maxIterations)
+	 * @param threads
+	 *            - the number of threads to read the links and rank the pages
+	 *            with
+	 * @param warmStart
+	 *            - whether the pages start from their ranks of the last run
+	 */
+	public LocalPageRanking(int maxIterations, double threshold, int threads,
+			boolean warmStart) {
+		this.maxIterations = maxIterations;
+		this.threshold = threshold;
+		this.threads = Math.max(threads, 1);
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * Computes the page ranks and writes them to the rank table and the page
+	 * rank file
+	 * 
+	 * @return whether or not the page rank was successfully calculated
+	 */
+	public boolean run(String[] args) throws IOException, AccumuloException,
+			AccumuloSecurityException, TableNotFoundException,
+			TableExistsException {
+		LinkGraph.Builder builder = readLinks(args[12] + "To");
+		double[] previous = null;
+		if (warmStart) {
+			previous = GraphPageRanking.readPreviousRanks(
+					AccumuloUtils.getConnector(), args[13] + "Old", builder);
+		}
+		LinkGraph graph = builder.build();
+		log.info("Page rank graph: " + graph.size() + " pages, "
+				+ graph.getNumLinks() + " links");
+
+		PageRankEngine engine = new PageRankEngine(graph,
+				Double.parseDouble(args[14]), threads);
+		if (previous != null) {
+			engine.warmStart(previous);
+		}
+		try {
+			for (int i = 0; i < maxIterations; i++) {
+				double delta = engine.iterate();
+				double change = engine.getAverageChange(delta);
+				log.info("Page rank iteration " + (i + 1) + ": change "
+						+ delta + ", average change " + change);
+				if (change < threshold) {
+					break;
+				}
+			}
+		} finally {
+			engine.shutdown();
+		}
+		log.info("Page rank finished after " + engine.getIterations()
+				+ " iterations");
+
+		HashMap<String, Double> ranks = writeRanks(args[13] + "New",
+				args[13] + "Old", engine);
+		return PRtoFile.writeToFile(args, ranks);
+	}
+
+	/**
+	 * Reads the links of a page rank "To" table (Row: URL linked to | Column
+	 * Family: URL linking to it)
+	 */
+	private LinkGraph.Builder readLinks(String toTable) throws AccumuloException,
+			AccumuloSecurityException, TableNotFoundException {
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		BatchScanner scan = AccumuloUtils.getConnector().createBatchScanner(
+				toTable, new Authorizations(), threads);
+		scan.setRanges(Collections.singleton(new Range()));
+		for (Entry<Key, Value> e : scan) {
+			builder.addLink(e.getKey().getColumnFamily().toString(), e
+					.getKey().getRow().toString());
+		}
+		scan.close();
+		return builder;
+	}
+
+	/**
+	 * Writes the ranks of the pages linked to into an empty table, which
+	 * replaces the ranks of the last run once they are all written
+	 * 
+	 * @return the rank of each page linked to
+	 */
+	private HashMap<String, Double> writeRanks(String rankTable,
+			String oldTable, PageRankEngine engine) throws IOException,
+			AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		Connector conn = AccumuloUtils.getConnector();
+		if (conn.tableOperations().exists(rankTable)) {
+			conn.tableOperations().delete(rankTable);
+		}
+		BatchWriter w = AccumuloUtils.connectBatchWrite(rankTable);
+
+		LinkGraph graph = engine.getGraph();
+		HashMap<String, Double> ranks = new HashMap<String, Double>();
+		for (int i = 0; i < graph.size(); i++) {
+			if (!graph.hasInLinks(i)) {
+				continue;
+			}
+			Double rank = new Double(engine.getRank(i));
+			Mutation m = new Mutation(graph.getUrl(i));
+			m.put("0", "0", new Value(IngestUtils.serialize(rank)));
+			w.addMutation(m);
+			ranks.put(graph.getUrl(i), rank);
+		}
+		w.close();
+
+		if (conn.tableOperations().exists(oldTable)) {
+			conn.tableOperations().delete(oldTable);
+		}
+		conn.tableOperations().rename(rankTable, oldTable);
+		return ranks;
+	}
+}
@@ -20,36 +20,40 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Value;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.bah.applefox.main.plugins.fulltextindex.FTMRSampler;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 import com.bah.applefox.main.plugins.utilities.IngestUtils;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
 
 /**
  * This class writes the finished page rank table to a file, used by the search
- * engine component. The table is written to a HashMap<String, Double> which is
- * then written as an object to a file.
+ * engine component. The table is collected into a HashMap<String, Double> 
+ * which is then written to a file as a TermDictionary, and to the stats table 
+ * if one is configured.
  * 
  */
 public class PRtoFile {
 
+	// The column family of the ranks in the stats table
+	public static final String PAGERANK = "pr";
+
 	private static Log log = LogFactory.getLog(PRtoFile.class);
 	
 	private static HashMap<String, Double> createMap(String[] args)
@@ -86,33 +90,91 @@ public class PRtoFile {
 			}
 		}
 
-		Double max = 0.0;
-
-		Collection<Double> values = ret.values();
+		addMaxRank(ret);
 
-		ArrayList<Double> tempValues = new ArrayList<Double>();
-		tempValues.addAll(values);
-		Collections.sort(tempValues);
-		Collections.reverse(tempValues);
+		return ret;
+	}
 
-		max = tempValues.get(0);
+	/**
+	 * Adds the highest rank to the ranks, as [[MAX_PR]], which search
+	 * normalizes the ranks by
+	 */
+	private static void addMaxRank(HashMap<String, Double> ranks) {
+		double max = 0.0;
+		for (Double rank : ranks.values()) {
+			max = Math.max(max, rank);
+		}
+		ranks.put("[[MAX_PR]]", max);
+	}
 
-		ret.put("[[MAX_PR]]", max);
+	/**
+	 * Writes the ranks to the stats table read by search (Row: URL | Column
+	 * Family: pr | Value: rank as a String), then bumps its epoch
+	 */
+	private static void writeToStatsTable(HashMap<String, Double> map,
+			String statsTable) throws AccumuloException,
+			AccumuloSecurityException, TableNotFoundException,
+			TableExistsException {
+		BatchWriter w = AccumuloUtils.connectBatchWrite(statsTable);
+		for (Entry<String, Double> entry : map.entrySet()) {
+			Mutation m = new Mutation(entry.getKey());
+			m.put(PAGERANK, "", new Value(entry.getValue().toString()
+					.getBytes()));
+			w.addMutation(m);
+		}
+		w.close();
 
-		return ret;
+		// tell search to read the new ranks
+		FTMRSampler.bumpEpoch(statsTable);
 	}
 
+	/**
+	 * Writes the ranks of the PR_TABLE_PREFIX + "Old" table to the page rank
+	 * file (and the stats table)
+	 */
 	public static boolean writeToFile(String[] args) {
+		return write(args, null);
+	}
+
+	/**
+	 * Writes ranks already computed to the page rank file (and the stats
+	 * table), without reading them back out of the rank table
+	 * 
+	 * @param ranks
+	 *            - the rank of each URL, to which [[MAX_PR]] is added
+	 */
+	public static boolean writeToFile(String[] args,
+			HashMap<String, Double> ranks) {
+		addMaxRank(ranks);
+		return write(args, ranks);
+	}
+
+	private static boolean write(String[] args, HashMap<String, Double> map) {
 		String fileName = args[16];
 		File f = new File(fileName);
 		try {
+			if (map == null) {
+				map = createMap(args);
+			}
 			f.createNewFile();
 			OutputStream file = new FileOutputStream(f);
-			OutputStream buffer = new BufferedOutputStream(file);
-			ObjectOutput out = new ObjectOutputStream(buffer);
-			out.writeObject(createMap(args));
+			OutputStream out = new BufferedOutputStream(file);
+			// the ranks are kept as floats, which is precise enough to order by
+			TermDictionary.write(map, TermDictionary.FLOAT_VALUES, out);
 			out.flush();
 			out.close();
+
+			// Write the ranks to the stats table, if there is one
+			if (args.length > 26 && args[26] != null && !args[26].equals("")) {
+				writeToStatsTable(map, args[26]);
+			}
+		} catch (TableExistsException e) {
+			if (e.getMessage() != null) {
+				log.error(e.getMessage());
+			} else {
+				log.error(e.getStackTrace());
+			}
+			return false;
 		} catch (IOException e) {
 			if (e.getMessage() != null) {
 				log.error(e.getMessage());
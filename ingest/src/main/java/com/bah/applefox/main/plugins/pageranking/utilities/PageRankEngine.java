@@ -0,0 +1,281 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.pageranking.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the page rank power iteration over a LinkGraph, with two rank vectors
+ * indexed by page id in place of the page rank tables. Each iteration
+ * computes the same ranks as a round of MRPageRanking and DampenTable:
+ * 
+ * rank(p) = 1 - d + d * sum over the pages q linking to p of rank(q) /
+ * outDegree(q)
+ * 
+ * Only the pages that are linked to are ranked, starting at 1.0 (or at their
+ * ranks of an earlier run, see warmStart), and the other pages add nothing
+ * to the pages they link to.
+ * 
+ * With more than one thread, the pages are split into ranges holding about
+ * the same number of links, and the ranges are ranked in parallel. The
+ * threads are stopped by shutdown.
+ * 
+ */
+public class PageRankEngine {
+
+	// The ranges of pages each thread is given
+	private static final int RANGES_PER_THREAD = 4;
+
+	private final LinkGraph graph;
+	private final double dampeningFactor;
+	private double[] ranks;
+	private double[] next;
+	private final double[] shares;
+	private final int numRanked;
+	private int iterations = 0;
+
+	private final ExecutorService pool;
+	private final int[] bounds;
+
+	/**
+	 * @param graph
+	 *            - the links between the pages
+	 * @param dampeningFactor
+	 *            - the dampening factor (d)
+	 */
+	public PageRankEngine(LinkGraph graph, double dampeningFactor) {
+		this(graph, dampeningFactor, 1);
+	}
+
+	/**
+	 * @param graph
+	 *            - the links between the pages
+	 * @param dampeningFactor
+	 *            - the dampening factor (d)
+	 * @param threads
+	 *            - the number of threads to rank the pages with
+	 */
+	public PageRankEngine(LinkGraph graph, double dampeningFactor, int threads) {
+		this.graph = graph;
+		this.dampeningFactor = dampeningFactor;
+		int n = graph.size();
+		ranks = new double[n];
+		next = new double[n];
+		shares = new double[n];
+		int ranked = 0;
+		for (int i = 0; i < n; i++) {
+			if (graph.hasInLinks(i)) {
+				ranks[i] = 1.0;
+				ranked++;
+			}
+		}
+		numRanked = ranked;
+
+		if (threads > 1 && n > 0) {
+			pool = Executors.newFixedThreadPool(threads);
+			bounds = split(graph, threads * RANGES_PER_THREAD);
+		} else {
+			pool = null;
+			bounds = new int[] { 0, n };
+		}
+	}
+
+	/**
+	 * Starts the pages from their ranks of an earlier run, so that after a
+	 * small change to the links the ranks converge in a few iterations. Pages
+	 * without an earlier rank (NaN) start at 1.0, and pages not linked to are
+	 * still not ranked.
+	 * 
+	 * @param previous
+	 *            - the earlier rank of each page, by id
+	 */
+	public void warmStart(double[] previous) {
+		int n = Math.min(previous.length, ranks.length);
+		for (int i = 0; i < n; i++) {
+			if (graph.hasInLinks(i) && !Double.isNaN(previous[i])) {
+				ranks[i] = previous[i];
+			}
+		}
+	}
+
+	/**
+	 * Splits the pages into ranges of about the same number of links
+	 * 
+	 * @return the first page of each range, followed by the number of pages
+	 */
+	private static int[] split(LinkGraph graph, int ranges) {
+		int n = graph.size();
+		long links = graph.getNumLinks();
+		int[] b = new int[ranges + 1];
+		int page = 0;
+		for (int r = 1; r < ranges; r++) {
+			long target = links * r / ranges;
+			while (page < n && graph.getInOffset(page) < target) {
+				page++;
+			}
+			b[r] = page;
+		}
+		b[ranges] = n;
+		return b;
+	}
+
+	/**
+	 * Runs one iteration
+	 * 
+	 * @return the sum of the changes of the ranks (the L1 distance between
+	 *         the old and the new ranks)
+	 */
+	public double iterate() {
+		if (pool == null) {
+			computeShares(0, graph.size());
+			return swap(rank(0, graph.size()));
+		} else {
+			List<Callable<Double>> shareTasks = new ArrayList<Callable<Double>>();
+			List<Callable<Double>> rankTasks = new ArrayList<Callable<Double>>();
+			for (int r = 0; r + 1 < bounds.length; r++) {
+				final int start = bounds[r];
+				final int end = bounds[r + 1];
+				shareTasks.add(new Callable<Double>() {
+					public Double call() {
+						computeShares(start, end);
+						return 0.0;
+					}
+				});
+				rankTasks.add(new Callable<Double>() {
+					public Double call() {
+						return rank(start, end);
+					}
+				});
+			}
+			// every share has to be computed before any page is ranked
+			runAll(shareTasks);
+			return swap(runAll(rankTasks));
+		}
+	}
+
+	private double swap(double delta) {
+		double[] temp = ranks;
+		ranks = next;
+		next = temp;
+		iterations++;
+		return delta;
+	}
+
+	/**
+	 * Runs the tasks and waits for all of them
+	 * 
+	 * @return the sum of their results
+	 */
+	private double runAll(List<Callable<Double>> tasks) {
+		double total = 0.0;
+		try {
+			for (Future<Double> f : pool.invokeAll(tasks)) {
+				total += f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Page rank interrupted");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		return total;
+	}
+
+	/**
+	 * Computes the rank each page gives to every page it links to
+	 */
+	private void computeShares(int start, int end) {
+		for (int i = start; i < end; i++) {
+			int out = graph.getOutDegree(i);
+			shares[i] = out == 0 ? 0.0 : ranks[i] / out;
+		}
+	}
+
+	/**
+	 * Ranks the pages in [start, end) from the shares of the pages linking
+	 * to them
+	 * 
+	 * @return the sum of the changes of their ranks
+	 */
+	private double rank(int start, int end) {
+		int[] inLinks = graph.getInLinks();
+		double delta = 0.0;
+		for (int i = start; i < end; i++) {
+			int last = graph.getInOffset(i + 1);
+			if (last == graph.getInOffset(i)) {
+				next[i] = 0.0;
+				continue;
+			}
+			double total = 0.0;
+			for (int j = graph.getInOffset(i); j < last; j++) {
+				total += shares[inLinks[j]];
+			}
+			next[i] = 1 - dampeningFactor + dampeningFactor * total;
+			delta += Math.abs(next[i] - ranks[i]);
+		}
+		return delta;
+	}
+
+	/**
+	 * Stops the threads of the engine
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the rank of the page with the given id
+	 */
+	public double getRank(int id) {
+		return ranks[id];
+	}
+
+	/**
+	 * @return the number of pages ranked (the pages linked to)
+	 */
+	public int getNumRanked() {
+		return numRanked;
+	}
+
+	/**
+	 * @param delta
+	 *            - the change of the ranks returned by iterate
+	 * @return the average change of the rank of a ranked page
+	 */
+	public double getAverageChange(double delta) {
+		return delta / Math.max(numRanked, 1);
+	}
+
+	/**
+	 * @return the number of iterations run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public LinkGraph getGraph() {
+		return graph;
+	}
+}
@@ -18,23 +18,35 @@ package com.bah.applefox.main.plugins.utilities;
 
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Instance;
+import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * 
  * A simple Library used for testing and as a help to connect to testing
  * accumulo tables
  * 
+ * Connectors are kept in a process-wide registry with one Connector per
+ * instance and user, so that map and reduce tasks do not open a new
+ * ZooKeeper session for every record. The registry also holds long-lived
+ * BatchWriters per table (see getBatchWriter), which are flushed with
+ * flushBatchWriters and closed with closeBatchWriters or at shutdown.
+ * 
  */
 public class AccumuloUtils {
 	private static String ZOOSERVERS = "localhost";
@@ -43,11 +55,60 @@ public class AccumuloUtils {
 	private static String PASSW = "bah";
 	private static String SPLIT_SIZE = "1G";
 
+	private static Log log = LogFactory.getLog(AccumuloUtils.class);
+
+	// One Connector per instance and user
+	private static final ConcurrentMap<String, Connector> CONNECTORS = new ConcurrentHashMap<String, Connector>();
+
+	// Long-lived BatchWriters per instance, user and table
+	private static final ConcurrentMap<String, BatchWriter> WRITERS = new ConcurrentHashMap<String, BatchWriter>();
+
+	// Pool and writer statistics
+	private static final AtomicLong connectorsCreated = new AtomicLong();
+	private static final AtomicLong connectorRequests = new AtomicLong();
+	private static final AtomicLong writersCreated = new AtomicLong();
+	private static final AtomicLong writerRequests = new AtomicLong();
+
+	static {
+		// Make sure the shared writers are flushed when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				closeBatchWriters();
+			}
+		});
+	}
+
+	/**
+	 * Gets the Connector for the current instance and user, creating it the
+	 * first time it is asked for
+	 * 
+	 * @return the shared Connector
+	 */
+	public static Connector getConnector() throws AccumuloException,
+			AccumuloSecurityException {
+		connectorRequests.incrementAndGet();
+		String connectorKey = connectorKey();
+		Connector conn = CONNECTORS.get(connectorKey);
+		if (conn == null) {
+			synchronized (CONNECTORS) {
+				conn = CONNECTORS.get(connectorKey);
+				if (conn == null) {
+					Instance inst = new ZooKeeperInstance(INSTANCENAME,
+							ZOOSERVERS);
+					conn = inst.getConnector(USER, PASSW);
+					CONNECTORS.put(connectorKey, conn);
+					connectorsCreated.incrementAndGet();
+				}
+			}
+		}
+		return conn;
+	}
+
 	public static Scanner connectRead(String TableName)
 			throws AccumuloException, AccumuloSecurityException,
 			TableNotFoundException {
-		Instance inst = new ZooKeeperInstance(INSTANCENAME, ZOOSERVERS);
-		Connector conn = inst.getConnector(USER, PASSW);
+		Connector conn = getConnector();
 		String table = TableName;
 
 		Scanner scanner = conn.createScanner(table, new Authorizations());
@@ -55,15 +116,140 @@ public class AccumuloUtils {
 		return scanner;
 	}
 
+	/**
+	 * Creates a new BatchWriter for the table, creating the table if it does
+	 * not exist. The caller owns the writer and has to close it.
+	 */
 	public static BatchWriter connectBatchWrite(String TableName)
 			throws AccumuloException, AccumuloSecurityException,
 			TableNotFoundException, TableExistsException {
-		Instance inst = new ZooKeeperInstance(INSTANCENAME, ZOOSERVERS);
-		Connector conn = inst.getConnector(USER, PASSW);
+		Connector conn = getConnector();
 		String table = TableName;
 
+		createTable(conn, table);
+
+		return conn.createBatchWriter(table, 1000000L, 1000L, 10);
+
+	}
+
+	/**
+	 * Gets the shared BatchWriter for the table, creating the table if it does
+	 * not exist. The writer is shared by every thread of the process, so the
+	 * caller must not close it; use flushBatchWriters when the mutations have
+	 * to be durable.
+	 * 
+	 * @param TableName
+	 *            - the table to write to
+	 * @return the shared BatchWriter of the table
+	 */
+	public static BatchWriter getBatchWriter(String TableName)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		writerRequests.incrementAndGet();
+		String writerKey = connectorKey() + "/" + TableName;
+		BatchWriter writer = WRITERS.get(writerKey);
+		if (writer == null) {
+			synchronized (WRITERS) {
+				writer = WRITERS.get(writerKey);
+				if (writer == null) {
+					writer = connectBatchWrite(TableName);
+					WRITERS.put(writerKey, writer);
+					writersCreated.incrementAndGet();
+				}
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * Flushes all of the shared BatchWriters
+	 */
+	public static void flushBatchWriters() throws MutationsRejectedException {
+		for (BatchWriter writer : WRITERS.values()) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Closes all of the shared BatchWriters, they are recreated if asked for
+	 * again
+	 */
+	public static void closeBatchWriters() {
+		synchronized (WRITERS) {
+			for (BatchWriter writer : WRITERS.values()) {
+				try {
+					writer.close();
+				} catch (MutationsRejectedException e) {
+					if (e.getMessage() != null) {
+						log.error(e.getMessage());
+					} else {
+						log.error(e.getStackTrace());
+					}
+				}
+			}
+			WRITERS.clear();
+		}
+	}
+
+	/**
+	 * @return the number of Connectors created by this process
+	 */
+	public static long getConnectorsCreated() {
+		return connectorsCreated.get();
+	}
+
+	/**
+	 * @return the number of times a Connector was asked for
+	 */
+	public static long getConnectorRequests() {
+		return connectorRequests.get();
+	}
+
+	/**
+	 * @return the number of shared BatchWriters created by this process
+	 */
+	public static long getWritersCreated() {
+		return writersCreated.get();
+	}
+
+	/**
+	 * @return the number of times a shared BatchWriter was asked for
+	 */
+	public static long getWriterRequests() {
+		return writerRequests.get();
+	}
+
+	/**
+	 * @return the number of shared BatchWriters currently open
+	 */
+	public static int getOpenWriters() {
+		return WRITERS.size();
+	}
+
+	/**
+	 * @return a one line summary of the registry statistics
+	 */
+	public static String getStatistics() {
+		return "Connectors: " + connectorsCreated.get() + " created for "
+				+ connectorRequests.get() + " requests, BatchWriters: "
+				+ writersCreated.get() + " created for " + writerRequests.get()
+				+ " requests, " + WRITERS.size() + " open";
+	}
+
+	private static String connectorKey() {
+		return INSTANCENAME + "/" + ZOOSERVERS + "/" + USER;
+	}
+
+	private static void createTable(Connector conn, String table)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
 		if (!conn.tableOperations().exists(table)) {
-			conn.tableOperations().create(table);
+			try {
+				conn.tableOperations().create(table);
+			} catch (TableExistsException e) {
+				// Created by another task in the meantime
+				return;
+			}
 			conn.tableOperations().setProperty(table, "table.split.threshold",
 					SPLIT_SIZE);
 			Iterable<Entry<String, String>> temp = conn.tableOperations()
@@ -78,9 +264,6 @@ public class AccumuloUtils {
 			}
 			System.out.println("Table split threshold: " + splitSize);
 		}
-
-		return conn.createBatchWriter(table, 1000000L, 1000L, 10);
-
 	}
 
 	public static void setZooserver(String zSer) {
@@ -17,18 +17,15 @@
 package com.bah.applefox.main.plugins.webcrawler;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.Set;
 
 import org.apache.accumulo.core.client.BatchWriter;
-import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
 import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
 import org.apache.accumulo.core.client.mapreduce.InputFormatBase;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
-import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.commons.logging.Log;
@@ -40,7 +37,9 @@ import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 
 import com.bah.applefox.main.Ingester;
 import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
-import com.bah.applefox.main.plugins.webcrawler.utilities.PageCrawlException;
+import com.bah.applefox.main.plugins.webcrawler.utilities.FrontierWriter;
+import com.bah.applefox.main.plugins.webcrawler.utilities.PoliteFetcher;
+import com.bah.applefox.main.plugins.webcrawler.utilities.RobotsTXT;
 import com.bah.applefox.main.plugins.webcrawler.utilities.WebPageCrawl;
 
 /**
@@ -50,6 +49,13 @@ import com.bah.applefox.main.plugins.webcrawler.utilities.WebPageCrawl;
  */
 public class WebCrawler extends Ingester {
 	private static String table, table2, table3, userAgent;
+	private static int fetchThreads, maxConnections, connectTimeout,
+			readTimeout;
+	private static long crawlDelay;
+	private static String robotsTable;
+
+	// Number of URLs per fetching thread that may wait to be fetched
+	private static final int PENDING_PER_THREAD = 4;
 	private static final Log LOG = LogFactory.getFactory().getLog(
 			WebCrawler.class);
 
@@ -60,11 +66,31 @@ public class WebCrawler extends Ingester {
 	 */
 	public static class MapperClass extends Mapper<Key, Value, Key, Value> {
 		private Text currentURL = new Text();
+		private FrontierWriter frontier;
+		private PoliteFetcher fetcher;
+		private long robotsHits, robotsMisses, robotsTableHits,
+				robotsFailures;
+
+		@Override
+		protected void setup(Context context) throws IOException,
+				InterruptedException {
+			frontier = new FrontierWriter(table, table2, table3);
+			fetcher = new PoliteFetcher(userAgent, fetchThreads,
+					maxConnections, connectTimeout, readTimeout, crawlDelay);
+			RobotsTXT.setTable(robotsTable);
+
+			// The robots cache is shared by the tasks of the JVM, so only
+			// the lookups of this task are counted
+			robotsHits = RobotsTXT.getHits();
+			robotsMisses = RobotsTXT.getMisses();
+			robotsTableHits = RobotsTXT.getTableHits();
+			robotsFailures = RobotsTXT.getFailures();
+		}
 
 		/**
 		 * Finds a URL that has yet to be crawled for URLs in the URLs Table and
-		 * crawls it for more unique URLs to add to the URLs table and adds
-		 * them.
+		 * hands it to the fetcher, then adds the links of the pages fetched so
+		 * far to the URLs table.
 		 * 
 		 */
 		@Override
@@ -72,102 +98,103 @@ public class WebCrawler extends Ingester {
 				throws IOException, InterruptedException {
 			if (value.compareTo("0".getBytes()) == 0) {
 				currentURL = new Text();
-				context.getCounter(MATCH_COUNTER.URLS_PARSED).increment(1);
-				System.out.println(context
-						.getCounter(MATCH_COUNTER.URLS_PARSED).getValue());
 				ByteSequence cf = key.getRowData();
 				currentURL.append(cf.getBackingArray(), cf.offset(),
 						cf.length());
 
+				// Keep the number of URLs waiting to be fetched bounded
+				while (fetcher.getPending() >= fetchThreads * PENDING_PER_THREAD) {
+					addPage(fetcher.take(), context);
+				}
+
 				System.out.println("Parsing " + currentURL.toString());
+				fetcher.submit(currentURL.toString());
+			}
+
+			PoliteFetcher.Result result;
+			while ((result = fetcher.poll()) != null) {
+				addPage(result, context);
+			}
+		}
 
-				BatchWriter w;
-				BatchWriter w2;
-				BatchWriter w3;
-				Value v = new Value();
-
-				WebPageCrawl p;
-				try {
-					p = new WebPageCrawl(currentURL.toString(), userAgent, Collections.<String>emptySet());
-				} catch (PageCrawlException e1) {
-					LOG.info("Unable to crawl " + currentURL);
-					return;
+		/**
+		 * Writes the title of a fetched page to the URLs table and adds its
+		 * links
+		 */
+		private void addPage(PoliteFetcher.Result result, Context context) {
+			WebPageCrawl p = result.getPage();
+			if (p == null) {
+				if (result.isAllowed()) {
+					LOG.info("Unable to crawl " + result.getURL());
+					context.getCounter(MATCH_COUNTER.URLS_FAILED).increment(1);
+				} else {
+					context.getCounter(MATCH_COUNTER.URLS_DISALLOWED)
+							.increment(1);
 				}
+				return;
+			}
+			context.getCounter(MATCH_COUNTER.URLS_PARSED).increment(1);
 
-				Set<String> links = p.getChildLinks();
-				String title = p.getTitle();
+			Set<String> links = p.getChildLinks();
+			String title = p.getTitle();
 
-				v.set(title.getBytes());
-				Mutation m = new Mutation(currentURL.toString());
-				m.put("0", "0", v);
+			Value v = new Value();
+			v.set(title.getBytes());
+			Mutation m = new Mutation(result.getURL());
+			m.put("0", "0", v);
 
-				try {
-					w = AccumuloUtils.connectBatchWrite(table);
-					w.addMutation(m);
-				} catch (Exception e) {
-					System.out.println(e.getMessage());
-				}
+			try {
+				BatchWriter w = AccumuloUtils.getBatchWriter(table);
+				w.addMutation(m);
+			} catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
 
-				try {
-					// String linkString = "1.0 ";
-					// TODO: create an output format that is able to write to
-					// multiple accumulo tables
-					Scanner scan = AccumuloUtils.connectRead(table);
-					w = AccumuloUtils.connectBatchWrite(table);
-					w2 = AccumuloUtils.connectBatchWrite(table2);
-					w3 = AccumuloUtils.connectBatchWrite(table3);
-					v.set("0".getBytes());
-					for (String link : links) {
-						// linkString += link + ",";
-
-						m = new Mutation(currentURL.toString());
-						m.put(link, "0", v);
-						w2.addMutation(m);
-						w2.flush();
-
-						m = new Mutation(link);
-						m.put(currentURL.toString(), "0", v);
-						w3.addMutation(m);
-						w3.flush();
-
-						scan.setRange(new Range(link));
-						if (!scan.iterator().hasNext()) {
-							if (link.endsWith("/")) {
-								scan.setRange(new Range(link.subSequence(0,
-										link.length() - 1)));
-								if (!scan.iterator().hasNext()) {
-									System.out.println("Adding " + link);
-									m = new Mutation(link);
-									m.put("0", "0", v);
-									w.addMutation(m);
-									w.flush();
-								}
-							} else {
-								scan.setRange(new Range(link + "/"));
-								if (!scan.iterator().hasNext()) {
-									System.out.println("Adding " + link);
-									m = new Mutation(link);
-									m.put("0", "0", v);
-									w.addMutation(m);
-									w.flush();
-								}
-							}
-
-						}
-					}
-
-					w.close();
-					w2.close();
-					w3.close();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+			try {
+				context.getCounter(MATCH_COUNTER.LINKS_FOUND).increment(
+						links.size());
+				context.getCounter(MATCH_COUNTER.URLS_ADDED).increment(
+						frontier.addLinks(result.getURL(), links));
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
 		}
+
+		/**
+		 * Waits for the remaining pages, adds the remaining links to the URLs
+		 * table and flushes the shared writers once the map task is done
+		 */
+		@Override
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			while (fetcher.getPending() > 0) {
+				addPage(fetcher.take(), context);
+			}
+			fetcher.shutdown();
+			context.getCounter(ROBOTS_COUNTER.CACHE_HITS).increment(
+					RobotsTXT.getHits() - robotsHits);
+			context.getCounter(ROBOTS_COUNTER.CACHE_MISSES).increment(
+					RobotsTXT.getMisses() - robotsMisses);
+			context.getCounter(ROBOTS_COUNTER.TABLE_HITS).increment(
+					RobotsTXT.getTableHits() - robotsTableHits);
+			context.getCounter(ROBOTS_COUNTER.FAILURES).increment(
+					RobotsTXT.getFailures() - robotsFailures);
+			try {
+				context.getCounter(MATCH_COUNTER.URLS_ADDED).increment(
+						frontier.close());
+			} catch (Exception e) {
+				LOG.error(e.getMessage());
+			}
+			LOG.info(AccumuloUtils.getStatistics());
+		}
 	}
 
 	public static enum MATCH_COUNTER {
-		URLS_PARSED
+		URLS_PARSED, URLS_FAILED, URLS_DISALLOWED, LINKS_FOUND, URLS_ADDED
+	};
+
+	public static enum ROBOTS_COUNTER {
+		CACHE_HITS, CACHE_MISSES, TABLE_HITS, FAILURES
 	};
 
 	/**
@@ -184,6 +211,16 @@ public class WebCrawler extends Ingester {
 	public int run(String[] args) throws Exception {
 
 		userAgent = args[6];
+		fetchThreads = Integer.parseInt(args[27]);
+		maxConnections = Integer.parseInt(args[28]);
+		connectTimeout = Integer.parseInt(args[29]);
+		readTimeout = Integer.parseInt(args[30]);
+		crawlDelay = Long.parseLong(args[31]);
+		robotsTable = args[32];
+
+		// Let idle connections to each host be kept alive and reused
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", args[28]);
 
 		String jobName = this.getClass().getSimpleName() + "_"
 				+ System.currentTimeMillis();
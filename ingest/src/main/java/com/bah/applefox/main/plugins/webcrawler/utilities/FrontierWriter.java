@@ -0,0 +1,287 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.webcrawler.utilities;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
+
+/**
+ * The FrontierWriter adds the links found by the crawler to the link tables
+ * and the URLs table. The links of a page are normalized and buffered, and
+ * once enough links have been buffered they are checked against the URLs
+ * table with a single BatchScanner, so that only the links that are not
+ * already in the table are added to the frontier.
+ *
+ * URLs known to be in the URLs table are remembered (up to a limit), so links
+ * that appear on many pages of a site are only looked up once per task.
+ *
+ */
+public class FrontierWriter {
+
+	// Number of links to buffer before checking them against the URLs table
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	// Number of URLs remembered as being in the URLs table
+	private static final int DEFAULT_KNOWN_URLS = 100000;
+
+	// Number of threads used to look up the buffered links
+	private static final int QUERY_THREADS = 10;
+
+	private final String urlTable, fromTable, toTable;
+	private final int batchSize;
+
+	// Normalized links waiting to be checked against the URLs table
+	private final Set<String> pending = new LinkedHashSet<String>();
+
+	// Keys (see getKey) of URLs known to be in the URLs table
+	private final Set<String> known;
+
+	/**
+	 * Constructor for the FrontierWriter
+	 *
+	 * @param urlTable
+	 *            - the URLs table (the frontier)
+	 * @param fromTable
+	 *            - the table of links by the page they are on
+	 * @param toTable
+	 *            - the table of links by the page they point to
+	 */
+	public FrontierWriter(String urlTable, String fromTable, String toTable) {
+		this(urlTable, fromTable, toTable, DEFAULT_BATCH_SIZE,
+				DEFAULT_KNOWN_URLS);
+	}
+
+	/**
+	 * Constructor for the FrontierWriter
+	 *
+	 * @param urlTable
+	 *            - the URLs table (the frontier)
+	 * @param fromTable
+	 *            - the table of links by the page they are on
+	 * @param toTable
+	 *            - the table of links by the page they point to
+	 * @param batchSize
+	 *            - the number of links to buffer before they are checked
+	 * @param knownURLs
+	 *            - the number of URLs remembered as being in the URLs table
+	 */
+	public FrontierWriter(String urlTable, String fromTable, String toTable,
+			int batchSize, final int knownURLs) {
+		this.urlTable = urlTable;
+		this.fromTable = fromTable;
+		this.toTable = toTable;
+		this.batchSize = batchSize;
+		this.known = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(
+				16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Boolean> eldest) {
+				return size() > knownURLs;
+			}
+		});
+	}
+
+	/**
+	 * Writes the links of a page to the link tables, and buffers them to be
+	 * added to the URLs table. The page itself is remembered as being in the
+	 * URLs table.
+	 *
+	 * @param url
+	 *            - the page the links were found on
+	 * @param links
+	 *            - the links found on the page
+	 * @return the number of links added to the URLs table by this call
+	 */
+	public int addLinks(String url, Collection<String> links)
+			throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		known.add(getKey(url));
+
+		// Normalize the links, dropping duplicates and links to the page
+		Set<String> normalized = new LinkedHashSet<String>();
+		for (String link : links) {
+			String n = normalize(link);
+			if (n != null && !getKey(n).equals(getKey(url))) {
+				normalized.add(n);
+			}
+		}
+		if (normalized.isEmpty()) {
+			return 0;
+		}
+
+		// All the links of a page go in one mutation of the from table
+		Value v = new Value("0".getBytes());
+		Mutation from = new Mutation(url);
+		for (String link : normalized) {
+			from.put(link, "0", v);
+		}
+		AccumuloUtils.getBatchWriter(fromTable).addMutation(from);
+
+		BatchWriter to = AccumuloUtils.getBatchWriter(toTable);
+		for (String link : normalized) {
+			Mutation m = new Mutation(link);
+			m.put(url, "0", v);
+			to.addMutation(m);
+
+			if (!known.contains(getKey(link))) {
+				pending.add(link);
+			}
+		}
+
+		if (pending.size() >= batchSize) {
+			return flush();
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks the buffered links against the URLs table, and adds the ones that
+	 * are not already in it
+	 *
+	 * @return the number of links added to the URLs table
+	 */
+	public int flush() throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException {
+		if (pending.isEmpty()) {
+			return 0;
+		}
+
+		// Look up each link both with and without a trailing slash
+		ArrayList<Range> ranges = new ArrayList<Range>();
+		for (String link : pending) {
+			ranges.add(new Range(link));
+			ranges.add(new Range(toggleSlash(link)));
+		}
+
+		BatchScanner scan = AccumuloUtils.getConnector().createBatchScanner(
+				urlTable, new Authorizations(), QUERY_THREADS);
+		scan.setRanges(Range.mergeOverlapping(ranges));
+		for (Entry<Key, Value> e : scan) {
+			known.add(getKey(e.getKey().getRow().toString()));
+		}
+		scan.close();
+
+		int added = 0;
+		BatchWriter w = AccumuloUtils.getBatchWriter(urlTable);
+		for (String link : pending) {
+			String key = getKey(link);
+			if (!known.contains(key)) {
+				Mutation m = new Mutation(link);
+				m.put("0", "0", new Value("0".getBytes()));
+				w.addMutation(m);
+				known.add(key);
+				added++;
+			}
+		}
+		pending.clear();
+
+		// Make the new links visible to the other crawl tasks once per batch
+		w.flush();
+		return added;
+	}
+
+	/**
+	 * @return the number of links waiting to be checked
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Normalizes a link by removing its fragment and lower casing its scheme
+	 * and host
+	 *
+	 * @param link
+	 *            - the link to normalize
+	 * @return the normalized link, or null if it is not a valid URI
+	 */
+	public static String normalize(String link) {
+		try {
+			URI uri = new URI(link.trim());
+			if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+				return null;
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append(uri.getScheme().toLowerCase()).append("://");
+			sb.append(uri.getRawAuthority().toLowerCase());
+			if (uri.getRawPath() != null && uri.getRawPath().length() > 0) {
+				sb.append(uri.getRawPath());
+			} else {
+				sb.append('/');
+			}
+			if (uri.getRawQuery() != null) {
+				sb.append('?').append(uri.getRawQuery());
+			}
+			return sb.toString();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the key a URL is remembered by, which is the same with or without
+	 * a trailing slash
+	 */
+	private static String getKey(String url) {
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+
+	/**
+	 * Adds a trailing slash to a URL or removes it
+	 */
+	private static String toggleSlash(String url) {
+		return url.endsWith("/") ? url.substring(0, url.length() - 1)
+				: url + "/";
+	}
+
+	/**
+	 * Checks the remaining links and flushes the writers
+	 *
+	 * @return the number of links added to the URLs table
+	 */
+	public int close() throws AccumuloException, AccumuloSecurityException,
+			TableNotFoundException, TableExistsException,
+			MutationsRejectedException {
+		int added = flush();
+		AccumuloUtils.flushBatchWriters();
+		return added;
+	}
+
+}
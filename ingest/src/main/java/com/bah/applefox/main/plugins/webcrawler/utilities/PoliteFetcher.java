@@ -0,0 +1,407 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.main.plugins.webcrawler.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The PoliteFetcher fetches and parses pages from many hosts at once, while
+ * fetching from each host no faster than its robots.txt allows.
+ *
+ * Each host has its own queue of URLs and at most one request in flight.
+ * After a page is fetched its host waits for the crawl delay given by its
+ * robots.txt (or the default delay, whichever is longer) before its next URL
+ * is fetched. The number of open connections is bounded for the whole
+ * fetcher, and connections are read to the end so they can be kept alive and
+ * reused for the next page of the same host.
+ *
+ * URLs are given with submit, and the parsed pages are handed back through
+ * take and poll, so that they can be processed by the calling thread only.
+ *
+ */
+public class PoliteFetcher {
+
+	private static final Log LOG = LogFactory.getLog(PoliteFetcher.class);
+
+	// Largest page that is read (in bytes)
+	private static final int MAX_PAGE_SIZE = 10 * 1024 * 1024;
+
+	/**
+	 * The outcome of fetching a URL. The page is null if the URL was not
+	 * allowed by the robots.txt of its host, or could not be fetched.
+	 */
+	public static class Result {
+		private final String url;
+		private final WebPageCrawl page;
+		private final boolean allowed;
+		private final Exception error;
+
+		Result(String url, WebPageCrawl page, boolean allowed, Exception error) {
+			this.url = url;
+			this.page = page;
+			this.allowed = allowed;
+			this.error = error;
+		}
+
+		public String getURL() {
+			return url;
+		}
+
+		public WebPageCrawl getPage() {
+			return page;
+		}
+
+		public boolean isAllowed() {
+			return allowed;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * The URLs waiting to be fetched from a host, and the time its next URL
+	 * may be fetched. A host is in the ready queue only while it has no
+	 * request in flight. A host whose URLs have all been fetched stays in the
+	 * ready queue until its delay has passed, and is then dropped.
+	 */
+	private static class HostQueue implements Delayed {
+		final String host;
+		final LinkedList<String> urls = new LinkedList<String>();
+		long nextFetch = 0;
+		long delay = 0;
+		boolean scheduled = false;
+
+		HostQueue(String host) {
+			this.host = host;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(nextFetch - System.currentTimeMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			long other = ((HostQueue) o).nextFetch;
+			return nextFetch < other ? -1 : (nextFetch == other ? 0 : 1);
+		}
+	}
+
+	private final String userAgent;
+	private final int connectTimeout, readTimeout;
+	private final long defaultDelay;
+	private final Set<String> authorityLimits;
+
+	private final HashMap<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+	private final DelayQueue<HostQueue> ready = new DelayQueue<HostQueue>();
+	private final BlockingQueue<Result> completed = new LinkedBlockingQueue<Result>();
+	private final Semaphore connections;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final ExecutorService workers;
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor for the PoliteFetcher. Starts the fetching threads.
+	 *
+	 * @param userAgent
+	 *            - the UserAgent of the server request property
+	 * @param threads
+	 *            - the number of pages fetched and parsed at once
+	 * @param maxConnections
+	 *            - the maximum number of open connections
+	 * @param connectTimeout
+	 *            - the connect timeout (in milliseconds)
+	 * @param readTimeout
+	 *            - the read timeout (in milliseconds)
+	 * @param defaultDelay
+	 *            - the least time between two requests to the same host (in
+	 *            milliseconds)
+	 */
+	public PoliteFetcher(String userAgent, int threads, int maxConnections,
+			int connectTimeout, int readTimeout, long defaultDelay) {
+		this.userAgent = userAgent;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.defaultDelay = defaultDelay;
+		this.authorityLimits = Collections.<String> emptySet();
+		this.connections = new Semaphore(maxConnections, true);
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PoliteFetcher-"
+						+ count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (int i = 0; i < threads; i++) {
+			workers.execute(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds a URL to the queue of its host
+	 *
+	 * @param url
+	 *            - the URL to fetch
+	 */
+	public void submit(String url) {
+		String host;
+		try {
+			URL u = new URL(url);
+			host = u.getProtocol() + "://" + u.getAuthority();
+		} catch (MalformedURLException e) {
+			pending.incrementAndGet();
+			completed.add(new Result(url, null, false, e));
+			return;
+		}
+
+		pending.incrementAndGet();
+		synchronized (hosts) {
+			HostQueue queue = hosts.get(host);
+			if (queue == null) {
+				queue = new HostQueue(host);
+				hosts.put(host, queue);
+			}
+			synchronized (queue) {
+				queue.urls.add(url);
+				if (!queue.scheduled) {
+					queue.scheduled = true;
+					ready.put(queue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of URLs submitted whose results have not been taken
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Waits for the next fetched page
+	 *
+	 * @return the result of fetching a URL
+	 */
+	public Result take() throws InterruptedException {
+		Result r = completed.take();
+		pending.decrementAndGet();
+		return r;
+	}
+
+	/**
+	 * @return the result of fetching a URL, or null if none is ready
+	 */
+	public Result poll() {
+		Result r = completed.poll();
+		if (r != null) {
+			pending.decrementAndGet();
+		}
+		return r;
+	}
+
+	/**
+	 * Stops the fetching threads. URLs that have not been fetched yet are
+	 * dropped.
+	 */
+	public void shutdown() throws InterruptedException {
+		running = false;
+		workers.shutdown();
+		workers.awaitTermination(connectTimeout + readTimeout,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fetches URLs from the hosts as they become ready, until shutdown
+	 */
+	private void work() {
+		while (running) {
+			HostQueue queue;
+			try {
+				queue = ready.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (queue == null) {
+				continue;
+			}
+
+			String url;
+			synchronized (hosts) {
+				synchronized (queue) {
+					url = queue.urls.poll();
+
+					// Drop a host that has had no URLs for its whole delay
+					if (url == null) {
+						queue.scheduled = false;
+						hosts.remove(queue.host);
+						continue;
+					}
+				}
+			}
+
+			Result result;
+			try {
+				result = fetch(url, queue);
+			} catch (RuntimeException e) {
+				result = new Result(url, null, true, e);
+			}
+			completed.add(result);
+
+			synchronized (queue) {
+				queue.nextFetch = System.currentTimeMillis() + queue.delay;
+				ready.put(queue);
+			}
+		}
+	}
+
+	/**
+	 * Checks the robots.txt of the URL's host, then fetches and parses the
+	 * page
+	 *
+	 * @param url
+	 *            - the URL to fetch
+	 * @param queue
+	 *            - the queue of the URL's host, whose delay is updated from
+	 *            its robots.txt
+	 */
+	private Result fetch(String url, HostQueue queue) {
+		URL u;
+		RobotsTXT robots;
+		try {
+			u = new URL(url);
+			connections.acquire();
+			try {
+				robots = RobotsTXT.get(u, userAgent);
+			} finally {
+				connections.release();
+			}
+		} catch (MalformedURLException e) {
+			return new Result(url, null, false, e);
+		} catch (PageCrawlException e) {
+			return new Result(url, null, false, e);
+		} catch (InterruptedException e) {
+			return new Result(url, null, false, e);
+		}
+
+		queue.delay = Math.max(robots.getDelay(), defaultDelay);
+		if (!robots.allowed(url)) {
+			return new Result(url, null, false, null);
+		}
+
+		byte[] content;
+		String contentType;
+		try {
+			connections.acquire();
+			try {
+				URLConnection con = u.openConnection();
+				con.setConnectTimeout(connectTimeout);
+				con.setReadTimeout(readTimeout);
+				con.setRequestProperty("User-Agent", userAgent);
+				content = read(con);
+				contentType = con.getContentType();
+			} finally {
+				connections.release();
+			}
+		} catch (IOException e) {
+			LOG.info("Unable to fetch " + url + ": " + e.getMessage());
+			return new Result(url, null, true, e);
+		} catch (InterruptedException e) {
+			return new Result(url, null, true, e);
+		}
+
+		try {
+			return new Result(url, new WebPageCrawl(url, userAgent,
+					authorityLimits, new ByteArrayInputStream(content),
+					contentType), true, null);
+		} catch (PageCrawlException e) {
+			return new Result(url, null, true, e);
+		}
+	}
+
+	/**
+	 * Reads the response of a connection to its end, so the connection can be
+	 * reused. The response of a failed request is read and dropped before its
+	 * error is thrown.
+	 */
+	private static byte[] read(URLConnection con) throws IOException {
+		InputStream in;
+		try {
+			in = con.getInputStream();
+		} catch (IOException e) {
+			if (con instanceof HttpURLConnection) {
+				InputStream err = ((HttpURLConnection) con).getErrorStream();
+				if (err != null) {
+					byte[] buf = new byte[4096];
+					while (err.read(buf) != -1)
+						;
+					err.close();
+				}
+			}
+			throw e;
+		}
+
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				if (out.size() + len > MAX_PAGE_SIZE) {
+					throw new IOException("Page larger than " + MAX_PAGE_SIZE
+							+ " bytes: " + con.getURL());
+				}
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
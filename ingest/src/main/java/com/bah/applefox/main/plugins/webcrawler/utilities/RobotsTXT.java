@@ -3,25 +3,52 @@ package com.bah.applefox.main.plugins.webcrawler.utilities;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.Text;
 
-import com.google.common.base.Objects;
-import com.google.common.collect.MapMaker;
+import com.bah.applefox.main.plugins.utilities.AccumuloUtils;
 
 /**
- * Checks if
+ * Checks if a URL may be crawled, and how long to wait between requests, from
+ * the robots.txt of its site.
+ * 
+ * The rules of each site (scheme and authority) are kept in a bounded cache
+ * shared by every task of the JVM, until the time given by the Expires
+ * header of the robots.txt (or for an hour if there is none). Sites without
+ * a robots.txt (4xx responses) are cached as allowing everything, and sites
+ * whose robots.txt could not be read (5xx responses and I/O errors) are
+ * cached as failures for a few minutes, so they are not refetched for every
+ * page. If a robots table is set, fetched rules are also stored in it, so
+ * that later crawls skip fetching them again until they expire.
+ * 
+ * Only one task of the JVM loads the robots.txt of a site at a time; the
+ * other tasks missing the same site wait for it and share what it loaded.
  */
 public class RobotsTXT {
 
@@ -43,68 +70,109 @@ public class RobotsTXT {
 		}
 	}
 
-	private static final class UrlAndAgent {
-		public UrlAndAgent(String url, String agent) {
-			this.agent = agent;
-			this.url = url;
-		}
+	// Status of a cached robots.txt
+	private static final String FOUND = "found", NOT_FOUND = "notfound",
+			FAILED = "failed";
 
-		final String agent;
-		final String url;
+	/**
+	 * The robots.txt of a site, as cached. The rules do not depend on the
+	 * agent, so an entry is shared by all agents.
+	 */
+	private static final class CacheEntry {
+		final String status;
+		final String content;
+		final List<Rule> rules;
+		final long deadline;
 
-		@Override
-		public String toString() {
-			return Objects.toStringHelper(RobotsTXT.class).add("agent", agent)
-					.add("url", url).toString();
+		CacheEntry(String status, String content, List<Rule> rules,
+				long deadline) {
+			this.status = status;
+			this.content = content;
+			this.rules = rules;
+			this.deadline = deadline;
 		}
+	}
 
-		@Override
-		public int hashCode() {
-			return Objects.hashCode(agent, url);
-		}
+	// How long robots.txt files are kept (in milliseconds)
+	private static final long DEFAULT_TTL = 1000 * 60 * 60; // 1hr
+	private static final long MAX_TTL = 1000 * 60 * 60 * 24; // 1 day
+	private static final long FAILURE_TTL = 1000 * 60 * 5; // 5 min
 
-		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof UrlAndAgent) {
-				return Objects.equal(agent, ((UrlAndAgent) obj).agent)
-						&& Objects.equal(url, ((UrlAndAgent) obj).url);
-			}
-			return false;
-		}
-	}
+	// Number of sites kept in the cache
+	private static final int MAX_ENTRIES = 10000;
 
-	private final List<Rule> rules;
-	private final static Map<UrlAndAgent, RobotsTXT> CACHE = new MapMaker()
-			.concurrencyLevel(100).softValues().makeMap();
-	private final long expTime;
-	private final Pattern matchPattern = Pattern
+	// Timeouts of the robots.txt requests (in milliseconds)
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 10000;
+
+	// Largest robots.txt that is read (in characters)
+	private static final int MAX_LENGTH = 500 * 1024;
+
+	// Longest crawl delay that is honored (in milliseconds)
+	private static final long MAX_CRAWL_DELAY = 1000 * 60; // 1 min
+
+	// Column family and qualifiers of the robots table
+	private static final String ROBOTS = "robots", STATUS = "status",
+			DEADLINE = "deadline", CONTENT = "content";
+
+	private final static Map<String, CacheEntry> CACHE = Collections
+			.synchronizedMap(new LinkedHashMap<String, CacheEntry>(16, 0.75f,
+					true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, CacheEntry> eldest) {
+					return size() > MAX_ENTRIES;
+				}
+			});
+
+	// The loads in progress, by site
+	private static final ConcurrentHashMap<String, FutureTask<CacheEntry>> LOADING = new ConcurrentHashMap<String, FutureTask<CacheEntry>>();
+
+	private static final AtomicLong hits = new AtomicLong(),
+			misses = new AtomicLong(), tableHits = new AtomicLong(),
+			failures = new AtomicLong();
+
+	// Table the fetched robots.txt files are stored in, or null for none
+	private static volatile String robotsTable = null;
+
+	private static final Pattern matchPattern = Pattern
 			.compile(
 					"(User-agent|Disallow|Allow|Crawl-delay|Sitemap)\\s*:\\s*(\\S+)\\s*",
 					Pattern.CASE_INSENSITIVE);
-	private final Pattern scopePattern = Pattern.compile("%[a-fA-F0-9]{2}");
+	private static final Pattern scopePattern = Pattern
+			.compile("%[a-fA-F0-9]{2}");
+
+	private final List<Rule> rules;
+	private final long expTime;
 	private final String agent;
 
-	private RobotsTXT(URLConnection con, String agent, long expTime)
-			throws PageCrawlException {
+	private RobotsTXT(List<Rule> rules, String agent, long expTime) {
+		this.rules = rules;
 		this.agent = agent;
 		this.expTime = expTime;
-		// Tries to match the character set of the Web Page
-		String charset;
-		String contentType = con.getContentType();
-		if (contentType != null) {
-			Matcher m = Pattern.compile("\\s+charset=([^\\s]+)\\s*").matcher(
-					contentType);
-			charset = m.matches() ? m.group(1) : "utf-8";
-		} else {
-			charset = "utf-8";
-		}
-		// once we know the character set, read the rules
-		BufferedReader reader = null;
+	}
+
+	public RobotsTXT(String agent) {
+		rules = Collections.emptyList();
+		expTime = 0;
+		this.agent = agent;
+	}
+
+	/**
+	 * Parses the rules of a robots.txt
+	 * 
+	 * @param content
+	 *            - the contents of the robots.txt
+	 * @param robotsLoc
+	 *            - where the robots.txt is from, for logging
+	 */
+	private static List<Rule> parseRules(String content, String robotsLoc) {
+		List<Rule> rules = new ArrayList<Rule>();
+		BufferedReader reader = new BufferedReader(new StringReader(content));
+		String line = null;
 		try {
-			reader = new BufferedReader(new InputStreamReader(
-					con.getInputStream(), charset));
-			String line = null;
-			List<Rule> rules = new ArrayList<Rule>();
 			while ((line = reader.readLine()) != null) {
 				Matcher lineMatcher = matchPattern.matcher(line);
 				if (lineMatcher.matches()) {
@@ -147,33 +215,52 @@ public class RobotsTXT {
 				} else {
 					if (!line.matches("\\s*#.*")) {
 						LOG.info("Encountered a bad line in robot file: "
-								+ con.getURL() + "    " + line);
+								+ robotsLoc + "    " + line);
 					}
 				}
 			}
-			this.rules = Collections.unmodifiableList(rules);
-		} catch (UnsupportedEncodingException e) {
-			throw new PageCrawlException(e);
 		} catch (IOException e) {
-			throw new PageCrawlException(e);
+			// reading from a string, this shouldn't happen
+			throw new RuntimeException(e);
+		}
+		return Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * Reads the robots.txt from the connection
+	 */
+	private static String readContent(URLConnection con) throws IOException {
+		// Tries to match the character set of the Web Page
+		String charset;
+		String contentType = con.getContentType();
+		if (contentType != null) {
+			Matcher m = Pattern.compile("\\s+charset=([^\\s]+)\\s*").matcher(
+					contentType);
+			charset = m.matches() ? m.group(1) : "utf-8";
+		} else {
+			charset = "utf-8";
+		}
+		// once we know the character set, read the file
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					con.getInputStream(), charset));
+			StringBuilder content = new StringBuilder();
+			char[] buf = new char[4096];
+			int len;
+			while ((len = reader.read(buf)) != -1
+					&& content.length() < MAX_LENGTH) {
+				content.append(buf, 0, len);
+			}
+			return content.toString();
 		} finally {
 			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e) {
-					throw new PageCrawlException(e);
-				}
+				reader.close();
 			}
 		}
 	}
 
-	public RobotsTXT(String agent) {
-		rules = Collections.emptyList();
-		expTime = 0;
-		this.agent = agent;
-	}
-
-	private String capitalizePercentEncoding(String scope) {
+	private static String capitalizePercentEncoding(String scope) {
 		Matcher scopeMatcher = scopePattern.matcher(scope);
 		StringBuffer goodScope = new StringBuffer();
 		// change the % encoding strings in the scope
@@ -224,6 +311,14 @@ public class RobotsTXT {
 		return urlAllowed;
 	}
 
+	/**
+	 * Gets the crawl delay of the agent. Crawl-delay is given in seconds,
+	 * which may have a fraction (e.g. 0.5). Values that are not numbers are
+	 * ignored, and delays longer than a minute are cut to a minute, so a
+	 * single site cannot hold its pages back for hours.
+	 * 
+	 * @return the crawl delay (in milliseconds), or 0 if there is none
+	 */
 	@SuppressWarnings("incomplete-switch")
 	public long getDelay() {
 		boolean rulesApply = true;
@@ -237,50 +332,283 @@ public class RobotsTXT {
 				rulesApply = rule.scope.equals(agent);
 				break;
 			case CRAWL_DELAY:
-				if (rulesApply)
-					crawlDelay = Long.parseLong(rule.scope) * 1000;
+				if (rulesApply) {
+					long delay = parseDelay(rule.scope);
+					if (delay >= 0) {
+						crawlDelay = delay;
+					}
+				}
 			}
 
 		}
 		return crawlDelay;
 	}
 
+	/**
+	 * @return the delay (in milliseconds) of a Crawl-delay value, capped at
+	 *         MAX_CRAWL_DELAY, or -1 if it is not a number of seconds
+	 */
+	private static long parseDelay(String seconds) {
+		double delay;
+		try {
+			delay = Double.parseDouble(seconds);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		if (Double.isNaN(delay) || delay < 0) {
+			return -1;
+		}
+		return (long) Math.min(delay * 1000, MAX_CRAWL_DELAY);
+	}
+
+	/**
+	 * Gets the robots.txt rules of the URL's site for the agent, fetching
+	 * them if they are not cached or have expired
+	 * 
+	 * @param url
+	 *            - a URL of the site
+	 * @param agent
+	 *            - the UserAgent of the crawler
+	 * @throws PageCrawlException
+	 *             If the robots.txt of the site could not be read (now, or
+	 *             within the last few minutes)
+	 */
 	public static RobotsTXT get(URL url, String agent)
 			throws PageCrawlException {
 		agent = agent.toLowerCase().trim();
-		int port = url.getPort();
-		if (port == -1)
-			port = url.getDefaultPort();
-		String robotsLoc = url.getProtocol() + "://" + url.getAuthority() + "/robots.txt";
-		UrlAndAgent urlAndAgent = new UrlAndAgent(robotsLoc, agent);
-		RobotsTXT robots = CACHE.get(urlAndAgent);
-		if (robots == null || robots.expTime > System.currentTimeMillis()) {
+		String site = url.getProtocol() + "://" + url.getAuthority();
+		long now = System.currentTimeMillis();
+
+		CacheEntry entry = CACHE.get(site);
+		if (entry != null && entry.deadline > now) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			entry = load(site, now);
+		}
+
+		if (entry.status.equals(FAILED)) {
+			throw new PageCrawlException(new IOException(
+					"Unable to read robots.txt of " + site));
+		}
+		return new RobotsTXT(entry.rules, agent, entry.deadline);
+	}
+
+	/**
+	 * Loads the robots.txt of the site from the robots table, or else fetches
+	 * it, and caches it. A task that misses a site while another task is
+	 * loading it waits for that load instead of fetching it again.
+	 */
+	private static CacheEntry load(final String site, final long now)
+			throws PageCrawlException {
+		FutureTask<CacheEntry> task = new FutureTask<CacheEntry>(
+				new Callable<CacheEntry>() {
+					public CacheEntry call() {
+						// Another task may have loaded the site just before
+						CacheEntry entry = CACHE.get(site);
+						if (entry != null && entry.deadline > now) {
+							return entry;
+						}
+						entry = readTable(site, now);
+						if (entry == null) {
+							entry = fetch(site, now);
+							writeTable(site, entry);
+						}
+						CACHE.put(site, entry);
+						return entry;
+					}
+				});
+
+		FutureTask<CacheEntry> loading = LOADING.putIfAbsent(site, task);
+		if (loading == null) {
+			loading = task;
+			try {
+				task.run();
+			} finally {
+				LOADING.remove(site, task);
+			}
+		}
+
+		try {
+			return loading.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PageCrawlException(e);
+		} catch (ExecutionException e) {
+			throw new PageCrawlException(e.getCause());
+		}
+	}
+
+	/**
+	 * Fetches the robots.txt of the site
+	 */
+	private static CacheEntry fetch(String site, long now) {
+		String robotsLoc = site + "/robots.txt";
+		List<Rule> none = Collections.emptyList();
+		try {
 			// we use a connection here because it allows easier
 			// detection of 404s.
-			URLConnection con;
-			try {
-				con = new URL(robotsLoc).openConnection();
-				con.connect();
-			} catch (IOException e) {
-				throw new PageCrawlException(e);
+			URLConnection con = new URL(robotsLoc).openConnection();
+			con.setConnectTimeout(CONNECT_TIMEOUT);
+			con.setReadTimeout(READ_TIMEOUT);
+			con.connect();
+			if (con instanceof HttpURLConnection) {
+				int code = ((HttpURLConnection) con).getResponseCode();
+				if (code >= 500) {
+					failures.incrementAndGet();
+					return new CacheEntry(FAILED, "", none, now + FAILURE_TTL);
+				} else if (code >= 400) {
+					// if there's no robots.txt we assume everything is allowed
+					return new CacheEntry(NOT_FOUND, "", none, now
+							+ DEFAULT_TTL);
+				}
 			}
-			try {
-				if (con instanceof HttpURLConnection
-						&& ((HttpURLConnection) con).getResponseCode() > 400) {
-					// if there's an error we assume it doesn't exist
-					robots = new RobotsTXT(agent);
-				} else {
-					long exp = con.getExpiration();
-					if (exp == 0) {
-						exp = 1000 * 60 * 60; // 1hr
-					}
-					robots = new RobotsTXT(con, agent, exp);
+
+			// Expires is a date, cap it so rules are not kept for too long
+			long deadline = con.getExpiration();
+			if (deadline <= now) {
+				deadline = now + DEFAULT_TTL;
+			} else if (deadline > now + MAX_TTL) {
+				deadline = now + MAX_TTL;
+			}
+			String content = readContent(con);
+			return new CacheEntry(FOUND, content,
+					parseRules(content, robotsLoc), deadline);
+		} catch (UnsupportedEncodingException e) {
+			failures.incrementAndGet();
+			LOG.info("Unable to read " + robotsLoc + ": " + e.getMessage());
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			LOG.info("Unable to read " + robotsLoc + ": " + e.getMessage());
+		}
+		return new CacheEntry(FAILED, "", none, now + FAILURE_TTL);
+	}
+
+	/**
+	 * Reads the robots.txt of the site from the robots table
+	 * 
+	 * @return the stored robots.txt, or null if there is none that has not
+	 *         expired
+	 */
+	private static CacheEntry readTable(String site, long now) {
+		String table = robotsTable;
+		if (table == null) {
+			return null;
+		}
+		try {
+			Scanner scan = AccumuloUtils.connectRead(table);
+			scan.setRange(new Range(site));
+			scan.fetchColumnFamily(new Text(ROBOTS));
+			String status = null, content = "";
+			long deadline = 0;
+			for (Entry<Key, Value> e : scan) {
+				String cq = e.getKey().getColumnQualifier().toString();
+				if (cq.equals(STATUS)) {
+					status = e.getValue().toString();
+				} else if (cq.equals(DEADLINE)) {
+					deadline = Long.parseLong(e.getValue().toString());
+				} else if (cq.equals(CONTENT)) {
+					content = new String(e.getValue().get(), "UTF-8");
 				}
-			} catch (IOException e) {
-				throw new PageCrawlException(e);
 			}
-			CACHE.put(urlAndAgent, robots);
+			if (status == null || deadline <= now) {
+				return null;
+			}
+			tableHits.incrementAndGet();
+			List<Rule> rules = status.equals(FOUND) ? parseRules(content, site
+					+ "/robots.txt") : Collections.<Rule> emptyList();
+			return new CacheEntry(status, content, rules, deadline);
+		} catch (Exception e) {
+			LOG.info("Unable to read robots table " + table + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the robots.txt of the site in the robots table. Failures are
+	 * not stored, they are only kept for a few minutes.
+	 */
+	private static void writeTable(String site, CacheEntry entry) {
+		String table = robotsTable;
+		if (table == null || entry.status.equals(FAILED)) {
+			return;
+		}
+		try {
+			BatchWriter w = AccumuloUtils.getBatchWriter(table);
+			Mutation m = new Mutation(site);
+			m.put(ROBOTS, STATUS, new Value(entry.status.getBytes()));
+			m.put(ROBOTS, DEADLINE,
+					new Value(Long.toString(entry.deadline).getBytes()));
+			m.put(ROBOTS, CONTENT, new Value(entry.content.getBytes("UTF-8")));
+			w.addMutation(m);
+		} catch (Exception e) {
+			LOG.info("Unable to write robots table " + table + ": "
+					+ e.getMessage());
 		}
-		return robots;
+	}
+
+	/**
+	 * Sets the table fetched robots.txt files are stored in and read from,
+	 * creating it if it does not exist
+	 * 
+	 * @param table
+	 *            - the robots table, or null or empty for none
+	 */
+	public static void setTable(String table) {
+		if (table == null || table.trim().length() == 0) {
+			robotsTable = null;
+			return;
+		}
+		try {
+			AccumuloUtils.getBatchWriter(table.trim());
+			robotsTable = table.trim();
+		} catch (Exception e) {
+			LOG.error("Unable to use robots table " + table + ": "
+					+ e.getMessage());
+			robotsTable = null;
+		}
+	}
+
+	/**
+	 * @return the time (in milliseconds) these rules expire at
+	 */
+	public long getExpiration() {
+		return expTime;
+	}
+
+	/**
+	 * @return the number of times rules were found in the cache
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of times rules were not in the cache (or expired)
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of misses that were found in the robots table
+	 */
+	public static long getTableHits() {
+		return tableHits.get();
+	}
+
+	/**
+	 * @return the number of robots.txt files that could not be read
+	 */
+	public static long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Empties the cache
+	 */
+	public static void clearCache() {
+		CACHE.clear();
 	}
 }
@@ -62,18 +62,16 @@ public class WebPageCrawl {
 	private final String UserAgent;
 
 	// The title of the web page;
-	private final String title;
+	private String title;
 
 	// The encoded contents of the page
-	private final List<String> pageContents;
+	private List<String> pageContents;
 
 	// ArrayList of all links found on the page, in string format
-	private final List<String> allLinks;
+	private List<String> allLinks;
 
 	// ArrayList of all image locations found on the page, in string format
-	private final List<String> allImages;
-
-	private final RobotsTXT robotsTXT;
+	private List<String> allImages;
 
 	/**
 	 * Constructor for the WebPageParser object. Runs the page crawl when it is
@@ -95,7 +93,7 @@ public class WebPageCrawl {
 		} catch (MalformedURLException e) {
 			throw new PageCrawlException(e);
 		}
-		robotsTXT = RobotsTXT.get(url, UserAgent);
+		RobotsTXT robotsTXT = RobotsTXT.get(url, UserAgent);
 		this.UserAgent = UserAgent;
 		try {
 			this.parentURL = url.toURI();
@@ -120,50 +118,7 @@ public class WebPageCrawl {
 				} catch (IOException e) {
 					throw new PageCrawlException(e);
 				}
-				Parser parser = new AutoDetectParser();
-				ParagraphContentHandler paragraphGetter = new ParagraphContentHandler();
-				BodyContentHandler bodyHandler = new BodyContentHandler(
-						paragraphGetter);
-				// link handlers also do image tags
-				LinkContentHandler linkHandler = new LinkContentHandler();
-				ContentHandler overallHandler = new TeeContentHandler(
-						bodyHandler, linkHandler);
-				Metadata metadata = new Metadata();
-				ParseContext context = new ParseContext();
-				try {
-					parser.parse(stream, overallHandler, metadata, context);
-				} catch (IOException e) {
-					throw new PageCrawlException(e);
-				} catch (SAXException e) {
-					throw new PageCrawlException(e);
-				} catch (TikaException e) {
-					throw new PageCrawlException(e);
-				}
-				// WE FINALLY GET THE DATA!
-				String docTitle = metadata.get("title");
-				this.title = docTitle != null ? docTitle : "";
-				pageContents = paragraphGetter.getParagraphs();
-				List<String> images = new ArrayList<String>();
-				List<String> links = new ArrayList<String>();
-				for (Link link : linkHandler.getLinks()) {
-					URI linkURL = this.parentURL.resolve(link.getUri());
-					if (authorityLimits.size() > 0
-							&& !authorityLimits
-									.contains(linkURL.getAuthority())) {
-						continue;
-					}
-					String protocol = linkURL.getScheme();
-					if (!protocol.equals("http") && !protocol.equals("https"))
-						continue;
-					if (link.isImage()) {
-						images.add(linkURL.toString());
-					}
-					if (link.isAnchor()) {
-						links.add(linkURL.toString());
-					}
-				}
-				allImages = Collections.unmodifiableList(images);
-				allLinks = Collections.unmodifiableList(links);
+				parse(stream, new Metadata(), authorityLimits);
 			} finally {
 				if (stream != null) {
 					try {
@@ -182,6 +137,88 @@ public class WebPageCrawl {
 
 	}
 
+	/**
+	 * Constructor for a page that has already been fetched (and checked
+	 * against the robots.txt of its site), such as by the PoliteFetcher. The
+	 * page is parsed from the given stream without connecting to its server.
+	 * 
+	 * @param parentURL
+	 *            - the URL of the page to be parsed
+	 * @param UserAgent
+	 *            - the UserAgent the page was fetched with
+	 * @param authorityLimits
+	 *            - the authorities links are limited to (empty for any)
+	 * @param stream
+	 *            - the contents of the page
+	 * @param contentType
+	 *            - the content type given by the server, or null
+	 * @throws PageCrawlException
+	 *             If an error occurs parsing the page.
+	 */
+	public WebPageCrawl(String parentURL, String UserAgent,
+			Set<String> authorityLimits, InputStream stream, String contentType)
+			throws PageCrawlException {
+		this.UserAgent = UserAgent;
+		try {
+			this.parentURL = new URI(parentURL);
+		} catch (URISyntaxException e) {
+			throw new PageCrawlException(e);
+		}
+		Metadata metadata = new Metadata();
+		if (contentType != null) {
+			metadata.set(Metadata.CONTENT_TYPE, contentType);
+		}
+		parse(stream, metadata, authorityLimits);
+	}
+
+	/**
+	 * Parses the page, setting its title, body, links and images
+	 */
+	private void parse(InputStream stream, Metadata metadata,
+			Set<String> authorityLimits) throws PageCrawlException {
+		Parser parser = new AutoDetectParser();
+		ParagraphContentHandler paragraphGetter = new ParagraphContentHandler();
+		BodyContentHandler bodyHandler = new BodyContentHandler(paragraphGetter);
+		// link handlers also do image tags
+		LinkContentHandler linkHandler = new LinkContentHandler();
+		ContentHandler overallHandler = new TeeContentHandler(bodyHandler,
+				linkHandler);
+		ParseContext context = new ParseContext();
+		try {
+			parser.parse(stream, overallHandler, metadata, context);
+		} catch (IOException e) {
+			throw new PageCrawlException(e);
+		} catch (SAXException e) {
+			throw new PageCrawlException(e);
+		} catch (TikaException e) {
+			throw new PageCrawlException(e);
+		}
+		// WE FINALLY GET THE DATA!
+		String docTitle = metadata.get("title");
+		this.title = docTitle != null ? docTitle : "";
+		pageContents = paragraphGetter.getParagraphs();
+		List<String> images = new ArrayList<String>();
+		List<String> links = new ArrayList<String>();
+		for (Link link : linkHandler.getLinks()) {
+			URI linkURL = this.parentURL.resolve(link.getUri());
+			if (authorityLimits.size() > 0
+					&& !authorityLimits.contains(linkURL.getAuthority())) {
+				continue;
+			}
+			String protocol = linkURL.getScheme();
+			if (!protocol.equals("http") && !protocol.equals("https"))
+				continue;
+			if (link.isImage()) {
+				images.add(linkURL.toString());
+			}
+			if (link.isAnchor()) {
+				links.add(linkURL.toString());
+			}
+		}
+		allImages = Collections.unmodifiableList(images);
+		allLinks = Collections.unmodifiableList(links);
+	}
+
 	/**
 	 * Returns the Parent URL as constructed
 	 * 
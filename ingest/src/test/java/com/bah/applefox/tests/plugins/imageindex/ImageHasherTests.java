@@ -25,6 +25,7 @@ import java.net.MalformedURLException;
 
 import org.junit.Test;
 import com.bah.applefox.main.plugins.imageindex.utilites.*;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
 
 public class ImageHasherTests {
 
@@ -32,8 +33,8 @@ public class ImageHasherTests {
 	public void testHashing() throws MalformedURLException, IOException{
 		
 		
-		String hash1 = ImageHasher.hash("http://www.boozallen.com/media/image/Shrader-Ralph-130x130.jpg");
-		String hash2 = ImageHasher.hash("http://www.boozallen.com/media/image/Shrader-Ralph-130x130.jpg");
+		ImageHash hash1 = ImageHasher.hash("http://www.boozallen.com/media/image/Shrader-Ralph-130x130.jpg");
+		ImageHash hash2 = ImageHasher.hash("http://www.boozallen.com/media/image/Shrader-Ralph-130x130.jpg");
 		
 		
 		// Make sure the same hash is returned for the same image
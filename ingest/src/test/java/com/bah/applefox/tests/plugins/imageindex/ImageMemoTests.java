@@ -0,0 +1,55 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.tests.plugins.imageindex;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.bah.applefox.main.plugins.imageindex.utilites.ImageMemo;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+public class ImageMemoTests {
+
+	@Test
+	public void testMemo() {
+		ImageMemo memo = new ImageMemo(null, 2);
+		assertNull(memo.get("http://a.com/logo.png"));
+
+		ImageHash hash = new ImageHash(42L);
+		memo.put("http://a.com/logo.png", new ImageMemo.Memo(hash, "\"v1\"",
+				0, 1000));
+		ImageMemo.Memo m = memo.get("http://a.com/logo.png");
+		assertEquals(hash, m.getHash());
+		assertEquals("\"v1\"", m.getETag());
+		assertTrue(m.isValidatable());
+
+		// images that are not images are remembered without a hash
+		memo.put("http://a.com/page.html", new ImageMemo.Memo(null, null, 0,
+				1000));
+		assertNull(memo.get("http://a.com/page.html").getHash());
+		assertFalse(memo.get("http://a.com/page.html").isValidatable());
+
+		// the least recently used image is dropped
+		memo.put("http://b.com/sprite.png", new ImageMemo.Memo(hash, null,
+				500, 1000));
+		assertEquals(2, memo.size());
+		assertNull(memo.get("http://a.com/logo.png"));
+		assertEquals(3, memo.getHits());
+		assertEquals(2, memo.getMisses());
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.tests.plugins.pageranking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bah.applefox.main.plugins.pageranking.utilities.LinkGraph;
+import com.bah.applefox.main.plugins.pageranking.utilities.PageRankEngine;
+
+public class PageRankEngineTests {
+
+	private static LinkGraph createGraph() {
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		builder.addLink("a", "b");
+		builder.addLink("a", "c");
+		builder.addLink("b", "c");
+		builder.addLink("c", "a");
+		// d is not linked to, so it is not ranked
+		builder.addLink("d", "a");
+		return builder.build();
+	}
+
+	private static int find(LinkGraph graph, String url) {
+		for (int i = 0; i < graph.size(); i++) {
+			if (graph.getUrl(i).equals(url)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testGraph() {
+		LinkGraph graph = createGraph();
+		assertEquals(4, graph.size());
+		assertEquals(5, graph.getNumLinks());
+
+		int a = find(graph, "a");
+		int c = find(graph, "c");
+		int d = find(graph, "d");
+		assertEquals(2, graph.getOutDegree(a));
+		assertTrue(graph.hasInLinks(a));
+		assertFalse(graph.hasInLinks(d));
+
+		// the in-links of c are a and b
+		assertEquals(2, graph.getInOffset(c + 1) - graph.getInOffset(c));
+	}
+
+	@Test
+	public void testIterations() {
+		LinkGraph graph = createGraph();
+		PageRankEngine engine = new PageRankEngine(graph, 0.85);
+		int a = find(graph, "a");
+		int b = find(graph, "b");
+		int c = find(graph, "c");
+		int d = find(graph, "d");
+
+		assertEquals(0.85, engine.iterate(), 1e-9);
+		assertEquals(1.0, engine.getRank(a), 1e-9);
+		assertEquals(0.575, engine.getRank(b), 1e-9);
+		assertEquals(1.425, engine.getRank(c), 1e-9);
+		assertEquals(0.0, engine.getRank(d), 0.0);
+
+		engine.iterate();
+		assertEquals(1.36125, engine.getRank(a), 1e-9);
+		assertEquals(0.575, engine.getRank(b), 1e-9);
+		assertEquals(1.06375, engine.getRank(c), 1e-9);
+		assertEquals(2, engine.getIterations());
+	}
+
+	@Test
+	public void testThreads() {
+		// the ranks are the same however many threads compute them
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		Random random = new Random(11);
+		for (int i = 0; i < 5000; i++) {
+			builder.addLink("p" + random.nextInt(500), "p"
+					+ random.nextInt(500));
+		}
+		LinkGraph graph = builder.build();
+		PageRankEngine single = new PageRankEngine(graph, 0.85);
+		PageRankEngine threaded = new PageRankEngine(graph, 0.85, 3);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(single.iterate(), threaded.iterate(), 1e-9);
+		}
+		threaded.shutdown();
+		for (int i = 0; i < graph.size(); i++) {
+			assertEquals(single.getRank(i), threaded.getRank(i), 1e-12);
+		}
+		assertEquals(single.getNumRanked(), threaded.getNumRanked());
+	}
+
+	@Test
+	public void testWarmStart() {
+		LinkGraph graph = createGraph();
+		PageRankEngine cold = new PageRankEngine(graph, 0.85);
+		int iterations = 0;
+		while (cold.getAverageChange(cold.iterate()) >= 1e-6) {
+			iterations++;
+		}
+
+		// starting from the ranks found, the ranks barely change
+		double[] previous = new double[graph.size()];
+		for (int i = 0; i < graph.size(); i++) {
+			previous[i] = graph.hasInLinks(i) ? cold.getRank(i) : Double.NaN;
+		}
+		PageRankEngine warm = new PageRankEngine(graph, 0.85);
+		warm.warmStart(previous);
+		assertTrue(warm.getAverageChange(warm.iterate()) < 1e-6);
+		assertTrue(iterations > 10);
+
+		// pages not linked to are still not ranked
+		previous[find(graph, "d")] = 5.0;
+		warm.warmStart(previous);
+		assertEquals(0.0, warm.getRank(find(graph, "d")), 0.0);
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.tests.plugins.webcrawler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.bah.applefox.main.plugins.webcrawler.utilities.FrontierWriter;
+
+public class FrontierWriterTests {
+
+	@Test
+	public void testNormalize() {
+		assertEquals("http://example.com/a/b",
+				FrontierWriter.normalize("HTTP://Example.COM/a/b#top"));
+		assertEquals("http://example.com/",
+				FrontierWriter.normalize("http://example.com"));
+		assertEquals("http://example.com/a/?q=1",
+				FrontierWriter.normalize(" http://example.com/a/?q=1#x "));
+		assertEquals("http://example.com:8080/A",
+				FrontierWriter.normalize("http://example.com:8080/A"));
+	}
+
+	@Test
+	public void testNormalizeInvalid() {
+		assertNull(FrontierWriter.normalize("/relative/path"));
+		assertNull(FrontierWriter.normalize("http://bad host/"));
+	}
+}
@@ -22,13 +22,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.ServerSocket;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mortbay.jetty.Request;
@@ -40,14 +43,34 @@ import com.bah.applefox.main.plugins.webcrawler.utilities.RobotsTXT;
 
 public class ParseRobotsTXTTests {
 
+	// The status, Expires (0 for none) and delay of the next responses
+	private static volatile int status;
+	private static volatile long expires;
+	private static volatile long delay;
+
+	// The number of requests served
+	private static final AtomicInteger requests = new AtomicInteger();
+
 	private static AbstractHandler handler = new AbstractHandler() {
 
 		@Override
 		public void handle(String target, HttpServletRequest request,
 				HttpServletResponse response, int dispatch) throws IOException,
 				ServletException {
-			response.setStatus(HttpServletResponse.SC_OK);
+			requests.incrementAndGet();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+			}
+			response.setStatus(status);
 			((Request) request).setHandled(true);
+			if (status != HttpServletResponse.SC_OK) {
+				response.flushBuffer();
+				return;
+			}
+			if (expires > 0) {
+				response.setDateHeader("Expires", expires);
+			}
 			File file = new File("src/test/resources/thinkgeek-bots.txt");
 			FileInputStream fis = new FileInputStream(file);
 			int read = 0;
@@ -77,6 +100,18 @@ public class ParseRobotsTXTTests {
 		server.stop();
 	}
 
+	@Before
+	public void reset() {
+		status = HttpServletResponse.SC_OK;
+		expires = 0;
+		delay = 0;
+		RobotsTXT.clearCache();
+	}
+
+	private static URL site() throws IOException {
+		return new URL("http://localhost:" + port + "/page.html");
+	}
+
 	@Test
 	public void testRobotsTXT() throws IOException, PageCrawlException {
 		// At the current time, thinkgeek.com has a robots.txt file with 9
@@ -93,4 +128,118 @@ public class ParseRobotsTXTTests {
 		assertFalse(r2.allowed("/"));
 	}
 
+	@Test
+	public void testCacheHits() throws IOException, PageCrawlException {
+		long hits = RobotsTXT.getHits(), misses = RobotsTXT.getMisses();
+		int served = requests.get();
+
+		RobotsTXT.get(site(), "TestCrawl");
+		RobotsTXT.get(site(), "rogerbot");
+
+		// the rules are fetched once and shared by every agent
+		assertEquals(served + 1, requests.get());
+		assertEquals(misses + 1, RobotsTXT.getMisses());
+		assertEquals(hits + 1, RobotsTXT.getHits());
+	}
+
+	@Test
+	public void testConcurrentMisses() throws Exception {
+		// tasks missing the same site wait for a single fetch
+		delay = 500;
+		int served = requests.get();
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						RobotsTXT.get(site(), "TestCrawl");
+					} catch (Exception e) {
+						errors.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, errors.get());
+		assertEquals(served + 1, requests.get());
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		// without Expires, the rules are kept for an hour
+		long now = System.currentTimeMillis();
+		long deadline = RobotsTXT.get(site(), "TestCrawl").getExpiration();
+		assertTrue(deadline >= now + 59 * 60 * 1000);
+		assertTrue(deadline <= now + 61 * 60 * 1000);
+
+		// and for a day at most
+		RobotsTXT.clearCache();
+		expires = now + 10L * 24 * 60 * 60 * 1000;
+		deadline = RobotsTXT.get(site(), "TestCrawl").getExpiration();
+		assertTrue(deadline <= System.currentTimeMillis() + 24 * 60 * 60
+				* 1000);
+
+		// once they expire they are fetched again
+		RobotsTXT.clearCache();
+		expires = System.currentTimeMillis() + 2000;
+		RobotsTXT.get(site(), "TestCrawl");
+		int served = requests.get();
+		RobotsTXT.get(site(), "TestCrawl");
+		assertEquals(served, requests.get());
+		Thread.sleep(2500);
+		RobotsTXT.get(site(), "TestCrawl");
+		assertEquals(served + 1, requests.get());
+	}
+
+	@Test
+	public void testNotFound() throws IOException, PageCrawlException {
+		// a site without a robots.txt allows everything
+		status = HttpServletResponse.SC_NOT_FOUND;
+		int served = requests.get();
+		assertTrue(RobotsTXT.get(site(), "rogerbot").allowed("/"));
+		assertTrue(RobotsTXT.get(site(), "rogerbot").allowed("/brain/"));
+		assertEquals(served + 1, requests.get());
+	}
+
+	@Test
+	public void testServerError() throws IOException {
+		// a robots.txt that could not be read is not fetched again for a
+		// few minutes
+		status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		long failures = RobotsTXT.getFailures();
+		int served = requests.get();
+		for (int i = 0; i < 2; i++) {
+			try {
+				RobotsTXT.get(site(), "TestCrawl");
+				assertTrue(false);
+			} catch (PageCrawlException e) {
+			}
+		}
+		assertEquals(served + 1, requests.get());
+		assertEquals(failures + 1, RobotsTXT.getFailures());
+	}
+
+	@Test
+	public void testConnectionError() throws IOException {
+		// a port nothing listens on
+		ServerSocket socket = new ServerSocket(0);
+		URL url = new URL("http://localhost:" + socket.getLocalPort() + "/");
+		socket.close();
+
+		long failures = RobotsTXT.getFailures();
+		long hits = RobotsTXT.getHits();
+		for (int i = 0; i < 2; i++) {
+			try {
+				RobotsTXT.get(url, "TestCrawl");
+				assertTrue(false);
+			} catch (PageCrawlException e) {
+			}
+		}
+		assertEquals(failures + 1, RobotsTXT.getFailures());
+		assertEquals(hits + 1, RobotsTXT.getHits());
+	}
 }
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.applefox.tests.plugins.webcrawler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+import com.bah.applefox.main.plugins.webcrawler.utilities.PageCrawlException;
+import com.bah.applefox.main.plugins.webcrawler.utilities.PoliteFetcher;
+import com.bah.applefox.main.plugins.webcrawler.utilities.RobotsTXT;
+
+public class PoliteFetcherTests {
+
+	// The robots.txt served
+	private static volatile String robots;
+
+	// The times the pages were requested, and the requests in flight
+	private static final List<Long> fetches = Collections
+			.synchronizedList(new ArrayList<Long>());
+	private static final AtomicInteger inFlight = new AtomicInteger();
+	private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+	private static AbstractHandler handler = new AbstractHandler() {
+
+		@Override
+		public void handle(String target, HttpServletRequest request,
+				HttpServletResponse response, int dispatch) throws IOException,
+				ServletException {
+			((Request) request).setHandled(true);
+			if (target.equals("/robots.txt")) {
+				response.setContentType("text/plain");
+				response.getWriter().write(robots);
+				response.flushBuffer();
+				return;
+			}
+
+			fetches.add(System.currentTimeMillis());
+			int n = inFlight.incrementAndGet();
+			synchronized (maxInFlight) {
+				if (n > maxInFlight.get()) {
+					maxInFlight.set(n);
+				}
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			inFlight.decrementAndGet();
+
+			response.setContentType("text/html");
+			response.getWriter().write(
+					"<html><head><title>" + target
+							+ "</title></head><body>page</body></html>");
+			response.flushBuffer();
+		}
+	};
+
+	private static Server server;
+	private static int port;
+
+	@BeforeClass
+	public static void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(handler);
+		server.start();
+		port = server.getConnectors()[0].getLocalPort();
+	}
+
+	@AfterClass
+	public static void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Before
+	public void reset() {
+		robots = "User-agent: *\nDisallow: /private/\n";
+		fetches.clear();
+		maxInFlight.set(0);
+		RobotsTXT.clearCache();
+	}
+
+	private static String page(int i) {
+		return "http://localhost:" + port + "/page" + i + ".html";
+	}
+
+	/**
+	 * Fetches the given number of pages of the site with several threads
+	 */
+	private static void fetchPages(int n) throws InterruptedException {
+		PoliteFetcher fetcher = new PoliteFetcher("TestCrawl", 4, 4, 5000,
+				5000, 0);
+		for (int i = 0; i < n; i++) {
+			fetcher.submit(page(i));
+		}
+		for (int i = 0; i < n; i++) {
+			PoliteFetcher.Result result = fetcher.take();
+			assertNull(result.getError());
+			assertTrue(result.isAllowed());
+			assertNotNull(result.getPage());
+		}
+		fetcher.shutdown();
+	}
+
+	@Test
+	public void testFractionalDelay() throws Exception {
+		// a delay of half a second is waited between the pages of the site,
+		// which are never fetched at the same time
+		robots = "User-agent: *\nCrawl-delay: 0.5\n";
+		assertEquals(500, RobotsTXT.get(new URL(page(0)), "TestCrawl")
+				.getDelay());
+
+		fetchPages(3);
+		assertEquals(3, fetches.size());
+		assertEquals(1, maxInFlight.get());
+		for (int i = 1; i < fetches.size(); i++) {
+			assertTrue(fetches.get(i) - fetches.get(i - 1) >= 500);
+		}
+	}
+
+	@Test
+	public void testNoDelay() throws Exception {
+		// without a delay the pages of a site are still fetched one at a time
+		fetchPages(5);
+		assertEquals(5, fetches.size());
+		assertEquals(1, maxInFlight.get());
+	}
+
+	@Test
+	public void testBadDelay() throws Exception {
+		// a delay that is not a number is ignored
+		robots = "User-agent: *\nCrawl-delay: soon\n";
+		assertEquals(0, RobotsTXT.get(new URL(page(0)), "TestCrawl")
+				.getDelay());
+		fetchPages(2);
+		assertEquals(2, fetches.size());
+	}
+
+	@Test
+	public void testLongDelay() throws IOException, PageCrawlException {
+		// a delay of a day is cut to a minute
+		robots = "User-agent: *\nCrawl-delay: 86400\n";
+		assertEquals(60 * 1000, RobotsTXT.get(new URL(page(0)), "TestCrawl")
+				.getDelay());
+	}
+}
@@ -16,43 +16,52 @@
  */
 package com.bah.bahdit.main.plugins.fulltextindex;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletContext;
 
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
-import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.RegExFilter;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
 import org.apache.lucene.search.spell.SpellChecker;
 
 import com.bah.bahdit.main.plugins.fulltextindex.data.EdgeLinks;
-import com.bah.bahdit.main.plugins.fulltextindex.data.FixedSizePQ;
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
+import com.bah.bahdit.main.plugins.fulltextindex.data.RankedResults;
 import com.bah.bahdit.main.plugins.fulltextindex.data.SearchResults;
-import com.bah.bahdit.main.plugins.fulltextindex.data.Term;
-import com.bah.bahdit.main.plugins.fulltextindex.data.TermComparator;
+import com.bah.bahdit.main.plugins.fulltextindex.data.URLComparator;
 import com.bah.bahdit.main.plugins.fulltextindex.iterators.DocumentRanker;
 import com.bah.bahdit.main.plugins.fulltextindex.iterators.RankCalculator;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.QueryCache;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermStatistics;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.plugins.index.Index;
 import com.bah.bahdit.main.search.Search;
@@ -72,6 +81,22 @@ public class FullTextIndex implements Index {
   public static final String FT_TABLE_NAME = "FT_DATA_TABLE";
   public static final String FT_SAMPLE = "FT_SAMPLE";
   public static final String PR_FILE = "PR_FILE";
+  public static final String FT_LAYOUT = "FT_LAYOUT";
+  public static final String FT_QUERY_THREADS = "FT_QUERY_THREADS";
+  public static final String FT_EARLY_TERMINATION = "FT_EARLY_TERMINATION";
+  public static final String FT_CACHE_SIZE = "FT_CACHE_SIZE";
+  public static final String FT_CACHE_WEIGHT = "FT_CACHE_WEIGHT";
+  public static final String FT_CACHE_TTL = "FT_CACHE_TTL";
+  public static final String FT_CACHE_TOP_N = "FT_CACHE_TOP_N";
+
+  // Layout where each term row only holds its own posting for a document, 
+  // and the term vectors of the documents are kept in a separate table
+  public static final String LAYOUT_POSTINGS = "postings";
+  public static final String VECTOR_TABLE_SUFFIX = "Vectors";
+
+  // Option holding the stop words of the query, which are only indexed as 
+  // part of n-grams
+  public static final String FT_STOP_WORDS = "FT_STOP_WORDS";
 
   // Encoding type to serialize hashmap into string
   public static final String ENCODING = "ISO-8859-1";
@@ -80,17 +105,47 @@ public class FullTextIndex implements Index {
   private static final int RANK_CALCULATOR_PRIORITY = 10;
   private static final int DOCUMENT_RANKER_PRIORITY = 11;
   private static final String NUM_RESULTS = "[NUM_RESULTS]";
+  private static final String PRUNED = "[PRUNED]";
+
+  // number of query term statistics kept in memory by default
+  private static final int STATS_CACHE_SIZE = 10000;
+
+  // number of documents ranked at once with the stats table, whose 
+  // Pageranks are sent to the iterators together
+  private static final int STATS_CHUNK_SIZE = 10000;
+
+  // number of threads used to scan the tablets of a query by default
+  private static final int QUERY_THREADS = 10;
+
+  // bounds of the query cache by default : number of queries, characters of
+  // results, and milliseconds the results are kept for
+  private static final int CACHE_SIZE = 1000;
+  private static final long CACHE_WEIGHT = 10000000L;
+  private static final long CACHE_TTL = 600000L;
+
+  // number of results ranked and cached for a query by default, so that the
+  // following pages are cut out of the same results
+  private static final int CACHE_TOP_N = 200;
 
   // regex for removing all characters from a string except numbers
   private static final String KEEP_NUMBERS = "[^0-9]";
 
   private static Log log = LogFactory.getLog(FullTextIndex.class);
 
-  private static HashMap<String, SoftReference<SearchResults>> searchResultsCache;
+  // shared by all the instances, and invalidated whenever one is configured
+  private static QueryCache queryCache = null;
   private SpellChecker spellChecker = null;
   private HashSet<String> stopWords = null;
-  private HashMap<String, Integer> sampleTable = null;
-  private HashMap<String, Double> pagerankTable = null;
+  private TermDictionary<Integer> sampleTable = null;
+  private TermDictionary<Double> pagerankTable = null;
+  // the sample and pagerank tables as given to the iterators, encoded once
+  private String sampleTableString = null;
+  private String pagerankTableString = null;
+  private TermStatistics termStatistics = null;
+  private long statsRefresh = TermStatistics.DEFAULT_REFRESH;
+  private int queryThreads = QUERY_THREADS;
+  private int cacheTopN = CACHE_TOP_N;
+  private int maxNGrams = 1;
   private Properties properties;
   private Connector conn;  
 
@@ -106,7 +161,74 @@ public class FullTextIndex implements Index {
     this.properties = properties;
     this.conn = conn;
     loadResources(context);
-    searchResultsCache = new HashMap<String, SoftReference<SearchResults>>();
+
+    // read the statistics from the stats table instead of shipping the 
+    // sample and pagerank tables to the iterators
+    String statsTable = properties.getProperty(TermStatistics.FT_STATS_TABLE);
+    if (statsTable != null && !statsTable.trim().equals("")) {
+      String size = properties.getProperty(TermStatistics.FT_STATS_CACHE_SIZE);
+      termStatistics = new TermStatistics(conn, statsTable.trim(), 
+          size == null ? STATS_CACHE_SIZE : Integer.parseInt(size));
+      statsRefresh = TermStatistics.getRefreshInterval(
+          properties.getProperty(TermStatistics.FT_STATS_REFRESH));
+    }
+    else {
+      // the whole tables are shipped with every query, so they are only 
+      // encoded once
+      sampleTableString = toOption(sampleTable);
+      pagerankTableString = toOption(pagerankTable);
+    }
+    // the tablets of a query are scanned in parallel by this many threads
+    String threads = properties.getProperty(FT_QUERY_THREADS);
+    if (threads != null && !threads.trim().equals(""))
+      queryThreads = Integer.parseInt(threads.trim());
+
+    String ngrams = properties.getProperty(Search.MAX_NGRAMS);
+    if (ngrams != null && !ngrams.trim().equals(""))
+      maxNGrams = Integer.parseInt(ngrams.trim());
+
+    String topN = properties.getProperty(FT_CACHE_TOP_N);
+    if (topN != null && !topN.trim().equals(""))
+      cacheTopN = Integer.parseInt(topN.trim());
+
+    // the results cached so far were ranked with the sample and pagerank 
+    // tables loaded before
+    synchronized (FullTextIndex.class) {
+      if (queryCache == null) {
+        queryCache = new QueryCache(
+            (int)getLong(properties, FT_CACHE_SIZE, CACHE_SIZE), 
+            getLong(properties, FT_CACHE_WEIGHT, CACHE_WEIGHT), 
+            getLong(properties, FT_CACHE_TTL, CACHE_TTL));
+      }
+      else {
+        log.info(queryCache.toString());
+        queryCache.invalidate();
+      }
+    }
+  }
+
+  /**
+   * @return the bytes of a dictionary as an iterator option, or null if it 
+   * could not be loaded
+   */
+  private static String toOption(TermDictionary<?> dictionary) {
+    if (dictionary == null) return null;
+    try {
+      return new String(dictionary.getBytes(), ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      log.error(e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return the value of a numeric property, or the default if it is not set
+   */
+  private static long getLong(Properties properties, String name, 
+      long defaultValue) {
+    String value = properties.getProperty(name);
+    if (value == null || value.trim().equals("")) return defaultValue;
+    return Long.parseLong(value.trim());
   }
 
   /**
@@ -133,26 +255,112 @@ public class FullTextIndex implements Index {
     // used as base starting time to calculate time spent searching for results
     long startTime = System.nanoTime();
 
-    // we assume that the query is a string of terms
-    String query = (String)strQuery;
+    // we assume that the query is a string of terms, which is searched for 
+    // and cached in its normalized form
+    String query = normalizeQuery((String)strQuery);
 
-    // checks if the query is in the memory cache
-    // if so, get the results straight from the cache instead of accumulo
-    String cacheString = query + String.valueOf(page);
-    if(searchResultsCache.containsKey(cacheString)) {
-      SearchResults s = searchResultsCache.get(cacheString).get();
-      if (s != null) {
-        // save time needed to get from cache
-        s.setTime(System.nanoTime() - startTime);
-        return s;
+    // a new sample or pagerank in the stats table makes the cached results 
+    // stale.  The epoch is read at most once every FT_STATS_REFRESH ms
+    if (termStatistics != null) {
+      try {
+        if (termStatistics.refresh(statsRefresh)) queryCache.invalidate();
+      } catch (IOException e) {
+        log.error(e.getMessage());
       }
-      // get rid of any keys that point to null
-      else searchResultsCache.remove(cacheString);
     }
 
-    // initialize the scanner that looks through the main table
-    Scanner mainScanner = null;
+    // checks if the query is in the memory cache
+    // if so, cut the page straight from the cache instead of accumulo
+    int needed = page * resultsPerPage;
+    RankedResults ranked = queryCache.get(query, needed);
+    if (ranked == null) {
+      long epoch = queryCache.getEpoch();
+      ranked = rankDocuments(query, getDepth(needed));
+
+      // if there are results, store in cache for future searches
+      if (ranked.getNumResults() != 0) queryCache.put(query, ranked, epoch);
+    }
+
+    // get the total amount of time needed to get all the results
+    long timeElapsed = System.nanoTime() - startTime;
+    return new SearchResults(ranked.getPage(page, resultsPerPage), 
+        ranked.getCorrection(), ranked.getNumResults(), timeElapsed);
+  }
+
+  /**
+   * Gets how many results to rank for a query, so that the following pages 
+   * are cut out of the same results.  The top N results are ranked at first, 
+   * and twice as many each time a page past them is requested, so paging 
+   * through many results only ranks them a few times.
+   * 
+   * @param needed - the number of results up to the end of the page
+   * @return the number of results to rank
+   */
+  private int getDepth(int needed) {
+    int depth = Math.max(cacheTopN, 1);
+    while (depth < needed && depth <= Integer.MAX_VALUE / 2) depth *= 2;
+    return Math.max(depth, needed);
+  }
+
+  /**
+   * Puts the query into the form it is searched and cached under : in lower 
+   * case, and if only single terms are ranked, without stop words (which 
+   * are not indexed) and with its terms sorted, since their order then does 
+   * not change the results.  With n-grams, the stop words are kept, since 
+   * the n-grams containing them are indexed (e.g. "bank of america").
+   * 
+   * @param query - the query given by the servlet
+   * @return the normalized query
+   */
+  private String normalizeQuery(String query) {
+    ArrayList<String> terms = new ArrayList<String>();
+    for (String s : query.toLowerCase().split("\\s+")) {
+      if (s.equals("") || (maxNGrams <= 1 && stopWords.contains(s))) continue;
+      terms.add(s);
+    }
+    if (maxNGrams <= 1) Collections.sort(terms);
 
+    StringBuilder normalized = new StringBuilder();
+    for (String s : terms) {
+      if (normalized.length() > 0) normalized.append(' ');
+      normalized.append(s);
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Splits the stop words out of the query
+   * 
+   * @param query - the normalized query
+   * @param stopped - filled with the stop words of the query, separated by
+   * spaces
+   * @return the other words of the query
+   */
+  private String removeStopWords(String query, StringBuilder stopped) {
+    StringBuilder rest = new StringBuilder();
+    for (String s : query.split(" ")) {
+      StringBuilder words = stopWords.contains(s) ? stopped : rest;
+      if (words.length() > 0) words.append(' ');
+      words.append(s);
+    }
+    return rest.toString();
+  }
+
+  /**
+   * Ranks the documents matching the query, keeping the highest ranked.
+   * 
+   * @param query - the normalized query
+   * @param n - the number of highest ranked documents to keep
+   * 
+   * @return the highest ranked documents, with the total number of results 
+   * and a correction of the query if there are none
+   */
+  private RankedResults rankDocuments(String query, int n) {
+
+    // initialize the scanner that looks through the main table.  The rows of 
+    // a term span many tablets (one row per load), so they are scanned in 
+    // parallel, each tablet ranking its own documents
+    BatchScanner mainScanner = null;
 
     // set the main table to scan through
     String mainTable = properties.getProperty(FT_TABLE_NAME);
@@ -164,144 +372,368 @@ public class FullTextIndex implements Index {
       System.exit(1);
     }
     try {
-      mainScanner = conn.createScanner(mainTable, new Authorizations());
+      mainScanner = conn.createBatchScanner(mainTable, new Authorizations(), 
+          queryThreads);
     } catch (TableNotFoundException e) {
       log.error(e.getMessage());
     }
 
-    // store the sampling table for tf-idf calculations
-    String sampleTableString = null;
-    try {
-      sampleTableString = new String(Utils.serialize(sampleTable), ENCODING);
-    } catch (UnsupportedEncodingException e) {
-      log.error(e.getMessage());
-    } catch (IOException e) {
-      log.error(e.getMessage());
-    }
-
-
-    // store the pagerank table for pagerank calculations
-    String pagerankTableString = null;
-    try {
-      pagerankTableString = new String(Utils.serialize(pagerankTable), ENCODING);
-    } catch (UnsupportedEncodingException e) {
-      log.error(e.getMessage());
-    } catch (IOException e) {
-      log.error(e.getMessage());
-    }
-
-    // put the necessary properties into the hashmap for the iterators
+    // put the necessary properties into the hashmap for the iterators.  Each 
+    // tablet returns its top n documents, as a single page of n results
     Map<String,String> iteratorProperties = new HashMap<String, String>();
     iteratorProperties.put(Search.QUERY, query);
-    iteratorProperties.put(Search.PAGE, String.valueOf(page));
-    iteratorProperties.put(Search.NUM_RESULTS, String.valueOf(resultsPerPage));
+    iteratorProperties.put(Search.PAGE, "1");
+    iteratorProperties.put(Search.NUM_RESULTS, String.valueOf(n));
     iteratorProperties.put(Search.MAX_NGRAMS, properties.getProperty(Search.MAX_NGRAMS));
-    iteratorProperties.put(FT_SAMPLE, sampleTableString);
-    iteratorProperties.put(Search.PAGERANK_TABLE, pagerankTableString);
 
-    // this iterator calculates the rank of each document
-    IteratorSetting cfg = new IteratorSetting(RANK_CALCULATOR_PRIORITY, 
-        RankCalculator.class, iteratorProperties);
-    mainScanner.addScanIterator(cfg);
+    // the stop words are not indexed on their own, so the iterators only look
+    // for the n-grams containing them
+    StringBuilder stopped = new StringBuilder();
+    String words = removeStopWords(query, stopped);
+    if (stopped.length() > 0)
+      iteratorProperties.put(FT_STOP_WORDS, stopped.toString());
+
+    // the iterators either get the whole sample and pagerank tables, or the 
+    // document frequencies of the query terms (and of their n-grams) from the
+    // stats table, and the Pageranks of the documents they rank (see 
+    // withPageranks)
+    Map<String, Integer> querySample = sampleTable;
+    if (termStatistics != null) {
+      ArrayList<String> queryTerms = Utils.createNGrams(query, maxNGrams);
+      queryTerms.addAll(Arrays.asList(query.split(" ")));
+      try {
+        querySample = termStatistics.getSample(queryTerms);
+        iteratorProperties.put(FT_SAMPLE, new String(TermDictionary.toBytes(
+            querySample, TermDictionary.INT_VALUES), ENCODING));
+      } catch (IOException e) {
+        log.error(e.getMessage());
+        querySample = new HashMap<String, Integer>();
+      }
+    }
+    else {
+      // the sampling table for tf-idf calculations, and the pagerank table 
+      // for pagerank calculations
+      iteratorProperties.put(FT_SAMPLE, sampleTableString);
+      iteratorProperties.put(Search.PAGERANK_TABLE, pagerankTableString);
+    }
 
-    // this iterator sorts the ranks of each document 
-    IteratorSetting cfg2 = new IteratorSetting(DOCUMENT_RANKER_PRIORITY, 
-        DocumentRanker.class, iteratorProperties);
-    mainScanner.addScanIterator(cfg2);
+    // with the postings layout, candidates are ranked from their term vectors
+    String layout = properties.getProperty(FT_LAYOUT);
+    boolean postings = LAYOUT_POSTINGS.equals(layout);
+    if (postings) iteratorProperties.put(FT_LAYOUT, layout);
+
+    // skip the documents that cannot make it to the requested page
+    String earlyTermination = properties.getProperty(FT_EARLY_TERMINATION);
+    if (earlyTermination != null && earlyTermination.trim().equals("true"))
+      iteratorProperties.put(FT_EARLY_TERMINATION, "true");
+
+    // with the stats table, the documents are ranked a chunk at a time (see 
+    // searchCandidates)
+    if (!postings && termStatistics == null)
+      addRankingIterators(mainScanner, iteratorProperties);
 
     // Uses a sample table to determine which rowid to search for
     // Look for the least frequent term to best limit the number of documents
     String minTerm = "";
     Integer min = null;
     for (String s : query.split(" ")) {
-      // replace terms in query that are in the stop words list
-      if(stopWords.contains(s)) {
-        query = query.replaceAll(s,"");
-        continue;
-      }
       // set the term with the minimum frequency from the sample table
-      if(sampleTable.containsKey(s) && (min == null || sampleTable.get(s) < min)) {
-        min = sampleTable.get(s);
+      if(querySample.containsKey(s) && (min == null || querySample.get(s) < min)) {
+        min = querySample.get(s);
         minTerm = s;
       }
     }
 
     // initialize internal objects for search results
     String correction = "";
-    ArrayList<String> urls = null;
-    FixedSizePQ<Term> urlsPQ = null;
+    BoundedTopK<Key> urlsPQ = null;
     int numResults = 0;
 
     // if all terms appear in sample table, look up in accumulo table
     if(!minTerm.equals("")) {
 
-      // holds the information for each URL to be returned
-      urls = new ArrayList<String>();
-      urlsPQ = new FixedSizePQ<Term>(page * resultsPerPage, new TermComparator());
+      // holds the highest ranked URLs
+      urlsPQ = new BoundedTopK<Key>(n, new URLComparator());
 
       // limit the search based on the minimum term
       // rows are created as : "[minTerm] [timestamp]"
-      mainScanner.setRange(new Range(minTerm + " ", minTerm + "!"));
+      mainScanner.setRanges(Collections.singleton(
+          new Range(minTerm + " ", minTerm + "!")));
 
-      // used to store the last column qualifier of each string
-      String lastCQ = "";
+      if (postings) {
+        numResults = searchTermVectors(mainScanner, mainTable + 
+            VECTOR_TABLE_SUFFIX, iteratorProperties, urlsPQ);
+      }
+      else if (termStatistics != null) {
+        numResults = searchCandidates(mainScanner, mainTable, minTerm, 
+            iteratorProperties, urlsPQ);
+      }
+      else numResults = mergeResults(mainScanner, urlsPQ);
+    }
+    if (mainScanner != null) mainScanner.close();
 
-      // scan through the rows of the table using the pre-added iterators
-      for(Entry<Key, Value> entry : mainScanner) {
-        Double rank = 0.0;
-        Key key = entry.getKey();
+    // keep the urls from the highest to the lowest ranked
+    int size = urlsPQ == null ? 0 : urlsPQ.size();
+    double[] ranks = new double[size];
+    String[] urls = new String[size];
+    if (urlsPQ != null) {
+      urlsPQ.sort();
+      for (int r = 0; r < size; r++) {
+        ranks[r] = urlsPQ.getScore(r);
+        urls[r] = urlsPQ.getKey(r).getColumnFamily().toString();
+      }
+    }
 
-        // get the cosim of the current entry
-        try {
-          rank = (Double)Utils.deserialize(entry.getValue().get());
-        } catch (IOException e) {
-          log.error(e.getMessage());
-        } catch (ClassNotFoundException e) {
-          log.error(e.getMessage());
-        }
+    // if no results, assume misspelling and look for alternatives
+    if (numResults == 0)
+      correction = fullTextLevDistance(words, sampleTable, spellChecker);
+
+    return new RankedResults(ranks, urls, numResults, correction, n);
+  }
+
+  /**
+   * Merges the top documents of every tablet, which arrive in any order, as 
+   * returned by the DocumentRanker.  The documents skipped by early 
+   * termination are only logged, since they may not contain all the terms 
+   * of the query.
+   * 
+   * @param entries - the ranked documents of every tablet
+   * @param urlsPQ - filled with the ranked documents
+   * 
+   * @return the number of documents ranked that match the query
+   */
+  public static int mergeResults(Iterable<Entry<Key, Value>> entries, 
+      BoundedTopK<Key> urlsPQ) {
+
+    // used to store the last column qualifier of each string
+    String lastCQ = "";
+    int numResults = 0;
 
-        // add the current entry to the priority queue
-        urlsPQ.add(new Term(key, rank));
+    // documents skipped by early termination
+    int pruned = 0;
 
-        // checks the last column qualifier for the number of total results
-        lastCQ = key.getColumnQualifier().toString();
-        if (lastCQ.contains(NUM_RESULTS)) {
-          lastCQ = lastCQ.replaceAll(KEEP_NUMBERS,"");
-          numResults += Integer.parseInt(lastCQ);
+    for(Entry<Key, Value> entry : entries) {
+      Double rank = 0.0;
+      Key key = entry.getKey();
+
+      // get the cosim of the current entry
+      try {
+        rank = (Double)Utils.deserialize(entry.getValue().get());
+      } catch (IOException e) {
+        log.error(e.getMessage());
+      } catch (ClassNotFoundException e) {
+        log.error(e.getMessage());
+      }
+
+      // add the current entry to the priority queue
+      urlsPQ.add(key, rank);
+
+      // checks the last column qualifier for the number of total results
+      lastCQ = key.getColumnQualifier().toString();
+      if (lastCQ.contains(NUM_RESULTS)) {
+        int p = lastCQ.indexOf(PRUNED);
+        if (p != -1) {
+          pruned += Integer.parseInt(
+              lastCQ.substring(p).replaceAll(KEEP_NUMBERS,""));
+          lastCQ = lastCQ.substring(0, p);
         }
+        lastCQ = lastCQ.replaceAll(KEEP_NUMBERS,"");
+        numResults += Integer.parseInt(lastCQ);
       }
     }
 
+    // the skipped documents were not scanned, so whether they match is not 
+    // known, and they are left out of the number of results
+    if (pruned > 0) log.info("Pruned " + pruned + " documents");
+    return numResults;
+  }
+
+  /**
+   * Adds the iterators ranking the documents of the pairs layout
+   * 
+   * @param scanner - scanner of the main table
+   * @param options - the options of the iterators
+   */
+  private static void addRankingIterators(BatchScanner scanner, 
+      Map<String, String> options) {
 
-    int i = resultsPerPage;
-    // limit results if at the last of rankings
-    if(resultsPerPage * page > numResults)
-      i = numResults - (resultsPerPage * (page - 1));
-    // get only the specific urls we want from the back of the priority queue
-    if (urlsPQ != null) {
-      while (!urlsPQ.isEmpty() && i > 0) {
-        Term t = urlsPQ.pollFirst();
-        urls.add(t.getValue() + "[ ]" + t.getKey().getColumnFamily().toString());
-        i--;
+    // this iterator calculates the rank of each document
+    scanner.addScanIterator(new IteratorSetting(RANK_CALCULATOR_PRIORITY, 
+        RankCalculator.class, options));
+
+    // this iterator sorts the ranks of each document 
+    scanner.addScanIterator(new IteratorSetting(DOCUMENT_RANKER_PRIORITY, 
+        DocumentRanker.class, options));
+  }
+
+  /**
+   * Ranks the documents of the pairs layout with the stats table.  The 
+   * candidate documents are read first, keeping only their entry for the 
+   * minimum term, and are then ranked STATS_CHUNK_SIZE at a time, so the 
+   * iterators are only sent the Pageranks of the documents they rank.
+   * 
+   * @param mainScanner - scanner set to the rows of the minimum term
+   * @param mainTable - the main table
+   * @param minTerm - the least frequent term of the query
+   * @param iteratorProperties - the options of the iterators
+   * @param urlsPQ - filled with the ranked documents
+   * 
+   * @return the total number of documents matching the query
+   */
+  private int searchCandidates(BatchScanner mainScanner, String mainTable, 
+      String minTerm, Map<String, String> iteratorProperties, 
+      BoundedTopK<Key> urlsPQ) {
+
+    // every document of the minimum term has an entry for the term itself, 
+    // in the rows of the term
+    IteratorSetting filter = new IteratorSetting(RANK_CALCULATOR_PRIORITY, 
+        RegExFilter.class);
+    RegExFilter.setRegexs(filter, null, null, Pattern.quote(minTerm), null, 
+        false);
+    mainScanner.addScanIterator(filter);
+
+    TreeSet<String> documents = new TreeSet<String>();
+    TreeSet<String> rows = new TreeSet<String>();
+    for (Entry<Key, Value> entry : mainScanner) {
+      documents.add(entry.getKey().getColumnFamily().toString());
+      rows.add(entry.getKey().getRow().toString());
+    }
+
+    int numResults = 0;
+    ArrayList<String> chunk = new ArrayList<String>();
+    Iterator<String> it = documents.iterator();
+    while (it.hasNext()) {
+      chunk.add(it.next());
+      if (chunk.size() < STATS_CHUNK_SIZE && it.hasNext()) continue;
+
+      // the entries of the documents of the chunk, in every row of the term
+      Text first = new Text(chunk.get(0));
+      Text last = new Text(chunk.get(chunk.size() - 1));
+      ArrayList<Range> ranges = new ArrayList<Range>();
+      for (String row : rows) {
+        ranges.add(new Range(new Key(new Text(row), first), true, 
+            new Key(new Text(row), last).followingKey(PartialKey.ROW_COLFAM), 
+            false));
+      }
+
+      BatchScanner chunkScanner = null;
+      try {
+        chunkScanner = conn.createBatchScanner(mainTable, 
+            new Authorizations(), queryThreads);
+      } catch (TableNotFoundException e) {
+        log.error(e.getMessage());
+        return numResults;
       }
+      chunkScanner.setRanges(ranges);
+      addRankingIterators(chunkScanner, 
+          withPageranks(iteratorProperties, chunk));
+      numResults += mergeResults(chunkScanner, urlsPQ);
+      chunkScanner.close();
+
+      chunk.clear();
     }
+    return numResults;
+  }
 
-    // reverse the arraylist to get the correct highest to lowest order
-    if (urls != null) Collections.reverse(urls);
+  /**
+   * Gets the options of the iterators, with the Pageranks of the given 
+   * documents from the stats table as the pagerank table
+   * 
+   * @param iteratorProperties - the options of the iterators
+   * @param documents - the column families of the documents
+   */
+  private Map<String, String> withPageranks(
+      Map<String, String> iteratorProperties, Collection<String> documents) {
 
-    // if no results, assume misspelling and look for alternatives
-    if (numResults == 0)
-      correction = fullTextLevDistance(query, sampleTable, spellChecker);
+    HashSet<String> urls = new HashSet<String>();
+    for (String cf : documents) urls.add(getUrl(cf));
 
-    // get the total amount of time needed to get all the results
-    long timeElapsed = System.nanoTime() - startTime;
-    SearchResults results = new SearchResults(urls, correction, numResults, timeElapsed);
+    Map<String, String> options = 
+        new HashMap<String, String>(iteratorProperties);
+    try {
+      HashMap<String, Double> pageranks = termStatistics.getPageranks(urls);
+      pageranks.put(TermStatistics.MAX_PR, termStatistics.getMaxPagerank());
+      options.put(Search.PAGERANK_TABLE, new String(TermDictionary.toBytes(
+          pageranks, TermDictionary.FLOAT_VALUES), ENCODING));
+    } catch (IOException e) {
+      log.error(e.getMessage());
+    }
+    return options;
+  }
+
+  /**
+   * Gets the url of a document from its column family
+   */
+  private static String getUrl(String cf) {
+    int end = cf.indexOf("[ ]");
+    return end == -1 ? cf : cf.substring(0, end);
+  }
+
+  /**
+   * Ranks the documents of the postings layout.  The postings of the minimum 
+   * term give the candidate documents, whose term vectors are then fetched 
+   * once each and ranked by the RankCalculator.  With the stats table, they 
+   * are ranked STATS_CHUNK_SIZE at a time, with the Pageranks of the chunk.
+   * 
+   * This layout is experimental.  Every candidate is a range of its own, and 
+   * the iterators are seeked once per range, so no DocumentRanker can keep 
+   * the top documents of a tablet, and every candidate is sent back here.
+   * 
+   * @param postingsScanner - scanner set to the rows of the minimum term
+   * @param vectorTable - the table holding the term vectors
+   * @param iteratorProperties - the options of the RankCalculator
+   * @param urlsPQ - filled with the ranked documents
+   * 
+   * @return the total number of documents matching the query
+   */
+  private int searchTermVectors(BatchScanner postingsScanner, String vectorTable, 
+      Map<String, String> iteratorProperties, BoundedTopK<Key> urlsPQ) {
+
+    // every posting of the minimum term is a candidate document
+    ArrayList<String> candidates = new ArrayList<String>();
+    for (Entry<Key, Value> entry : postingsScanner)
+      candidates.add(getUrl(entry.getKey().getColumnFamily().toString()));
+    if (candidates.isEmpty()) return 0;
 
-    // if there are results, store in cache for future searches
-    if (numResults != 0)
-      searchResultsCache.put(cacheString, new SoftReference<SearchResults>(results));
+    int chunkSize = termStatistics == null ? candidates.size() : 
+      STATS_CHUNK_SIZE;
+    int numResults = 0;
+    for (int start = 0; start < candidates.size(); start += chunkSize) {
+      List<String> chunk = candidates.subList(start, 
+          Math.min(start + chunkSize, candidates.size()));
 
-    return results;
+      BatchScanner vectorScanner = null;
+      try {
+        vectorScanner = conn.createBatchScanner(vectorTable, 
+            new Authorizations(), queryThreads);
+      } catch (TableNotFoundException e) {
+        log.error(e.getMessage());
+        return numResults;
+      }
+      ArrayList<Range> ranges = new ArrayList<Range>();
+      for (String url : chunk) ranges.add(new Range(url));
+      vectorScanner.setRanges(ranges);
+      vectorScanner.addScanIterator(new IteratorSetting(
+          RANK_CALCULATOR_PRIORITY, RankCalculator.class, 
+          termStatistics == null ? iteratorProperties : 
+            withPageranks(iteratorProperties, chunk)));
+
+      for (Entry<Key, Value> entry : vectorScanner) {
+        Double rank = 0.0;
+        try {
+          rank = (Double)Utils.deserialize(entry.getValue().get());
+        } catch (IOException e) {
+          log.error(e.getMessage());
+        } catch (ClassNotFoundException e) {
+          log.error(e.getMessage());
+        }
+        urlsPQ.add(entry.getKey(), rank);
+        numResults++;
+      }
+      vectorScanner.close();
+    }
+
+    return numResults;
   }
 
   // limit the number of suggestions
@@ -317,7 +749,7 @@ public class FullTextIndex implements Index {
    * @return the best instance of a misspelled or not-found word.
    */
   public static String fullTextLevDistance(String query, 
-      HashMap<String, Integer> sampleTable, SpellChecker spellChecker) {
+      Map<String, Integer> sampleTable, SpellChecker spellChecker) {
 
     String bestResult = query;
     // look up every term individually
@@ -380,35 +812,63 @@ public class FullTextIndex implements Index {
     return result;
   }
 
+  /**
+   * Loads a sample table from the resources of the servlet.  The file is 
+   * memory mapped when the servlet is unpacked, and otherwise read out of 
+   * the heap.
+   * 
+   * @param context - passed from the servlet
+   * @param path - the path of the sample table
+   */
+  public static TermDictionary<Integer> loadFrequencies(
+      ServletContext context, String path) throws IOException {
+    File file = getResourceFile(context, path);
+    if (file != null) return TermDictionary.openFrequencies(file);
+    return TermDictionary.readFrequencies(context.getResourceAsStream(path));
+  }
+
+  /**
+   * Loads a pagerank file from the resources of the servlet, the same way as 
+   * loadFrequencies
+   * 
+   * @param context - passed from the servlet
+   * @param path - the path of the pagerank file
+   */
+  public static TermDictionary<Double> loadPageranks(ServletContext context, 
+      String path) throws IOException {
+    File file = getResourceFile(context, path);
+    if (file != null) return TermDictionary.openPageranks(file);
+    return TermDictionary.readPageranks(context.getResourceAsStream(path));
+  }
+
+  /**
+   * @return the file of a resource, or null if it is not a file on disk
+   */
+  private static File getResourceFile(ServletContext context, String path) {
+    String realPath = context.getRealPath(path);
+    if (realPath == null) return null;
+    File file = new File(realPath);
+    return file.isFile() ? file : null;
+  }
+
   /**
    * loads the necessary files from the properties file
    * called from FullTextIndex.configure
    * 
    * @param context - passed from the servlet
    */
-  @SuppressWarnings("unchecked")
   private void loadResources(ServletContext context) {
 
     // get the sample table from resources
     try {
-      InputStream sample = context.getResourceAsStream(properties.getProperty(FT_SAMPLE));
-      InputStream samplebuffer = new BufferedInputStream( sample );
-      ObjectInput objectsample = new ObjectInputStream ( samplebuffer );
-      sampleTable = (HashMap<String, Integer>)objectsample.readObject();
-    } catch (ClassNotFoundException e) {
-      log.error(e.getMessage());
+      sampleTable = loadFrequencies(context, properties.getProperty(FT_SAMPLE));
     } catch (IOException e) {
       log.error(e.getMessage());
     }
 
     // get the pagerank table from resources
     try{
-      InputStream pagerank = context.getResourceAsStream(properties.getProperty(PR_FILE));
-      InputStream pagerankbuffer = new BufferedInputStream( pagerank );
-      ObjectInput objectpagerank = new ObjectInputStream ( pagerankbuffer );
-      pagerankTable = (HashMap<String, Double>)objectpagerank.readObject();
-    } catch (ClassNotFoundException e) {
-      log.error(e.getMessage());
+      pagerankTable = loadPageranks(context, properties.getProperty(PR_FILE));
     } catch (IOException e) {
       log.error(e.getMessage());
     }
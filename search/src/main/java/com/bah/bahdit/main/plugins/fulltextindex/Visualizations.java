@@ -19,6 +19,7 @@ package com.bah.bahdit.main.plugins.fulltextindex;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 
@@ -56,7 +57,7 @@ public class Visualizations {
    * @return hashmap of keywords mapped to their weights in the sample table
    */
   public static HashMap<String, Double> getTagCloud(
-      SearchResults searchResults, HashMap<String, Integer> sampleTable,
+      SearchResults searchResults, Map<String, Integer> sampleTable,
       HashSet<String> stops) {
 
     // if no search results, return null
@@ -154,7 +155,7 @@ public class Visualizations {
    * @param pagerankTable - pagerank table from ingest
    * @return
    */
-  public static HashMap<String, EdgeLinks> getRankGraph(Connector conn, Properties properties, SearchResults searchResults, HashMap<String, Double> pagerankTable) {
+  public static HashMap<String, EdgeLinks> getRankGraph(Connector conn, Properties properties, SearchResults searchResults, Map<String, Double> pagerankTable) {
 
     HashMap<String, EdgeLinks> results = new HashMap<String, EdgeLinks>();
 
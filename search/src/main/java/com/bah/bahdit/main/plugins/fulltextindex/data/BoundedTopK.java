@@ -0,0 +1,247 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.data;
+
+import java.util.Comparator;
+
+/**
+ * BoundedTopK keeps the "k" highest scored keys it is given.  It is a min
+ * heap over an array of scores, so the lowest score kept is always at the
+ * root, and a candidate can be rejected by comparing it to that score alone.
+ *
+ * Unlike FixedSizePQ, keys with equal scores are all kept.  Ties are broken
+ * by the tie breaker, if there is one (a key that compares higher ranks
+ * higher), then by the order the keys were added (the first added ranks
+ * higher), so the keys kept do not depend on anything else.
+ *
+ * Use:
+ * if (topK.accepts(score)) topK.add(key, score); for each candidate
+ * topK.sort();
+ * topK.getKey(i), topK.getScore(i) for i from 0 (highest) to size() - 1
+ *
+ * Used for : getting the rankings of the pages from the search query
+ */
+public class BoundedTopK<K> {
+
+  // the most keys allocated room for at first
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int k;
+  private final Comparator<? super K> tieBreaker;
+
+  private double[] scores;
+  private Object[] keys;
+  private long[] order;
+  private int size = 0;
+  private long added = 0;
+  private boolean sorted = false;
+
+  /**
+   * @param k - the number of keys to keep
+   */
+  public BoundedTopK(int k) {
+    this(k, null);
+  }
+
+  /**
+   * @param k - the number of keys to keep
+   * @param tieBreaker - orders keys with equal scores (may be null)
+   */
+  public BoundedTopK(int k, Comparator<? super K> tieBreaker) {
+    this.k = Math.max(k, 0);
+    this.tieBreaker = tieBreaker;
+    int capacity = Math.min(this.k, INITIAL_CAPACITY);
+    scores = new double[capacity];
+    keys = new Object[capacity];
+    order = new long[capacity];
+  }
+
+  /**
+   * Checks a score against the lowest score kept, without touching the key
+   *
+   * @return false if a key with this score would not be kept
+   */
+  public boolean accepts(double score) {
+    if (size < k) return true;
+    if (k == 0) return false;
+    int c = Double.compare(score, scores[0]);
+    // equal scores can only win with the tie breaker
+    return c > 0 || (c == 0 && tieBreaker != null);
+  }
+
+  /**
+   * @return the lowest score kept once k keys are kept (negative infinity 
+   * until then).  Only valid before sorting.
+   */
+  public double threshold() {
+    if (k == 0) return Double.POSITIVE_INFINITY;
+    return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+  }
+
+  /**
+   * Adds the key if there is room or if it ranks higher than the lowest key
+   * kept, in which case the lowest key is pushed out
+   *
+   * @return true if the key was added, false otherwise
+   */
+  public boolean add(K key, double score) {
+    if (sorted) throw new IllegalStateException("BoundedTopK is sorted");
+    long position = added++;
+
+    if (size < k) {
+      if (size == scores.length) grow();
+      set(size, key, score, position);
+      siftUp(size++);
+      return true;
+    }
+
+    if (k == 0 || !below(scores[0], key(0), order[0], score, key, position))
+      return false;
+    set(0, key, score, position);
+    siftDown(0, size);
+    return true;
+  }
+
+  /**
+   * Sorts the keys kept from the highest to the lowest ranked.  No keys can
+   * be added once sorted, until cleared.
+   */
+  public void sort() {
+    if (sorted) return;
+    // the root is the lowest, so moving it to the end sorts high to low
+    for (int end = size - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    sorted = true;
+  }
+
+  /**
+   * @param i - the rank of the key, 0 being the highest
+   * @return the key of the given rank
+   */
+  public K getKey(int i) {
+    checkSorted(i);
+    return key(i);
+  }
+
+  /**
+   * @param i - the rank of the key, 0 being the highest
+   * @return the score of the given rank
+   */
+  public double getScore(int i) {
+    checkSorted(i);
+    return scores[i];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all the keys, so that keys can be added again
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) keys[i] = null;
+    size = 0;
+    added = 0;
+    sorted = false;
+  }
+
+  /**
+   * @return true if the first key ranks below the second
+   */
+  private boolean below(double s1, K k1, long o1, double s2, K k2, long o2) {
+    int c = Double.compare(s1, s2);
+    if (c != 0) return c < 0;
+    if (tieBreaker != null) {
+      c = tieBreaker.compare(k1, k2);
+      if (c != 0) return c < 0;
+    }
+    // the key added later ranks lower
+    return o1 > o2;
+  }
+
+  private boolean below(int i, int j) {
+    return below(scores[i], key(i), order[i], scores[j], key(j), order[j]);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!below(i, parent)) break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int end) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= end) break;
+      if (child + 1 < end && below(child + 1, child)) child++;
+      if (!below(child, i)) break;
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    double s = scores[i];
+    scores[i] = scores[j];
+    scores[j] = s;
+    Object o = keys[i];
+    keys[i] = keys[j];
+    keys[j] = o;
+    long p = order[i];
+    order[i] = order[j];
+    order[j] = p;
+  }
+
+  private void set(int i, K key, double score, long position) {
+    keys[i] = key;
+    scores[i] = score;
+    order[i] = position;
+  }
+
+  private void grow() {
+    int capacity = (int)Math.min((long)k, Math.max(1L, 2L * scores.length));
+    double[] s = new double[capacity];
+    Object[] o = new Object[capacity];
+    long[] p = new long[capacity];
+    System.arraycopy(scores, 0, s, 0, size);
+    System.arraycopy(keys, 0, o, 0, size);
+    System.arraycopy(order, 0, p, 0, size);
+    scores = s;
+    keys = o;
+    order = p;
+  }
+
+  @SuppressWarnings("unchecked")
+  private K key(int i) {
+    return (K)keys[i];
+  }
+
+  private void checkSorted(int i) {
+    if (!sorted) throw new IllegalStateException("BoundedTopK is not sorted");
+    if (i < 0 || i >= size) throw new IndexOutOfBoundsException("" + i);
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.data;
+
+import java.util.ArrayList;
+
+/**
+ * RankedResults holds the top ranked URLs of a query, from the highest to the
+ * lowest ranked, so that any page within them can be cut out without
+ * searching again.  It is never changed once created, so it can be shared by
+ * all the threads serving the query.
+ *
+ * The ranks and URL info (the column families of the documents) are kept in
+ * two arrays, and each URL of a page is only put together the same way as in
+ * SearchResults ("rank[ ]url info") when the page is cut out.
+ */
+public class RankedResults {
+
+  // the characters held for each rank, to weigh the results by
+  private static final int RANK_WEIGHT = 4;
+
+  private final double[] ranks;
+  private final String[] urls;
+  private final int numResults;
+  private final String correction;
+  private final boolean complete;
+
+  /**
+   * @param ranks - the ranks of the top ranked URLs, highest first
+   * @param urls - the top ranked URLs, highest first
+   * @param numResults - the total number of results found
+   * @param correction - the correction of the query, if any
+   * @param requested - the number of URLs that were asked to be ranked
+   */
+  public RankedResults(double[] ranks, String[] urls, int numResults,
+      String correction, int requested) {
+    if (ranks.length != urls.length)
+      throw new IllegalArgumentException("Ranks and URLs differ in length");
+    this.ranks = ranks;
+    this.urls = urls;
+    this.numResults = numResults;
+    this.correction = correction;
+    // fewer URLs than asked for means that every matching URL is here
+    this.complete = urls.length < requested;
+  }
+
+  /**
+   * @param n - the number of top ranked URLs needed
+   * @return true if the top n URLs are all here
+   */
+  public boolean covers(int n) {
+    return complete || urls.length >= n;
+  }
+
+  /**
+   * Cuts out a single page of results, the same way as if only the URLs up
+   * to the end of the page had been ranked.
+   * (i.e. page 4, 10 results per page => results ranked 31-40)
+   *
+   * @param page - the page requested
+   * @param resultsPerPage - the number of results on each page
+   * @return the URLs of the page, highest ranked first
+   */
+  public ArrayList<String> getPage(int page, int resultsPerPage) {
+    int i = resultsPerPage;
+    // limit results if at the last of rankings
+    if (resultsPerPage * page > numResults)
+      i = numResults - (resultsPerPage * (page - 1));
+
+    int size = Math.min(page * resultsPerPage, urls.length);
+    ArrayList<String> results = new ArrayList<String>();
+    for (int r = Math.max(size - i, 0); r < size; r++)
+      results.add(ranks[r] + "[ ]" + urls[r]);
+    return results;
+  }
+
+  /**
+   * @return the number of characters held, to weigh the results by
+   */
+  public int getWeight() {
+    int weight = correction == null ? 0 : correction.length();
+    for (String url : urls) weight += RANK_WEIGHT + url.length();
+    return weight;
+  }
+
+  /**
+   * @return the number of top ranked URLs held
+   */
+  public int size() {
+    return urls.length;
+  }
+
+  public int getNumResults() {
+    return numResults;
+  }
+
+  public String getCorrection() {
+    return correction;
+  }
+}
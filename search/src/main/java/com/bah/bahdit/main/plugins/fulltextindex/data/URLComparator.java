@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.data;
+
+import java.util.Comparator;
+
+import org.apache.accumulo.core.data.Key;
+
+/**
+ * URLComparator breaks ties between documents with the same rank, the same
+ * way TermComparator does: shorter URLs rank higher, then URLs are compared
+ * in string lexicographical order.
+ */
+public class URLComparator implements Comparator<Key> {
+
+  private static final String DELIMITER = "[ ]";
+
+  @Override
+  public int compare(Key k1, Key k2) {
+    String url1 = url(k1);
+    String url2 = url(k2);
+
+    // reverse so shorter links are ranked higher
+    if (url1.length() != url2.length())
+      return url1.length() < url2.length() ? 1 : -1;
+
+    return url1.compareTo(url2);
+  }
+
+  /**
+   * Isolates the URL of the column family
+   */
+  private static String url(Key key) {
+    String cf = key.getColumnFamily().toString();
+    int end = cf.indexOf(DELIMITER);
+    return end == -1 ? cf : cf.substring(0, end);
+  }
+}
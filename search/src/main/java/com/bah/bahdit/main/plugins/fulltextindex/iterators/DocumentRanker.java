@@ -17,7 +17,6 @@
 package com.bah.bahdit.main.plugins.fulltextindex.iterators;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 
@@ -30,21 +29,24 @@ import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.hadoop.io.Text;
 
-import com.bah.bahdit.main.plugins.fulltextindex.data.FixedSizePQ;
-import com.bah.bahdit.main.plugins.fulltextindex.data.Term;
-import com.bah.bahdit.main.plugins.fulltextindex.data.TermComparator;
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
+import com.bah.bahdit.main.plugins.fulltextindex.data.URLComparator;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
 /**
  * The DocumentRanker is used for the last iteration in phase 2.  It takes 
  * results from the previous iteration and ranks them by their value using a 
- * Fixed Sized Priority Queue.  Only returns the number requested in the 
+ * BoundedTopK.  Only returns the number requested in the 
  * properties.  Also, uses the page number to figure out which range of values 
  * to return to the user. 
  * 
  * (e.x. page = 4, num results = 10 => 31 - 40 ranked)
  * 
+ * If the RankCalculator skipped documents by early termination, it reports 
+ * the number skipped in an entry of its own (see RankCalculator.PRUNED), which 
+ * is placed in the last key along with the number of results.
+ * 
  * Properties to be supplied:
  * num results = the number of results the user wishes to have returned.
  * page = the page number of results that the user wants
@@ -53,15 +55,18 @@ import com.bah.bahdit.main.search.Search;
 public class DocumentRanker extends WrappingIterator {
   
   private static final String NUM_RESULTS = "[NUM_RESULTS]";
+  private static final String PRUNED = "[PRUNED]";
+  private static final Text PRUNED_ENTRY = new Text(RankCalculator.PRUNED);
 
 	private SortedKeyValueIterator<Key, Value> source;
 	private Key topKey;
 	private Value topValue;
-	private FixedSizePQ<Term> termsPQ;
-	private ArrayList<Term> results;
-	boolean first = true;
+	private BoundedTopK<Key> termsPQ;
+	private int nextResult = 0;
 	private int page = 1;
 	private int count = 0;
+	private int pruned = 0;
+	private int numResults;
 	private int numResultsRequested;
 
 	@Override
@@ -98,23 +103,21 @@ public class DocumentRanker extends WrappingIterator {
 		page = Integer.parseInt(options.get(Search.PAGE));
 
 		// get how many results the client wants returned
-		String numResults = options.get(Search.NUM_RESULTS);
-		numResultsRequested = Integer.parseInt(numResults);
+		numResults = Integer.parseInt(options.get(Search.NUM_RESULTS));
 
-		// make new fixed size priority queue to rank the cosims
-		termsPQ = new FixedSizePQ<Term>(page * numResultsRequested, new TermComparator());
+		// make new bounded top k to rank the cosims
+		termsPQ = new BoundedTopK<Key>(page * numResults, 
+				new URLComparator());
 	}
 
 
 	/**
-	 * Gets the next highest ranked document
+	 * Gets the next highest ranked document.  seek() already returned the 
+	 * highest, so every call moves on to the next one.
 	 */
 	@Override
 	public void next() throws IOException {
-		// if the first time called, ignore.  This is because seek() will call 
-		// execute(), which is one more than necessary.
-		if (first) first = false;
-		else getRank();
+		getRank();
 	}
 
 
@@ -138,31 +141,51 @@ public class DocumentRanker extends WrappingIterator {
 	 */
 	private void rankTerms() throws IOException, ClassNotFoundException {
 
+		// a new seek ranks the documents of its own range
+		termsPQ.clear();
+		count = 0;
+		pruned = 0;
+		numResultsRequested = numResults;
+
 		if(source.hasTop()) {
 			while (source.hasTop()) {
+				// the number of documents the RankCalculator skipped
+				if (source.getTopKey().compareColumnQualifier(PRUNED_ENTRY) == 0) {
+					pruned += (Integer)Utils.deserialize(
+							source.getTopValue().get());
+					source.next();
+					continue;
+				}
 				++count;
-				termsPQ.add(new Term(source.getTopKey(), 
-						(Double)Utils.deserialize(source.getTopValue().get())));
+				double rank = (Double)Utils.deserialize(
+						source.getTopValue().get());
+				// only copy the keys of the documents that are kept
+				if (termsPQ.accepts(rank))
+					termsPQ.add(new Key(source.getTopKey()), rank);
 				source.next();
 			}
-			// randomly counted one extra
-			--count;
 		}
 
-		results = new ArrayList<Term>();
-
 		// if there are less results than requested, request fewer results
 		if(numResultsRequested * page > count) {
 			numResultsRequested = count - numResultsRequested * (page-1);
 		}
 
-		// get all the results from the priority queue
-		while(!termsPQ.isEmpty())
-			results.add(termsPQ.pollFirst());
+		// sort the results from the highest to the lowest ranked
+		termsPQ.sort();
+		nextResult = 0;
 
 		// handles edge case of results being too small
-		if(numResultsRequested >= results.size())
-			numResultsRequested = results.size() - 1;
+		if(numResultsRequested >= termsPQ.size())
+			numResultsRequested = termsPQ.size() - 1;
+	}
+
+	/**
+	 * @return the number of documents skipped by the RankCalculator, to be 
+	 * placed in the last key, or nothing if none were
+	 */
+	private String getPruned() {
+		return pruned == 0 ? "" : " " + PRUNED + " : " + pruned;
 	}
 
 	/**
@@ -171,13 +194,13 @@ public class DocumentRanker extends WrappingIterator {
 	private void getRank() throws IOException {
 
 		// print out the all the results for the client
-		if (!results.isEmpty()) {
-			Term nextTerm = results.remove(results.size() - 1);
-			topKey = nextTerm.getKey();
+		if (nextResult < termsPQ.size()) {
+			topKey = termsPQ.getKey(nextResult);
+			topValue = new Value(Utils.serialize(termsPQ.getScore(nextResult)));
+			nextResult++;
 			// place the number of found results in the last key
-			if(results.size() == 0)
-				topKey = new Key(topKey.getRow(), topKey.getColumnFamily(), new Text(NUM_RESULTS + " : " + String.valueOf(count)));
-			topValue = new Value(Utils.serialize(nextTerm.getValue()));
+			if(nextResult == termsPQ.size())
+				topKey = new Key(topKey.getRow(), topKey.getColumnFamily(), new Text(NUM_RESULTS + " : " + String.valueOf(count) + getPruned()));
 		} 
 		else {
 			topKey = null;
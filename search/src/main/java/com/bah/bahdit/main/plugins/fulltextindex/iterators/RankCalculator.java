@@ -19,10 +19,9 @@ package com.bah.bahdit.main.plugins.fulltextindex.iterators;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
@@ -35,7 +34,12 @@ import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.hadoop.io.Text;
 
 import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.CosineSimilarity;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.ScoringEngine;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermIntMap;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
@@ -49,6 +53,10 @@ import com.bah.bahdit.main.search.Search;
  * final normalized ranking for the document.  The row is then serialized and 
  * placed in the value field.
  * 
+ * The documents are scored by a ScoringEngine, which reads the values 
+ * straight from the bytes of each entry, so scanning the entries of a 
+ * document does not create any objects.
+ * 
  * Use Case:
  * - Providing a ranking of a document, based currently on cosine similarity 
  * and Pagerank.  We compute the cosine similarity of all documents in relation 
@@ -57,31 +65,82 @@ import com.bah.bahdit.main.search.Search;
  * iterator then takes the cosine similarities and ranks the documents 
  * (in order of greatest to least).
  * 
+ * With the postings layout, the RankCalculator is instead run over the term 
+ * vector table, where every row holds the whole term vector of one document. 
+ * Each candidate document is then ranked from that single entry.
+ * 
+ * With early termination, the RankCalculator keeps the highest ranks it has 
+ * computed, as many as the DocumentRanker will return.  The rank of a document
+ * is at most Utils.rank(max cosine similarity, Pagerank), which is known from 
+ * its column family alone (see ScoringEngine.maxCosineSimilarity for why the 
+ * idf weights of the query do not bound the cosine similarity below 1), so 
+ * documents are only pruned on their Pagerank.  Documents whose bound is 
+ * below the lowest of those ranks cannot be returned, so they are skipped 
+ * without reading their entries, and counted as pruned.  The number pruned is
+ * reported after the last document, in an entry whose column qualifier is 
+ * PRUNED and whose value is the number.  Whether they contain all the query 
+ * terms is not known, so the search does not count them as results.
+ * 
+ * With the stats table, the search reads the statistics itself and passes 
+ * them in the same options : the sample table then only holds the query terms
+ * (the other terms are weighted by their ratio, as terms missing from a 
+ * sample are), and the Pagerank table only the documents being ranked.
+ * 
  * Properties to be supplied:
  * max n-grams = the biggest n-gram wanted
  * query = the search query as a string
+ * stop words = (optional) the stop words of the query, separated by spaces
  * sample table = needed for TF-IDF calculations
  * Pagerank table = contains pre-calculated ranks for each document
+ * layout = (optional) the layout of the table being scanned
+ * early termination = (optional) "true" to skip documents that cannot be 
+ * returned, along with the page and number of results
  */
 public class RankCalculator extends WrappingIterator {
 
   // used to find max pagerank to normalize values from 0 to 1
   private static final String MAX_PR = "[[MAX_PR]]";
   private static final String DELIMITER = "[ ]";
+  // holds the total number of words in a serialized term vector
+  private static final String DOC_LENGTH = "[[DOC LENGTH]]";
+  // entries of a pruned document read before seeking past it
+  private static final int SKIP_NEXTS = 8;
+  // allowance for rounding errors in the highest cosine similarity
+  private static final double COSINE_SLACK = 1e-9;
+
+  // column qualifier of the entry reporting the number of documents pruned
+  public static final String PRUNED = "[[PRUNED]]";
+
+  // the last sample table received, kept since every query sends the same
+  private static String lastSample = null;
+  private static TermIntMap lastSampleTable = null;
 
   private SortedKeyValueIterator<Key, Value> source;
-  private Set<String> ngrams;
   private Key topKey;
   private Value topValue;
   private String query;
   private ArrayList<String> queryTerms;
   private HashMap<String, Double> queryRatios;
-  private HashMap<String, Integer> sampleTable;
-  private HashMap<String, Double> pagerankTable;
-  private boolean first = true;
+  private ScoringEngine engine;
+  private TermDictionary<Double> pagerankTable;
+  private final Text columnQualifier = new Text();
+  private final CellCodec.TermVectorReader vectorReader = 
+      new CellCodec.TermVectorReader();
   private boolean reportLast = true;
+  private boolean termVectors = false;
   private double maxPR;
 
+  // the highest ranks computed, with early termination
+  private BoundedTopK<Object> topRanks = null;
+  private double maxCosine;
+  private int pruned = 0;
+  private boolean prunedReported = false;
+  private Key lastDocument = null;
+
+  private Range seekRange;
+  private Collection<ByteSequence> seekColumnFamilies;
+  private boolean seekInclusive;
+
   @Override
   public Key getTopKey() {
     return topKey;
@@ -99,13 +158,12 @@ public class RankCalculator extends WrappingIterator {
 
   @Override
   /**
-   * Combines the next range of rows with the same document column family
+   * Combines the next range of rows with the same document column family.  
+   * seek() already ranked the first document, so every call moves on to the 
+   * next one.
    */
   public void next() throws IOException {
-    // if the first time called, ignore.  This is because seek() will call 
-    // execute(), which is one more than necessary.
-    if (first) first = false;
-    else rank();
+    advance();
   }
 
   @Override
@@ -115,11 +173,21 @@ public class RankCalculator extends WrappingIterator {
    */
   public void seek(Range range, Collection<ByteSequence> seekColFam, 
       boolean inclusive) throws IOException {
+    seekRange = range;
+    seekColumnFamilies = seekColFam;
+    seekInclusive = inclusive;
+
+    // the documents of a new range are ranked and pruned on their own
+    reportLast = true;
+    pruned = 0;
+    prunedReported = false;
+    lastDocument = null;
+    if (topRanks != null) topRanks.clear();
+
     source.seek(range, seekColFam, inclusive);
-    rank();
+    advance();
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   /**
    * Creates a new RankCalculator and gets the query and query vector for 
@@ -143,37 +211,75 @@ public class RankCalculator extends WrappingIterator {
     queryTerms = Utils.createNGrams(query, n);
     queryRatios = CosineSimilarity.queryRatios(queryTerms, query);
 
-    // get the sample table from the options map
-    String sample = options.get(FullTextIndex.FT_SAMPLE);
-    byte[] bST = null;
-    try {
-      bST = sample.getBytes(FullTextIndex.ENCODING);
-      sampleTable = (HashMap<String, Integer>)Utils.deserialize(bST);
-    } catch (ClassNotFoundException e) {
-      sampleTable = null;
+    // the stop words are only indexed as part of n-grams, so documents are 
+    // not required to hold them on their own
+    String stopWords = options.get(FullTextIndex.FT_STOP_WORDS);
+    if (stopWords != null) {
+      for (String s : stopWords.split(" ")) {
+        queryTerms.removeAll(Collections.singleton(s));
+        queryRatios.remove(s);
+      }
     }
 
+    // get the sample table from the options map
+    engine = new ScoringEngine(queryTerms, queryRatios,
+        getSampleTable(options.get(FullTextIndex.FT_SAMPLE)));
+
     // get the pagerank table from the options map
     String pagerank = options.get(Search.PAGERANK_TABLE);
-    byte[] bPR;
     if (pagerank == null) pagerankTable = null;
-    else {
-      bPR = pagerank.getBytes(FullTextIndex.ENCODING);
-      try {
-        pagerankTable = (HashMap<String, Double>)Utils.deserialize(bPR);
-      } catch (ClassNotFoundException e) {
-        pagerankTable = null;
-      }
-    }
+    else pagerankTable = TermDictionary.pageranks(
+        pagerank.getBytes(FullTextIndex.ENCODING));
 
     // get the max page rank of the table for normalizing
-    Double max_PR = pagerankTable != null ? pagerankTable.get(MAX_PR) : null;
-    maxPR = max_PR != null ? max_PR : 0.0;
+    maxPR = pagerankTable != null ? pagerankTable.getDouble(MAX_PR, 0.0) : 0.0;
 
     this.source = source;
 
-    // creates ngrams from the query
-    this.ngrams = new HashSet<String>(Utils.createNGrams(query, n));
+    // term vector rows are ranked one entry at a time
+    termVectors = FullTextIndex.LAYOUT_POSTINGS.equals(
+        options.get(FullTextIndex.FT_LAYOUT));
+
+    // keep as many ranks as the DocumentRanker returns
+    if ("true".equals(options.get(FullTextIndex.FT_EARLY_TERMINATION)) 
+        && !termVectors) {
+      int page = Integer.parseInt(options.get(Search.PAGE));
+      int numResults = Integer.parseInt(options.get(Search.NUM_RESULTS));
+      topRanks = new BoundedTopK<Object>(page * numResults);
+      maxCosine = engine.maxCosineSimilarity() + COSINE_SLACK;
+    }
+  }
+
+  /**
+   * @return the number of documents skipped by early termination
+   */
+  public int getPruned() {
+    return pruned;
+  }
+
+  /**
+   * Gets the sample table as a TermIntMap, only decoding it if it is not the 
+   * same as the last one received
+   * 
+   * @param sample - the sample table, as the bytes of a TermDictionary
+   */
+  private static synchronized TermIntMap getSampleTable(String sample) 
+      throws IOException {
+    if (sample == null) return null;
+    if (!sample.equals(lastSample)) {
+      lastSampleTable = TermIntMap.fromMap(TermDictionary.frequencies(
+          sample.getBytes(FullTextIndex.ENCODING)));
+      lastSample = sample;
+    }
+    return lastSampleTable;
+  }
+
+  /**
+   * Sets the top key and value to the next ranked document
+   */
+  private void advance() throws IOException {
+    if (termVectors) rankTermVectors();
+    else rank();
   }
 
   /**
@@ -191,65 +297,30 @@ public class RankCalculator extends WrappingIterator {
     // also make sure we don't run out of records
     while (!foundDoc && source.hasTop() ) {
 
-      HashMap<String, Double> terms = new HashMap<String, Double>();
-      Set<String> searchTerms = new HashSet<String>(ngrams);
-
-      Key firstKey = source.getTopKey();
-      Key currentKey = source.getTopKey();
-      Value currentValue = source.getTopValue();
-
-      while (inSameDocumentAndTerm(currentKey, firstKey)) {
-
-        String term = currentKey.getColumnQualifier().toString();
-        searchTerms.remove(term);
-
-        // split by commas (i.e. "40 0.4" -> ["40", "0.4"])
-        String groupedValues = null;
-        try {
-          groupedValues = (String) Utils.deserialize(currentValue.get());
-        } catch (ClassNotFoundException e) { e.printStackTrace(); }
+      Key firstKey = new Key(source.getTopKey());
+      Double pagerank = null;
+      lastDocument = firstKey;
 
-        String[] values = groupedValues.split(",");
-
-        // get term and ratio, calculate tf-idf and place in hashmap for later
-        try {
-          Double ratio = Double.parseDouble(values[1]);
-          terms.put(term, ratio);
-        } catch(ArrayIndexOutOfBoundsException e) { e.printStackTrace(); }
-
-        // move source to next, resets current key and value to be the new
-        // top key and value
-        currentKey = currentSourceTopOrNull(firstKey);
-
-        if (currentKey == null) break;
-
-        currentValue = source.getTopValue();
+      // skip documents that cannot rank high enough to be returned
+      if (topRanks != null) {
+        pagerank = getPagerank(firstKey);
+        if (prune(firstKey, pagerank)) continue;
       }
 
       // all of the search terms have been accounted for
-      if (searchTerms.size() == 0) {
+      if (scoreDocument(firstKey)) {
 
         foundDoc = true;
 
-        // calculate cosine similarity with our hashmap
-        Double cosim = CosineSimilarity.computeCosineSimilarity(terms, 
-            queryRatios, queryTerms, sampleTable);
-
-        String cf = firstKey.getColumnFamily().toString();
-        String url;
-        if (cf.indexOf(DELIMITER) == -1) url = cf;
-        else url = cf.substring(0, cf.indexOf(DELIMITER));
-        Double pagerank;
-        if (pagerankTable == null || pagerankTable.size() == 0 || maxPR == 0.0 || pagerankTable.get(url) == null)
-          pagerank = 0.0;
-        // get the pagerank and normalize to span 0 to 1
-        else
-          pagerank = pagerankTable.get(url) / maxPR;
+        double cosim = engine.cosineSimilarity();
+
+        if (pagerank == null) pagerank = getPagerank(firstKey);
 
         // linearly combine the cosine similarity and Pagerank
         Double rank = Utils.rank(cosim, pagerank);
+        if (topRanks != null) topRanks.add(null, rank);
 
-        topKey = new Key(firstKey);
+        topKey = firstKey;
         topValue = new Value(Utils.serialize(rank));
       }
     }
@@ -258,44 +329,170 @@ public class RankCalculator extends WrappingIterator {
     if(!source.hasTop()) {
       if(reportLast && foundDoc)
         reportLast = false;
-      else {
-        topKey = null;
-        topValue = null;
-      }
+      else reportPruned();
     }
   }
 
   /**
-   * Makes sure the execute method is still the same rowid and document
+   * Reports the number of documents pruned once, after the last document, 
+   * and then sets the top key and value to null
    */
-  private boolean inSameDocumentAndTerm(Key currentKey, Key firstKey) {
+  private void reportPruned() throws IOException {
+    if (pruned > 0 && !prunedReported) {
+      prunedReported = true;
+      topKey = new Key(lastDocument.getRow(), lastDocument.getColumnFamily(),
+          new Text(PRUNED));
+      topValue = new Value(Utils.serialize(pruned));
+    }
+    else {
+      topKey = null;
+      topValue = null;
+    }
+  }
 
-    boolean notNull = (currentKey != null);
-    boolean sameRow = currentKey.getRow().equals(firstKey.getRow());
-    Text currentCF = currentKey.getColumnFamily();
-    Text firstCF = firstKey.getColumnFamily();
-    boolean sameCF = currentCF.equals(firstCF);
+  /**
+   * Skips the document of the given key if it cannot rank high enough to be 
+   * returned
+   *
+   * @param pagerank - the highest normalized Pagerank the document can have
+   * @return true if the document was skipped
+   */
+  private boolean prune(Key firstKey, Double pagerank) throws IOException {
+    if (Utils.rank(maxCosine, pagerank) >= topRanks.threshold()) return false;
+    pruned++;
+    skipDocument(firstKey);
+    return true;
+  }
 
-    return notNull && sameRow && sameCF && source.hasTop();
+  /**
+   * Adds every term of the document of the given key to the engine, reading 
+   * the frequency straight from the bytes of the value, and moves the source 
+   * past the document
+   *
+   * @return true if the document contains all the search terms
+   */
+  private boolean scoreDocument(Key firstKey) throws IOException {
+    engine.startDocument();
+    do {
+      source.getTopKey().getColumnQualifier(columnQualifier);
+      engine.addTerm(columnQualifier.getBytes(), 0, 
+          columnQualifier.getLength(), 
+          CellCodec.decodeFrequency(source.getTopValue().get()));
+      source.next();
+    } while (inDocument(firstKey));
+    return engine.allTermsFound();
   }
 
   /**
-   * Advances the source pointer and returns the next key, if the key is part 
-   * of the same document as the first key to which it is being compared.
-   * Otherwise, return null.
+   * Moves the source past the entries of the document of the given key, 
+   * seeking past them if the document has more than a few
    */
-  private Key currentSourceTopOrNull(Key firstKey) throws IOException {
+  private void skipDocument(Key firstKey) throws IOException {
+    for (int i = 0; i < SKIP_NEXTS; i++) {
+      if (!inDocument(firstKey)) return;
+      source.next();
+    }
+    if (!inDocument(firstKey)) return;
 
-    if(source.hasTop()) {
+    Key next = firstKey.followingKey(PartialKey.ROW_COLFAM);
+    if (seekRange.afterEndKey(next)) {
+      while (inDocument(firstKey)) source.next();
+      return;
+    }
+    source.seek(new Range(next, true, seekRange.getEndKey(), 
+        seekRange.isEndKeyInclusive()), seekColumnFamilies, seekInclusive);
+  }
+
+  private boolean inDocument(Key firstKey) {
+    return source.hasTop() 
+        && source.getTopKey().equals(firstKey, PartialKey.ROW_COLFAM);
+  }
+
+  /**
+   * Ranks the next document of the term vector table that contains all the 
+   * search terms.  Every entry holds the whole term vector of a document, so 
+   * the document is ranked without scanning any other rows.
+   */
+  private void rankTermVectors() throws IOException {
 
-      if(source.getTopKey().equals(firstKey, PartialKey.ROW_COLFAM)) {
+    topKey = null;
+    topValue = null;
 
-        source.next();
-        return source.hasTop() ? source.getTopKey() : null;
-      } 
+    while (topKey == null && source.hasTop()) {
 
-      return null;
-    } 
-    return null;
+      Key key = source.getTopKey();
+
+      if (scoreTermVector()) {
+        topKey = new Key(key);
+        topValue = new Value(Utils.serialize(Utils.rank(
+            engine.cosineSimilarity(), getPagerank(key))));
+      }
+
+      source.next();
+    }
+  }
+
+  /**
+   * Adds every term of the term vector of the top entry to the engine, 
+   * reading the terms straight from the bytes of the value, without moving 
+   * the source
+   *
+   * @return true if the term vector contains all the search terms
+   */
+  private boolean scoreTermVector() throws IOException {
+    byte[] b = source.getTopValue().get();
+    engine.startDocument();
+    if (!vectorReader.reset(b)) return scoreSerializedTermVector(b);
+
+    // turn the counts into the ratios used by the cosine similarity
+    double docLength = vectorReader.getDocLength();
+    if (docLength <= 0) return false;
+    while (vectorReader.next()) {
+      engine.addTerm(b, vectorReader.getTermOffset(), 
+          vectorReader.getTermLength(), vectorReader.getCount() / docLength);
+    }
+    return engine.allTermsFound();
+  }
+
+  /**
+   * Adds every term of a term vector loaded before the binary format, as a 
+   * serialized HashMap, to the engine
+   *
+   * @return true if the term vector contains all the search terms
+   */
+  @SuppressWarnings("unchecked")
+  private boolean scoreSerializedTermVector(byte[] b) throws IOException {
+    HashMap<String, Integer> termVector;
+    try {
+      termVector = (HashMap<String, Integer>)Utils.deserialize(b);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e.getMessage());
+    }
+
+    Integer docLength = termVector.remove(DOC_LENGTH);
+    if (docLength == null) return false;
+
+    for (Map.Entry<String, Integer> e : termVector.entrySet())
+      engine.addTerm(e.getKey(), e.getValue().doubleValue() / docLength);
+    return engine.allTermsFound();
+  }
+
+  /**
+   * Gets the normalized Pagerank of the document of the given key from the
+   * Pagerank table
+   */
+  private Double getPagerank(Key key) {
+    if (pagerankTable == null || maxPR == 0.0) return 0.0;
+    // get the pagerank and normalize to span 0 to 1
+    return pagerankTable.getDouble(getUrl(key), 0.0) / maxPR;
+  }
+
+  /**
+   * Gets the url of the document of the given key
+   */
+  private static String getUrl(Key key) {
+    String cf = key.getColumnFamily().toString();
+    if (cf.indexOf(DELIMITER) == -1) return cf;
+    return cf.substring(0, cf.indexOf(DELIMITER));
   }
 }
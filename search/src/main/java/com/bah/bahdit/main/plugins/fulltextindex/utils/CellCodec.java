@@ -0,0 +1,425 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * CellCodec writes and reads the values of the full text data table, straight 
+ * out of the bytes of the Value, without deserializing them.
+ *
+ * Values are written in a versioned binary format.  Version 1 is the version 
+ * byte (01), then the count of the term and the number of words in the 
+ * document as varints (7 bits per byte, low bits first).  The frequency is 
+ * the count divided by the document length, so it is stored exactly, and 
+ * most values take 3 to 5 bytes.
+ *
+ * Tables loaded before the binary format hold Java serialized Strings of the 
+ * form "count,frequency" (or "count,frequency,document length" in the 
+ * postings layout).  A serialized String is a fixed header (AC ED 00 05), the 
+ * String tag (74), a two byte length and the characters, so the fields can 
+ * be parsed in place.  Values written as plain text are read the same way. 
+ * These legacy values are still read, and can be rewritten with upgrade.
+ *
+ * The term vectors of the postings layout are written in the same way : the 
+ * version byte (02), the number of words in the document and the number of 
+ * terms as varints, and then for each term, the length of its UTF-8 bytes, 
+ * the bytes, and its count.  A TermVectorReader reads the terms in place.
+ */
+public class CellCodec {
+
+  // the current version of the binary format
+  public static final byte VERSION_1 = 1;
+
+  // the current version of the binary format of term vectors
+  public static final byte VECTOR_1 = 2;
+
+  // the header and tag of a Java serialized String
+  private static final int STREAM_MAGIC = 0xACED;
+  private static final int STREAM_VERSION = 5;
+  private static final byte TC_STRING = 0x74;
+  private static final int STRING_START = 7;
+
+  // exactly representable powers of ten
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+  }
+
+  /**
+   * Encodes the value of a term in a document
+   * 
+   * @param count - the number of times the term occurs in the document
+   * @param docLength - the number of words in the document
+   * @return the bytes of the value
+   */
+  public static byte[] encode(int count, int docLength) {
+    byte[] b = new byte[1 + varintSize(count) + varintSize(docLength)];
+    b[0] = VERSION_1;
+    writeVarint(b, writeVarint(b, 1, count), docLength);
+    return b;
+  }
+
+  /**
+   * Encodes the term vector of a document
+   * 
+   * @param counts - the number of times each term occurs in the document
+   * @param docLength - the number of words in the document
+   * @return the bytes of the value
+   */
+  public static byte[] encodeTermVector(Map<String, Integer> counts, 
+      int docLength) {
+    byte[][] terms = new byte[counts.size()][];
+    int[] values = new int[counts.size()];
+    int size = 1 + varintSize(docLength) + varintSize(counts.size());
+    int n = 0;
+    for (Map.Entry<String, Integer> e : counts.entrySet()) {
+      try {
+        terms[n] = e.getKey().getBytes("UTF-8");
+      } catch (UnsupportedEncodingException ex) {
+        throw new RuntimeException(ex);
+      }
+      values[n] = e.getValue();
+      size += varintSize(terms[n].length) + terms[n].length 
+          + varintSize(values[n]);
+      n++;
+    }
+
+    byte[] b = new byte[size];
+    b[0] = VECTOR_1;
+    int pos = writeVarint(b, writeVarint(b, 1, docLength), n);
+    for (int i = 0; i < n; i++) {
+      pos = writeVarint(b, pos, terms[i].length);
+      System.arraycopy(terms[i], 0, b, pos, terms[i].length);
+      pos = writeVarint(b, pos + terms[i].length, values[i]);
+    }
+    return b;
+  }
+
+  /**
+   * @param b - bytes of the value
+   * @return true if the value is a term vector in the binary format
+   */
+  public static boolean isTermVector(byte[] b) {
+    return b.length > 0 && b[0] == VECTOR_1;
+  }
+
+  /**
+   * Reads the terms of a term vector straight out of its bytes.  The reader 
+   * can be reused for any number of term vectors.
+   * 
+   * Use:
+   * if (reader.reset(b)) 
+   *   while (reader.next()) 
+   *     ... b, reader.getTermOffset(), reader.getTermLength(), 
+   *       reader.getCount() ...
+   */
+  public static class TermVectorReader {
+
+    private byte[] b;
+    private int pos;
+    private int remaining;
+    private int docLength;
+    private int termOffset;
+    private int termLength;
+    private int count;
+
+    /**
+     * Starts reading a term vector
+     * 
+     * @param b - bytes of the value
+     * @return false if the value is not a term vector in the binary format
+     */
+    public boolean reset(byte[] b) {
+      if (!isTermVector(b)) return false;
+      this.b = b;
+      docLength = readVarint(b, 1);
+      pos = skipVarint(b, 1);
+      remaining = readVarint(b, pos);
+      pos = skipVarint(b, pos);
+      return true;
+    }
+
+    /**
+     * @return the number of words in the document
+     */
+    public int getDocLength() {
+      return docLength;
+    }
+
+    /**
+     * Moves to the next term
+     * 
+     * @return false if there are no more terms
+     */
+    public boolean next() {
+      if (remaining <= 0 || pos >= b.length) return false;
+      remaining--;
+      termLength = readVarint(b, pos);
+      termOffset = skipVarint(b, pos);
+      if (termOffset + termLength > b.length) return false;
+      count = readVarint(b, termOffset + termLength);
+      pos = skipVarint(b, termOffset + termLength);
+      return true;
+    }
+
+    /**
+     * @return the start of the UTF-8 bytes of the term in the value
+     */
+    public int getTermOffset() {
+      return termOffset;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the term
+     */
+    public int getTermLength() {
+      return termLength;
+    }
+
+    /**
+     * @return the number of times the term occurs in the document
+     */
+    public int getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * @param b - bytes of the value
+   * @return true if the value is in the binary format
+   */
+  public static boolean isBinary(byte[] b) {
+    return b.length > 0 && b[0] == VERSION_1;
+  }
+
+  /**
+   * Rewrites a legacy value in the binary format.  Values without the 
+   * document length get it from the count and frequency, and are only 
+   * rewritten if the frequency is then exactly the same.
+   * 
+   * @param b - bytes of the legacy value
+   * @return the bytes of the binary value, or null if the value cannot be 
+   * rewritten without changing it
+   */
+  public static byte[] upgrade(byte[] b) {
+    if (isBinary(b)) return b;
+    int count = decodeCount(b);
+    double frequency = exactFrequency(b);
+    int docLength = decodeDocLength(b);
+    if (docLength < 0) {
+      if (!(frequency > 0.0)) return null;
+      docLength = (int)Math.round(count / frequency);
+    }
+    if (count < 0 || docLength <= 0 
+        || (double)count / (double)docLength != frequency) return null;
+    return encode(count, docLength);
+  }
+
+  /**
+   * @param b - bytes of the value
+   * @return the number of times the term occurs in the document
+   */
+  public static int decodeCount(byte[] b) {
+    if (isBinary(b)) return readVarint(b, 1);
+    int start = start(b);
+    return (int)parseLong(b, start, end(b, start));
+  }
+
+  /**
+   * @param b - bytes of the value
+   * @return the frequency of the term in the document
+   */
+  public static double decodeFrequency(byte[] b) {
+    if (isBinary(b)) {
+      int pos = skipVarint(b, 1);
+      return (double)readVarint(b, 1) / (double)readVarint(b, pos);
+    }
+    int start = start(b);
+    int field = nextField(b, start, end(b, start));
+    if (field < 0) return Double.NaN;
+    return parseDouble(b, field, end(b, start));
+  }
+
+  /**
+   * @param b - bytes of the value
+   * @return the number of words in the document, or -1 if the value does not
+   * hold it
+   */
+  public static int decodeDocLength(byte[] b) {
+    if (isBinary(b)) return readVarint(b, skipVarint(b, 1));
+    int start = start(b);
+    int end = end(b, start);
+    int field = nextField(b, start, end);
+    if (field < 0) return -1;
+    field = nextField(b, field, end);
+    if (field < 0) return -1;
+    return (int)parseLong(b, field, end);
+  }
+
+  /**
+   * Parses the frequency of a legacy value with Double.parseDouble, which 
+   * (unlike parseDouble) is exact for every number
+   */
+  private static double exactFrequency(byte[] b) {
+    int start = start(b);
+    int end = end(b, start);
+    int field = nextField(b, start, end);
+    if (field < 0) return Double.NaN;
+    int fieldEnd = field;
+    while (fieldEnd < end && b[fieldEnd] != ',') fieldEnd++;
+    try {
+      return Double.parseDouble(new String(b, field, fieldEnd - field, 
+          "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static int varintSize(int v) {
+    int size = 1;
+    while ((v >>>= 7) != 0) size++;
+    return size;
+  }
+
+  /**
+   * @return the position after the varint written
+   */
+  private static int writeVarint(byte[] b, int pos, int v) {
+    while ((v & ~0x7f) != 0) {
+      b[pos++] = (byte)((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    b[pos++] = (byte)v;
+    return pos;
+  }
+
+  private static int readVarint(byte[] b, int pos) {
+    int v = 0;
+    for (int shift = 0; pos < b.length && shift < 32; shift += 7) {
+      byte c = b[pos++];
+      v |= (c & 0x7f) << shift;
+      if (c >= 0) break;
+    }
+    return v;
+  }
+
+  /**
+   * @return the position after the varint at pos
+   */
+  private static int skipVarint(byte[] b, int pos) {
+    while (pos < b.length && b[pos++] < 0);
+    return pos;
+  }
+
+  /**
+   * Finds where the characters of the value start
+   */
+  private static int start(byte[] b) {
+    if (b.length >= STRING_START
+        && ((b[0] & 0xff) << 8 | (b[1] & 0xff)) == STREAM_MAGIC
+        && ((b[2] & 0xff) << 8 | (b[3] & 0xff)) == STREAM_VERSION
+        && b[4] == TC_STRING)
+      return STRING_START;
+    return 0;
+  }
+
+  /**
+   * Finds where the characters of the value end
+   */
+  private static int end(byte[] b, int start) {
+    if (start == STRING_START) {
+      int len = (b[5] & 0xff) << 8 | (b[6] & 0xff);
+      return Math.min(b.length, STRING_START + len);
+    }
+    return b.length;
+  }
+
+  /**
+   * @return the start of the field after the one at pos, or -1 if there is
+   * none
+   */
+  private static int nextField(byte[] b, int pos, int end) {
+    while (pos < end && b[pos] != ',') pos++;
+    return pos < end ? pos + 1 : -1;
+  }
+
+  private static long parseLong(byte[] b, int pos, int end) {
+    boolean negative = false;
+    if (pos < end && b[pos] == '-') {
+      negative = true;
+      pos++;
+    }
+    long value = 0;
+    for (; pos < end && b[pos] >= '0' && b[pos] <= '9'; pos++)
+      value = value * 10 + (b[pos] - '0');
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses a double as written by Double.toString.  The result is exact when
+   * the number has at most 15 significant digits, and otherwise within a unit
+   * in the last place.
+   */
+  static double parseDouble(byte[] b, int pos, int end) {
+    if (pos >= end) return Double.NaN;
+    boolean negative = false;
+    if (b[pos] == '-') {
+      negative = true;
+      pos++;
+    }
+    if (pos < end && b[pos] == 'N') return Double.NaN;
+    if (pos < end && b[pos] == 'I')
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for (; pos < end; pos++) {
+      byte c = b[pos];
+      if (c == '.') fraction = true;
+      else if (c >= '0' && c <= '9') {
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) digits++;
+          if (fraction) exponent--;
+        }
+        else if (!fraction) exponent++;
+      }
+      else break;
+    }
+    if (pos < end && (b[pos] == 'E' || b[pos] == 'e'))
+      exponent += (int)parseLong(b, pos + 1, end);
+
+    double value = mantissa;
+    if (exponent < 0) {
+      if (-exponent < POWERS_OF_TEN.length) value /= POWERS_OF_TEN[-exponent];
+      else value /= Math.pow(10, -exponent);
+    }
+    else if (exponent > 0) {
+      if (exponent < POWERS_OF_TEN.length) value *= POWERS_OF_TEN[exponent];
+      else value *= Math.pow(10, exponent);
+    }
+    return negative ? -value : value;
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bah.bahdit.main.plugins.fulltextindex.data.RankedResults;
+
+/**
+ * QueryCache keeps the RankedResults of recent queries, so that the pages of
+ * a query searched again are cut out of its cached results instead of being
+ * searched for in Accumulo.  It is safe to use from many threads.
+ *
+ * The cache is bounded both by the number of queries and by the total weight
+ * of their results (the number of characters held), the least recently used
+ * query being dropped first.  Results also expire after a time to live, and
+ * all of them are dropped at once by invalidate, which starts a new epoch
+ * (i.e. after a new sample or Pagerank is loaded).
+ *
+ * Use:
+ * results = cache.get(query, page * resultsPerPage);
+ * if (results == null) {
+ *   epoch = cache.getEpoch();
+ *   cache.put(query, results = search for the query, epoch);
+ * }
+ * results.getPage(page, resultsPerPage);
+ */
+public class QueryCache {
+
+  // the weight of a cached query besides its results
+  private static final int ENTRY_WEIGHT = 64;
+
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private final int maxEntries;
+  private final long maxWeight;
+  private final long timeToLive;
+
+  private long weight = 0;
+  private long epoch = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long expirations = 0;
+  private long invalidations = 0;
+
+  /**
+   * @param maxEntries - the most queries kept
+   * @param maxWeight - the most characters of results kept
+   * @param timeToLive - milliseconds a query is kept for (0 to never expire)
+   */
+  public QueryCache(int maxEntries, long maxWeight, long timeToLive) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.timeToLive = timeToLive * 1000000L;
+  }
+
+  /**
+   * Gets the cached results of a query, if they hold the top ranked URLs
+   * needed
+   *
+   * @param query - the normalized query
+   * @param needed - the number of top ranked URLs needed
+   * @return the results, or null if they are not cached
+   */
+  public synchronized RankedResults get(String query, int needed) {
+    Entry entry = entries.get(query);
+    if (entry != null && timeToLive > 0
+        && currentTime() - entry.created > timeToLive) {
+      remove(query, entry);
+      expirations++;
+      entry = null;
+    }
+    if (entry == null || !entry.results.covers(needed)) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.results;
+  }
+
+  /**
+   * Caches the results of a query, replacing any results cached for it.  
+   * Results searched for before the cache was invalidated are not kept.
+   *
+   * @param query - the normalized query
+   * @param results - the results of the query
+   * @param searchEpoch - the epoch when the search started
+   */
+  public synchronized void put(String query, RankedResults results, 
+      long searchEpoch) {
+    if (searchEpoch != epoch) return;
+    Entry entry = new Entry(results, currentTime(),
+        ENTRY_WEIGHT + query.length() + results.getWeight());
+    // too heavy to keep at all
+    if (entry.weight > maxWeight || maxEntries <= 0) return;
+
+    Entry old = entries.put(query, entry);
+    if (old != null) weight -= old.weight;
+    weight += entry.weight;
+
+    // drop the least recently used queries, but never the one just put
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || weight > maxWeight)
+        && it.hasNext()) {
+      Map.Entry<String, Entry> eldest = it.next();
+      if (eldest.getValue() == entry) break;
+      weight -= eldest.getValue().weight;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Drops all the cached results, by starting a new epoch
+   */
+  public synchronized void invalidate() {
+    epoch++;
+    invalidations += entries.size();
+    entries.clear();
+    weight = 0;
+  }
+
+  /**
+   * @return the time in nanoseconds
+   */
+  protected long currentTime() {
+    return System.nanoTime();
+  }
+
+  private void remove(String query, Entry entry) {
+    entries.remove(query);
+    weight -= entry.weight;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * @return the current epoch, to be passed back to put
+   */
+  public synchronized long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * @return the number of queries served from the cache
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the number of queries not served from the cache
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return the fraction of queries served from the cache
+   */
+  public synchronized double getHitRatio() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0.0 : (double)hits / lookups;
+  }
+
+  /**
+   * @return the number of queries dropped to stay within the bounds
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return the number of queries dropped after their time to live
+   */
+  public synchronized long getExpirations() {
+    return expirations;
+  }
+
+  /**
+   * @return the number of queries dropped by a new epoch
+   */
+  public synchronized long getInvalidations() {
+    return invalidations;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "QueryCache[epoch=" + epoch + ", queries=" + entries.size() +
+        ", weight=" + weight + ", hits=" + hits + ", misses=" + misses +
+        ", hitRatio=" + getHitRatio() + ", evictions=" + evictions +
+        ", expirations=" + expirations + ", invalidations=" + invalidations +
+        "]";
+  }
+
+  /**
+   * The cached results of a query
+   */
+  private static class Entry {
+
+    final RankedResults results;
+    final long created;
+    final long weight;
+
+    Entry(RankedResults results, long created, long weight) {
+      this.results = results;
+      this.created = created;
+      this.weight = weight;
+    }
+  }
+}
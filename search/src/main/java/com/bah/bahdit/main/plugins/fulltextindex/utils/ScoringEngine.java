@@ -0,0 +1,245 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The ScoringEngine computes the same cosine similarity as CosineSimilarity,
+ * one term at a time, without building maps or vectors for each document.
+ *
+ * The distinct query terms are resolved to slots when the engine is created,
+ * and their tf-idf weights and the magnitude of the query vector are computed
+ * once.  For each document, the weights of the query terms found are kept in
+ * reusable arrays, and only the sum of the squares of the weights of the
+ * other terms is kept, since they add nothing to the dot product.
+ *
+ * The document frequencies are read from a TermIntMap built from the sample
+ * table.
+ *
+ * Use:
+ * engine.startDocument();
+ * engine.addTerm(...) for each term of the document
+ * if (engine.allTermsFound()) cosim = engine.cosineSimilarity();
+ */
+public class ScoringEngine {
+
+  private static final String TOTAL_DOCS = "[[TOTAL NUM DOCS]]";
+
+  // query terms, their slots, document frequencies and weights
+  private TermIntMap slots;
+  private ArrayList<String> slotTerms;
+  private int[] slotFrequencies;
+  private double[] queryWeights;
+  private double queryMagnitude;
+
+  // document frequencies of terms
+  private final TermIntMap docFrequencies;
+  private final int totalDocs;
+
+  // state of the current document
+  private double[] docWeights;
+  private int[] foundIn;
+  private int document = 0;
+  private int found = 0;
+  private double otherSquares = 0.0;
+
+  // reused to turn String terms into bytes
+  private byte[] termBuffer = new byte[64];
+
+  /**
+   * Creates an engine reading the document frequencies from a sample table
+   *
+   * @param queryTerms - the n-grams of the query
+   * @param queryRatios - the ratios of the query terms
+   * @param sample - the document frequencies of terms, including the total
+   * number of documents (may be null)
+   */
+  public ScoringEngine(ArrayList<String> queryTerms,
+      HashMap<String, Double> queryRatios, TermIntMap sample) {
+    this.docFrequencies = sample;
+    this.totalDocs = totalDocs(sample);
+
+    assignSlots(queryTerms);
+    for (int i = 0; i < slotTerms.size(); i++)
+      slotFrequencies[i] = sample == null ? TermIntMap.MISSING :
+        sample.get(slotTerms.get(i));
+    computeQueryWeights(queryRatios);
+  }
+
+  /**
+   * Gives each distinct query term a slot
+   */
+  private void assignSlots(ArrayList<String> queryTerms) {
+    slots = new TermIntMap(queryTerms.size());
+    slotTerms = new ArrayList<String>();
+    for (String term : queryTerms) {
+      if (slots.get(term) == TermIntMap.MISSING) {
+        slots.put(term, slotTerms.size());
+        slotTerms.add(term);
+      }
+    }
+    int n = slotTerms.size();
+    slotFrequencies = new int[n];
+    queryWeights = new double[n];
+    docWeights = new double[n];
+    foundIn = new int[n];
+  }
+
+  /**
+   * Computes the tf-idf weights of the query terms and the magnitude of the
+   * query vector
+   */
+  private void computeQueryWeights(HashMap<String, Double> queryRatios) {
+    double squares = 0.0;
+    for (int i = 0; i < slotTerms.size(); i++) {
+      Double ratio = queryRatios.get(slotTerms.get(i));
+      queryWeights[i] = ratio == null ? 0.0 :
+        weight(ratio, slotFrequencies[i]);
+      squares += queryWeights[i] * queryWeights[i];
+    }
+    queryMagnitude = Math.sqrt(squares);
+  }
+
+  /**
+   * Starts scoring a new document
+   */
+  public void startDocument() {
+    document++;
+    found = 0;
+    otherSquares = 0.0;
+  }
+
+  /**
+   * Adds a term of the current document
+   *
+   * @param b - array holding the term (UTF-8)
+   * @param off - start of the term in the array
+   * @param len - length of the term in bytes
+   * @param ratio - the frequency of the term in the document
+   */
+  public void addTerm(byte[] b, int off, int len, double ratio) {
+    int df = docFrequencies == null ? TermIntMap.MISSING :
+      docFrequencies.get(b, off, len);
+    add(slots.get(b, off, len), ratio, df);
+  }
+
+  /**
+   * Adds a term of the current document
+   *
+   * @param term - the term
+   * @param ratio - the frequency of the term in the document
+   */
+  public void addTerm(String term, double ratio) {
+    int len = toBytes(term);
+    addTerm(termBuffer, 0, len, ratio);
+  }
+
+  /**
+   * @return true if all the query terms were found in the current document
+   */
+  public boolean allTermsFound() {
+    return found == slotTerms.size();
+  }
+
+  /**
+   * @return the cosine similarity of the current document and the query
+   */
+  public double cosineSimilarity() {
+    double dot = 0.0;
+    double squares = otherSquares;
+    for (int i = 0; i < docWeights.length; i++) {
+      if (foundIn[i] != document) continue;
+      dot += queryWeights[i] * docWeights[i];
+      squares += docWeights[i] * docWeights[i];
+    }
+
+    double magProduct = Math.sqrt(squares) * queryMagnitude;
+    // no divide-by-zero errors
+    return magProduct == 0.0 ? 0.0 : dot / magProduct;
+  }
+
+  /**
+   * Gets the highest cosine similarity any document can have with the query.
+   * The cosine similarity does not change when the weights are scaled, so a 
+   * document made of only the query terms, in the proportions of the query, 
+   * reaches 1 whatever the idf weights of the terms are.  The weights of the 
+   * query alone therefore give no lower bound, except when they are all 0, 
+   * and every document then has a similarity of 0.
+   *
+   * @return the highest cosine similarity of a document and the query
+   */
+  public double maxCosineSimilarity() {
+    return queryMagnitude == 0.0 ? 0.0 : 1.0;
+  }
+
+  /**
+   * Adds the weight of a term to the current document
+   */
+  private void add(int slot, double ratio, int df) {
+    double weight = weight(ratio, df);
+    if (slot == TermIntMap.MISSING) otherSquares += weight * weight;
+    else if (foundIn[slot] != document) {
+      foundIn[slot] = document;
+      docWeights[slot] = weight;
+      found++;
+    }
+  }
+
+  /**
+   * Gets the tf-idf of a term, or its ratio if its document frequency is not
+   * known (as CosineSimilarity does)
+   */
+  private double weight(double ratio, int df) {
+    if (df == TermIntMap.MISSING) return ratio;
+    return Utils.calcTFIDF(ratio, totalDocs, df);
+  }
+
+  /**
+   * Writes the term into the term buffer as UTF-8
+   *
+   * @return the number of bytes written
+   */
+  private int toBytes(String term) {
+    int len = term.length();
+    if (termBuffer.length < len) termBuffer = new byte[len * 2];
+    for (int i = 0; i < len; i++) {
+      char c = term.charAt(i);
+      if (c >= 0x80) {
+        // not ASCII, let the String encode itself
+        try {
+          byte[] b = term.getBytes("UTF-8");
+          if (termBuffer.length < b.length) termBuffer = new byte[b.length];
+          System.arraycopy(b, 0, termBuffer, 0, b.length);
+          return b.length;
+        } catch (UnsupportedEncodingException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      termBuffer[i] = (byte)c;
+    }
+    return len;
+  }
+
+  private static int totalDocs(TermIntMap sample) {
+    if (sample == null) return 0;
+    int total = sample.get(TOTAL_DOCS);
+    return total == TermIntMap.MISSING ? 0 : total;
+  }
+}
@@ -0,0 +1,562 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * TermDictionary is a read only map of terms to numbers, held in a sorted
+ * binary format that is read in place, out of a memory mapped file or an off
+ * heap buffer.  It replaces the serialized HashMaps of the sample table
+ * (terms to document frequencies) and the Pagerank file (URLs to ranks), so
+ * they are not deserialized at startup and take little of the heap.
+ *
+ * Format (big endian) :
+ * - header : "TDIC", version (1), value type (0 = int, 1 = float), number of
+ *   terms, terms per block, length of the longest term
+ * - the values of the terms, 4 bytes each, in the order of the terms
+ * - the offset of each block of terms
+ * - the blocks of terms, sorted by their UTF-8 bytes.  The first term of a
+ *   block is written whole (length, bytes), and the others are front coded
+ *   (length shared with the term before, length of the rest, rest), with the
+ *   lengths as varints.
+ *
+ * A term is looked up by a binary search over the first terms of the blocks,
+ * then a scan of a single block.  Files written before this format (Java
+ * serialized HashMaps) are still read, and are converted when loaded.
+ */
+public class TermDictionary<V extends Number> extends AbstractMap<String, V> {
+
+  // value types
+  public static final byte INT_VALUES = 0;
+  public static final byte FLOAT_VALUES = 1;
+
+  private static final int MAGIC = 0x54444943;
+  private static final byte VERSION_1 = 1;
+  private static final int HEADER_SIZE = 18;
+  private static final int BLOCK_SIZE = 16;
+
+  // the header of a Java serialized object
+  private static final int STREAM_MAGIC = 0xACED;
+
+  // orders terms by their UTF-8 bytes
+  private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+    @Override
+    public int compare(byte[] b1, byte[] b2) {
+      return TermDictionary.compare(b1, 0, b1.length, b2, 0, b2.length);
+    }
+  };
+
+  private final ByteBuffer buffer;
+  private final byte type;
+  private final int size;
+  private final int blockSize;
+  private final int maxTermLength;
+  private final int numBlocks;
+  private final int blockOffsets;
+
+  private TermDictionary(ByteBuffer buffer, byte expectedType)
+      throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+      throw new IOException("Not a term dictionary");
+    if (buffer.get(4) != VERSION_1)
+      throw new IOException("Unknown term dictionary version " + buffer.get(4));
+    this.buffer = buffer;
+    this.type = buffer.get(5);
+    if (type != expectedType)
+      throw new IOException("Term dictionary holds the wrong type of values");
+    this.size = buffer.getInt(6);
+    this.blockSize = buffer.getInt(10);
+    this.maxTermLength = buffer.getInt(14);
+    this.numBlocks = (size + blockSize - 1) / blockSize;
+    this.blockOffsets = HEADER_SIZE + 4 * size;
+  }
+
+  /**
+   * Memory maps a sample table file
+   */
+  public static TermDictionary<Integer> openFrequencies(File file)
+      throws IOException {
+    return open(file, INT_VALUES);
+  }
+
+  /**
+   * Memory maps a Pagerank file
+   */
+  public static TermDictionary<Double> openPageranks(File file)
+      throws IOException {
+    return open(file, FLOAT_VALUES);
+  }
+
+  /**
+   * Reads a sample table into an off heap buffer
+   */
+  public static TermDictionary<Integer> readFrequencies(InputStream in)
+      throws IOException {
+    return read(in, INT_VALUES);
+  }
+
+  /**
+   * Reads a Pagerank file into an off heap buffer
+   */
+  public static TermDictionary<Double> readPageranks(InputStream in)
+      throws IOException {
+    return read(in, FLOAT_VALUES);
+  }
+
+  /**
+   * Wraps the bytes of a sample table (i.e. from the iterator options)
+   */
+  public static TermDictionary<Integer> frequencies(byte[] b)
+      throws IOException {
+    return wrap(b, INT_VALUES);
+  }
+
+  /**
+   * Wraps the bytes of a Pagerank table (i.e. from the iterator options)
+   */
+  public static TermDictionary<Double> pageranks(byte[] b)
+      throws IOException {
+    return wrap(b, FLOAT_VALUES);
+  }
+
+  private static <V extends Number> TermDictionary<V> open(File file,
+      byte type) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() < 2 || raf.readUnsignedShort() != STREAM_MAGIC) {
+        FileChannel channel = raf.getChannel();
+        // the mapping stays valid once the file is closed
+        return new TermDictionary<V>(channel.map(
+            FileChannel.MapMode.READ_ONLY, 0, channel.size()), type);
+      }
+    } finally {
+      raf.close();
+    }
+    // written before the binary format
+    return read(new FileInputStream(file), type);
+  }
+
+  private static <V extends Number> TermDictionary<V> read(InputStream in,
+      byte type) throws IOException {
+    if (in == null) throw new IOException("No term dictionary to read");
+    InputStream bin = new BufferedInputStream(in);
+    try {
+      bin.mark(2);
+      int magic = bin.read() << 8 | bin.read();
+      bin.reset();
+      if (magic == STREAM_MAGIC) return direct(readLegacy(bin, type), type);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] chunk = new byte[8192];
+      int n;
+      while ((n = bin.read(chunk)) != -1) out.write(chunk, 0, n);
+      return direct(out.toByteArray(), type);
+    } finally {
+      bin.close();
+    }
+  }
+
+  private static <V extends Number> TermDictionary<V> wrap(byte[] b,
+      byte type) throws IOException {
+    if (b.length >= 2 && ((b[0] & 0xff) << 8 | (b[1] & 0xff)) == STREAM_MAGIC)
+      b = readLegacy(new ByteArrayInputStream(b), type);
+    return new TermDictionary<V>(ByteBuffer.wrap(b), type);
+  }
+
+  /**
+   * Copies the bytes of a dictionary out of the heap
+   */
+  private static <V extends Number> TermDictionary<V> direct(byte[] b,
+      byte type) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(b.length);
+    buffer.put(b);
+    buffer.flip();
+    return new TermDictionary<V>(buffer, type);
+  }
+
+  /**
+   * Reads a Java serialized HashMap and writes it in the binary format
+   */
+  private static byte[] readLegacy(InputStream in, byte type)
+      throws IOException {
+    Object map;
+    try {
+      map = new ObjectInputStream(in).readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e.getMessage());
+    }
+    if (!(map instanceof Map))
+      throw new IOException("Not a serialized map");
+    @SuppressWarnings("unchecked")
+    Map<String, ? extends Number> terms = (Map<String, ? extends Number>)map;
+    return toBytes(terms, type);
+  }
+
+  /**
+   * Writes the given terms and their values as a dictionary
+   *
+   * @param terms - the terms and their values (null values are left out)
+   * @param type - INT_VALUES or FLOAT_VALUES
+   * @param out - where to write the dictionary
+   */
+  public static void write(Map<String, ? extends Number> terms, byte type,
+      OutputStream out) throws IOException {
+    out.write(toBytes(terms, type));
+  }
+
+  /**
+   * @param terms - the terms and their values (null values are left out)
+   * @param type - INT_VALUES or FLOAT_VALUES
+   * @return the bytes of the dictionary
+   */
+  public static byte[] toBytes(Map<String, ? extends Number> terms, byte type)
+      throws IOException {
+    // sort the terms by their bytes, keeping the values with them
+    byte[][] keys = new byte[terms.size()][];
+    final Number[] numbers = new Number[terms.size()];
+    int n = 0;
+    for (Map.Entry<String, ? extends Number> e : terms.entrySet()) {
+      if (e.getKey() == null || e.getValue() == null) continue;
+      keys[n] = e.getKey().getBytes("UTF-8");
+      numbers[n++] = e.getValue();
+    }
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) order[i] = i;
+    final byte[][] sortKeys = keys;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return BYTE_ORDER.compare(sortKeys[i1], sortKeys[i2]);
+      }
+    });
+
+    int maxTermLength = 0;
+    for (int i = 0; i < n; i++)
+      maxTermLength = Math.max(maxTermLength, keys[i].length);
+
+    // front code the blocks of terms
+    int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] offsets = new int[numBlocks];
+    int start = HEADER_SIZE + 4 * n + 4 * numBlocks;
+    ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+    byte[] previous = null;
+    for (int i = 0; i < n; i++) {
+      byte[] term = keys[order[i]];
+      if (i % BLOCK_SIZE == 0) {
+        offsets[i / BLOCK_SIZE] = start + blocks.size();
+        writeVarint(blocks, term.length);
+        blocks.write(term, 0, term.length);
+      }
+      else {
+        int shared = 0;
+        int max = Math.min(previous.length, term.length);
+        while (shared < max && previous[shared] == term[shared]) shared++;
+        writeVarint(blocks, shared);
+        writeVarint(blocks, term.length - shared);
+        blocks.write(term, shared, term.length - shared);
+      }
+      previous = term;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+        start + blocks.size());
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION_1);
+    out.writeByte(type);
+    out.writeInt(n);
+    out.writeInt(BLOCK_SIZE);
+    out.writeInt(maxTermLength);
+    for (int i = 0; i < n; i++) {
+      Number value = numbers[order[i]];
+      if (type == INT_VALUES) out.writeInt(value.intValue());
+      else out.writeFloat(value.floatValue());
+    }
+    for (int i = 0; i < numBlocks; i++) out.writeInt(offsets[i]);
+    blocks.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Finds the position of a term
+   *
+   * @param b - array holding the term (UTF-8)
+   * @param off - start of the term in the array
+   * @param len - length of the term in bytes
+   * @return the position of the term, or -1 if it is not in the dictionary
+   */
+  public int indexOf(byte[] b, int off, int len) {
+    if (size == 0 || len > maxTermLength) return -1;
+
+    // find the last block whose first term is not after the term
+    int low = 0;
+    int high = numBlocks - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compareFirstTerm(mid, b, off, len) <= 0) low = mid + 1;
+      else high = mid - 1;
+    }
+    int block = high;
+    if (block < 0) return -1;
+
+    // scan the terms of the block, comparing them in place : matched is the
+    // number of leading bytes the term before shares with the given term
+    int pos = buffer.getInt(blockOffsets + 4 * block);
+    int matched = 0;
+    int end = Math.min(size, (block + 1) * blockSize);
+    for (int i = block * blockSize; i < end; i++) {
+      int shared = 0;
+      if (i != block * blockSize) {
+        shared = readVarint(pos);
+        pos = skipVarint(pos);
+      }
+      int rest = readVarint(pos);
+      pos = skipVarint(pos);
+
+      // the terms are sorted, so this one differs from the term before where
+      // the term before still matched, and comes after the given term
+      if (shared < matched) return -1;
+      // this one differs from the given term where the term before did
+      if (shared > matched) {
+        pos += rest;
+        continue;
+      }
+
+      // byte j of this term, for j >= shared, is at start + j
+      int start = pos - shared;
+      int termLength = shared + rest;
+      int n = Math.min(termLength, len);
+      while (matched < n && buffer.get(start + matched) == b[off + matched])
+        matched++;
+      pos += rest;
+
+      if (matched == len) return termLength == len ? i : -1;
+      if (matched < termLength && (buffer.get(start + matched) & 0xff) 
+          > (b[off + matched] & 0xff)) return -1;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of a term, or -1 if it is not in the dictionary
+   */
+  public int indexOf(String term) {
+    try {
+      byte[] b = term.getBytes("UTF-8");
+      return indexOf(b, 0, b.length);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the value at the given position as an int
+   */
+  public int intAt(int index) {
+    int bits = buffer.getInt(HEADER_SIZE + 4 * index);
+    return type == INT_VALUES ? bits : (int)Float.intBitsToFloat(bits);
+  }
+
+  /**
+   * @return the value at the given position as a double
+   */
+  public double doubleAt(int index) {
+    int bits = buffer.getInt(HEADER_SIZE + 4 * index);
+    return type == INT_VALUES ? bits : Float.intBitsToFloat(bits);
+  }
+
+  /**
+   * @return the value of a term, or the given value if it is not here
+   */
+  public int getInt(String term, int missing) {
+    int i = indexOf(term);
+    return i == -1 ? missing : intAt(i);
+  }
+
+  /**
+   * @return the value of a term, or the given value if it is not here
+   */
+  public double getDouble(String term, double missing) {
+    int i = indexOf(term);
+    return i == -1 ? missing : doubleAt(i);
+  }
+
+  /**
+   * @return the bytes of the dictionary, to pass to the iterators
+   */
+  public byte[] getBytes() {
+    ByteBuffer b = buffer.duplicate();
+    b.clear();
+    byte[] bytes = new byte[b.remaining()];
+    b.get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public V get(Object key) {
+    if (!(key instanceof String)) return null;
+    int i = indexOf((String)key);
+    return i == -1 ? null : valueAt(i);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && indexOf((String)key) != -1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<String, V>> entrySet() {
+    return new AbstractSet<Map.Entry<String, V>>() {
+      @Override
+      public Iterator<Map.Entry<String, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int index) {
+    if (type == INT_VALUES) return (V)Integer.valueOf(intAt(index));
+    return (V)Double.valueOf(doubleAt(index));
+  }
+
+  /**
+   * Compares the first term of a block with the given term
+   */
+  private int compareFirstTerm(int block, byte[] b, int off, int len) {
+    int pos = buffer.getInt(blockOffsets + 4 * block);
+    int termLength = readVarint(pos);
+    pos = skipVarint(pos);
+    int n = Math.min(termLength, len);
+    for (int i = 0; i < n; i++) {
+      int c = (buffer.get(pos + i) & 0xff) - (b[off + i] & 0xff);
+      if (c != 0) return c;
+    }
+    return termLength - len;
+  }
+
+  private int readVarint(int pos) {
+    int v = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte c = buffer.get(pos++);
+      v |= (c & 0x7f) << shift;
+      if (c >= 0) break;
+    }
+    return v;
+  }
+
+  private int skipVarint(int pos) {
+    while (buffer.get(pos++) < 0);
+    return pos;
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int v) {
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.write(v);
+  }
+
+  private static int compare(byte[] b1, int off1, int len1, byte[] b2,
+      int off2, int len2) {
+    int n = Math.min(len1, len2);
+    for (int i = 0; i < n; i++) {
+      int c = (b1[off1 + i] & 0xff) - (b2[off2 + i] & 0xff);
+      if (c != 0) return c;
+    }
+    return len1 - len2;
+  }
+
+  /**
+   * Reads the terms in order, decoding each block as it goes
+   */
+  private class EntryIterator implements Iterator<Map.Entry<String, V>> {
+
+    private final byte[] term = new byte[maxTermLength];
+    private int index = 0;
+    private int pos = 0;
+
+    @Override
+    public boolean hasNext() {
+      return index < size;
+    }
+
+    @Override
+    public Map.Entry<String, V> next() {
+      if (index >= size) throw new NoSuchElementException();
+      int shared = 0;
+      if (index % blockSize == 0)
+        pos = buffer.getInt(blockOffsets + 4 * (index / blockSize));
+      else {
+        shared = readVarint(pos);
+        pos = skipVarint(pos);
+      }
+      int rest = readVarint(pos);
+      pos = skipVarint(pos);
+      for (int j = 0; j < rest; j++) term[shared + j] = buffer.get(pos + j);
+      pos += rest;
+
+      String key;
+      try {
+        key = new String(term, 0, shared + rest, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new RuntimeException(e);
+      }
+      V value = valueAt(index++);
+      return new SimpleImmutableEntry<String, V>(key, value);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("TermDictionary is read only");
+    }
+  }
+}
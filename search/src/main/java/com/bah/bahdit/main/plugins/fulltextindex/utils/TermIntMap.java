@@ -0,0 +1,174 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * TermIntMap maps terms, as UTF-8 bytes, to ints.  Terms can be looked up
+ * straight from a byte array (such as the column qualifier of a key) without
+ * creating a String, so the scoring of a document does not allocate for
+ * every term it reads.
+ *
+ * The map uses open addressing with linear probing, and is not thread safe
+ * while it is being written to.
+ */
+public class TermIntMap {
+
+  // returned by get for terms that are not in the map
+  public static final int MISSING = Integer.MIN_VALUE;
+
+  private byte[][] keys;
+  private int[] values;
+  private int[] hashes;
+  private int size = 0;
+  private int mask;
+
+  /**
+   * @param expectedSize - the number of terms expected in the map
+   */
+  public TermIntMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity < expectedSize * 2) capacity <<= 1;
+    allocate(capacity);
+  }
+
+  /**
+   * Creates a map from a sample table (i.e. terms to document frequencies)
+   *
+   * @param sample - hashmap of terms to their values
+   * @return a map holding the same terms and values
+   */
+  public static TermIntMap fromMap(Map<String, Integer> sample) {
+    TermIntMap map = new TermIntMap(sample.size());
+    for (Entry<String, Integer> e : sample.entrySet())
+      if (e.getValue() != null) map.put(e.getKey(), e.getValue());
+    return map;
+  }
+
+  /**
+   * Gets the value of the term held in the given bytes
+   *
+   * @param b - array holding the term
+   * @param off - start of the term in the array
+   * @param len - length of the term in bytes
+   * @return the value of the term, or MISSING
+   */
+  public int get(byte[] b, int off, int len) {
+    int h = hash(b, off, len);
+    for (int i = h & mask; keys[i] != null; i = (i + 1) & mask)
+      if (hashes[i] == h && equals(keys[i], b, off, len)) return values[i];
+    return MISSING;
+  }
+
+  /**
+   * @param term - the term to look up
+   * @return the value of the term, or MISSING
+   */
+  public int get(String term) {
+    byte[] b = toBytes(term);
+    return get(b, 0, b.length);
+  }
+
+  /**
+   * Sets the value of the term held in the given bytes
+   */
+  public void put(byte[] b, int off, int len, int value) {
+    int h = hash(b, off, len);
+    int i = h & mask;
+    for (; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == h && equals(keys[i], b, off, len)) {
+        values[i] = value;
+        return;
+      }
+    }
+    keys[i] = Arrays.copyOfRange(b, off, off + len);
+    hashes[i] = h;
+    values[i] = value;
+    if (++size * 2 > keys.length) resize();
+  }
+
+  /**
+   * Sets the value of the term
+   */
+  public void put(String term, int value) {
+    byte[] b = toBytes(term);
+    put(b, 0, b.length, value);
+  }
+
+  /**
+   * @return the number of terms in the map
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all the terms from the map
+   */
+  public void clear() {
+    Arrays.fill(keys, null);
+    size = 0;
+  }
+
+  private void allocate(int capacity) {
+    keys = new byte[capacity][];
+    values = new int[capacity];
+    hashes = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  private void resize() {
+    byte[][] oldKeys = keys;
+    int[] oldValues = values;
+    int[] oldHashes = hashes;
+    allocate(keys.length << 1);
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] == null) continue;
+      int i = oldHashes[j] & mask;
+      while (keys[i] != null) i = (i + 1) & mask;
+      keys[i] = oldKeys[j];
+      values[i] = oldValues[j];
+      hashes[i] = oldHashes[j];
+    }
+  }
+
+  private static int hash(byte[] b, int off, int len) {
+    int h = 1;
+    for (int i = off; i < off + len; i++) h = 31 * h + b[i];
+    // spread the bits, since the low bits pick the slot
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(byte[] key, byte[] b, int off, int len) {
+    if (key.length != len) return false;
+    for (int i = 0; i < len; i++)
+      if (key[i] != b[off + i]) return false;
+    return true;
+  }
+
+  private static byte[] toBytes(String term) {
+    try {
+      return term.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
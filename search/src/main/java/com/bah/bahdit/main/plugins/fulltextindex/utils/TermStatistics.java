@@ -0,0 +1,478 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.fulltextindex.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TermStatistics reads the document frequencies of terms and the Pageranks of
+ * documents from the stats table, and keeps the most recently used values in
+ * an LRU cache.  The search uses it in place of the whole sample and 
+ * Pagerank tables, and passes the iterators only the document frequencies of
+ * the query terms and the Pageranks of the documents they rank, so the 
+ * iterators never connect to the stats table themselves.  The values missing
+ * from the cache are read in one lookup for many terms or documents at once.
+ *
+ * The caches are cleared whenever the epoch of the stats table changes.  Only ftsample and
+ * pr bump the epoch, after writing a new sample or Pagerank, so the counts
+ * added by load as it goes do not clear the caches.  Instead, the total 
+ * number of documents is read again on every refresh, and a document 
+ * frequency is read again once it has been cached for longer than the 
+ * refresh interval, so the pages loaded show up within about an interval.  A
+ * document frequency is never taken to be above the total number of 
+ * documents, which may have been read before it.
+ *
+ * The document frequency of a term is the count of the last ftsample, plus 
+ * the counts load added in the periods since it started (see 
+ * FrequencyCounter).
+ *
+ * Stats table layout :
+ * Row : term | Column Family : dfbase | Timestamp : start of the sample | 
+ *   Value : documents counted by ftsample (String)
+ * Row : term | Column Family : df | Column Qualifier : start of the period | 
+ *   Value : documents load added in the period (String, summed)
+ * Row : url | Column Family : pr | Value : Pagerank (String)
+ * Row : [[TOTAL NUM DOCS]] | Column Families : dfbase, df | Value : number of
+ *   documents, as for a term
+ * Row : [[MAX_PR]] | Column Family : pr | Value : maximum Pagerank
+ * Row : [[EPOCH]] | Column Family : epoch | Value : time it was bumped
+ */
+public class TermStatistics {
+
+  // Names of Properties in the .properties file
+  public static final String FT_STATS_TABLE = "FT_STATS_TABLE";
+  public static final String FT_STATS_CACHE_SIZE = "FT_STATS_CACHE_SIZE";
+  public static final String FT_STATS_REFRESH = "FT_STATS_REFRESH";
+
+  // column families of the stats table
+  public static final String DOC_FREQUENCY = "df";
+  public static final String BASE_FREQUENCY = "dfbase";
+  public static final String PAGERANK = "pr";
+
+  // milliseconds of the periods the counts added by load are summed by
+  public static final long PERIOD = 3600000L;
+
+  // special rows of the stats table
+  public static final String TOTAL_DOCS = "[[TOTAL NUM DOCS]]";
+  public static final String MAX_PR = "[[MAX_PR]]";
+  public static final String EPOCH = "[[EPOCH]]";
+
+  // milliseconds between reads of the epoch by default
+  public static final long DEFAULT_REFRESH = 10000L;
+  private static final int LOOKUP_THREADS = 4;
+
+  // marks values that are not in the stats table
+  private static final int NO_DOC_FREQUENCY = -1;
+  private static final Double NO_PAGERANK = -1.0;
+
+  private final Connector conn;
+  private final String table;
+  private final Map<String, CachedFrequency> docFrequencies;
+  private final Map<String, Double> pageranks;
+  private int totalDocs = 0;
+  private double maxPR = 0.0;
+  private String epoch = null;
+  private boolean refreshed = false;
+  private long lastRefresh = 0;
+  private long interval = DEFAULT_REFRESH;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param conn - connector to the instance holding the stats table
+   * @param table - name of the stats table
+   * @param cacheSize - maximum number of values kept for each statistic
+   */
+  public TermStatistics(Connector conn, String table, int cacheSize) {
+    this.conn = conn;
+    this.table = table;
+    this.docFrequencies = new LRUCache<CachedFrequency>(cacheSize);
+    this.pageranks = new LRUCache<Double>(cacheSize);
+  }
+
+  /**
+   * Gets the milliseconds between reads of the epoch
+   *
+   * @param value - the value of FT_STATS_REFRESH, or null if it is not set
+   */
+  public static long getRefreshInterval(String value) {
+    if (value == null || value.trim().equals("")) return DEFAULT_REFRESH;
+    return Long.parseLong(value.trim());
+  }
+
+  /**
+   * Gets the start of the period of the given time, the column qualifier 
+   * load adds its counts under
+   *
+   * @param timestamp - the time the entries of a page were put at
+   */
+  public static String getPeriod(long timestamp) {
+    return Long.toString(timestamp - timestamp % PERIOD);
+  }
+
+  /**
+   * Gets the time a sample started now counts the entries before.  It is the
+   * start of a period, so that no period of the counts added by load spans 
+   * it.
+   *
+   * @param now - the current time
+   */
+  public static long getSampleStart(long now) {
+    return now - now % PERIOD;
+  }
+
+  /**
+   * Refreshes the statistics, unless they were refreshed less than the 
+   * given interval ago.  The document frequencies are also read again once
+   * they have been cached for longer than the interval.
+   *
+   * @param interval - the fewest milliseconds between reads of the epoch
+   * @return true if the caches were cleared
+   */
+  public boolean refresh(long interval) throws IOException {
+    synchronized (this) {
+      this.interval = interval;
+      long now = System.currentTimeMillis();
+      if (refreshed && now - lastRefresh < interval) return false;
+      lastRefresh = now;
+    }
+    return refresh();
+  }
+
+  /**
+   * Reads the total number of documents, and the epoch of the stats table.  
+   * If the epoch changed since the last refresh, clears the caches and reads
+   * the maximum Pagerank again.
+   *
+   * @return true if the caches were cleared
+   */
+  public boolean refresh() throws IOException {
+    ArrayList<Range> ranges = new ArrayList<Range>();
+    ranges.add(new Range(EPOCH));
+    ranges.add(new Range(MAX_PR));
+    HashMap<String, String> values = lookup(ranges, null);
+    Long total = lookupFrequencies(
+        Collections.singletonList(new Range(TOTAL_DOCS))).get(TOTAL_DOCS);
+
+    String newEpoch = values.get(EPOCH);
+
+    synchronized (this) {
+      // the pages loaded since the last refresh are counted at once
+      totalDocs = total == null ? 0 : total.intValue();
+
+      if (refreshed && (newEpoch == null ? epoch == null : 
+          newEpoch.equals(epoch))) return false;
+
+      docFrequencies.clear();
+      pageranks.clear();
+      maxPR = values.containsKey(MAX_PR) ?
+          Double.parseDouble(values.get(MAX_PR)) : 0.0;
+      epoch = newEpoch;
+      refreshed = true;
+      return true;
+    }
+  }
+
+  /**
+   * @return the total number of documents as of the last refresh
+   */
+  public synchronized int getTotalDocs() {
+    return totalDocs;
+  }
+
+  /**
+   * @return the maximum Pagerank as of the last refresh
+   */
+  public synchronized double getMaxPagerank() {
+    return maxPR;
+  }
+
+  /**
+   * Gets the document frequencies of the given terms, in the same form as the
+   * sample table (i.e. including the total number of documents), so it can be
+   * used for the tf-idf calculations.  Terms not in the stats table are left
+   * out.  All the terms missing from the cache, or cached for longer than the
+   * refresh interval, are read in one lookup.
+   *
+   * @param terms - terms to get the document frequencies for
+   * @return hashmap of terms to their document frequencies
+   */
+  public HashMap<String, Integer> getSample(Collection<String> terms)
+      throws IOException {
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    ArrayList<Range> missing = new ArrayList<Range>();
+    long now = System.currentTimeMillis();
+
+    synchronized (this) {
+      sample.put(TOTAL_DOCS, totalDocs);
+      for (String term : terms) {
+        CachedFrequency cached = docFrequencies.get(term);
+        if (cached == null || now - cached.read >= interval)
+          missing.add(new Range(term));
+        else if (cached.df != NO_DOC_FREQUENCY)
+          sample.put(term, Math.min(cached.df, totalDocs));
+      }
+      hits += terms.size() - missing.size();
+      misses += missing.size();
+    }
+
+    if (!missing.isEmpty()) {
+      HashMap<String, Long> values = lookupFrequencies(missing);
+      synchronized (this) {
+        for (Range range : missing) {
+          String term = range.getStartKey().getRow().toString();
+          Long value = values.get(term);
+          if (value == null) {
+            docFrequencies.put(term, 
+                new CachedFrequency(NO_DOC_FREQUENCY, now));
+          }
+          else {
+            int df = value.intValue();
+            docFrequencies.put(term, new CachedFrequency(df, now));
+            sample.put(term, Math.min(df, totalDocs));
+          }
+        }
+      }
+    }
+    return sample;
+  }
+
+  /**
+   * Gets the Pageranks of the given documents.  Documents without a Pagerank
+   * are left out.  All the documents missing from the cache are read in one 
+   * lookup.
+   *
+   * @param urls - urls of the documents
+   * @return hashmap of urls to their Pageranks
+   */
+  public HashMap<String, Double> getPageranks(Collection<String> urls)
+      throws IOException {
+
+    HashMap<String, Double> found = new HashMap<String, Double>();
+    ArrayList<Range> missing = new ArrayList<Range>();
+
+    synchronized (this) {
+      for (String url : urls) {
+        Double pr = pageranks.get(url);
+        if (pr == null) missing.add(new Range(url));
+        else if (!pr.equals(NO_PAGERANK)) found.put(url, pr);
+      }
+      hits += urls.size() - missing.size();
+      misses += missing.size();
+    }
+
+    if (!missing.isEmpty()) {
+      HashMap<String, String> values = lookup(missing, PAGERANK);
+      synchronized (this) {
+        for (Range range : missing) {
+          String url = range.getStartKey().getRow().toString();
+          String value = values.get(url);
+          if (value == null) pageranks.put(url, NO_PAGERANK);
+          else {
+            Double pr = Double.parseDouble(value);
+            pageranks.put(url, pr);
+            found.put(url, pr);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return the number of values found in the cache
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the number of values read from the stats table
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Reads the given rows of the stats table
+   *
+   * @param ranges - a range for each row to read
+   * @param family - the column family to read, or null for all
+   * @return hashmap of rows to their values
+   */
+  private HashMap<String, String> lookup(Collection<Range> ranges,
+      String family) throws IOException {
+
+    HashMap<String, String> values = new HashMap<String, String>();
+    BatchScanner scanner;
+    try {
+      scanner = conn.createBatchScanner(table, new Authorizations(),
+          LOOKUP_THREADS);
+    } catch (TableNotFoundException e) {
+      throw new IOException(e.getMessage());
+    }
+    scanner.setRanges(ranges);
+    if (family != null) scanner.fetchColumnFamily(new Text(family));
+
+    for (Entry<Key, Value> entry : scanner)
+      values.put(entry.getKey().getRow().toString(),
+          entry.getValue().toString());
+
+    scanner.close();
+    return values;
+  }
+
+  /**
+   * Reads the document frequencies of the given rows of the stats table
+   *
+   * @param ranges - a range for each row to read
+   * @return hashmap of rows to their document frequencies
+   */
+  private HashMap<String, Long> lookupFrequencies(Collection<Range> ranges)
+      throws IOException {
+
+    HashMap<String, FrequencyCounter> counters = 
+        new HashMap<String, FrequencyCounter>();
+    BatchScanner scanner;
+    try {
+      scanner = conn.createBatchScanner(table, new Authorizations(),
+          LOOKUP_THREADS);
+    } catch (TableNotFoundException e) {
+      throw new IOException(e.getMessage());
+    }
+    scanner.setRanges(ranges);
+    scanner.fetchColumnFamily(new Text(DOC_FREQUENCY));
+    scanner.fetchColumnFamily(new Text(BASE_FREQUENCY));
+
+    // the entries of different rows may arrive in any order
+    for (Entry<Key, Value> entry : scanner) {
+      String row = entry.getKey().getRow().toString();
+      FrequencyCounter counter = counters.get(row);
+      if (counter == null) {
+        counter = new FrequencyCounter();
+        counters.put(row, counter);
+      }
+      counter.add(entry.getKey(), entry.getValue());
+    }
+    scanner.close();
+
+    HashMap<String, Long> values = new HashMap<String, Long>();
+    for (Entry<String, FrequencyCounter> e : counters.entrySet())
+      values.put(e.getKey(), e.getValue().get());
+    return values;
+  }
+
+  /**
+   * Adds up the document frequency of a term from the entries of its row.  
+   * ftsample counts the pages put before its start, and writes the count to
+   * the dfbase column at that time.  load adds one to the df column of the 
+   * period a page is put in, and the combiner sums the counts of a period.  
+   * The sample starts at the start of a period, so the document frequency is
+   * the count of the last sample plus the counts of the periods starting 
+   * after it, and no page is counted twice, however the combiner merges the 
+   * counts of a period.
+   */
+  public static class FrequencyCounter {
+
+    private long base = 0;
+    private long start = 0;
+    private final HashMap<Long, Long> added = new HashMap<Long, Long>();
+
+    /**
+     * Adds an entry of the df or dfbase column of the row
+     */
+    public void add(Key key, Value value) {
+      String family = key.getColumnFamily().toString();
+      long count = Long.parseLong(value.toString());
+      if (family.equals(BASE_FREQUENCY)) {
+        if (key.getTimestamp() >= start) {
+          start = key.getTimestamp();
+          base = count;
+        }
+      }
+      else if (family.equals(DOC_FREQUENCY)) {
+        // counts written without a period are from before the periods, and
+        // only count until the next sample
+        String qualifier = key.getColumnQualifier().toString();
+        long period = qualifier.equals("") ? 0 : Long.parseLong(qualifier);
+        Long sum = added.get(period);
+        added.put(period, sum == null ? count : sum + count);
+      }
+    }
+
+    /**
+     * @return the document frequency of the row
+     */
+    public long get() {
+      long total = base;
+      for (Entry<Long, Long> e : added.entrySet())
+        if (e.getKey() >= start) total += e.getValue();
+      return total;
+    }
+  }
+
+  /**
+   * A document frequency, and the time it was read
+   */
+  private static class CachedFrequency {
+
+    final int df;
+    final long read;
+
+    CachedFrequency(int df, long read) {
+      this.df = df;
+      this.read = read;
+    }
+  }
+
+  /**
+   * A map that removes its least recently used entry when full
+   */
+  private static class LRUCache<V> extends LinkedHashMap<String, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    LRUCache(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
@@ -16,15 +16,12 @@
  */
 package com.bah.bahdit.main.plugins.imageindex;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,17 +38,20 @@ import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
-import org.apache.accumulo.core.security.Authorizations;
-import org.apache.commons.lang.ArrayUtils;
+import org.apache.hadoop.io.Text;
 import org.apache.lucene.search.spell.SpellChecker;
 
+import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
 import com.bah.bahdit.main.plugins.fulltextindex.data.SearchResults;
-import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.imageindex.utils.HashBands;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
 import com.bah.bahdit.main.plugins.imageindex.utils.ImageHasher;
 import com.bah.bahdit.main.plugins.imageindex.utils.SimiliarImageRanker;
 import com.bah.bahdit.main.plugins.index.Index;
 import com.bah.bahdit.main.search.Search;
 import com.bah.bahdit.main.search.utils.LevenshteinDistance;
+import com.bah.bahdit.main.search.utils.ScannerPool;
 import com.sun.org.apache.commons.logging.Log;
 import com.sun.org.apache.commons.logging.LogFactory;
 
@@ -63,6 +63,15 @@ import com.sun.org.apache.commons.logging.LogFactory;
  * 
  * In the event that a threshold specified in the properties file is in met, fuzzy query
  * will take over and try and find relevant tags and/or hashes.
+ * 
+ * Similar images are looked up by the bands of their hashes in the band table 
+ * (IMG_BAND_TABLE, see HashBands), so only the images sharing a band with the 
+ * query are compared to it. Without a band table, every hash is compared.
+ * 
+ * The tags of a text query, and the spelling suggestions of the tags not in 
+ * the tag sample, are looked up in a single batched scan of the tag table.  
+ * The images found are ranked by the number of query tags they matched.  The 
+ * scanners of each table are kept in a ScannerPool between searches.
  */
 public class ImageIndex implements Index {
 
@@ -72,20 +81,32 @@ public class ImageIndex implements Index {
 	public static final String IMG_HASH_TABLE = "IMG_HASH_TABLE";
 	public static final String IMG_TAG_TABLE = "IMG_TAG_TABLE";
 	public static final String IMG_CHECKED_TABLE = "IMG_CHECKED_TABLE";
-	public static final String IMG_TAG_SAMPLE_TABLE = "IMG_HASH_SAMPLE_TABLE";
+	public static final String IMG_TAG_SAMPLE_TABLE = "IMG_TAG_SAMPLE_TABLE";
 	public static final String IMG_TAG_THRESHOLD = "IMG_TAG_THRESHOLD";
 	public static final String IMG_TAG_SUGGESTION_NUMBER = "IMG_TAG_SUGGESTION_NUMBER";
 	public static final String IMG_HASH_DISTANCE = "IMG_HASH_DISTANCE";
+	public static final String IMG_BAND_TABLE = "IMG_BAND_TABLE";
+	public static final String IMG_HASH_BANDS = "IMG_HASH_BANDS";
 
 	public static final String ENCODING = "ISO-8859-1";
 
+	// Query threads of each scanner, and scanners kept between searches
+	private static final int SCANNER_THREADS = 10;
+	private static final int IDLE_SCANNERS = 4;
+
 	// General fields for the Image Index
 	private Connector conn; 
 	private Properties properties;
 	private SpellChecker tagSpellChecker;
-	private HashMap<String, Integer> tagSampleTable;
+	private TermDictionary<Integer> tagSampleTable;
 	private int imgHashingDistance;
+	private String bandTable;
+	private HashBands hashBands;
 	private int doSimilar;
+	private int tagSuggestions;
+	private ScannerPool hashPool;
+	private ScannerPool tagPool;
+	private ScannerPool bandPool;
 
 	/**
 	 * Get the properties from the configuration file and store for search
@@ -100,7 +121,43 @@ public class ImageIndex implements Index {
 		this.conn = conn;
 		loadResources(context);		
 		imgHashingDistance = Integer.parseInt(properties.getProperty(IMG_HASH_DISTANCE));
+		tagSuggestions = Integer.parseInt(
+				properties.getProperty(IMG_TAG_SUGGESTION_NUMBER, "1").trim());
+
+		// makes sure the tables have been created
+		String hashTable = properties.getProperty(IMG_HASH_TABLE);
+		String tagTable = properties.getProperty(IMG_TAG_TABLE);
+		if (!conn.tableOperations().exists(hashTable) 
+				|| !conn.tableOperations().exists(tagTable))
+			log.error("FATAL: The tables do not exist. Please run ingest."); 
+
+		closePools();
+		hashPool = new ScannerPool(conn, hashTable, SCANNER_THREADS, IDLE_SCANNERS);
+		tagPool = new ScannerPool(conn, tagTable, SCANNER_THREADS, IDLE_SCANNERS);
+		bandPool = null;
+
+		// look similar images up by their bands, if they have been indexed
+		bandTable = properties.getProperty(IMG_BAND_TABLE, "").trim();
+		if (bandTable.equals("")) {
+			hashBands = null;
+		} else if (!conn.tableOperations().exists(bandTable)) {
+			log.warn("The band table " + bandTable + " does not exist, " +
+					"similar images will be found by scanning every hash");
+			hashBands = null;
+		} else {
+			hashBands = new HashBands(Integer.parseInt(properties.getProperty(
+					IMG_HASH_BANDS, String.valueOf(HashBands.DEFAULT_BANDS)).trim()));
+			bandPool = new ScannerPool(conn, bandTable, SCANNER_THREADS, IDLE_SCANNERS);
+		}
+	}
 
+	/**
+	 * Closes the scanners kept from an earlier configuration
+	 */
+	private void closePools() {
+		if (hashPool != null) hashPool.close();
+		if (tagPool != null) tagPool.close();
+		if (bandPool != null) bandPool.close();
 	}
 
 	/**
@@ -116,7 +173,8 @@ public class ImageIndex implements Index {
 	 * @param resultsPerPage - the number of results requested (not implemented)
 	 * 
 	 * @return a SearchResults object, containing :
-	 * - a ArrayList of strings for each image -> loc + "[ ]" + URL
+	 * - a ArrayList of strings for each image -> loc + "[ ]" + URL, the images
+	 *   matching the most query tags first
 	 * - The total number of results found (not necessarily returned)
 	 * - Total time needed to find the results
 	 */
@@ -129,22 +187,21 @@ public class ImageIndex implements Index {
 
 		long start = System.nanoTime();
 
-		HashSet<String> hashRanges;
+		// the query hashes, with the number of query tags each matched
+		HashMap<ImageHash, Integer> hashRanges;
 
 		boolean isURL = (query instanceof String) && ((String)query).contains("http://");
 
 		// skip straight to hashing
 		if (query instanceof File || isURL) {
-			hashRanges = new HashSet<String>();
+			hashRanges = new HashMap<ImageHash, Integer>();
 			try {
-				mainQuery = ImageHasher.hash(query);
+				hashRanges.put(ImageHasher.hash(query), 1);
 			} catch (MalformedURLException e) {
 				e.printStackTrace();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-
-			hashRanges.add(mainQuery);
 		}
 
 		// look through tags before hashing
@@ -152,24 +209,34 @@ public class ImageIndex implements Index {
 
 			mainQuery = (String)query;
 
-			// create scanner to get image hashes based on tags and IDs
-			BatchScanner tagScanner = createImageTagScanner();
-
-			// get a set of the ranges to look through to find the hashes we want
-			hashRanges = getTag(tagScanner, mainQuery);
+			// get the hashes of the images tagged with the query
+			hashRanges = getTag(mainQuery);
 		}
 
-		if(hashRanges == null)
+		if(hashRanges == null || hashRanges.isEmpty())
 			return new SearchResults(null, "", 0);
 
-		// create scanner to get image info based on hashes
-		BatchScanner hashScanner = createHashScanner();
-
-		// get the image information and return
-		HashSet<String> results = getHash(hashScanner, hashRanges);
+		// look up only the images sharing a band with the query, or else 
+		// the images with the hashes found
+		boolean bands = doSimilar == 1 && bandPool != null;
+		ScannerPool pool = bands ? bandPool : hashPool;
+		HashMap<String, Integer> results;
+		BatchScanner scanner = null;
+		try {
+			scanner = pool.borrow();
+			if (bands)
+				results = getSimilar(scanner, hashRanges);
+			else
+				results = getHash(scanner, hashRanges);
+		} catch (TableNotFoundException e) {
+			log.error(e.getMessage());
+			results = new HashMap<String, Integer>();
+		} finally {
+			pool.release(scanner);
+		}
 
 		// create searchResults based on returned images
-		ArrayList<String> r = new ArrayList<String>(results);
+		ArrayList<String> r = rank(results);
 		int numResults = r.size();
 
 		String correction = "";
@@ -180,85 +247,33 @@ public class ImageIndex implements Index {
 		return finalResults;
 	}
 
-	/**
-	 * Creates a batch scanner on the hash table
-	 */
-	private BatchScanner createHashScanner() {
-		// initialize the main scanner that looks through the main table
-		BatchScanner hashScanner = null;
-
-
-		// set which table to scan through
-		String imageTable = properties.getProperty(IMG_HASH_TABLE);
-
-		// makes sure table has been created
-		if(!conn.tableOperations().exists(imageTable)) {
-			log.error("FATAL: The tables do not exist. Please run ingest."); 
-			System.exit(1);
-		}
-
-		// create the base scanner
-		try {
-			hashScanner = conn.createBatchScanner(imageTable, new Authorizations(), 10);
-		} catch (TableNotFoundException e) {
-			log.error(e.getMessage());
-		}
-
-		return hashScanner;
-	}
-
-	/**
-	 * Creates a batch scanner on the image tag table
-	 */
-	private BatchScanner createImageTagScanner() {
-
-		// initialize the main scanner that looks through the main table
-		BatchScanner tagScanner = null;
-
-		// set which table to scan through
-		String imageTable = properties.getProperty(IMG_TAG_TABLE);
-
-		// makes sure table has been created
-		if(!conn.tableOperations().exists(imageTable)) {
-			log.error("FATAL: The tables do not exist. Please run ingest."); 
-			System.exit(1);
-		}
-
-		// create the base scanner
-		try {
-			tagScanner = conn.createBatchScanner(imageTable, new Authorizations(), 10);
-		} catch (TableNotFoundException e) {
-			log.error(e.getMessage());
-		}
-
-		return tagScanner;
-	}
-
 	/**
 	 * Query the hash table for the specified ranges
 	 * If the not enough pictures are found then fuzzy query kicks in
 	 * 
 	 * @param scanner - scanner to the hash table
-	 * @param hashRanges - ranges to search for
-	 * @return - a set of strings -> loc + "[ ]" + URL
+	 * @param hashRanges - the hashes to search for, with the number of query 
+	 * tags each matched
+	 * @return - the images found -> loc + "[ ]" + URL, with the most query 
+	 * tags matched by their hash
 	 */
-	public HashSet<String> getHash(BatchScanner scanner, HashSet<String> hashRanges) {
+	public HashMap<String, Integer> getHash(BatchScanner scanner, 
+			Map<ImageHash, Integer> hashRanges) {
 
-		HashSet<String> results = new HashSet<String>();
+		HashMap<String, Integer> results = new HashMap<String, Integer>();
+		int maxDistance = 0;
 
 		if(doSimilar == 1){
 
-			String hashRangesString = null;
-			try {
-				hashRangesString = new String(Utils.serialize(hashRanges), ENCODING);
-			} catch (UnsupportedEncodingException e) {
-				log.error(e.getMessage());
-			} catch (IOException e) {
-				log.error(e.getMessage());
+			// the bits of each hash, separated by commas
+			StringBuilder hashRangesString = new StringBuilder();
+			for (ImageHash hash : hashRanges.keySet()) {
+				if (hashRangesString.length() > 0) hashRangesString.append(',');
+				hashRangesString.append(hash.getBits());
 			}
 
 			Map<String,String> iteratorProperties = new HashMap<String, String>();
-			iteratorProperties.put(Search.QUERY, hashRangesString);
+			iteratorProperties.put(Search.QUERY, hashRangesString.toString());
 			iteratorProperties.put(IMG_HASH_DISTANCE, String.valueOf(imgHashingDistance));
 			IteratorSetting cfg = new IteratorSetting(10, SimiliarImageRanker.class, iteratorProperties);
 			scanner.addScanIterator(cfg);
@@ -267,12 +282,14 @@ public class ImageIndex implements Index {
 			HashSet<Range> ranges = new HashSet<Range>();
 			ranges.add(new Range());
 			scanner.setRanges(ranges);
+
+			maxDistance = imgHashingDistance - 1;
 			
 		} else {
 			HashSet<Range> ranges = new HashSet<Range>();
 
-			for(String s : hashRanges)
-				ranges.add(new Range(s));
+			for(ImageHash hash : hashRanges.keySet())
+				ranges.add(new Range(new Text(hash.toBytes())));
 
 			scanner.setRanges(ranges);
 		}
@@ -283,54 +300,176 @@ public class ImageIndex implements Index {
 			String loc = key.getColumnFamily().toString();
 			String URL = key.getColumnQualifier().toString();
 			String info = loc + "[ ]" + URL;
-			results.add(info);
+			ImageHash hash = ImageHash.fromBytes(entry.getValue().get());
+			int score = hash == null ? 0 : score(hash, hashRanges, maxDistance);
+			addResult(results, info, Math.max(score, 0));
 		}
 
 		return results;
 	}
 
 	/**
-	 * Gets tags from the query and returns the hashes
-	 * associated with those tags.
+	 * Finds the images whose hashes are within IMG_HASH_DISTANCE of any of 
+	 * the query hashes.  Only the rows of the band table that a similar hash 
+	 * must be under are looked up, and the hashes found there are compared 
+	 * to the queries bit by bit.
 	 * 
-	 * @param tagScanner - batch scanner to the tag table
-	 * @param query - the query specified by the user
-	 * @return - hashes found that satisfy the query
+	 * @param scanner - scanner to the band table
+	 * @param hashes - the query hashes, with the number of query tags each 
+	 * matched
+	 * @return - the images found -> loc + "[ ]" + URL, with the most query 
+	 * tags matched by a query hash similar to theirs
 	 */
-	private HashSet<String> getTag(BatchScanner tagScanner, String query) {
+	public HashMap<String, Integer> getSimilar(BatchScanner scanner, 
+			Map<ImageHash, Integer> hashes) {
 
+		HashMap<String, Integer> results = new HashMap<String, Integer>();
 
-		List<Range> ranges = new ArrayList<Range>();
-		for (String s : query.split(" ")){
-			ranges.add(new Range(s));
-		}
-		tagScanner.setRanges(ranges);
-
+		// the same as SimiliarImageRanker, similar hashes differ in fewer 
+		// bits than the distance
+		int maxDistance = imgHashingDistance - 1;
 
-		HashSet<String> hashRanges = new HashSet<String>();
-		for(Entry<Key,Value> e : tagScanner){
-			hashRanges.add(new String(e.getValue().get()));
+		HashSet<Range> ranges = new HashSet<Range>();
+		for (ImageHash hash : hashes.keySet()) {
+			for (byte[] row : hashBands.getQueryRows(hash, maxDistance))
+				ranges.add(new Range(new Text(row)));
+		}
+		if (ranges.isEmpty() || scanner == null)
+			return results;
+
+		scanner.setRanges(ranges);
+		for (Entry<Key, Value> entry : scanner) {
+			ImageHash hash = ImageHash.fromBytes(entry.getValue().get());
+			if (hash == null)
+				continue;
+			int score = score(hash, hashes, maxDistance);
+			if (score >= 0) {
+				Key key = entry.getKey();
+				addResult(results, key.getColumnFamily().toString() + "[ ]" 
+						+ key.getColumnQualifier().toString(), score);
+			}
 		}
 
-		if(hashRanges.size() == 0){
-			String[] suggestions = { query };
+		return results;
+	}
+
+	/**
+	 * Gets tags from the query and returns the hashes associated with those 
+	 * tags.  The tags not in the tag sample are likely misspelled, so their 
+	 * spelling suggestions are looked up in the same batched scan, standing 
+	 * for the tag they were suggested for.
+	 * 
+	 * @param query - the query specified by the user
+	 * @return - hashes found that satisfy the query, with the number of query 
+	 * tags each matched, or null if none were found
+	 */
+	private HashMap<ImageHash, Integer> getTag(String query) {
+
+		// each tag to look up, with the query tag it stands for
+		HashMap<String, Integer> tags = new HashMap<String, Integer>();
+		String[] queryTags = query.toLowerCase().trim().split("\\s+");
+		for (int i = 0; i < queryTags.length; i++) {
+			String tag = queryTags[i];
+			if (tag.length() == 0 || tags.containsKey(tag))
+				continue;
+			tags.put(tag, i);
+
+			if (tagSpellChecker == null || 
+					(tagSampleTable != null && tagSampleTable.containsKey(tag)))
+				continue;
 			try{
-				for(String q : query.split("\\s")){
-					suggestions = (String[]) ArrayUtils.addAll(suggestions, tagSpellChecker.suggestSimilar(q, 1));  
+				for (String suggestion : tagSpellChecker.suggestSimilar(tag, tagSuggestions)) {
+					if (!tags.containsKey(suggestion))
+						tags.put(suggestion, i);
 				}
 			} catch (IOException e){
 				log.warn(e.getMessage());
 			}
+		}
+		if (tags.isEmpty())
+			return null;
+
+		List<Range> ranges = new ArrayList<Range>();
+		for (String tag : tags.keySet()){
+			ranges.add(new Range(tag));
+		}
+
+		// the query tags matched by each hash
+		HashMap<ImageHash, HashSet<Integer>> matched = 
+				new HashMap<ImageHash, HashSet<Integer>>();
+		BatchScanner tagScanner = null;
+		try {
+			tagScanner = tagPool.borrow();
+			tagScanner.setRanges(ranges);
 			for(Entry<Key,Value> e : tagScanner){
-				hashRanges.add(new String(e.getValue().get()));
+				ImageHash hash = ImageHash.fromBytes(e.getValue().get());
+				Integer queryTag = tags.get(e.getKey().getRow().toString());
+				if (hash == null || queryTag == null)
+					continue;
+				HashSet<Integer> m = matched.get(hash);
+				if (m == null) {
+					m = new HashSet<Integer>();
+					matched.put(hash, m);
+				}
+				m.add(queryTag);
 			}
-			if(hashRanges.size() == 0)
-				return null;
+		} catch (TableNotFoundException e) {
+			log.error(e.getMessage());
+		} finally {
+			tagPool.release(tagScanner);
 		}
 
+		if(matched.size() == 0)
+			return null;
+
+		HashMap<ImageHash, Integer> hashRanges = new HashMap<ImageHash, Integer>();
+		for (Map.Entry<ImageHash, HashSet<Integer>> e : matched.entrySet())
+			hashRanges.put(e.getKey(), e.getValue().size());
+
 		return hashRanges;
 	}
 
+	/**
+	 * @return the most query tags matched by a query hash within the distance 
+	 * of a hash, or -1 if no query hash is
+	 */
+	private static int score(ImageHash hash, Map<ImageHash, Integer> queries, 
+			int maxDistance) {
+		int best = -1;
+		for (Map.Entry<ImageHash, Integer> query : queries.entrySet()) {
+			if (query.getValue() > best && query.getKey().distance(hash) <= maxDistance)
+				best = query.getValue();
+		}
+		return best;
+	}
+
+	/**
+	 * Adds an image found, keeping the most query tags it matched
+	 */
+	private static void addResult(HashMap<String, Integer> results, 
+			String info, int score) {
+		Integer old = results.get(info);
+		if (old == null || old < score)
+			results.put(info, score);
+	}
+
+	/**
+	 * Orders the images found from the most query tags matched to the fewest
+	 * 
+	 * @param results - the images found, with the query tags they matched
+	 * @return - the images, loc + "[ ]" + URL
+	 */
+	public static ArrayList<String> rank(final Map<String, Integer> results) {
+		ArrayList<String> ranked = new ArrayList<String>(results.keySet());
+		Collections.sort(ranked, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int c = results.get(b).compareTo(results.get(a));
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		return ranked;
+	}
+
 	/**
 	 * Get an arraylist of visualization information for the front end
 	 * 
@@ -348,22 +487,16 @@ public class ImageIndex implements Index {
 	 * 
 	 * @param context - passed from the servlet
 	 */
-	@SuppressWarnings("unchecked")
 	private void loadResources(ServletContext context) {
 		try {
 			// get the sample table from resources
-			InputStream sample = context.getResourceAsStream(properties.getProperty(IMG_TAG_SAMPLE_TABLE));
-			InputStream samplebuffer = new BufferedInputStream( sample );
-			ObjectInput objectsample;
-			objectsample = new ObjectInputStream ( samplebuffer );
-			tagSampleTable = (HashMap<String, Integer>)objectsample.readObject();
+			tagSampleTable = FullTextIndex.loadFrequencies(context, 
+					properties.getProperty(IMG_TAG_SAMPLE_TABLE));
 
 			tagSpellChecker = LevenshteinDistance.createSpellChecker(context, tagSampleTable);
 
 		} catch (IOException e) {
 			log.warn(e.getMessage());
-		} catch (ClassNotFoundException e) {
-			log.warn(e.getMessage());
 		}
 	}
 
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.imageindex.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the 64 bit image hashes into bands, for finding the hashes within a
+ * Hamming distance of a query without comparing the query to every hash
+ * (multi-index hashing). Each band of a hash is indexed as its own row: one
+ * byte of the band number, followed by the bits of the band, highest byte
+ * first.
+ * 
+ * If two hashes differ in fewer than d bits, then by the pigeonhole principle
+ * some band of theirs differs in fewer than d / bands + 1 bits. So the hashes
+ * similar to a query are all found under the rows of the query's bands and of
+ * the band values that close to them, and only these candidates need their
+ * full hashes compared.
+ * 
+ * The bands are taken from the highest bit of the hash down. A band of w bits
+ * spreads the N hashes indexed over 2^w rows, so each row looked up returns
+ * about N / 2^w candidates. Bands should therefore be about log2(N) bits wide
+ * (see getBands(long)), e.g. 4 bands of 16 bits for up to 65536 images; with
+ * narrower bands the candidates compared grow linearly with the corpus. The
+ * rows looked up for each band grow as w^(d / bands), e.g. 137 rows for each
+ * of 4 bands within a distance of 10.
+ */
+public class HashBands {
+
+	// The number of bands for up to 65536 images, of 16 bits each
+	public static final int DEFAULT_BANDS = 4;
+
+	private final int bands;
+
+	/**
+	 * @param bands - the number of bands to split the hashes into (1 to 64)
+	 */
+	public HashBands(int bands) {
+		if (bands < 1 || bands > ImageHash.BITS)
+			throw new IllegalArgumentException("Bands must be from 1 to " 
+					+ ImageHash.BITS + ": " + bands);
+		this.bands = bands;
+	}
+
+	/**
+	 * @return the number of bands the hashes are split into
+	 */
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * Gets the number of bands that keeps each row to about one hash, the
+	 * bands being about log2(images) bits wide
+	 * 
+	 * @param images - the number of images indexed, or expected to be
+	 * @return the number of bands to split the hashes into
+	 */
+	public static int getBands(long images) {
+		int width = 64 - Long.numberOfLeadingZeros(Math.max(images, 2) - 1);
+		return Math.max(ImageHash.BITS / width, 1);
+	}
+
+	/**
+	 * The first bit of a band, counted from the highest bit, band number 
+	 * bands being the end of the hash
+	 */
+	private int start(int band) {
+		return band * ImageHash.BITS / bands;
+	}
+
+	/**
+	 * @return the bits of a band of the hash
+	 */
+	private long getBand(ImageHash hash, int band) {
+		int width = start(band + 1) - start(band);
+		return (hash.getBits() << start(band)) >>> (ImageHash.BITS - width);
+	}
+
+	/**
+	 * @return the row of the band with the given bits
+	 */
+	private byte[] toRow(int band, long value) {
+		int width = start(band + 1) - start(band);
+		byte[] row = new byte[1 + (width + 7) / 8];
+		row[0] = (byte) band;
+		for (int i = row.length - 1; i > 0; i--) {
+			row[i] = (byte) value;
+			value >>>= 8;
+		}
+		return row;
+	}
+
+	/**
+	 * Gets the rows to index a hash under, one for each band
+	 * 
+	 * @param hash - the hash of an image
+	 * @return the row of each band of the hash
+	 */
+	public byte[][] getRows(ImageHash hash) {
+		byte[][] rows = new byte[bands][];
+		for (int b = 0; b < bands; b++)
+			rows[b] = toRow(b, getBand(hash, b));
+		return rows;
+	}
+
+	/**
+	 * Gets the rows under which every hash within a distance of the query
+	 * hash is indexed
+	 * 
+	 * @param hash - the hash of the query
+	 * @param maxDistance - the most bits a similar hash may differ by
+	 * @return the rows to look up
+	 */
+	public List<byte[]> getQueryRows(ImageHash hash, int maxDistance) {
+		// the most bits some band of a similar hash differs by
+		int radius = Math.max(maxDistance, 0) / bands;
+
+		ArrayList<byte[]> rows = new ArrayList<byte[]>();
+		for (int b = 0; b < bands; b++) {
+			int width = start(b + 1) - start(b);
+			addVariants(b, getBand(hash, b), width, 0, Math.min(radius, width), 
+					rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * Adds the rows of the band with up to flips more of its bits flipped, 
+	 * flipping only the bits from the given one on
+	 */
+	private void addVariants(int band, long value, int width, int from, 
+			int flips, ArrayList<byte[]> rows) {
+		rows.add(toRow(band, value));
+		if (flips == 0) return;
+		for (int i = from; i < width; i++)
+			addVariants(band, value ^ (1L << i), width, i + 1, flips - 1, rows);
+	}
+}
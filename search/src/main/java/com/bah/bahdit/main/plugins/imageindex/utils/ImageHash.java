@@ -0,0 +1,139 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.plugins.imageindex.utils;
+
+/**
+ * The 64 bit perceptual hash of an image, as made by ImageHasher: bit i is
+ * set if pixel i of the resized image is brighter than the average.  Two 
+ * images are as similar as the number of bits their hashes differ by (their 
+ * Hamming distance), which is a single XOR and bit count.
+ * 
+ * The hashes are stored in the image tables as 8 bytes, highest byte first, 
+ * so that they sort the same as their bits.  Hashes loaded before were 
+ * stored as strings of 64 "0"s and "1"s, highest bit first, which is still 
+ * what toString gives and what fromBytes and parse read.
+ */
+public class ImageHash {
+
+	// The number of bits of a hash
+	public static final int BITS = 64;
+
+	// The number of bytes of a stored hash
+	public static final int BYTES = 8;
+
+	private final long bits;
+
+	/**
+	 * @param bits - the bits of the hash
+	 */
+	public ImageHash(long bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * @return the bits of the hash
+	 */
+	public long getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the number of bits the hashes differ by
+	 */
+	public int distance(ImageHash other) {
+		return Long.bitCount(bits ^ other.bits);
+	}
+
+	/**
+	 * @return the hash as stored in the tables, 8 bytes highest first
+	 */
+	public byte[] toBytes() {
+		byte[] b = new byte[BYTES];
+		for (int i = 0; i < BYTES; i++)
+			b[i] = (byte) (bits >>> (8 * (BYTES - 1 - i)));
+		return b;
+	}
+
+	/**
+	 * Reads a hash as stored in the tables, either as 8 bytes or as a string
+	 * of 64 "0"s and "1"s
+	 * 
+	 * @param b - the stored hash
+	 * @return the hash, or null if the bytes are not a hash
+	 */
+	public static ImageHash fromBytes(byte[] b) {
+		if (b == null) return null;
+		if (b.length == BYTES) {
+			long bits = 0;
+			for (int i = 0; i < BYTES; i++)
+				bits = (bits << 8) | (b[i] & 0xff);
+			return new ImageHash(bits);
+		}
+		if (b.length == BITS) {
+			long bits = 0;
+			for (int i = 0; i < BITS; i++) {
+				if (b[i] != '0' && b[i] != '1') return null;
+				bits = (bits << 1) | (b[i] - '0');
+			}
+			return new ImageHash(bits);
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the stored hash is in the 8 byte form
+	 */
+	public static boolean isBinary(byte[] b) {
+		return b != null && b.length == BYTES;
+	}
+
+	/**
+	 * Reads a hash written by toString
+	 * 
+	 * @param s - a string of 64 "0"s and "1"s, highest bit first
+	 * @return the hash
+	 */
+	public static ImageHash parse(String s) {
+		ImageHash hash = s == null || s.length() != BITS ? null 
+				: fromBytes(s.getBytes());
+		if (hash == null)
+			throw new IllegalArgumentException("Not a " + BITS + " bit hash: " 
+					+ s);
+		return hash;
+	}
+
+	/**
+	 * @return the hash as 64 "0"s and "1"s, highest bit first
+	 */
+	@Override
+	public String toString() {
+		char[] c = new char[BITS];
+		for (int i = 0; i < BITS; i++)
+			c[i] = ((bits >>> (BITS - 1 - i)) & 1) == 0 ? '0' : '1';
+		return new String(c);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ImageHash && ((ImageHash) o).bits == bits;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (bits ^ (bits >>> 32));
+	}
+}
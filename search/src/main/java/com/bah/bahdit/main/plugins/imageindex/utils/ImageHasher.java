@@ -21,18 +21,27 @@ import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * This class is used to generate a hashtag from either an image, file or
  * string. The hash is generated by resizing the image to the given dimensions
  * (best results are dimensions that are a multiple of 4). Then each individual
- * pixel's brightness is compared to the average, generating a BigInteger which
- * is converted into a hexadecimal string.
+ * pixel's brightness is compared to the average, setting bit i of the 64 bit
+ * ImageHash if pixel i is brighter.
  * 
+ * Large images are decoded with source subsampling, keeping only every n-th
+ * row and column, so that they are never decoded in full. At least
+ * SUBSAMPLED_SCALE times the resized dimensions are kept, which the bicubic
+ * resize then reduces the same way it would the full image.
  * 
  */
 public class ImageHasher {
@@ -42,21 +51,68 @@ public class ImageHasher {
 	private static final int RESIZE_WIDTH = 8;
 	private static final int RESIZE_HEIGHT = 8;
 
-	public static String hash(Object obj) throws MalformedURLException,
+	// Smallest multiple of the resized dimensions kept by subsampling
+	private static final int SUBSAMPLED_SCALE = 8;
+
+	public static ImageHash hash(Object obj) throws MalformedURLException,
 			IOException {
 
 		BufferedImage img = null;
 
-		if (obj instanceof String)
-			img = ImageIO.read(new URL((String) obj));
+		if (obj instanceof String) {
+			InputStream in = new URL((String) obj).openStream();
+			try {
+				img = read(in);
+			} finally {
+				in.close();
+			}
+		}
 
 		else if (obj instanceof File)
-			img = ImageIO.read((File) obj);
+			img = read(obj);
+
+		if (img == null)
+			throw new IOException("Unable to decode image: " + obj);
 
 		return hash(img);
 	}
 
-	private static String hash(BufferedImage img) throws IOException {
+	/**
+	 * Decodes the first image of an input (a File or InputStream), subsampling
+	 * large images. Returns null if no reader can decode the input.
+	 */
+	public static BufferedImage read(Object input) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(input);
+		if (iis == null)
+			return null;
+
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext())
+				return null;
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+
+				// Keep every n-th pixel of both dimensions
+				int step = Math.min(reader.getWidth(0)
+						/ (SUBSAMPLED_SCALE * RESIZE_WIDTH), reader.getHeight(0)
+						/ (SUBSAMPLED_SCALE * RESIZE_HEIGHT));
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (step > 1)
+					param.setSourceSubsampling(step, step, 0, 0);
+
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+	}
+
+	public static ImageHash hash(BufferedImage img) throws IOException {
 
 		// Resize the image
 		BufferedImage resized = normalizeSize(img);
@@ -92,19 +148,16 @@ public class ImageHasher {
 		}
 		average = (long) Math.ceil(average / (RESIZE_WIDTH * RESIZE_HEIGHT));
 
-		String binaryString = "";
+		long bits = 0;
 
 		for (int i = 0; i < brightnessValues.length; i++) {
 			if (brightnessValues[i] > average) {
 				// Add 2^i if the pixel is above average brightness
-				binaryString = "1" + binaryString;
-			} else {
-				binaryString = "0" + binaryString;
+				bits |= 1L << i;
 			}
 		}
 
-
-		return binaryString;
+		return new ImageHash(bits);
 	}
 
 	private static BufferedImage normalizeSize(BufferedImage img) {
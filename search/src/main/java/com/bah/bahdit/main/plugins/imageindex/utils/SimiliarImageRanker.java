@@ -18,9 +18,7 @@ package com.bah.bahdit.main.plugins.imageindex.utils;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
 
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
@@ -31,11 +29,15 @@ import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.log4j.Logger;
 
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
 import com.bah.bahdit.main.plugins.imageindex.ImageIndex;
 import com.bah.bahdit.main.search.Search;
 
 /**
- * 
+ * Ranks the images of the hash table by the number of bits their hashes 
+ * differ by from the closest of the query hashes, keeping those closer than 
+ * IMG_HASH_DISTANCE.  Every hash of the range is compared, so ImageIndex only 
+ * uses it without a band table.
  */
 public class SimiliarImageRanker extends WrappingIterator {
 
@@ -46,8 +48,9 @@ public class SimiliarImageRanker extends WrappingIterator {
 	private Value topValue;
 	boolean first = true;
 	private int distance;
-	private HashSet<String> query;
-	private PriorityQueue<Term> termsPQ;
+	private long[] query;
+	private BoundedTopK<Key> termsPQ;
+	private int nextResult = 0;
 
 	@Override
 	public Key getTopKey() {
@@ -67,8 +70,8 @@ public class SimiliarImageRanker extends WrappingIterator {
 	/**
 	 * Creates a new SimiliarImageRanker
 	 * Initializes the Priority Queue
+	 * The query is the bits of each query hash, separated by commas
 	 */
-	@SuppressWarnings("unchecked")
 	public void init(SortedKeyValueIterator<Key, Value> source,
 			Map<String, String> options, IteratorEnvironment envir)
 					throws IOException {
@@ -79,18 +82,17 @@ public class SimiliarImageRanker extends WrappingIterator {
 		distance = Integer.parseInt(options.get(ImageIndex.IMG_HASH_DISTANCE));
 
 		String rangeString = options.get(Search.QUERY);
-		byte[] bR;
-		if (rangeString == null) query = null;
+		if (rangeString == null || rangeString.length() == 0) 
+			query = new long[0];
 		else {
-			bR = rangeString.getBytes(ImageIndex.ENCODING);
-			try {
-				query = (HashSet<String>)Utils.deserialize(bR);
-			} catch (ClassNotFoundException e) {
-				query = null;
-			}
+			String[] hashes = rangeString.split(",");
+			query = new long[hashes.length];
+			for (int i = 0; i < hashes.length; i++)
+				query[i] = Long.parseLong(hashes[i]);
 		}
 
-		termsPQ = new PriorityQueue<Term>(100, new ImageTermComparator());
+		// every similar image is kept, the closest ranked highest
+		termsPQ = new BoundedTopK<Key>(Integer.MAX_VALUE);
 	}
 
 
@@ -126,60 +128,28 @@ public class SimiliarImageRanker extends WrappingIterator {
 	 */
 	private void rankTerms() throws IOException, ClassNotFoundException {
 
+		// a new seek ranks the images of its own range
+		termsPQ.clear();
 
 		while (source.hasTop()) {
-			try{
-				String key = source.getTopKey().getRow().toString();
-
-				log.trace("STARTING KEY : " + key);
-				boolean found = false;
-				double difference = 0;
-				try{
-					for(String s : query){
-
-
-						difference = 0;
-
-						int len = (key.length() < s.length())?key.length():s.length();
-
-						try{
-
-							for (int i = 0; i < len; i++) {
-
-								if (key.charAt(i) != s.charAt(i)){ 
-									++difference;
-								}
-							}
-						} catch(Exception e){
-							log.trace(e.getMessage() + "WOOPScloser");
-						}
-
-						if(difference < distance){
-							found = true;
-							break;
-						}
-					}
-				} catch(Exception e){
-					log.trace("STRING");
-				}
-				try{
-				if(found){ 
-					termsPQ.add(new Term(source.getTopKey(),difference));
-				}
-				} catch(Exception e){
-					log.trace("ADD");
-				}
-				try{
-				source.next();
-				} catch(Exception e){
-					log.trace("SOURCE");
-				}
-			} catch(Exception e){
-				log.trace("WOOPS");
+			ImageHash hash = ImageHash.fromBytes(
+					source.getTopKey().getRowData().toArray());
+			if (hash != null) {
+				// the closest of the query hashes
+				int difference = Integer.MAX_VALUE;
+				for (long q : query)
+					difference = Math.min(difference, 
+							Long.bitCount(q ^ hash.getBits()));
+
+				if (difference < distance)
+					termsPQ.add(new Key(source.getTopKey()), -difference);
 			}
+			source.next();
 		}
 
-
+		// sort the images from the closest to the farthest
+		termsPQ.sort();
+		nextResult = 0;
 	}
 
 	/**
@@ -187,13 +157,15 @@ public class SimiliarImageRanker extends WrappingIterator {
 	 */
 	private void getRank() throws IOException {
 
-		Term next = null;
-		log.trace("SPITTING IT BACK TO THE USER! NUMBER : " + termsPQ.size());
-		if (!termsPQ.isEmpty() && (next = termsPQ.peek()) != null) {
-			log.trace(next.getKey().toString() + " " + next.getValue().toString());
-			topKey = next.getKey();
-			topValue = new Value(Utils.serialize(next.getValue()));
-			termsPQ.remove();
+		log.trace("SPITTING IT BACK TO THE USER! NUMBER : " + 
+				(termsPQ.size() - nextResult));
+		if (nextResult < termsPQ.size()) {
+			// the score is the negated difference
+			double difference = 0.0 - termsPQ.getScore(nextResult);
+			topKey = termsPQ.getKey(nextResult);
+			log.trace(topKey.toString() + " " + difference);
+			topValue = new Value(Utils.serialize(difference));
+			nextResult++;
 		} 
 		else {
 			topKey = null;
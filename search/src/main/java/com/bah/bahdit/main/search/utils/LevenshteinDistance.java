@@ -21,7 +21,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.ServletContext;
 
@@ -51,7 +51,7 @@ public class LevenshteinDistance {
    * @return - a spellchecker object
    */
   public static SpellChecker createSpellChecker(ServletContext context, 
-      HashMap<String, Integer> sampleTable) {
+      Map<String, Integer> sampleTable) {
 
     SpellChecker spellChecker = null;
 
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.main.search.utils;
+
+import java.util.LinkedList;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * ScannerPool keeps the batch scanners of a table that are not in use, so that
+ * each search borrows a scanner (and its query threads) instead of creating 
+ * one.  It is safe to use from many threads, but a borrowed scanner is only 
+ * used by the thread that borrowed it until it is released.
+ *
+ * Use:
+ * BatchScanner scanner = pool.borrow();
+ * try {
+ *   scanner.setRanges(ranges);
+ *   for (Entry<Key, Value> e : scanner) ...
+ * } finally {
+ *   pool.release(scanner);
+ * }
+ */
+public class ScannerPool {
+
+  private final Connector conn;
+  private final String table;
+  private final int queryThreads;
+  private final int maxIdle;
+
+  private final LinkedList<BatchScanner> idle = new LinkedList<BatchScanner>();
+  private boolean closed = false;
+
+  /**
+   * @param conn - the connector to create scanners with
+   * @param table - the table to scan
+   * @param queryThreads - the number of query threads of each scanner
+   * @param maxIdle - the most scanners kept while not in use
+   */
+  public ScannerPool(Connector conn, String table, int queryThreads, 
+      int maxIdle) {
+    this.conn = conn;
+    this.table = table;
+    this.queryThreads = queryThreads;
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * @return a scanner of the table, with no ranges, columns or iterators set
+   * @throws TableNotFoundException if the table does not exist
+   */
+  public BatchScanner borrow() throws TableNotFoundException {
+    synchronized (idle) {
+      if (!idle.isEmpty()) return idle.removeFirst();
+    }
+    return conn.createBatchScanner(table, new Authorizations(), queryThreads);
+  }
+
+  /**
+   * Gives a borrowed scanner back, clearing its columns and iterators.  It 
+   * is closed if enough scanners are kept already.
+   *
+   * @param scanner - the scanner borrowed, or null
+   */
+  public void release(BatchScanner scanner) {
+    if (scanner == null) return;
+    scanner.clearColumns();
+    scanner.clearScanIterators();
+    synchronized (idle) {
+      if (!closed && idle.size() < maxIdle) {
+        idle.addFirst(scanner);
+        return;
+      }
+    }
+    scanner.close();
+  }
+
+  /**
+   * Closes the scanners kept.  Scanners released later are closed as well.
+   */
+  public void close() {
+    synchronized (idle) {
+      closed = true;
+      for (BatchScanner scanner : idle) scanner.close();
+      idle.clear();
+    }
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  /**
+   * @return the number of scanners kept while not in use
+   */
+  public int getIdle() {
+    synchronized (idle) {
+      return idle.size();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.fulltextindex.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
+
+
+public class BoundedTopKTest {
+
+  @Test
+  public void testTopK() {
+    BoundedTopK<String> topK = new BoundedTopK<String>(3);
+
+    assertTrue(topK.add("a", 2.1));
+    assertTrue(topK.add("b", 5.2));
+    assertTrue(topK.add("c", 2.2));
+    assertTrue(topK.add("d", 9.4));
+    assertFalse(topK.accepts(2.0));
+    assertFalse(topK.add("e", 2.0));
+    assertEquals(3, topK.size());
+
+    topK.sort();
+    assertEquals("d", topK.getKey(0));
+    assertEquals(9.4, topK.getScore(0), 0.0);
+    assertEquals("b", topK.getKey(1));
+    assertEquals("c", topK.getKey(2));
+  }
+
+  @Test
+  public void testTies() {
+    BoundedTopK<String> topK = new BoundedTopK<String>(3);
+
+    // equal scores are all kept, the first added ranking higher
+    assertTrue(topK.add("a", 1.0));
+    assertTrue(topK.add("b", 1.0));
+    assertTrue(topK.add("c", 1.0));
+    assertFalse(topK.accepts(1.0));
+    assertFalse(topK.add("d", 1.0));
+
+    topK.sort();
+    assertEquals(3, topK.size());
+    assertEquals("a", topK.getKey(0));
+    assertEquals("b", topK.getKey(1));
+    assertEquals("c", topK.getKey(2));
+  }
+
+  @Test
+  public void testSameAsSorting() {
+    Random random = new Random(42);
+    double[] scores = new double[1000];
+    BoundedTopK<Integer> topK = new BoundedTopK<Integer>(100);
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = random.nextDouble();
+      if (topK.accepts(scores[i])) topK.add(i, scores[i]);
+    }
+    topK.sort();
+
+    Arrays.sort(scores);
+    assertEquals(100, topK.size());
+    for (int i = 0; i < topK.size(); i++)
+      assertEquals(scores[scores.length - 1 - i], topK.getScore(i), 0.0);
+  }
+
+  @Test
+  public void testEmpty() {
+    BoundedTopK<String> topK = new BoundedTopK<String>(0);
+    assertFalse(topK.accepts(1.0));
+    assertFalse(topK.add("a", 1.0));
+    topK.sort();
+    assertTrue(topK.isEmpty());
+  }
+}
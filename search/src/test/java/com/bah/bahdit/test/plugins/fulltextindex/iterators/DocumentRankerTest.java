@@ -21,10 +21,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import org.apache.accumulo.core.data.ByteSequence;
@@ -35,7 +38,11 @@ import org.apache.accumulo.core.iterators.SortedMapIterator;
 import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
+import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
+import com.bah.bahdit.main.plugins.fulltextindex.data.BoundedTopK;
+import com.bah.bahdit.main.plugins.fulltextindex.data.URLComparator;
 import com.bah.bahdit.main.plugins.fulltextindex.iterators.DocumentRanker;
+import com.bah.bahdit.main.plugins.fulltextindex.iterators.RankCalculator;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
@@ -119,7 +126,6 @@ public class DocumentRankerTest {
     assertEquals((Double)0.99, Utils.deserialize(ai.getTopValue().get()));
     
     
-    ai.next();
     ai.next();
     
     assertTrue(ai.hasTop());
@@ -129,8 +135,103 @@ public class DocumentRankerTest {
     ai.next();
 
     assertTrue(ai.hasTop());
-    assertEquals(nk("apple", "www.bing.com", "8"), ai.getTopKey());
+    assertEquals(nk("apple", "www.bing.com", "[NUM_RESULTS] : 9"), ai.getTopKey());
     
     assertEquals((Double)0.95, Utils.deserialize(ai.getTopValue().get()));
 	}
+
+  @Test
+  public void prunedTest() throws IOException, ClassNotFoundException {
+
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    Map<String, String> options = new HashMap<String, String>();
+    options.put(Search.QUERY, "apple");
+    options.put(Search.NUM_RESULTS, "2");
+    options.put(Search.PAGE, "1");
+
+    nkv(tm1, "apple", "www.a.com", "apple", 0.5);
+    nkv(tm1, "apple", "www.b.com", "apple", 0.7);
+    nkv(tm1, "apple", "www.c.com", "apple", 0.6);
+    tm1.put(nk("apple", "www.c.com", RankCalculator.PRUNED), 
+        new Value(Utils.serialize(4)));
+
+    DocumentRanker ai = new DocumentRanker();
+    ai.init(new SortedMapIterator(tm1), options, null);
+
+    // every seek counts the results of its own range
+    for (int i = 0; i < 2; i++) {
+      ai.seek(new Range("apple"), EMPTY_COL_FAMS, false);
+
+      assertTrue(ai.hasTop());
+      assertEquals(nk("apple", "www.b.com", "apple"), ai.getTopKey());
+
+      ai.next();
+
+      // the entry of the number pruned is not ranked
+      assertTrue(ai.hasTop());
+      assertEquals(nk("apple", "www.c.com", "[NUM_RESULTS] : 3 [PRUNED] : 4"), 
+          ai.getTopKey());
+      assertEquals((Double)0.6, Utils.deserialize(ai.getTopValue().get()));
+    }
+
+    // the documents pruned are not counted as results
+    ai.seek(new Range("apple"), EMPTY_COL_FAMS, false);
+    ArrayList<Entry<Key, Value>> entries = new ArrayList<Entry<Key, Value>>();
+    while (ai.hasTop()) {
+      entries.add(new SimpleEntry<Key, Value>(new Key(ai.getTopKey()), 
+          new Value(ai.getTopValue().get())));
+      ai.next();
+    }
+    BoundedTopK<Key> urlsPQ = new BoundedTopK<Key>(2, new URLComparator());
+    assertEquals(3, FullTextIndex.mergeResults(entries, urlsPQ));
+  }
+
+  @Test
+  public void noDuplicateResultsTest() throws IOException {
+
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    Map<String, String> options = new HashMap<String, String>();
+    options.put(Search.QUERY, "apple");
+    options.put(Search.MAX_NGRAMS, "1");
+    options.put(Search.NUM_RESULTS, "3");
+    options.put(Search.PAGE, "1");
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("apple", 10);
+    sample.put("[[TOTAL NUM DOCS]]", 100);
+    options.put(FullTextIndex.FT_SAMPLE, 
+        new String(Utils.serialize(sample), FullTextIndex.ENCODING));
+
+    String[] urls = {"www.a.com", "www.b.com", "www.c.com", "www.d.com"};
+    for (int i = 0; i < urls.length; i++) {
+      tm1.put(nk("apple", urls[i], "apple"), 
+          new Value(Utils.serialize("1," + (4 - i) / 10.0)));
+      tm1.put(nk("apple", urls[i], "fox"), 
+          new Value(Utils.serialize("1," + (i + 1) / 10.0)));
+    }
+
+    // a single tablet, whose first document ranks highest, as scanned by 
+    // the client
+    RankCalculator rc = new RankCalculator();
+    rc.init(new SortedMapIterator(tm1), options, null);
+    DocumentRanker ai = new DocumentRanker();
+    ai.init(rc, options, null);
+    ai.seek(new Range("apple"), EMPTY_COL_FAMS, false);
+
+    ArrayList<Entry<Key, Value>> entries = new ArrayList<Entry<Key, Value>>();
+    while (ai.hasTop()) {
+      entries.add(new SimpleEntry<Key, Value>(new Key(ai.getTopKey()), 
+          new Value(ai.getTopValue().get())));
+      ai.next();
+    }
+
+    BoundedTopK<Key> urlsPQ = new BoundedTopK<Key>(3, new URLComparator());
+    assertEquals(4, FullTextIndex.mergeResults(entries, urlsPQ));
+
+    urlsPQ.sort();
+    assertEquals(3, urlsPQ.size());
+    HashSet<String> found = new HashSet<String>();
+    for (int i = 0; i < urlsPQ.size(); i++)
+      assertTrue(found.add(urlsPQ.getKey(i).getColumnFamily().toString()));
+  }
 }
@@ -38,6 +38,7 @@ import org.junit.Test;
 
 import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
 import com.bah.bahdit.main.plugins.fulltextindex.iterators.RankCalculator;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
@@ -142,7 +143,6 @@ public class RankCalculatorTest {
     assertEquals(nk("apple", "www.bing.com", "apple"), ai.getTopKey());
     assertEquals(f.format(0.32), f.format(Utils.deserialize(ai.getTopValue().get())));
     
-    ai.next();
     ai.next();
     
     assertTrue(ai.hasTop());
@@ -195,7 +195,6 @@ public class RankCalculatorTest {
     assertEquals(f.format(0.23), f.format(Utils.deserialize(ai.getTopValue().get())));
     
     
-    ai.next();
     ai.next();
     
     assertTrue(ai.hasTop());
@@ -207,4 +206,164 @@ public class RankCalculatorTest {
     assertFalse(ai.hasTop());
   }
 
+  @Test
+  public void earlyTerminationTest() throws IOException, ClassNotFoundException {
+
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    Map<String, String> options = new HashMap<String, String>();
+
+    options.put(Search.QUERY, "apple");
+    options.put(Search.MAX_NGRAMS, "1");
+    options.put(Search.PAGE, "1");
+    options.put(Search.NUM_RESULTS, "1");
+    options.put(FullTextIndex.FT_EARLY_TERMINATION, "true");
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("apple", 10);
+    sample.put(TOTAL_DOCS, 100);
+    options.put(FullTextIndex.FT_SAMPLE, 
+        new String(Utils.serialize(sample), FullTextIndex.ENCODING));
+
+    HashMap<String, Double> pagerank = new HashMap<String, Double>();
+    pagerank.put("www.a.com", 1.0);
+    pagerank.put("www.b.com", 0.0);
+    pagerank.put("www.c.com", 1.0);
+    pagerank.put("[[MAX_PR]]", 1.0);
+    options.put(Search.PAGERANK_TABLE, 
+        new String(Utils.serialize(pagerank), FullTextIndex.ENCODING));
+
+    nkv(tm1, "apple", "www.a.com", "apple", "1,1.0");
+    // cannot rank above www.a.com, whatever its terms
+    nkv(tm1, "apple", "www.b.com", "apple", "1,0.05");
+    for (int i = 0; i < 19; i++)
+      nkv(tm1, "apple", "www.b.com", "term" + i, "1,0.05");
+    nkv(tm1, "apple", "www.c.com", "apple", "1,1.0");
+
+    RankCalculator ai = new RankCalculator();
+    ai.init(new SortedMapIterator(tm1), options, null);
+    ai.seek(new Range("apple"), EMPTY_COL_FAMS, false);
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("apple", "www.a.com", "apple"), ai.getTopKey());
+
+    ai.next();
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("apple", "www.c.com", "apple"), ai.getTopKey());
+    assertEquals(1, ai.getPruned());
+
+    // the number pruned follows the last document
+    ai.next();
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("apple", "www.c.com", RankCalculator.PRUNED), 
+        ai.getTopKey());
+    assertEquals(1, Utils.deserialize(ai.getTopValue().get()));
+
+    ai.next();
+
+    assertFalse(ai.hasTop());
+
+    // a new seek prunes its range on its own
+    ai.seek(new Range("apple"), EMPTY_COL_FAMS, false);
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("apple", "www.a.com", "apple"), ai.getTopKey());
+
+    ai.next();
+
+    assertEquals(nk("apple", "www.c.com", "apple"), ai.getTopKey());
+    assertEquals(1, ai.getPruned());
+  }
+
+  @Test
+  public void stopWordsTest() throws IOException, ClassNotFoundException {
+
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    Map<String, String> options = new HashMap<String, String>();
+
+    options.put(Search.QUERY, "bank of america");
+    options.put(Search.MAX_NGRAMS, "3");
+    options.put(FullTextIndex.FT_STOP_WORDS, "of");
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("bank", 10);
+    sample.put("america", 20);
+    sample.put(TOTAL_DOCS, 100);
+    options.put(FullTextIndex.FT_SAMPLE, 
+        new String(Utils.serialize(sample), FullTextIndex.ENCODING));
+
+    // the stop word is only indexed as part of the n-grams
+    nkv(tm1, "america", "www.a.com", "america", "1,0.2");
+    nkv(tm1, "america", "www.a.com", "bank", "1,0.2");
+    nkv(tm1, "america", "www.a.com", "bank of", "1,0.2");
+    nkv(tm1, "america", "www.a.com", "bank of america", "1,0.2");
+    nkv(tm1, "america", "www.a.com", "of america", "1,0.2");
+    nkv(tm1, "america", "www.b.com", "america", "1,0.5");
+    nkv(tm1, "america", "www.b.com", "bank", "1,0.5");
+
+    RankCalculator ai = new RankCalculator();
+    ai.init(new SortedMapIterator(tm1), options, null);
+    ai.seek(new Range("america"), EMPTY_COL_FAMS, false);
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("america", "www.a.com", "america"), ai.getTopKey());
+
+    ai.next();
+
+    assertFalse(ai.hasTop());
+  }
+
+  @Test
+  public void termVectorTest() throws IOException, ClassNotFoundException {
+
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    Map<String, String> options = new HashMap<String, String>();
+
+    options.put(Search.QUERY, "apple");
+    options.put(Search.MAX_NGRAMS, "1");
+    options.put(FullTextIndex.FT_LAYOUT, FullTextIndex.LAYOUT_POSTINGS);
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("apple", 10);
+    sample.put("fox", 40);
+    sample.put(TOTAL_DOCS, 100);
+    options.put(FullTextIndex.FT_SAMPLE, 
+        new String(Utils.serialize(sample), FullTextIndex.ENCODING));
+
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    counts.put("apple", 1);
+    counts.put("fox", 3);
+    tm1.put(nk("www.a.com", "www.a.com", ""), 
+        new Value(CellCodec.encodeTermVector(counts, 4)));
+
+    // a term vector loaded before the binary format
+    HashMap<String, Integer> legacy = new HashMap<String, Integer>(counts);
+    legacy.put("[[DOC LENGTH]]", 4);
+    tm1.put(nk("www.b.com", "www.b.com", ""), 
+        new Value(Utils.serialize(legacy)));
+
+    // a page without the query term
+    counts.remove("apple");
+    tm1.put(nk("www.c.com", "www.c.com", ""), 
+        new Value(CellCodec.encodeTermVector(counts, 3)));
+
+    RankCalculator ai = new RankCalculator();
+    ai.init(new SortedMapIterator(tm1), options, null);
+    ai.seek(new Range(), EMPTY_COL_FAMS, false);
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("www.a.com", "www.a.com", ""), ai.getTopKey());
+    Object rank = Utils.deserialize(ai.getTopValue().get());
+
+    ai.next();
+
+    assertTrue(ai.hasTop());
+    assertEquals(nk("www.b.com", "www.b.com", ""), ai.getTopKey());
+    assertEquals(rank, Utils.deserialize(ai.getTopValue().get()));
+
+    ai.next();
+
+    assertFalse(ai.hasTop());
+  }
 }
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.fulltextindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.fulltextindex.data.RankedResults;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.QueryCache;
+
+
+public class QueryCacheTest {
+
+  /**
+   * A cache whose time is set by the test
+   */
+  private static class TestCache extends QueryCache {
+
+    long time = 0;
+
+    TestCache(int maxEntries, long maxWeight, long timeToLive) {
+      super(maxEntries, maxWeight, timeToLive);
+    }
+
+    @Override
+    protected long currentTime() {
+      return time;
+    }
+  }
+
+  private static RankedResults results(int size, int requested) {
+    double[] ranks = new double[size];
+    String[] urls = new String[size];
+    for (int i = 0; i < size; i++) {
+      ranks[i] = 1.0 - i / 100.0;
+      urls[i] = "url" + i;
+    }
+    return new RankedResults(ranks, urls, size, "", requested);
+  }
+
+  @Test
+  public void testPages() {
+    RankedResults ranked = results(25, 30);
+    assertTrue(ranked.covers(100));
+
+    ArrayList<String> page = ranked.getPage(2, 10);
+    assertEquals(10, page.size());
+    assertEquals("0.9[ ]url10", page.get(0));
+
+    // the last page only holds the remaining results
+    page = ranked.getPage(3, 10);
+    assertEquals(5, page.size());
+    assertEquals("0.8[ ]url20", page.get(0));
+    assertTrue(ranked.getPage(4, 10).isEmpty());
+
+    // more results may match than were ranked
+    ranked = results(20, 20);
+    assertTrue(ranked.covers(20));
+    assertFalse(ranked.covers(21));
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    QueryCache cache = new TestCache(10, 100000, 0);
+    RankedResults ranked = results(20, 20);
+
+    assertNull(cache.get("apple", 10));
+    cache.put("apple", ranked, cache.getEpoch());
+    assertSame(ranked, cache.get("apple", 10));
+    assertSame(ranked, cache.get("apple", 20));
+
+    // later pages than were ranked must be searched for
+    assertNull(cache.get("apple", 30));
+
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(0.5, cache.getHitRatio(), 0.0);
+  }
+
+  @Test
+  public void testBounds() {
+    QueryCache cache = new TestCache(2, 100000, 0);
+    cache.put("a", results(5, 5), 0);
+    cache.put("b", results(5, 5), 0);
+    cache.get("a", 5);
+    cache.put("c", results(5, 5), 0);
+
+    // the least recently used query is dropped
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b", 5));
+    assertTrue(cache.get("a", 5) != null);
+    assertEquals(1, cache.getEvictions());
+
+    // only as many characters as allowed are kept
+    RankedResults ranked = results(5, 5);
+    long weight = 64 + 1 + ranked.getWeight();
+    cache = new TestCache(10, 2 * weight, 0);
+    cache.put("a", ranked, 0);
+    cache.put("b", ranked, 0);
+    assertEquals(2 * weight, cache.getWeight());
+    cache.put("c", ranked, 0);
+    assertEquals(2, cache.size());
+    assertEquals(2 * weight, cache.getWeight());
+    assertNull(cache.get("a", 5));
+
+    // results heavier than the whole cache are not kept
+    cache.put("d", results(1000, 1000), 0);
+    assertNull(cache.get("d", 5));
+  }
+
+  @Test
+  public void testExpiration() {
+    TestCache cache = new TestCache(10, 100000, 1000);
+    cache.put("apple", results(5, 5), 0);
+
+    cache.time = 1000 * 1000000L;
+    assertTrue(cache.get("apple", 5) != null);
+    cache.time++;
+    assertNull(cache.get("apple", 5));
+    assertEquals(1, cache.getExpirations());
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void testInvalidate() {
+    QueryCache cache = new TestCache(10, 100000, 0);
+    long epoch = cache.getEpoch();
+    cache.put("apple", results(5, 5), epoch);
+    cache.invalidate();
+
+    assertNull(cache.get("apple", 5));
+    assertEquals(1, cache.getInvalidations());
+
+    // results searched for before the invalidation are not kept
+    cache.put("apple", results(5, 5), epoch);
+    assertNull(cache.get("apple", 5));
+    cache.put("apple", results(5, 5), cache.getEpoch());
+    assertTrue(cache.get("apple", 5) != null);
+  }
+}
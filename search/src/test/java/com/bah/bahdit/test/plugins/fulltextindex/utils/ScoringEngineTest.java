@@ -0,0 +1,175 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.fulltextindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CosineSimilarity;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.ScoringEngine;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermIntMap;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
+
+
+public class ScoringEngineTest {
+
+  public static final String TOTAL_DOCS = "[[TOTAL NUM DOCS]]";
+
+  @Test
+  public void testSameAsCosineSimilarity() {
+
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("a", 10);
+    sample.put("fox", 40);
+    sample.put("a fox", 5);
+    sample.put(TOTAL_DOCS, 100);
+
+    String query = "a fox";
+    String doc = "a a fox fox a fox fox a a bear";
+
+    ArrayList<String> queryTerms = Utils.createNGrams(query, 2);
+    HashMap<String, Double> queryRatios = 
+        CosineSimilarity.queryRatios(queryTerms, query);
+
+    ArrayList<String> ngrams = Utils.createNGrams(doc, 2);
+    HashMap<String, Integer> term = Utils.collectTerms(ngrams);
+    HashMap<String, Double> ratio = Utils.collectRatios(term, doc);
+
+    double expected = CosineSimilarity.computeCosineSimilarity(ratio, 
+        queryRatios, queryTerms, sample);
+
+    ScoringEngine engine = new ScoringEngine(queryTerms, queryRatios, 
+        TermIntMap.fromMap(sample));
+
+    // the same engine is used for every document
+    for (int i = 0; i < 2; i++) {
+      engine.startDocument();
+      for (Entry<String, Double> e : ratio.entrySet())
+        engine.addTerm(e.getKey(), e.getValue());
+      assertTrue(engine.allTermsFound());
+      assertEquals(expected, engine.cosineSimilarity(), 1e-9);
+    }
+
+    // a document missing a query term
+    engine.startDocument();
+    engine.addTerm("a", 0.5);
+    assertFalse(engine.allTermsFound());
+  }
+
+  @Test
+  public void testCellCodec() throws IOException {
+    byte[] value = Utils.serialize("40,0.4");
+    assertEquals(40, CellCodec.decodeCount(value));
+    assertEquals(0.4, CellCodec.decodeFrequency(value), 0.0);
+    assertEquals(-1, CellCodec.decodeDocLength(value));
+
+    value = Utils.serialize("3,0.012345678901234,250");
+    assertEquals(3, CellCodec.decodeCount(value));
+    assertEquals(0.012345678901234, CellCodec.decodeFrequency(value), 0.0);
+    assertEquals(250, CellCodec.decodeDocLength(value));
+
+    value = Utils.serialize("1,1.0E-5");
+    assertEquals(1.0E-5, CellCodec.decodeFrequency(value), 0.0);
+  }
+
+  @Test
+  public void testTermVector() throws IOException {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    counts.put("fox", 3);
+    counts.put("a fox", 1);
+    counts.put("\u00fcber", 200);
+    byte[] value = CellCodec.encodeTermVector(counts, 1000);
+    assertTrue(CellCodec.isTermVector(value));
+    assertFalse(CellCodec.isBinary(value));
+
+    CellCodec.TermVectorReader reader = new CellCodec.TermVectorReader();
+    assertTrue(reader.reset(value));
+    assertEquals(1000, reader.getDocLength());
+    HashMap<String, Integer> read = new HashMap<String, Integer>();
+    while (reader.next()) {
+      read.put(new String(value, reader.getTermOffset(), 
+          reader.getTermLength(), "UTF-8"), reader.getCount());
+    }
+    assertEquals(counts, read);
+
+    // the values of the data table are not term vectors
+    assertFalse(reader.reset(CellCodec.encode(3, 1000)));
+    assertFalse(reader.reset(Utils.serialize(counts)));
+  }
+
+  @Test
+  public void testMaxCosineSimilarity() throws IOException {
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    sample.put("fox", 40);
+    sample.put(TOTAL_DOCS, 100);
+
+    // a document of only the query terms reaches 1
+    ArrayList<String> queryTerms = Utils.createNGrams("fox", 1);
+    ScoringEngine engine = new ScoringEngine(queryTerms, 
+        CosineSimilarity.queryRatios(queryTerms, "fox"), 
+        TermIntMap.fromMap(sample));
+    assertEquals(1.0, engine.maxCosineSimilarity(), 0.0);
+    engine.startDocument();
+    engine.addTerm("fox", 1.0);
+    assertEquals(1.0, engine.cosineSimilarity(), 1e-9);
+
+    // terms in no document weigh nothing, so nothing is similar
+    sample.put("bear", 0);
+    queryTerms = Utils.createNGrams("bear", 1);
+    engine = new ScoringEngine(queryTerms, 
+        CosineSimilarity.queryRatios(queryTerms, "bear"), 
+        TermIntMap.fromMap(sample));
+    assertEquals(0.0, engine.maxCosineSimilarity(), 0.0);
+  }
+
+  @Test
+  public void testBinaryCells() throws IOException {
+    byte[] value = CellCodec.encode(3, 7);
+    assertTrue(CellCodec.isBinary(value));
+    assertEquals(3, value.length);
+    assertEquals(3, CellCodec.decodeCount(value));
+    assertEquals(3.0 / 7.0, CellCodec.decodeFrequency(value), 0.0);
+    assertEquals(7, CellCodec.decodeDocLength(value));
+
+    value = CellCodec.encode(300, 1000000);
+    assertEquals(300, CellCodec.decodeCount(value));
+    assertEquals(1000000, CellCodec.decodeDocLength(value));
+
+    // legacy values are rewritten without changing their frequency
+    double freq = 3.0 / 7.0;
+    byte[] upgraded = CellCodec.upgrade(Utils.serialize("3," + freq));
+    assertTrue(CellCodec.isBinary(upgraded));
+    assertEquals(freq, CellCodec.decodeFrequency(upgraded), 0.0);
+    assertEquals(7, CellCodec.decodeDocLength(upgraded));
+
+    upgraded = CellCodec.upgrade(Utils.serialize("3," + freq + ",7"));
+    assertEquals(3, CellCodec.decodeCount(upgraded));
+    assertEquals(7, CellCodec.decodeDocLength(upgraded));
+
+    assertNull(CellCodec.upgrade(Utils.serialize("3,0.123")));
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.fulltextindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
+
+
+public class TermDictionaryTest {
+
+  private static HashMap<String, Integer> createSample() {
+    HashMap<String, Integer> sample = new HashMap<String, Integer>();
+    Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      String term = Integer.toString(random.nextInt(100000), 36);
+      sample.put(term, random.nextInt(500));
+      sample.put(term + " " + term, random.nextInt(500));
+    }
+    sample.put("[[TOTAL NUM DOCS]]", 1234);
+    sample.put("caf\u00e9", 5);
+    sample.put("\u65e5\u672c", 6);
+    return sample;
+  }
+
+  private static void checkSample(HashMap<String, Integer> sample,
+      TermDictionary<Integer> dictionary) {
+    assertEquals(sample.size(), dictionary.size());
+    for (Map.Entry<String, Integer> e : sample.entrySet()) {
+      assertEquals(e.getValue(), dictionary.get(e.getKey()));
+      assertEquals(e.getValue().intValue(),
+          dictionary.getInt(e.getKey(), -1));
+    }
+    assertEquals(sample, dictionary);
+    assertEquals(dictionary, sample);
+
+    // before, between and after the terms
+    assertNull(dictionary.get(""));
+    assertNull(dictionary.get("!"));
+    assertNull(dictionary.get("zzzzzzzz"));
+    assertFalse(dictionary.containsKey("caf-"));
+    assertFalse(dictionary.containsKey("caf\u00e8"));
+    assertTrue(dictionary.containsKey("caf\u00e9"));
+    assertEquals(-1, dictionary.getInt("\u65e5", -1));
+  }
+
+  @Test
+  public void testFrequencies() throws IOException {
+    HashMap<String, Integer> sample = createSample();
+    byte[] b = TermDictionary.toBytes(sample, TermDictionary.INT_VALUES);
+
+    checkSample(sample, TermDictionary.frequencies(b));
+    checkSample(sample, TermDictionary.readFrequencies(
+        new ByteArrayInputStream(b)));
+    checkSample(sample, TermDictionary.frequencies(
+        TermDictionary.frequencies(b).getBytes()));
+  }
+
+  @Test
+  public void testNearMisses() throws IOException {
+    HashMap<String, Integer> sample = createSample();
+    TermDictionary<Integer> dictionary = TermDictionary.frequencies(
+        TermDictionary.toBytes(sample, TermDictionary.INT_VALUES));
+
+    // terms sharing their first bytes with the terms of the blocks
+    for (String term : sample.keySet()) {
+      String shorter = term.substring(0, term.length() - 1);
+      String longer = term + "0";
+      String next = shorter + (char)(term.charAt(term.length() - 1) + 1);
+      assertEquals(sample.containsKey(shorter), dictionary.containsKey(shorter));
+      assertEquals(sample.containsKey(longer), dictionary.containsKey(longer));
+      assertEquals(sample.containsKey(next), dictionary.containsKey(next));
+    }
+
+    // a term in the middle of an array
+    byte[] b = "xxcaf\u00e9xx".getBytes("UTF-8");
+    assertEquals(dictionary.indexOf("caf\u00e9"), dictionary.indexOf(b, 2, 5));
+    assertEquals(-1, dictionary.indexOf(b, 2, 4));
+  }
+
+  @Test
+  public void testOpenFile() throws IOException {
+    HashMap<String, Integer> sample = createSample();
+    File f = File.createTempFile("sample", ".sample");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    TermDictionary.write(sample, TermDictionary.INT_VALUES, out);
+    out.close();
+
+    checkSample(sample, TermDictionary.openFrequencies(f));
+  }
+
+  @Test
+  public void testLegacy() throws IOException {
+    // serialized HashMaps are still read, from bytes, streams and files
+    HashMap<String, Integer> sample = createSample();
+    byte[] b = Utils.serialize(sample);
+    checkSample(sample, TermDictionary.frequencies(b));
+    checkSample(sample, TermDictionary.readFrequencies(
+        new ByteArrayInputStream(b)));
+
+    File f = File.createTempFile("sample", ".sample");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    out.write(b);
+    out.close();
+    checkSample(sample, TermDictionary.openFrequencies(f));
+  }
+
+  @Test
+  public void testPageranks() throws IOException {
+    HashMap<String, Double> pagerank = new HashMap<String, Double>();
+    pagerank.put("http://a.com/", 0.25);
+    pagerank.put("http://a.com/b", 1.0 / 3.0);
+    pagerank.put("[[MAX_PR]]", 2.5);
+
+    TermDictionary<Double> dictionary = TermDictionary.pageranks(
+        TermDictionary.toBytes(pagerank, TermDictionary.FLOAT_VALUES));
+    assertEquals(3, dictionary.size());
+    assertEquals(0.25, dictionary.get("http://a.com/"), 0.0);
+    assertEquals(2.5, dictionary.getDouble("[[MAX_PR]]", 0.0), 0.0);
+    // ranks are kept as floats
+    assertEquals(1.0 / 3.0, dictionary.get("http://a.com/b"), 1e-7);
+    assertNull(dictionary.get("http://a.com/c"));
+
+    // the values must be of the type asked for
+    try {
+      TermDictionary.frequencies(dictionary.getBytes());
+      assertTrue(false);
+    } catch (IOException e) { }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    TermDictionary<Integer> dictionary = TermDictionary.frequencies(
+        TermDictionary.toBytes(new HashMap<String, Integer>(),
+            TermDictionary.INT_VALUES));
+    assertEquals(0, dictionary.size());
+    assertTrue(dictionary.isEmpty());
+    assertNull(dictionary.get("apple"));
+    assertFalse(dictionary.entrySet().iterator().hasNext());
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.fulltextindex.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermStatistics;
+
+
+public class TermStatisticsTest {
+
+  private static final long PERIOD = TermStatistics.PERIOD;
+
+  private static void add(TermStatistics.FrequencyCounter counter, 
+      String family, String qualifier, long timestamp, long count) {
+    Key key = new Key(new Text("fox"), new Text(family), new Text(qualifier), 
+        timestamp);
+    counter.add(key, new Value(Long.toString(count).getBytes()));
+  }
+
+  @Test
+  public void testPeriods() {
+    long now = 10 * PERIOD + 1234;
+    assertEquals(10 * PERIOD, TermStatistics.getSampleStart(now));
+    assertEquals(Long.toString(10 * PERIOD), TermStatistics.getPeriod(now));
+    assertEquals(Long.toString(10 * PERIOD), 
+        TermStatistics.getPeriod(10 * PERIOD));
+  }
+
+  @Test
+  public void testFrequencyCounter() {
+    long start = 10 * PERIOD;
+    TermStatistics.FrequencyCounter counter = 
+        new TermStatistics.FrequencyCounter();
+
+    // counts from before the sample are replaced by it
+    add(counter, TermStatistics.DOC_FREQUENCY, "", 5 * PERIOD, 7);
+    add(counter, TermStatistics.DOC_FREQUENCY, 
+        TermStatistics.getPeriod(start - 1), start - 1, 5);
+    // counts from the periods since the sample are added to it
+    add(counter, TermStatistics.DOC_FREQUENCY, 
+        TermStatistics.getPeriod(start), start + 10, 3);
+    add(counter, TermStatistics.DOC_FREQUENCY, 
+        TermStatistics.getPeriod(start + PERIOD), start + PERIOD, 2);
+    add(counter, TermStatistics.BASE_FREQUENCY, "", start, 100);
+    assertEquals(105, counter.get());
+
+    // without a sample, every count is added
+    counter = new TermStatistics.FrequencyCounter();
+    add(counter, TermStatistics.DOC_FREQUENCY, "", 5 * PERIOD, 7);
+    add(counter, TermStatistics.DOC_FREQUENCY, 
+        TermStatistics.getPeriod(start), start, 2);
+    assertEquals(9, counter.get());
+  }
+}
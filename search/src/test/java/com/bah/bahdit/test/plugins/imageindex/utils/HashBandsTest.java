@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.imageindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.imageindex.utils.HashBands;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+
+public class HashBandsTest {
+
+  private static ImageHash flip(ImageHash hash, Random random, int bits) {
+    long mask = 0;
+    while (Long.bitCount(mask) < bits) mask |= 1L << random.nextInt(64);
+    return new ImageHash(hash.getBits() ^ mask);
+  }
+
+  private static HashSet<String> toSet(List<byte[]> rows) {
+    HashSet<String> set = new HashSet<String>();
+    for (byte[] row : rows) set.add(Arrays.toString(row));
+    return set;
+  }
+
+  @Test
+  public void testRows() {
+    HashBands bands = new HashBands(10);
+    ImageHash hash = new ImageHash(new Random(3).nextLong());
+    byte[][] rows = bands.getRows(hash);
+    assertEquals(10, rows.length);
+
+    // the bands cover the whole hash, highest bits first
+    StringBuilder bits = new StringBuilder();
+    for (int b = 0; b < rows.length; b++) {
+      assertEquals(b, rows[b][0]);
+      int width = (b + 1) * 64 / 10 - b * 64 / 10;
+      long value = 0;
+      for (int i = 1; i < rows[b].length; i++)
+        value = (value << 8) | (rows[b][i] & 0xff);
+      String s = Long.toBinaryString(value | (1L << width));
+      bits.append(s.substring(1));
+    }
+    assertEquals(hash.toString(), bits.toString());
+
+    // within fewer bits than there are bands, only the bands are looked up
+    assertEquals(toSet(Arrays.asList(rows)),
+        toSet(bands.getQueryRows(hash, 9)));
+  }
+
+  @Test
+  public void testSimilarFound() {
+    // every hash within the distance shares a row looked up
+    Random random = new Random(5);
+    for (int bandCount : new int[] { 4, 8, 10 }) {
+      HashBands bands = new HashBands(bandCount);
+      for (int distance = 0; distance <= 12; distance++) {
+        ImageHash query = new ImageHash(random.nextLong());
+        HashSet<String> lookups = toSet(bands.getQueryRows(query, distance));
+        for (int i = 0; i < 20; i++) {
+          ImageHash similar = flip(query, random, distance);
+          assertEquals(distance, query.distance(similar));
+          boolean found = false;
+          for (byte[] row : bands.getRows(similar))
+            found |= lookups.contains(Arrays.toString(row));
+          assertTrue(found);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGetBands() {
+    // the bands are about log2(images) bits wide
+    assertEquals(64, HashBands.getBands(0));
+    assertEquals(64, HashBands.getBands(2));
+    assertEquals(6, HashBands.getBands(1000));
+    assertEquals(HashBands.DEFAULT_BANDS, HashBands.getBands(1 << 16));
+    assertEquals(3, HashBands.getBands((1 << 16) + 1));
+    assertEquals(1, HashBands.getBands(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testBadBands() {
+    try {
+      new HashBands(65);
+      assertTrue(false);
+    } catch (IllegalArgumentException e) { }
+  }
+}
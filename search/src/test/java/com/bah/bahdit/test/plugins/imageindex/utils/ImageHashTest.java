@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.imageindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+
+
+public class ImageHashTest {
+
+  @Test
+  public void testBytes() {
+    Random random = new Random(9);
+    for (int i = 0; i < 100; i++) {
+      ImageHash hash = new ImageHash(random.nextLong());
+      byte[] b = hash.toBytes();
+      assertEquals(8, b.length);
+      assertTrue(ImageHash.isBinary(b));
+      assertEquals(hash, ImageHash.fromBytes(b));
+
+      // hashes loaded as strings are still read
+      assertEquals(hash, ImageHash.fromBytes(hash.toString().getBytes()));
+      assertEquals(hash, ImageHash.parse(hash.toString()));
+    }
+
+    // the bytes are the highest first
+    assertTrue(Arrays.equals(new byte[] { 0, 0, 0, 0, 0, 0, 1, 2 },
+        new ImageHash(0x102L).toBytes()));
+    assertEquals((byte) 0x80, new ImageHash(Long.MIN_VALUE).toBytes()[0]);
+  }
+
+  @Test
+  public void testStrings() {
+    char[] c = new char[64];
+    Arrays.fill(c, '0');
+    c[63] = '1';
+    assertEquals(1L, ImageHash.parse(new String(c)).getBits());
+    c[0] = '1';
+    assertEquals(Long.MIN_VALUE + 1, ImageHash.parse(new String(c)).getBits());
+    assertEquals(new String(c), new ImageHash(Long.MIN_VALUE + 1).toString());
+
+    assertNull(ImageHash.fromBytes("0101".getBytes()));
+    c[5] = '2';
+    assertNull(ImageHash.fromBytes(new String(c).getBytes()));
+    assertFalse(ImageHash.isBinary(new String(c).getBytes()));
+    try {
+      ImageHash.parse("0101");
+      assertTrue(false);
+    } catch (IllegalArgumentException e) { }
+  }
+
+  @Test
+  public void testDistance() {
+    assertEquals(0, new ImageHash(5L).distance(new ImageHash(5L)));
+    assertEquals(2, new ImageHash(0L).distance(new ImageHash(Long.MIN_VALUE + 1)));
+    assertEquals(64, new ImageHash(0L).distance(new ImageHash(-1L)));
+  }
+}
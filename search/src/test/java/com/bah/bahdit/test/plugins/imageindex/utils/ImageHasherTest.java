@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.plugins.imageindex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHash;
+import com.bah.bahdit.main.plugins.imageindex.utils.ImageHasher;
+
+
+public class ImageHasherTest {
+
+  private static BufferedImage createImage(int width, int height) {
+    BufferedImage img = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = img.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, width, height);
+    g.setColor(Color.BLACK);
+    g.fillOval(width / 4, height / 4, width / 2, height / 3);
+    g.fillRect(0, 0, width / 8, height);
+    g.dispose();
+    return img;
+  }
+
+  private static byte[] toPNG(BufferedImage img) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(img, "png", out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testSubsampling() throws IOException {
+    BufferedImage full = createImage(1024, 768);
+    BufferedImage img = ImageHasher.read(new ByteArrayInputStream(
+        toPNG(full)));
+
+    // every 12th row and column is kept
+    assertEquals(86, img.getWidth());
+    assertEquals(64, img.getHeight());
+
+    // and the hash is about the same as of the whole image
+    ImageHash hash = ImageHasher.hash(img);
+    assertTrue(hash.distance(ImageHasher.hash(full)) <= 2);
+
+    // small images are decoded in full
+    img = ImageHasher.read(new ByteArrayInputStream(
+        toPNG(createImage(100, 80))));
+    assertEquals(100, img.getWidth());
+    assertEquals(80, img.getHeight());
+  }
+
+  @Test
+  public void testNotAnImage() throws IOException {
+    assertNull(ImageHasher.read(new ByteArrayInputStream(
+        "<html></html>".getBytes())));
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012 Booz Allen Hamilton. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Booz Allen Hamilton licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bah.bahdit.test.search.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Test;
+
+import com.bah.bahdit.main.search.utils.ScannerPool;
+
+
+public class ScannerPoolTest {
+
+  @Test
+  public void testBorrow() throws Exception {
+    Connector conn = new MockInstance("pool").getConnector("test", 
+        "password".getBytes());
+    conn.tableOperations().create("tags");
+    BatchWriter writer = conn.createBatchWriter("tags", 1000000L, 1000L, 1);
+    Mutation m = new Mutation("apple");
+    m.put("http://a.com/apple.png", "http://a.com/", new Value("1".getBytes()));
+    writer.addMutation(m);
+    writer.close();
+
+    ScannerPool pool = new ScannerPool(conn, "tags", 2, 1);
+    BatchScanner scanner = pool.borrow();
+    scanner.setRanges(Collections.singleton(new Range("apple")));
+    int found = 0;
+    for (Entry<Key, Value> e : scanner) found++;
+    assertEquals(1, found);
+
+    // a released scanner is borrowed again
+    pool.release(scanner);
+    assertEquals(1, pool.getIdle());
+    assertSame(scanner, pool.borrow());
+    assertEquals(0, pool.getIdle());
+
+    // only as many scanners as allowed are kept
+    BatchScanner other = pool.borrow();
+    assertTrue(other != scanner);
+    pool.release(scanner);
+    pool.release(other);
+    assertEquals(1, pool.getIdle());
+
+    pool.close();
+    assertEquals(0, pool.getIdle());
+  }
+
+  @Test
+  public void testMissingTable() throws Exception {
+    Connector conn = new MockInstance("missing").getConnector("test", 
+        "password".getBytes());
+    try {
+      new ScannerPool(conn, "nothing", 2, 1).borrow();
+      assertTrue(false);
+    } catch (TableNotFoundException e) { }
+  }
+}
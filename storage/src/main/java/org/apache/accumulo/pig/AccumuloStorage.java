@@ -16,13 +16,9 @@
  */
 package org.apache.accumulo.pig;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -62,6 +58,7 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 
 import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
@@ -87,7 +84,13 @@ public class AccumuloStorage extends LoadFunc implements StoreFuncInterface {
 	private Configuration conf;
 	private RecordReader<Key, Value> reader;
 	private RecordWriter<Text, Mutation> writer;
-	private HashMap<String, Double> pagerankTable;
+	private TermDictionary<Double> pagerankTable;
+
+	// the sample and pagerank tables as given to the iterators, and the 
+	// config file they were loaded from
+	private String sampleTableString;
+	private String pagerankTableString;
+	private String tablesConfig;
 
 	String inst;
 	String zookeepers;
@@ -233,7 +236,6 @@ public class AccumuloStorage extends LoadFunc implements StoreFuncInterface {
 	 * table_name CONFIG properties.conf WITH QUERY booz AS 4
 	 * 
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public void setLocation(String location, Job job) throws IOException {
 		
@@ -274,45 +276,15 @@ public class AccumuloStorage extends LoadFunc implements StoreFuncInterface {
 				start = query + " " + Long.MIN_VALUE;
 				end = query + " " + Long.MAX_VALUE;
 
-				InputStream sample = new FileInputStream(new File(properties.getProperty(FullTextIndex.FT_SAMPLE)));
-				InputStream samplebuffer = new BufferedInputStream( sample );
-				ObjectInput objectsample = new ObjectInputStream ( samplebuffer );
-
-				InputStream pagerank = new FileInputStream(new File(properties.getProperty(FullTextIndex.PR_FILE)));
-				InputStream pagerankbuffer = new BufferedInputStream( pagerank );
-				ObjectInput objectpagerank = new ObjectInputStream ( pagerankbuffer );
-
-
-				HashMap<String, Integer> sampleTable = null;
-				try {
-					sampleTable = (HashMap<String, Integer>)objectsample.readObject();
-					pagerankTable = (HashMap<String, Double>)objectpagerank.readObject();
-				} catch (ClassNotFoundException e1) {
-					e1.printStackTrace();
-				}
+				loadTables(properties);
 
 				Map<String,String> iteratorProperties = new HashMap<String,String>();
 				iteratorProperties.put(Search.QUERY, query);
 				iteratorProperties.put(Search.MAX_NGRAMS, properties.getProperty(Search.MAX_NGRAMS));
 
-				// get pagerank table for pagerank calculations
-				String pagerankTableString = null;
-				try {
-					pagerankTableString = new String(Utils.serialize(pagerankTable), FullTextIndex.ENCODING);
-				} catch (Exception e) {
-					LOG.error(e.getMessage());
-				}
-
+				// the pagerank table for pagerank calculations, and the 
+				// sampling table for tf-idf calculations
 				iteratorProperties.put(Search.PAGERANK_TABLE, pagerankTableString);
-
-				// put the sampling table into properties for tf-idf calculations
-				String sampleTableString = null;
-				try {
-					sampleTableString = new String(StorageUtils.serialize(sampleTable), FullTextIndex.ENCODING);
-				} catch (Exception e) {
-					LOG.error(e.getMessage());
-				}
-
 				iteratorProperties.put(FullTextIndex.FT_SAMPLE, sampleTableString);
 
 				// this iterator calculates the cosim of each document
@@ -323,6 +295,27 @@ public class AccumuloStorage extends LoadFunc implements StoreFuncInterface {
 		}
 	}
 
+	/**
+	 * Opens the sample and pagerank tables of the config file and encodes 
+	 * them for the iterators, unless they were already loaded from it
+	 */
+	private void loadTables(Properties properties) throws IOException {
+		if (config.equals(tablesConfig)) return;
+
+		TermDictionary<Integer> sampleTable = TermDictionary.openFrequencies(
+				new File(properties.getProperty(FullTextIndex.FT_SAMPLE)));
+		pagerankTable = TermDictionary.openPageranks(
+				new File(properties.getProperty(FullTextIndex.PR_FILE)));
+
+		try {
+			pagerankTableString = new String(pagerankTable.getBytes(), FullTextIndex.ENCODING);
+			sampleTableString = new String(sampleTable.getBytes(), FullTextIndex.ENCODING);
+		} catch (Exception e) {
+			LOG.error(e.getMessage());
+		}
+		tablesConfig = config;
+	}
+
 	/* StoreFunc methods */
 
 	public String relToAbsPathForStoreLocation(String location, Path curDir) throws IOException
@@ -35,7 +35,9 @@ import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.hadoop.io.Text;
 
 import com.bah.bahdit.main.plugins.fulltextindex.FullTextIndex;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.CellCodec;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.CosineSimilarity;
+import com.bah.bahdit.main.plugins.fulltextindex.utils.TermDictionary;
 import com.bah.bahdit.main.plugins.fulltextindex.utils.Utils;
 import com.bah.bahdit.main.search.Search;
 
@@ -100,7 +102,6 @@ public class PigCalculator extends WrappingIterator {
     rank();
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   /**
    * Creates a new CosimCalculator and gets the query and query vector for 
@@ -126,22 +127,16 @@ public class PigCalculator extends WrappingIterator {
 
     // get the sample table from the options map
     String sample = options.get(FullTextIndex.FT_SAMPLE);
-    byte[] bST = null;
-    try {
-      bST = sample.getBytes(FullTextIndex.ENCODING);
-      sampleTable = (HashMap<String, Integer>)Utils.deserialize(bST);
-    } catch (ClassNotFoundException e) {
-      sampleTable = null;
-    }
+    byte[] bST = sample.getBytes(FullTextIndex.ENCODING);
+    sampleTable = new HashMap<String, Integer>(
+        TermDictionary.frequencies(bST));
 
     // get the pagerank table from the options map
     String pagerank = options.get(Search.PAGERANK_TABLE);
     byte[] bPR = pagerank.getBytes(FullTextIndex.ENCODING);
-    try {
-      pagerankTable = (HashMap<String, Double>)Utils.deserialize(bPR);
-    } catch (ClassNotFoundException e) {
-      pagerankTable = null;
-    }
+    // kept as a HashMap, since it is serialized into the value of each row
+    pagerankTable = new HashMap<String, Double>(
+        TermDictionary.pageranks(bPR));
 
     // get the max page rank of the table for normalizing
     Double max_PR = pagerankTable != null ? pagerankTable.get(MAX_PR) : null;
@@ -181,19 +176,8 @@ public class PigCalculator extends WrappingIterator {
         String term = currentKey.getColumnQualifier().toString();
         searchTerms.remove(term);
 
-        // split by commas (i.e. "40 0.4" -> ["40", "0.4"])
-        String groupedValues = null;
-        try {
-          groupedValues = (String) Utils.deserialize(currentValue.get());
-        } catch (ClassNotFoundException e) { e.printStackTrace(); }
-
-        String[] values = groupedValues.split(",");
-
         // get term and ratio, calculate tf-idf and place in hashmap for later
-        try {
-          Double ratio = Double.parseDouble(values[1]);
-          terms.put(term, ratio);
-        } catch(ArrayIndexOutOfBoundsException e) { e.printStackTrace(); }
+        terms.put(term, CellCodec.decodeFrequency(currentValue.get()));
 
         // move source to next, resets current key and value to be the new
         // top key and value